@@ -0,0 +1,122 @@
+package ai.kognition.pilecv4j.ffmpeg;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.dempsy.util.QuietCloseable;
+
+/**
+ * <p>
+ * A block of decoded audio handed to an {@link Ffmpeg.AudioFrameConsumer} by
+ * {@link Ffmpeg.MediaProcessingChain#processAudioFrames(int, int, int, Ffmpeg.AudioFrameConsumer)}.
+ * The samples are interleaved, in native byte order, in the sample format given by {@link #sampleFormat}
+ * (one of the {@code Ffmpeg.AV_SAMPLE_FMT_*} values).
+ * </p>
+ *
+ * <p>
+ * The sample data lives in a direct buffer from a {@link ByteBufferPool}. An {@link AudioFrame} is reference
+ * counted the same way a {@link SegmentBuffer} is. It's released once the consumer returns so, in order to
+ * hold on to it (for example, to hand it to another thread), call {@link #retain()} and then {@link #release()}
+ * (or {@link #close()}) when done with it. The consumer must not release a frame it hasn't retained. If it does,
+ * the processing fails with an error.
+ * </p>
+ */
+public class AudioFrame implements QuietCloseable {
+    private final ByteBufferPool pool;
+    private ByteBuffer data;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    public final int numSamples;
+    public final int numChannels;
+    public final int sampleRate;
+    public final int sampleFormat;
+    /**
+     * The presentation time of the first sample in milliseconds, or -1 if it's not known.
+     */
+    public final long ptsMillis;
+    public final int streamIndex;
+    public final long frameNumber;
+
+    AudioFrame(final ByteBufferPool pool, final ByteBuffer data, final int numSamples, final int numChannels, final int sampleRate,
+        final int sampleFormat, final long ptsMillis, final int streamIndex, final long frameNumber) {
+        this.pool = pool;
+        this.data = data;
+        this.numSamples = numSamples;
+        this.numChannels = numChannels;
+        this.sampleRate = sampleRate;
+        this.sampleFormat = sampleFormat;
+        this.ptsMillis = ptsMillis;
+        this.streamIndex = streamIndex;
+        this.frameNumber = frameNumber;
+    }
+
+    /**
+     * A read only view of the samples. It's positioned at zero with the limit set to the number of bytes
+     * of sample data. It shares the memory of the frame so it's only valid until the last {@link #release()}.
+     */
+    public ByteBuffer data() {
+        final ByteBuffer ldata = data;
+        if(ldata == null || refCount.get() <= 0)
+            throw new IllegalStateException("Attempt to use an " + AudioFrame.class.getSimpleName() + " that's already been released.");
+        return ldata.asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * The number of bytes of sample data.
+     */
+    public int numBytes() {
+        final ByteBuffer ldata = data;
+        return ldata == null ? 0 : ldata.limit();
+    }
+
+    /**
+     * Increment the reference count.
+     */
+    public AudioFrame retain() {
+        while(true) {
+            final int cur = refCount.get();
+            if(cur <= 0)
+                throw new IllegalStateException("Cannot retain an " + AudioFrame.class.getSimpleName() + " that's already been released.");
+            if(refCount.compareAndSet(cur, cur + 1))
+                return this;
+        }
+    }
+
+    /**
+     * Decrement the reference count. When it reaches zero the sample buffer is returned to the pool.
+     *
+     * @return true if this call released the sample buffer.
+     */
+    public boolean release() {
+        final int cur = refCount.decrementAndGet();
+        if(cur < 0)
+            throw new IllegalStateException(AudioFrame.class.getSimpleName() + " was released more times than it was retained.");
+        if(cur == 0) {
+            final ByteBuffer toReturn = data;
+            data = null;
+            if(toReturn != null)
+                pool.returnToPool(toReturn);
+            return true;
+        }
+        return false;
+    }
+
+    public int refCount() {
+        return refCount.get();
+    }
+
+    /**
+     * Same as {@link #release()}
+     */
+    @Override
+    public void close() {
+        release();
+    }
+
+    @Override
+    public String toString() {
+        return AudioFrame.class.getSimpleName() + " [frameNumber=" + frameNumber + ", streamIndex=" + streamIndex + ", numSamples=" + numSamples
+            + ", numChannels=" + numChannels + ", sampleRate=" + sampleRate + ", sampleFormat=" + sampleFormat + ", ptsMillis=" + ptsMillis + "]";
+    }
+}
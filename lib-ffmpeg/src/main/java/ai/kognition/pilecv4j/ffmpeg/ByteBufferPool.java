@@ -0,0 +1,106 @@
+package ai.kognition.pilecv4j.ffmpeg;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of fixed size direct {@link ByteBuffer}s. These are used as the backing chunks
+ * for {@link SegmentBuffer}s so that muxed output can be accumulated in memory and
+ * handed off (for example, to a socket) without being copied again, and the memory reused
+ * once the last holder releases it. They're also used as the sample buffers for {@link AudioFrame}s.
+ */
+public class ByteBufferPool implements AutoCloseable {
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    public final int chunkSize;
+    public final int maxResident;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> resources = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed = false;
+    private final AtomicLong totalBuffers = new AtomicLong(0);
+    private final AtomicLong resident = new AtomicLong(0);
+
+    /**
+     * @param chunkSize is the size of each direct buffer in the pool.
+     * @param maxResident is the maximum number of unused buffers held on to by the pool. Buffers
+     *     returned beyond this are simply left to the garbage collector.
+     */
+    public ByteBufferPool(final int chunkSize, final int maxResident) {
+        if(chunkSize <= 0)
+            throw new IllegalArgumentException("The chunk size for a " + ByteBufferPool.class.getSimpleName() + " must be positive. It was " + chunkSize);
+        this.chunkSize = chunkSize;
+        this.maxResident = maxResident;
+    }
+
+    public ByteBufferPool() {
+        this(DEFAULT_CHUNK_SIZE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get a cleared buffer from the pool, allocating a new one if there are none available.
+     */
+    public ByteBuffer get() {
+        if(closed)
+            throw new IllegalStateException(ByteBufferPool.class.getSimpleName() + " is shut down");
+        final ByteBuffer ret = resources.poll();
+        if(ret == null) {
+            totalBuffers.incrementAndGet();
+            return ByteBuffer.allocateDirect(chunkSize);
+        }
+        resident.decrementAndGet();
+        return ret.clear();
+    }
+
+    /**
+     * Get a cleared buffer that can hold at least {@code minSize} bytes. If that's larger than the
+     * {@link #chunkSize} then a new, unpooled, buffer is allocated.
+     */
+    public ByteBuffer get(final int minSize) {
+        if(minSize <= chunkSize)
+            return get();
+        return ByteBuffer.allocateDirect(minSize);
+    }
+
+    // called when a SegmentBuffer's or AudioFrame's reference count goes to zero.
+    void returnToPool(final ByteBuffer bb) {
+        // a buffer from get(int) that's larger than the chunk size was never part of the pool.
+        if(bb.capacity() != chunkSize)
+            return;
+        if(closed) {
+            totalBuffers.decrementAndGet();
+            return;
+        }
+        if(resident.incrementAndGet() > maxResident) {
+            resident.decrementAndGet();
+            totalBuffers.decrementAndGet();
+            return;
+        }
+        resources.add(bb);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        while(resources.poll() != null) {
+            resident.decrementAndGet();
+            totalBuffers.decrementAndGet();
+        }
+    }
+
+    /**
+     * The number of pooled buffers, each {@link #chunkSize} bytes, that are currently allocated. This includes
+     * the buffers in use and the ones sitting in the pool. Buffers that weren't kept because the pool already
+     * held {@link #maxResident} aren't counted, nor are the unpooled buffers from {@link #get(int)}.
+     */
+    public long totalBuffers() {
+        return totalBuffers.get();
+    }
+
+    /**
+     * The number of unused buffers currently held by the pool.
+     */
+    public long numResident() {
+        return resident.get();
+    }
+}
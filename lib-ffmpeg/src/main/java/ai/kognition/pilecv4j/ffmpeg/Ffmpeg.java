@@ -43,6 +43,7 @@ import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import com.sun.jna.Native;
 import com.sun.jna.Pointer;
 import com.sun.jna.ptr.IntByReference;
 import com.sun.jna.ptr.LongByReference;
@@ -61,7 +62,9 @@ import ai.kognition.pilecv4j.ffmpeg.Ffmpeg.EncodingContext.VideoEncoder;
 import ai.kognition.pilecv4j.ffmpeg.Ffmpeg.MediaContext.StreamDetails;
 import ai.kognition.pilecv4j.ffmpeg.internal.FfmpegApi;
 import ai.kognition.pilecv4j.ffmpeg.internal.FfmpegApi.fill_buffer_callback;
+import ai.kognition.pilecv4j.ffmpeg.internal.FfmpegApi.get_audio_buffer_callback;
 import ai.kognition.pilecv4j.ffmpeg.internal.FfmpegApi.packet_filter_callback;
+import ai.kognition.pilecv4j.ffmpeg.internal.FfmpegApi.push_audio_callback;
 import ai.kognition.pilecv4j.ffmpeg.internal.FfmpegApi.push_frame_callback;
 import ai.kognition.pilecv4j.ffmpeg.internal.FfmpegApi.seek_buffer_callback;
 import ai.kognition.pilecv4j.ffmpeg.internal.FfmpegApi.select_streams_callback;
@@ -94,6 +97,20 @@ public class Ffmpeg {
     public static final int AVMEDIA_TYPE_ATTACHMENT = FfmpegApi.pcv4j_ffmpeg2_mediaType_ATTACHMENT();
     public static final int AVMEDIA_TYPE_NB = FfmpegApi.pcv4j_ffmpeg2_mediaType_NB();
 
+    // (packed) sample formats that decoded audio can be converted to. See MediaProcessingChain.processAudioFrames
+    public static final int AV_SAMPLE_FMT_U8 = FfmpegApi.pcv4j_ffmpeg2_sampleFormat_U8();
+    public static final int AV_SAMPLE_FMT_S16 = FfmpegApi.pcv4j_ffmpeg2_sampleFormat_S16();
+    public static final int AV_SAMPLE_FMT_S32 = FfmpegApi.pcv4j_ffmpeg2_sampleFormat_S32();
+    public static final int AV_SAMPLE_FMT_FLT = FfmpegApi.pcv4j_ffmpeg2_sampleFormat_FLT();
+    public static final int AV_SAMPLE_FMT_DBL = FfmpegApi.pcv4j_ffmpeg2_sampleFormat_DBL();
+
+    /**
+     * Pass this as the sample format, sample rate, or number of channels to
+     * {@link MediaProcessingChain#processAudioFrames(int, int, int, AudioFrameConsumer)} to keep
+     * whatever the decoder produces.
+     */
+    public static final int AUDIO_KEEP_AS_DECODED = -1;
+
     // This needs to be kept in sync with the value in EncodingContext.h
     public static final int DEFAULT_FPS = 30;
 
@@ -123,6 +140,14 @@ public class Ffmpeg {
         FfmpegApi.pcv4j_ffmpeg2_logging_setLogLevel(logLevelSet);
     }
 
+    /**
+     * The size of the pooled buffers decoded audio is written into when a pool isn't supplied to
+     * {@link MediaProcessingChain#processAudioFrames(int, int, int, String, ByteBufferPool, AudioFrameConsumer)}.
+     * This easily holds a typical (e.g. 1024 sample AAC) frame.
+     */
+    public static final int DEFAULT_AUDIO_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_AUDIO_BUFFER_POOL_SIZE = 32;
+
     /**
      * The default here should match the DEFAULT_MAX_REMUX_ERRORS in ffmpeg_wrapper.cpp
      */
@@ -169,6 +194,23 @@ public class Ffmpeg {
         default public void close() {}
     }
 
+    /**
+     * This interface is used for processors that handle decoded audio. The {@link AudioFrame} is released
+     * when {@link #handle(AudioFrame)} returns unless it's been retained.
+     */
+    @FunctionalInterface
+    public static interface AudioFrameConsumer extends QuietCloseable, Consumer<AudioFrame> {
+        public void handle(AudioFrame frame);
+
+        @Override
+        default public void accept(final AudioFrame audioFrame) {
+            handle(audioFrame);
+        }
+
+        @Override
+        default public void close() {}
+    }
+
     /**
      * You can implement a stream selector in java by passing a StreamSelectorCallback
      * to {@link MediaProcessingChain#selectStreams(StreamSelectorCallback)}.
@@ -358,6 +400,42 @@ public class Ffmpeg {
             return manage(fm);
         }
 
+        /**
+         * Create an audio processor that decodes all of the audio streams and passes the samples, as
+         * decoded, to the consumer.
+         */
+        public MediaProcessingChain processAudioFrames(final AudioFrameConsumer consumer) {
+            return processAudioFrames(AUDIO_KEEP_AS_DECODED, AUDIO_KEEP_AS_DECODED, AUDIO_KEEP_AS_DECODED, consumer);
+        }
+
+        /**
+         * Create an audio processor that decodes all of the audio streams, converts the samples to the given
+         * sample format (one of the {@code AV_SAMPLE_FMT_*} values), sample rate, and number of channels, and passes
+         * them to the consumer. Any of these can be {@link Ffmpeg#AUDIO_KEEP_AS_DECODED}. The samples are always
+         * interleaved.
+         */
+        public MediaProcessingChain processAudioFrames(final int sampleFormat, final int sampleRate, final int channels, final AudioFrameConsumer consumer) {
+            return processAudioFrames(sampleFormat, sampleRate, channels, null, null, consumer);
+        }
+
+        /**
+         * Create an audio processor that decodes all of the audio streams, converts the samples to the given
+         * sample format (one of the {@code AV_SAMPLE_FMT_*} values), sample rate, and number of channels, and passes
+         * them to the consumer. Any of these can be {@link Ffmpeg#AUDIO_KEEP_AS_DECODED}. The samples are always
+         * interleaved. If decoderName is not null then the decoder will be used to decode the audio. The samples are
+         * written directly into buffers from the given pool. If the pool is null, one will be created and closed along
+         * with the processor.
+         */
+        public MediaProcessingChain processAudioFrames(final int sampleFormat, final int sampleRate, final int channels, final String decoderName,
+            final ByteBufferPool pool, final AudioFrameConsumer consumer) {
+            final ByteBufferPool lpool = pool == null ? new ByteBufferPool(DEFAULT_AUDIO_BUFFER_SIZE, DEFAULT_AUDIO_BUFFER_POOL_SIZE) : pool;
+            final AudioCallbacks cbs = new AudioCallbacks(lpool, consumer);
+
+            final long nativeRef = FfmpegApi.pcv4j_ffmpeg2_decodedAudioProcessor_create(cbs.gab, cbs.pa, sampleFormat, sampleRate, channels,
+                decoderName);
+            return manage(new AudioFrameProcessor(nativeRef, cbs, consumer, pool == null ? lpool : null));
+        }
+
         /**
          * Remux the input to the given Muxer.
          *
@@ -385,6 +463,35 @@ public class Ffmpeg {
             return remux(output, DEFAULT_MAX_REMUX_ERRORS);
         }
 
+        /**
+         * <p>
+         * Add a {@link Tee} to the chain. Each branch of the {@link Tee} is its own {@link MediaProcessingChain}
+         * and receives every packet that makes it to the tee. This lets a single read of the source feed several
+         * outputs. For example:
+         * </p>
+         *
+         * <pre>
+         * <code>
+         * ctx.chain("default")
+         *     .tee()
+         *     .branch(b -&gt; b.remux(Muxer.create(archiveFile)))
+         *     .branch(64, b -&gt; b.remux(Muxer.create("flv", rtmpUrl)))
+         *     .chain()
+         *     ...
+         * </code>
+         * </pre>
+         *
+         * @return the new {@link Tee}. Use {@link Tee#chain()} to get back to this {@link MediaProcessingChain}
+         */
+        public Tee tee() {
+            final long nativeRef = FfmpegApi.pcv4j_ffmpeg2_tee_create();
+            if(nativeRef == 0)
+                throw new FfmpegException("Failed to create a tee");
+            final Tee ret = new Tee(nativeRef, this);
+            manage(ret);
+            return ret;
+        }
+
         /**
          * optionally call the consumer with the current MediaProcessingChain
          *
@@ -463,13 +570,86 @@ public class Ffmpeg {
             }
         }
 
+        /**
+         * The native code asks for a buffer to resample into and then, once it's filled, pushes
+         * the details. Both calls happen on the same thread so the pending buffer is just held here.
+         */
+        private static class AudioCallbacks {
+            final ByteBufferPool pool;
+            final AudioFrameConsumer consumer;
+            final AtomicLong frameNumber = new AtomicLong(0);
+            ByteBuffer pending = null;
+
+            final get_audio_buffer_callback gab = new get_audio_buffer_callback() {
+                @Override
+                public long get_audio_buffer(final int numBytes) {
+                    // if the last one was never pushed then give it back.
+                    if(pending != null)
+                        pool.returnToPool(pending);
+                    try {
+                        pending = pool.get(numBytes);
+                    } catch(final RuntimeException rte) {
+                        LOGGER.error("Failed to get a buffer of {} bytes for decoded audio", numBytes, rte);
+                        pending = null;
+                        return 0L;
+                    }
+                    return Pointer.nativeValue(Native.getDirectBufferPointer(pending));
+                }
+            };
+
+            final push_audio_callback pa = new push_audio_callback() {
+                @Override
+                public long push_audio(final int numBytes, final int numSamples, final int numChannels, final int sampleRate, final int sampleFormat,
+                    final long ptsMillis, final int streamIndex) {
+                    final ByteBuffer data = pending;
+                    pending = null;
+                    if(data == null) {
+                        LOGGER.error("Decoded audio was pushed without a buffer having been requested.");
+                        return AVERROR_UNKNOWN;
+                    }
+                    data.clear().limit(numBytes);
+
+                    final AudioFrame frame = new AudioFrame(pool, data, numSamples, numChannels, sampleRate, sampleFormat, ptsMillis, streamIndex,
+                        frameNumber.getAndIncrement());
+                    long status;
+                    try {
+                        consumer.handle(frame);
+                        status = 0;
+                    } catch(final FfmpegException ffe) {
+                        status = ffe.status;
+                        if(status == 0)
+                            status = AVERROR_UNKNOWN;
+                        LOGGER.error("Pushing the audio failed in ffmpeg: {}", errorMessage(status), ffe);
+                    } catch(final RuntimeException rte) {
+                        status = AVERROR_UNKNOWN;
+                        LOGGER.error("Pushing the audio failed in ffmpeg: {}", errorMessage(status), rte);
+                    }
+
+                    // nothing can be allowed to escape back into the native code.
+                    try {
+                        frame.release();
+                    } catch(final IllegalStateException ise) {
+                        LOGGER.error("The consumer released an {} it didn't retain.", AudioFrame.class.getSimpleName(), ise);
+                        if(status == 0)
+                            status = AVERROR_UNKNOWN;
+                    }
+                    return status;
+                }
+            };
+
+            private AudioCallbacks(final ByteBufferPool pool, final AudioFrameConsumer consumer) {
+                this.pool = pool;
+                this.consumer = consumer;
+            }
+        }
+
         private push_frame_callback wrap(final VideoFrameConsumer consumer) {
             return new push_frame_callback() {
 
                 final AtomicLong frameNumber = new AtomicLong(0);
 
                 @Override
-                public long push_frame(final long frame, final int isRbg, final int streamIndex) {
+                public long push_frame(final long frame, final int isRbg, final long ptsMillis, final int streamIndex) {
                     try(final VideoFrame mat = new VideoFrame(
                         frame, System.currentTimeMillis(), frameNumber.getAndIncrement(), isRbg == 0 ? false : true) {
                         // mats are closed automatically in the native code
@@ -477,6 +657,7 @@ public class Ffmpeg {
                         @Override
                         public void doNativeDelete() {}
                     };) {
+                        mat.ptsMillis = ptsMillis;
                         try {
                             consumer.handle(mat);
                             return 0;
@@ -537,6 +718,148 @@ public class Ffmpeg {
         }
     }
 
+    /**
+     * <p>
+     * A {@link Tee} hands every packet it receives to each of its branches. Each branch is a
+     * {@link MediaProcessingChain} so it can have its own filters, remuxers and frame processors.
+     * </p>
+     *
+     * <p>
+     * Branches fail independently. If a branch returns an error it's removed from the {@link Tee}
+     * (see {@link #failed(int)}) and the others continue. Processing only stops with an error once all
+     * of the branches have failed.
+     * </p>
+     *
+     * <p>
+     * By default a branch is run on the thread reading the source. A branch can instead be given a bounded
+     * packet queue and its own thread using {@link #branch(int, Consumer)}. If a queued branch falls behind,
+     * packets are dropped for that branch alone (see {@link #droppedPackets(int)}) until its queue has room and
+     * there's a key frame to resume on, so a slow output doesn't hold up the others.
+     * </p>
+     *
+     * <p>
+     * All branches need to be added before the {@link MediaContext} is played.
+     * </p>
+     */
+    public static class Tee extends MediaProcessor {
+        private final MediaProcessingChain parent;
+        private final List<MediaProcessingChain> branches = new ArrayList<>();
+
+        private Tee(final long nativeRef, final MediaProcessingChain parent) {
+            super(nativeRef);
+            this.parent = parent;
+        }
+
+        /**
+         * Add a branch that's run on the thread reading the source.
+         *
+         * @param branchBuilder will be called with a new {@link MediaProcessingChain} that represents the branch.
+         */
+        public Tee branch(final Consumer<MediaProcessingChain> branchBuilder) {
+            return branch(0, branchBuilder);
+        }
+
+        /**
+         * Add a branch. If {@code maxQueuedPackets} is greater than zero the branch is run on its own thread
+         * with a queue of, at most, that many packets.
+         *
+         * @param branchBuilder will be called with a new {@link MediaProcessingChain} that represents the branch.
+         */
+        public Tee branch(final int maxQueuedPackets, final Consumer<MediaProcessingChain> branchBuilder) {
+            final long nativeRef = FfmpegApi.pcv4j_ffmpeg2_mediaProcessorChain_create();
+            if(nativeRef == 0)
+                throw new FfmpegException("Failed to create a media processing chain for a tee branch");
+
+            final MediaProcessingChain branch = new MediaProcessingChain(parent.getName() + "-tee-" + branches.size(), nativeRef, parent.mediaContext());
+            // add it first so it's cleaned up with the tee if anything below fails.
+            branches.add(branch);
+            branchBuilder.accept(branch);
+            throwIfNecessary(FfmpegApi.pcv4j_ffmpeg2_tee_addBranch(this.nativeRef, branch.nativeRef, maxQueuedPackets));
+            return this;
+        }
+
+        /**
+         * Return the {@link MediaProcessingChain} this {@link Tee} is part of.
+         */
+        public MediaProcessingChain chain() {
+            return parent;
+        }
+
+        /**
+         * The number of packets dropped for the branch at the given index because its queue was full.
+         */
+        public long droppedPackets(final int branchIndex) {
+            return FfmpegApi.pcv4j_ffmpeg2_tee_droppedPackets(nativeRef, branchIndex);
+        }
+
+        /**
+         * Whether or not the branch at the given index failed and was removed from the {@link Tee}.
+         */
+        public boolean failed(final int branchIndex) {
+            return FfmpegApi.pcv4j_ffmpeg2_tee_failed(nativeRef, branchIndex) == 0 ? false : true;
+        }
+
+        /**
+         * The number of branches.
+         */
+        public int numBranches() {
+            return branches.size();
+        }
+
+        @Override
+        public void close() {
+            // this stops the threads for any queued branches so it needs to happen
+            // before the branches are closed.
+            super.close();
+
+            Functional.reverseRange(0, branches.size())
+                .mapToObj(i -> branches.get(i))
+                .forEach(b -> {
+                    b.close();
+                    FfmpegApi.pcv4j_ffmpeg2_mediaProcessorChain_destroy(b.nativeRef);
+                });
+            branches.clear();
+        }
+    }
+
+    /**
+     * This is a media processor that handles decoded audio.
+     *
+     * This is package protected to eliminate any optimization of the strong references
+     * required to keep the JNA callbacks from being GCed
+     */
+    static class AudioFrameProcessor extends MediaProcessor {
+        // ======================================================================
+        // JNA will only hold a weak reference to the callbacks passed in
+        // so if we dynamically allocate them then they will be garbage collected.
+        // In order to prevent that we're keeping strong references to them.
+        // These are not private in order to avoid any possibility that the
+        // JVM optimized them out since they aren't read anywhere in this code.
+        public get_audio_buffer_callback gab;
+        public push_audio_callback pa;
+        // ======================================================================
+        public final QuietCloseable toClose;
+        private final ByteBufferPool ownedPool;
+
+        private AudioFrameProcessor(final long nativeRef, final MediaProcessingChain.AudioCallbacks callbacks, final QuietCloseable toClose,
+            final ByteBufferPool ownedPool) {
+            super(nativeRef);
+            gab = callbacks.gab;
+            pa = callbacks.pa;
+            this.toClose = toClose;
+            this.ownedPool = ownedPool;
+        }
+
+        @Override
+        public void close() {
+            if(toClose != null)
+                toClose.close();
+            super.close();
+            if(ownedPool != null)
+                ownedPool.close();
+        }
+    }
+
     /**
      * This is the base class opaque handle to an underlying native class
      * that processes packets.
@@ -847,6 +1170,28 @@ public class Ffmpeg {
             return this;
         }
 
+        /**
+         * Reposition the source to the key frame at or before the given number of milliseconds from the
+         * start of the media. This can be called from any thread, including from within a frame or packet
+         * callback, while the media is playing, or before {@link MediaContext#play()} to start from somewhere
+         * other than the beginning. The seek is applied before the next packet is read and all of the processors
+         * are flushed when it is. If it's called several times before that happens only the last request is
+         * applied. Use {@link MediaContext#seeksApplied()} to tell when frames are from the new position.
+         *
+         * NOTE: The source needs to be seekable. This doesn't make sense for a live stream.
+         */
+        public MediaContext seek(final long millis) {
+            throwIfNecessary(FfmpegApi.pcv4j_ffmpeg2_mediaContext_seek(nativeRef, millis));
+            return this;
+        }
+
+        /**
+         * The number of calls to {@link MediaContext#seek(long)} that have been applied so far.
+         */
+        public long seeksApplied() {
+            return FfmpegApi.pcv4j_ffmpeg2_mediaContext_seeksApplied(nativeRef);
+        }
+
         /**
          * Synchronize the processing with the media stream's timing.
          *
@@ -1914,14 +2259,14 @@ public class Ffmpeg {
         }
     }
 
-    private static void throwIfNecessary(final long status, final long... ignore) {
+    static void throwIfNecessary(final long status, final long... ignore) {
         final Set<Long> toIgnore = Arrays.stream(ignore).mapToObj(Long::valueOf).collect(Collectors.toSet());
         if(status != 0L && !toIgnore.contains(status)) {
             throw new FfmpegException(status, errorMessage(status));
         }
     }
 
-    private static String errorMessage(final long errorCode) {
+    static String errorMessage(final long errorCode) {
         final MutableObject<Pointer> nmes = new MutableObject<>(null);
         try(final QuietCloseable qc = () -> FfmpegApi.pcv4j_ffmpeg2_utils_freeString(nmes.getValue());) {
             nmes.setValue(FfmpegApi.pcv4j_ffmpeg2_utils_statusMessage(errorCode));
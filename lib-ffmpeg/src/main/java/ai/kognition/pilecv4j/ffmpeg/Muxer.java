@@ -1,6 +1,9 @@
 package ai.kognition.pilecv4j.ffmpeg;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import com.sun.jna.Pointer;
@@ -98,6 +101,149 @@ public class Muxer implements QuietCloseable {
         return new SegmentedMuxer(FfmpegApi.pcv4j_ffmpeg2_segmentedMuxer_create(p1, p2), p1, p2);
     }
 
+    /**
+     * Create a muxer that writes the entire output into a single {@link SegmentBuffer} backed by
+     * direct buffers from the given {@link ByteBufferPool}. The output is seekable so formats that
+     * need to rewrite their header (e.g. "mp4") work. When the muxer is closed the completed
+     * {@link SegmentBuffer} is handed to the {@code segmentConsumer} with a reference count of 1
+     * which the consumer is responsible for releasing.
+     */
+    public static Muxer createInMemory(final String outputFormat, final ByteBufferPool pool, final Consumer<SegmentBuffer> segmentConsumer) {
+        final SegmentBuffer segment = new SegmentBuffer(pool, 0);
+        final Wbc wbc = new Wbc((packet, numBytes) -> segment.write(packet, numBytes));
+        final seek_buffer_callback sbcb = (final long offset, final int whence) -> segment.seek(offset, whence);
+
+        try(final var output = new InMemoryMuxer(FfmpegApi.pcv4j_ffmpeg2_defaultMuxer_create(outputFormat, null, wbc, sbcb), wbc, sbcb, segment,
+            segmentConsumer);) {
+            wbc.bb = ((CustomMuxer)output).customBuffer();
+            return output.returnMe();
+        }
+    }
+
+    /**
+     * Create a segmenting muxer where each segment is written to its own {@link SegmentBuffer}. This
+     * is meant for things like low latency HLS/DASH where each (e.g. "mpegts" or fragmented "mp4") segment
+     * needs to be served from memory. The segment boundaries are determined by {@code whenToSegment} the
+     * same way they are for {@link #create(Function, PacketFilter)}.
+     *
+     * Each completed segment is handed to the {@code segmentConsumer}, on the thread doing the
+     * muxing, with a reference count of 1 which the consumer is responsible for releasing. The
+     * final segment is handed off when the returned muxer is closed.
+     */
+    public static Muxer createInMemory(final String outputFormat, final ByteBufferPool pool, final PacketFilter whenToSegment,
+        final Consumer<SegmentBuffer> segmentConsumer) {
+        final InMemorySegments segments = new InMemorySegments(outputFormat, pool, segmentConsumer);
+
+        final create_muxer_from_java_callback p1 = (final long muxerNumber, final LongByReference muxerOut) -> {
+            muxerOut.setValue(segments.next(muxerNumber));
+            return 0;
+        };
+
+        final should_close_segment_callback p2 = (final int mediaType, final int stream_index, final int packetNumBytes, final int isKeyFrame, final long pts,
+            final long dts, final int tbNum, final int tbDen) -> {
+            return whenToSegment.test(mediaType, stream_index, packetNumBytes, isKeyFrame == 0 ? false : true, pts, dts, tbNum, tbDen) ? 1 : 0;
+        };
+
+        return new InMemorySegmentedMuxer(FfmpegApi.pcv4j_ffmpeg2_segmentedMuxer_create(p1, p2), p1, p2, segments);
+    }
+
+    /**
+     * Create a {@link PrerollMuxer} that keeps the most recent {@code prerollMillis} worth of
+     * (still encoded) packets in native memory. See {@link PrerollMuxer}.
+     */
+    public static PrerollMuxer createPreroll(final long prerollMillis) {
+        return new PrerollMuxer(FfmpegApi.pcv4j_ffmpeg2_prerollMuxer_create(prerollMillis));
+    }
+
+    /**
+     * <p>
+     * A {@link Muxer} for event triggered recording. It doesn't write anywhere until told to. Instead it
+     * holds on to the last {@code prerollMillis} of encoded packets. The buffer always starts on a key
+     * frame of the first video stream and is trimmed a GOP at a time so no decoding or re-encoding
+     * is ever necessary.
+     * </p>
+     *
+     * <p>
+     * Calling {@link #record(Muxer)} will cause the buffered packets, followed by all subsequent packets,
+     * to be written to the given target until {@link #stopRecording()} is called. The target will then be
+     * finalized (trailer written and output closed) and buffering resumes. The switch to the target happens on
+     * the thread that's playing the {@link Ffmpeg.MediaContext} when the next packet arrives. Both calls are
+     * safe to make from any thread.
+     * </p>
+     *
+     * <p>
+     * The {@link PrerollMuxer} takes ownership of the targets passed to {@link #record(Muxer)}. A target is closed
+     * by the {@link #stopRecording()} that ends its recording or, if that never happens, when the
+     * {@link PrerollMuxer} is. This can only be used as the output of a {@link Ffmpeg.MediaProcessingChain#remux(Muxer)}.
+     * </p>
+     */
+    public static class PrerollMuxer extends Muxer {
+        private final List<Muxer> targets = new ArrayList<>();
+
+        private PrerollMuxer(final long nativeRef) {
+            super(nativeRef);
+        }
+
+        /**
+         * <p>
+         * Flush the pre-roll to the given {@link Muxer} and continue writing to it until {@link #stopRecording()}
+         * is called. The {@link PrerollMuxer} takes ownership of the target. This will close the target and throw an
+         * {@link FfmpegException} if the {@link PrerollMuxer} is already recording.
+         * </p>
+         *
+         * <p>
+         * The target is started when the next packet is written. If that fails it's logged and the
+         * {@link PrerollMuxer} goes back to buffering rather than failing the remux so {@link #isRecording()}
+         * will be false again.
+         * </p>
+         */
+        public synchronized PrerollMuxer record(final Muxer target) {
+            final long rc = FfmpegApi.pcv4j_ffmpeg2_prerollMuxer_record(nativeRef, target.nativeRef);
+            if(rc != 0L) {
+                target.close();
+                Ffmpeg.throwIfNecessary(rc);
+            }
+            // the native PrerollMuxer only accepts a new target when it's not referring to any of the previous
+            // ones, including one that failed to start.
+            closeTargets();
+            targets.add(target);
+            return this;
+        }
+
+        /**
+         * Finalize and close the current recording target and go back to buffering. If a packet is being written
+         * to the target this waits for it to finish. It's not an error to call this when there's no recording in
+         * progress.
+         */
+        public synchronized PrerollMuxer stopRecording() {
+            Ffmpeg.throwIfNecessary(FfmpegApi.pcv4j_ffmpeg2_prerollMuxer_stopRecording(nativeRef));
+            // the native PrerollMuxer doesn't refer to any of the targets anymore, including one that
+            // failed to start.
+            closeTargets();
+            return this;
+        }
+
+        /**
+         * Is there a recording pending or in progress.
+         */
+        public boolean isRecording() {
+            return FfmpegApi.pcv4j_ffmpeg2_prerollMuxer_isRecording(nativeRef) == 0 ? false : true;
+        }
+
+        @Override
+        public synchronized void close() {
+            final boolean returning = ((Muxer)this).skipCloseOnceForReturn;
+            super.close();
+            if(!returning)
+                closeTargets();
+        }
+
+        private void closeTargets() {
+            targets.forEach(t -> t.close());
+            targets.clear();
+        }
+    }
+
     private static class SegmentedMuxer extends Muxer {
         // ======================================================================
         // JNA will only hold a weak reference to the callbacks passed in
@@ -116,6 +262,92 @@ public class Muxer implements QuietCloseable {
         }
     }
 
+    private static class InMemorySegmentedMuxer extends SegmentedMuxer {
+        private final InMemorySegments segments;
+
+        private InMemorySegmentedMuxer(final long nativeRef, final create_muxer_from_java_callback write, final should_close_segment_callback sbcb,
+            final InMemorySegments segments) {
+            super(nativeRef, write, sbcb);
+            this.segments = segments;
+        }
+
+        @Override
+        public void close() {
+            final boolean returning = ((Muxer)this).skipCloseOnceForReturn;
+            // this will finalize the current segment.
+            super.close();
+            if(!returning)
+                segments.complete();
+        }
+    }
+
+    /**
+     * Tracks the current segment for an {@link InMemorySegmentedMuxer}. The native SegmentedMuxer owns (and deletes)
+     * the muxers it gets from the supplier so by the time it asks for the next one the previous segment has been
+     * finalized and can be handed off.
+     */
+    private static class InMemorySegments {
+        private final String outputFormat;
+        private final ByteBufferPool pool;
+        private final Consumer<SegmentBuffer> segmentConsumer;
+
+        private SegmentBuffer current = null;
+        // the current CustomMuxer needs to be strongly held so its callbacks aren't collected. It's
+        // deleted by the native SegmentedMuxer so it must never be closed from here.
+        private CustomMuxer currentMuxer = null;
+
+        private InMemorySegments(final String outputFormat, final ByteBufferPool pool, final Consumer<SegmentBuffer> segmentConsumer) {
+            this.outputFormat = outputFormat;
+            this.pool = pool;
+            this.segmentConsumer = segmentConsumer;
+        }
+
+        private synchronized long next(final long segmentNumber) {
+            complete();
+            final SegmentBuffer segment = new SegmentBuffer(pool, segmentNumber);
+            final Wbc wbc = new Wbc((packet, numBytes) -> segment.write(packet, numBytes));
+            final seek_buffer_callback sbcb = (final long offset, final int whence) -> segment.seek(offset, whence);
+            final CustomMuxer muxer = new CustomMuxer(FfmpegApi.pcv4j_ffmpeg2_defaultMuxer_create(outputFormat, null, wbc, sbcb), wbc, sbcb);
+            wbc.bb = muxer.customBuffer();
+            current = segment;
+            currentMuxer = muxer;
+            return muxer.nativeRef;
+        }
+
+        private synchronized void complete() {
+            if(current != null) {
+                final SegmentBuffer toHandOff = current;
+                current = null;
+                currentMuxer = null;
+                segmentConsumer.accept(toHandOff);
+            }
+        }
+    }
+
+    private static class InMemoryMuxer extends CustomMuxer {
+        private SegmentBuffer segment;
+        private final Consumer<SegmentBuffer> segmentConsumer;
+
+        private InMemoryMuxer(final long nativeRef, final write_buffer_callback write, final seek_buffer_callback sbcb, final SegmentBuffer segment,
+            final Consumer<SegmentBuffer> segmentConsumer) {
+            super(nativeRef, write, sbcb);
+            this.segment = segment;
+            this.segmentConsumer = segmentConsumer;
+        }
+
+        @Override
+        public void close() {
+            final boolean returning = ((Muxer)this).skipCloseOnceForReturn;
+            // this will write the trailer, if there is one, to the segment.
+            super.close();
+            if(!returning && segment != null) {
+                final SegmentBuffer toHandOff = segment;
+                segment = null;
+                segmentConsumer.accept(toHandOff);
+            }
+        }
+    }
+
     private static class CustomMuxer extends Muxer {
         // ======================================================================
         // JNA will only hold a weak reference to the callbacks passed in
@@ -0,0 +1,194 @@
+package ai.kognition.pilecv4j.ffmpeg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.dempsy.util.QuietCloseable;
+
+/**
+ * <p>
+ * The in-memory output of a muxer created with one of the {@code Muxer.createInMemory} calls. The
+ * muxed bytes are held in a list of direct {@link ByteBuffer} chunks taken from a {@link ByteBufferPool}
+ * so they can be handed to a {@link GatheringByteChannel} (a socket, for example) without being copied.
+ * </p>
+ *
+ * <p>
+ * A {@link SegmentBuffer} is reference counted. It's handed to the segment consumer with a count of 1. Anything
+ * that wants to hold on to it beyond the consumer callback should call {@link #retain()} and each retain must be
+ * matched with a {@link #release()} (or {@link #close()}). When the count goes to zero the chunks are returned to
+ * the pool and the {@link SegmentBuffer} can no longer be used.
+ * </p>
+ */
+public class SegmentBuffer implements QuietCloseable {
+    private static final byte[] ZEROS = new byte[4096];
+
+    private final ByteBufferPool pool;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    public final long segmentNumber;
+    private long size = 0;
+    private long position = 0;
+
+    SegmentBuffer(final ByteBufferPool pool, final long segmentNumber) {
+        this.pool = pool;
+        this.segmentNumber = segmentNumber;
+    }
+
+    /**
+     * The number of bytes in the segment.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Increment the reference count.
+     */
+    public SegmentBuffer retain() {
+        while(true) {
+            final int cur = refCount.get();
+            if(cur <= 0)
+                throw new IllegalStateException("Cannot retain a " + SegmentBuffer.class.getSimpleName() + " that's already been released.");
+            if(refCount.compareAndSet(cur, cur + 1))
+                return this;
+        }
+    }
+
+    /**
+     * Decrement the reference count. When it reaches zero the backing buffers are returned to the pool.
+     *
+     * @return true if this call released the backing buffers.
+     */
+    public boolean release() {
+        final int cur = refCount.decrementAndGet();
+        if(cur < 0)
+            throw new IllegalStateException(SegmentBuffer.class.getSimpleName() + " was released more times than it was retained.");
+        if(cur == 0) {
+            final List<ByteBuffer> toReturn;
+            synchronized(this) {
+                toReturn = new ArrayList<>(chunks);
+                chunks.clear();
+            }
+            toReturn.forEach(pool::returnToPool);
+            return true;
+        }
+        return false;
+    }
+
+    public int refCount() {
+        return refCount.get();
+    }
+
+    /**
+     * Read only views of the data in the segment, in order. These share the memory of the
+     * segment so they're only valid until the last {@link #release()}.
+     */
+    public synchronized ByteBuffer[] buffers() {
+        checkLive();
+        final int numChunks = chunks.size();
+        final ByteBuffer[] ret = new ByteBuffer[numChunks];
+        long remaining = size;
+        for(int i = 0; i < numChunks; i++) {
+            final int len = (int)Math.min(remaining, pool.chunkSize);
+            ret[i] = chunks.get(i).asReadOnlyBuffer().position(0).limit(len);
+            remaining -= len;
+        }
+        return ret;
+    }
+
+    /**
+     * Write the segment to the channel. This uses gathering writes directly from the pooled buffers.
+     * A blocking channel will be given the entire segment. A non-blocking channel is written to until
+     * it stops accepting bytes so the return value can be less than {@link #size()}. Writing the rest
+     * is up to the caller.
+     *
+     * @return the number of bytes written.
+     */
+    public long writeTo(final GatheringByteChannel channel) throws IOException {
+        final ByteBuffer[] bufs = buffers();
+        long written = 0;
+        while(written < size) {
+            final long cur = channel.write(bufs);
+            if(cur <= 0)
+                break;
+            written += cur;
+        }
+        return written;
+    }
+
+    /**
+     * Same as {@link #release()}
+     */
+    @Override
+    public void close() {
+        release();
+    }
+
+    // ======================================================================
+    // These are called from the muxer's write/seek callbacks.
+    // ======================================================================
+    synchronized void write(final ByteBuffer src, final int len) {
+        checkLive();
+        // The muxer seeked past the end. The pooled chunks aren't cleared so the gap needs to be zeroed
+        // or it would contain whatever was last written to the memory.
+        if(position > size)
+            zeroFill(size, position);
+        final int chunkSize = pool.chunkSize;
+        int srcOffset = 0;
+        while(srcOffset < len) {
+            final int chunkIndex = (int)(position / chunkSize);
+            final int chunkOffset = (int)(position % chunkSize);
+            while(chunkIndex >= chunks.size())
+                chunks.add(pool.get());
+            final int toCopy = Math.min(len - srcOffset, chunkSize - chunkOffset);
+            chunks.get(chunkIndex).put(chunkOffset, src, srcOffset, toCopy);
+            srcOffset += toCopy;
+            position += toCopy;
+        }
+        if(position > size)
+            size = position;
+    }
+
+    synchronized long seek(final long offset, final int whence) {
+        final long newPos;
+        if(whence == Ffmpeg.AVSEEK_SIZE)
+            return size;
+        else if(whence == Ffmpeg.SEEK_SET)
+            newPos = offset;
+        else if(whence == Ffmpeg.SEEK_CUR)
+            newPos = position + offset;
+        else if(whence == Ffmpeg.SEEK_END)
+            newPos = size + offset;
+        else
+            return -1;
+
+        if(newPos < 0)
+            return -1;
+        position = newPos;
+        return position;
+    }
+
+    private void zeroFill(final long from, final long to) {
+        final int chunkSize = pool.chunkSize;
+        long pos = from;
+        while(pos < to) {
+            final int chunkIndex = (int)(pos / chunkSize);
+            final int chunkOffset = (int)(pos % chunkSize);
+            while(chunkIndex >= chunks.size())
+                chunks.add(pool.get());
+            final int len = (int)Math.min(to - pos, Math.min(chunkSize - chunkOffset, ZEROS.length));
+            chunks.get(chunkIndex).put(chunkOffset, ZEROS, 0, len);
+            pos += len;
+        }
+    }
+
+    private void checkLive() {
+        if(refCount.get() <= 0)
+            throw new IllegalStateException("Attempt to use a " + SegmentBuffer.class.getSimpleName() + " that's already been released.");
+    }
+}
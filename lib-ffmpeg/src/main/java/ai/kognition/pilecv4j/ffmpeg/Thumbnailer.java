@@ -0,0 +1,236 @@
+package ai.kognition.pilecv4j.ffmpeg;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.util.MutableInt;
+import net.dempsy.util.QuietCloseable;
+
+import ai.kognition.pilecv4j.ffmpeg.Ffmpeg.MediaContext;
+import ai.kognition.pilecv4j.image.CvMat;
+import ai.kognition.pilecv4j.image.VideoFrame;
+
+/**
+ * <p>
+ * Generates thumbnails, and sprite sheets of thumbnails, from media files. Rather than decoding
+ * the whole file, the source is repositioned ({@link MediaContext#seek(long)}) to the key frame at or before
+ * each requested time and decoded forward from there to the first frame at or after the requested time. When
+ * only key frames are requested the key frame the source was repositioned to is taken instead, which is much
+ * cheaper but can be some distance from the requested time. Frames are downscaled as they're decoded so a full
+ * resolution frame is never converted.
+ * </p>
+ *
+ * <p>
+ * An instance runs requests on a bounded pool of threads so many files can be processed concurrently without
+ * having an unbounded number of decoders open at once.
+ * </p>
+ *
+ * <pre>
+ * <code>
+ * try(Thumbnailer thumbnailer = new Thumbnailer(4, 160, true);) {
+ *     Future&lt;CvMat&gt; sheet = thumbnailer.spriteSheet(uri, 5, 0, 10000, 20000, 30000, 40000);
+ *     ...
+ * }
+ * </code>
+ * </pre>
+ */
+public class Thumbnailer implements QuietCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Thumbnailer.class);
+
+    private static final AtomicLong threadCount = new AtomicLong(0);
+    private static final String THREAD_NAME = "thumb_";
+
+    private final ExecutorService executor;
+    private final int maxDim;
+    private final boolean keyFramesOnly;
+
+    /**
+     * @param maxConcurrent is the maximum number of sources that will be decoded at the same time.
+     * @param maxDim is the maximum size of the largest dimension of the thumbnails. Less than or equal
+     *     to zero means keep the size of the original frames.
+     * @param keyFramesOnly when true each thumbnail is the key frame at or before the requested time and the
+     *     decoder is told to skip everything but key frames. Otherwise it's the first frame at or after the
+     *     requested time.
+     */
+    public Thumbnailer(final int maxConcurrent, final int maxDim, final boolean keyFramesOnly) {
+        if(maxConcurrent <= 0)
+            throw new IllegalArgumentException("The maximum number of concurrent sources must be at least 1. It was " + maxConcurrent);
+        this.maxDim = maxDim;
+        this.keyFramesOnly = keyFramesOnly;
+        this.executor = Executors.newFixedThreadPool(maxConcurrent, r -> {
+            final Thread ret = new Thread(r, THREAD_NAME + threadCount.getAndIncrement());
+            ret.setDaemon(true);
+            return ret;
+        });
+    }
+
+    /**
+     * Asynchronously generate the thumbnails for the given times. See
+     * {@link Thumbnailer#thumbnails(URI, int, boolean, long...)}
+     */
+    public Future<List<VideoFrame>> thumbnails(final URI source, final long... timesMillis) {
+        return executor.submit(() -> thumbnails(source, maxDim, keyFramesOnly, timesMillis));
+    }
+
+    /**
+     * Asynchronously generate a sprite sheet of the thumbnails for the given times. The thumbnails
+     * are laid out in row major order with the given number of columns. See
+     * {@link Thumbnailer#spriteSheet(List, int)}
+     */
+    public Future<CvMat> spriteSheet(final URI source, final int columns, final long... timesMillis) {
+        return executor.submit(() -> {
+            final List<VideoFrame> thumbs = thumbnails(source, maxDim, keyFramesOnly, timesMillis);
+            try {
+                return spriteSheet(thumbs, columns);
+            } finally {
+                closeAll(thumbs);
+            }
+        });
+    }
+
+    /**
+     * Any requests that haven't started yet are abandoned.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * <p>
+     * Generate a thumbnail for each of the given times (in milliseconds from the start of the media). Each
+     * time resolves to the first frame at or after it or, if {@code keyFramesOnly}, the key frame at or before it.
+     * The {@link VideoFrame#ptsMillis} of each thumbnail is the time of the frame that was taken. The results are in
+     * the same order as the times requested. If the media ends before a thumbnail can be taken for a given time, its
+     * entry will be null.
+     * </p>
+     *
+     * <p>
+     * The caller is responsible for closing the returned thumbnails.
+     * </p>
+     *
+     * @param maxDim is the maximum size of the largest dimension of the thumbnails. Less than or equal
+     *     to zero means keep the size of the original frames.
+     * @param keyFramesOnly when true the key frame the source is repositioned to is taken rather than decoding
+     *     forward to the requested time. The decoder is also told to skip everything but key frames.
+     */
+    public static List<VideoFrame> thumbnails(final URI source, final int maxDim, final boolean keyFramesOnly, final long... timesMillis) {
+        final int numThumbs = timesMillis.length;
+        if(numThumbs == 0)
+            return new ArrayList<>();
+
+        // visit the requested times in order so we only ever move forward through the media.
+        final Integer[] order = new Integer[numThumbs];
+        for(int i = 0; i < numThumbs; i++)
+            order[i] = i;
+        Arrays.sort(order, (o1, o2) -> Long.compare(timesMillis[o1], timesMillis[o2]));
+
+        final VideoFrame[] results = new VideoFrame[numThumbs];
+        final MutableInt next = new MutableInt(0);
+        // the first seek is requested before playing
+        final MutableInt seeksRequested = new MutableInt(1);
+        boolean success = false;
+        try(final MediaContext ctx = Ffmpeg.createMediaContext(source);) {
+            ctx
+                .optionally(keyFramesOnly, c -> c.addOption("skip_frame", "nokey"))
+                .chain("thumbnails")
+                .selectFirstVideoStream()
+                .processVideoFrames(maxDim, f -> {
+                    // anything decoded before the most recent seek was applied is from the wrong place.
+                    if(next.val >= numThumbs || ctx.seeksApplied() != seeksRequested.val)
+                        return;
+
+                    // the seek lands on a key frame before the requested time so decode forward to it. A frame without
+                    // a time can't be placed so it's taken as is.
+                    if(!keyFramesOnly && f.ptsMillis >= 0 && f.ptsMillis < timesMillis[order[(int)next.val]])
+                        return;
+
+                    results[order[(int)next.val]] = f.bgr(true);
+                    next.val++;
+                    if(next.val < numThumbs) {
+                        ctx.seek(timesMillis[order[(int)next.val]]);
+                        seeksRequested.val++;
+                    } else
+                        ctx.stop();
+                })
+                .mediaContext()
+                .seek(timesMillis[order[0]])
+                .play();
+
+            if(next.val < numThumbs)
+                LOGGER.debug("The media at {} ended before {} of the {} requested thumbnails could be taken.", source, numThumbs - next.val, numThumbs);
+
+            success = true;
+        } finally {
+            if(!success)
+                closeAll(Arrays.asList(results));
+        }
+
+        return new ArrayList<>(Arrays.asList(results));
+    }
+
+    /**
+     * <p>
+     * Lay the thumbnails out in a grid in row major order with the given number of columns. The cells are
+     * all the size of the largest thumbnail and each thumbnail is placed at the top left of its cell. Null
+     * entries leave their cell empty (black). All of the non-null thumbnails must have the same type.
+     * </p>
+     *
+     * <p>
+     * The caller is responsible for closing the returned sprite sheet.
+     * </p>
+     */
+    public static CvMat spriteSheet(final List<? extends Mat> thumbnails, final int columns) {
+        if(columns <= 0)
+            throw new IllegalArgumentException("The number of columns in a sprite sheet must be at least 1. It was " + columns);
+
+        int cellWidth = 0;
+        int cellHeight = 0;
+        int type = -1;
+        for(final Mat thumb: thumbnails) {
+            if(thumb == null)
+                continue;
+            if(type < 0)
+                type = thumb.type();
+            else if(type != thumb.type())
+                throw new IllegalArgumentException("All of the thumbnails in a sprite sheet need to be the same type.");
+            cellWidth = Math.max(cellWidth, thumb.cols());
+            cellHeight = Math.max(cellHeight, thumb.rows());
+        }
+
+        if(type < 0)
+            throw new IllegalArgumentException("There are no thumbnails to put in the sprite sheet.");
+
+        final int rows = (thumbnails.size() + columns - 1) / columns;
+        try(final CvMat ret = CvMat.zeros(rows * cellHeight, columns * cellWidth, type);) {
+            for(int i = 0; i < thumbnails.size(); i++) {
+                final Mat thumb = thumbnails.get(i);
+                if(thumb == null)
+                    continue;
+                final Rect cell = new Rect((i % columns) * cellWidth, (i / columns) * cellHeight, thumb.cols(), thumb.rows());
+                try(final CvMat dst = CvMat.move(ret.submat(cell));) {
+                    thumb.copyTo(dst);
+                }
+            }
+            return ret.returnMe();
+        }
+    }
+
+    private static void closeAll(final List<? extends CvMat> mats) {
+        for(final CvMat m: mats) {
+            if(m != null)
+                m.close();
+        }
+    }
+}
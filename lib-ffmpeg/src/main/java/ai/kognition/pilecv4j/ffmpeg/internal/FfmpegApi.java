@@ -103,7 +103,19 @@ public class FfmpegApi {
     // frame processing callback declarations
     // ==========================================================
     public static interface push_frame_callback extends Callback {
-        public long push_frame(final long val, final int isRbg, final int streamIndex);
+        public long push_frame(final long val, final int isRbg, final long ptsMillis, final int streamIndex);
+    }
+
+    // ==========================================================
+    // audio processing callback declarations
+    // ==========================================================
+    public static interface get_audio_buffer_callback extends Callback {
+        public long get_audio_buffer(final int numBytes);
+    }
+
+    public static interface push_audio_callback extends Callback {
+        public long push_audio(final int numBytes, final int numSamples, final int numChannels, final int sampleRate, final int sampleFormat,
+            final long ptsMillis, final int streamIndex);
     }
 
     // ==========================================================
@@ -230,8 +242,19 @@ public class FfmpegApi {
 
     public static native void pcv4j_ffmpeg2_decodedFrameProcessor_replace(final long nativeRef, final push_frame_callback cb);
 
+    public static native long pcv4j_ffmpeg2_decodedAudioProcessor_create(final get_audio_buffer_callback gab, final push_audio_callback pa,
+        final int sampleFormat, final int sampleRate, final int channels, final String decoderName);
+
     public static native long pcv4j_ffmpeg2_remuxer_create(long outputRef, final int maxRemuxErrorCount);
 
+    public static native long pcv4j_ffmpeg2_tee_create();
+
+    public static native long pcv4j_ffmpeg2_tee_addBranch(long teeRef, long mediaProcessorRef, final int maxQueuedPackets);
+
+    public static native long pcv4j_ffmpeg2_tee_droppedPackets(long teeRef, final int branchIndex);
+
+    public static native int pcv4j_ffmpeg2_tee_failed(long teeRef, final int branchIndex);
+
     // ==========================================================
     // Muxers methods
     // ==========================================================
@@ -248,6 +271,14 @@ public class FfmpegApi {
     public static native long pcv4j_ffmpeg2_segmentedMuxer_create(final create_muxer_from_java_callback create_muxer_callback,
         final should_close_segment_callback ssc_callback);
 
+    public static native long pcv4j_ffmpeg2_prerollMuxer_create(final long prerollMillis);
+
+    public static native long pcv4j_ffmpeg2_prerollMuxer_record(final long ctx, final long targetRef);
+
+    public static native long pcv4j_ffmpeg2_prerollMuxer_stopRecording(final long ctx);
+
+    public static native int pcv4j_ffmpeg2_prerollMuxer_isRecording(final long ctx);
+
     // ==========================================================
     // MediaProcessorChain methods
     // ==========================================================
@@ -301,6 +332,10 @@ public class FfmpegApi {
 
     public native static void pcv4j_ffmpeg2_mediaContext_sync(final long nativeDef);
 
+    public native static long pcv4j_ffmpeg2_mediaContext_seek(final long nativeDef, final long millis);
+
+    public native static long pcv4j_ffmpeg2_mediaContext_seeksApplied(final long nativeDef);
+
     // ==========================================================
     // Encoding
     // ==========================================================
@@ -393,6 +428,16 @@ public class FfmpegApi {
 
     public static native int pcv4j_ffmpeg2_mediaType_NB();
 
+    public static native int pcv4j_ffmpeg2_sampleFormat_U8();
+
+    public static native int pcv4j_ffmpeg2_sampleFormat_S16();
+
+    public static native int pcv4j_ffmpeg2_sampleFormat_S32();
+
+    public static native int pcv4j_ffmpeg2_sampleFormat_FLT();
+
+    public static native int pcv4j_ffmpeg2_sampleFormat_DBL();
+
     public static native void pcv4j_ffmpeg2_timings();
 
     private static List<String> gfo(final Class<?> clazz, final String... fieldNames) {
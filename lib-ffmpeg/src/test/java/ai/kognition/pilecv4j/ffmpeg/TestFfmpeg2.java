@@ -30,9 +30,11 @@ import java.io.OutputStream;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
@@ -58,6 +60,7 @@ import ai.kognition.pilecv4j.ffmpeg.Ffmpeg.EncodingContext.VideoEncoder;
 import ai.kognition.pilecv4j.ffmpeg.Ffmpeg.MediaContext;
 import ai.kognition.pilecv4j.ffmpeg.internal.FfmpegApi;
 import ai.kognition.pilecv4j.image.CvMat;
+import ai.kognition.pilecv4j.image.VideoFrame;
 import ai.kognition.pilecv4j.image.display.ImageDisplay;
 
 @RunWith(Parameterized.class)
@@ -174,6 +177,140 @@ public class TestFfmpeg2 extends BaseTest {
         assertEquals(Ffmpeg.AVMEDIA_TYPE_AUDIO, details.ref[1].mediaType);
     }
 
+    @Test
+    public void testConsumeAudioAndVideoFrames() {
+        LOGGER.info("Running test: {}.testConsumeAudioAndVideoFrames(sync={})", TestFfmpeg2.class.getSimpleName(), sync);
+        final AtomicLong frameCount = new AtomicLong(0);
+        final AtomicLong sampleCount = new AtomicLong(0);
+        final AtomicBoolean badAudioFrame = new AtomicBoolean(false);
+        try(final MediaContext ctx = Ffmpeg.createMediaContext();) {
+            ctx
+                .source(STREAM)
+                .chain("default")
+                .processVideoFrames(150, f -> frameCount.getAndIncrement())
+                .processAudioFrames(Ffmpeg.AV_SAMPLE_FMT_S16, 16000, 1, af -> {
+                    if(af.sampleFormat != Ffmpeg.AV_SAMPLE_FMT_S16 || af.sampleRate != 16000 || af.numChannels != 1
+                        || af.numBytes() != af.numSamples * 2 || af.data().remaining() != af.numBytes())
+                        badAudioFrame.set(true);
+                    sampleCount.addAndGet(af.numSamples);
+                })
+                .mediaContext()
+                .optionally(sync, s -> s.sync())
+                .play();
+        }
+
+        assertTrue(frameCount.get() > 50);
+        assertTrue(!badAudioFrame.get());
+        // the clip is 70 seconds long.
+        assertTrue(sampleCount.get() > 60 * 16000);
+    }
+
+    @Test
+    public void testAudioFrameClosedByConsumer() {
+        LOGGER.info("Running test: {}.testAudioFrameClosedByConsumer(sync={})", TestFfmpeg2.class.getSimpleName(), sync);
+        final AtomicLong frameCount = new AtomicLong(0);
+        boolean failed = false;
+        try(final MediaContext ctx = Ffmpeg.createMediaContext();) {
+            ctx
+                .source(STREAM)
+                .chain("default")
+                .processAudioFrames(Ffmpeg.AV_SAMPLE_FMT_S16, 16000, 1, af -> {
+                    // closing a frame that wasn't retained releases it one time too many.
+                    try(AudioFrame frame = af;) {
+                        frameCount.getAndIncrement();
+                    }
+                })
+                .mediaContext()
+                .optionally(sync, s -> s.sync())
+                .play();
+        } catch(final FfmpegException ffe) {
+            failed = true;
+        }
+
+        // the over release is reported as an error status from the first frame.
+        assertTrue(failed);
+        assertEquals(1, frameCount.get());
+    }
+
+    @Test
+    public void testThumbnails() throws Exception {
+        LOGGER.info("Running test: {}.testThumbnails(sync={})", TestFfmpeg2.class.getSimpleName(), sync);
+        try(final Thumbnailer thumbnailer = new Thumbnailer(2, 150, false);) {
+            // times are deliberately out of order
+            final Future<List<VideoFrame>> thumbsFuture = thumbnailer.thumbnails(STREAM, 40000, 0, 20000, 5000);
+            final Future<CvMat> sheetFuture = thumbnailer.spriteSheet(STREAM, 3, 0, 10000, 20000, 30000, 40000);
+
+            final List<VideoFrame> thumbs = thumbsFuture.get();
+            final int thumbRows;
+            final int thumbCols;
+            try {
+                assertEquals(4, thumbs.size());
+                for(final VideoFrame thumb: thumbs) {
+                    assertNotNull(thumb);
+                    assertEquals(150, Math.max(thumb.rows(), thumb.cols()));
+                    assertEquals(3, thumb.channels());
+                }
+                thumbRows = thumbs.get(0).rows();
+                thumbCols = thumbs.get(0).cols();
+            } finally {
+                thumbs.forEach(t -> t.close());
+            }
+
+            try(final CvMat sheet = sheetFuture.get();) {
+                assertNotNull(sheet);
+                assertEquals(3, sheet.channels());
+                // 5 thumbnails in 3 columns is 2 rows
+                assertEquals(thumbCols * 3, sheet.cols());
+                assertEquals(thumbRows * 2, sheet.rows());
+            }
+        }
+    }
+
+    // times are deliberately out of order
+    private static final long[] THUMBNAIL_TIMES = {40000, 0, 20000, 5000, 12345};
+
+    @Test
+    public void testThumbnailTimesKeyFramesOnly() throws Exception {
+        LOGGER.info("Running test: {}.testThumbnailTimesKeyFramesOnly(sync={})", TestFfmpeg2.class.getSimpleName(), sync);
+        final List<VideoFrame> thumbs = Thumbnailer.thumbnails(STREAM, 150, true, THUMBNAIL_TIMES);
+        try {
+            assertEquals(THUMBNAIL_TIMES.length, thumbs.size());
+            for(int i = 0; i < THUMBNAIL_TIMES.length; i++) {
+                final VideoFrame thumb = thumbs.get(i);
+                assertNotNull(thumb);
+                // the key frame at or before the requested time
+                assertTrue(thumb.ptsMillis >= 0);
+                assertTrue(thumb.ptsMillis <= THUMBNAIL_TIMES[i]);
+            }
+        } finally {
+            thumbs.forEach(t -> t.close());
+        }
+    }
+
+    @Test
+    public void testThumbnailTimesFrameAccurate() throws Exception {
+        LOGGER.info("Running test: {}.testThumbnailTimesFrameAccurate(sync={})", TestFfmpeg2.class.getSimpleName(), sync);
+        final List<VideoFrame> keyFrames = Thumbnailer.thumbnails(STREAM, 150, true, THUMBNAIL_TIMES);
+        final List<VideoFrame> thumbs = Thumbnailer.thumbnails(STREAM, 150, false, THUMBNAIL_TIMES);
+        try {
+            assertEquals(THUMBNAIL_TIMES.length, thumbs.size());
+            boolean anyAfterKeyFrame = false;
+            for(int i = 0; i < THUMBNAIL_TIMES.length; i++) {
+                final VideoFrame thumb = thumbs.get(i);
+                assertNotNull(thumb);
+                // the first frame at or after the requested time, well within a second of it.
+                assertTrue(thumb.ptsMillis >= THUMBNAIL_TIMES[i]);
+                assertTrue(thumb.ptsMillis < THUMBNAIL_TIMES[i] + 1000);
+                anyAfterKeyFrame |= thumb.ptsMillis > keyFrames.get(i).ptsMillis;
+            }
+            // 12345 doesn't fall on a key frame so at least that one had to be decoded forward to.
+            assertTrue(anyAfterKeyFrame);
+        } finally {
+            thumbs.forEach(t -> t.close());
+            keyFrames.forEach(t -> t.close());
+        }
+    }
+
     @Test
     public void testCustomDataSource() throws Exception {
         LOGGER.info("Running test: {}.testCustomDataSource(sync={})", TestFfmpeg2.class.getSimpleName(), sync);
@@ -272,6 +409,138 @@ public class TestFfmpeg2 extends BaseTest {
         assertTrue(frameCount(destination.toURI()) > 1000);
     }
 
+    @Test
+    public void testTeeRemux() throws Exception {
+        LOGGER.info("Running test: {}.testTeeRemux(sync={})", TestFfmpeg2.class.getSimpleName(), sync);
+        final File destination1 = tempDir.newFile("tee1.flv");
+        final File destination2 = tempDir.newFile("tee2.ts");
+        destination1.delete();
+        destination2.delete();
+
+        final MutableRef<Ffmpeg.Tee> tee = new MutableRef<>();
+        try(final MediaContext c = Ffmpeg.createMediaContext();) {
+            tee.ref = c
+                .source(STREAM)
+                .chain("default")
+                .tee()
+                .branch(b -> b.remux(Muxer.create(destination1.getAbsolutePath())))
+                .branch(10000, b -> b.remux(Muxer.create("mpegts", destination2.getAbsolutePath())));
+
+            c
+                .optionally(sync, s -> s.sync())
+                .play();
+
+            assertEquals(2, tee.ref.numBranches());
+            assertTrue(!tee.ref.failed(0));
+            assertTrue(!tee.ref.failed(1));
+            assertEquals(0L, tee.ref.droppedPackets(1));
+        }
+
+        assertTrue(destination1.length() > 0);
+        assertTrue(destination2.length() > 0);
+        assertTrue(frameCount(destination1.toURI()) > 1000);
+        assertTrue(frameCount(destination2.toURI()) > 1000);
+    }
+
+    @Test
+    public void testTeeWithBranchThatCantOpen() throws Exception {
+        LOGGER.info("Running test: {}.testTeeWithBranchThatCantOpen(sync={})", TestFfmpeg2.class.getSimpleName(), sync);
+        final File badDestination = new File(tempDir.newFolder(), "does/not/exist/tee.flv");
+        final File destination = tempDir.newFile("tee-good.flv");
+        destination.delete();
+
+        final MutableRef<Ffmpeg.Tee> tee = new MutableRef<>();
+        try(final MediaContext c = Ffmpeg.createMediaContext();) {
+            tee.ref = c
+                .source(STREAM)
+                .chain("default")
+                .tee()
+                .branch(b -> b.remux(Muxer.create(badDestination.getAbsolutePath())))
+                .branch(b -> b.remux(Muxer.create(destination.getAbsolutePath())));
+
+            c
+                .optionally(sync, s -> s.sync())
+                .play();
+
+            // the branch that couldn't open its output is dropped but the other one carries on.
+            assertTrue(tee.ref.failed(0));
+            assertTrue(!tee.ref.failed(1));
+        }
+
+        assertTrue(!badDestination.exists());
+        assertTrue(destination.length() > 0);
+        assertTrue(frameCount(destination.toURI()) > 1000);
+    }
+
+    @Test
+    public void testPrerollRemux() throws Exception {
+        LOGGER.info("Running test: {}.testPrerollRemux(sync={})", TestFfmpeg2.class.getSimpleName(), sync);
+        final File destination = tempDir.newFile("preroll.flv");
+        if(destination.exists())
+            destination.delete();
+        final AtomicLong packetCount = new AtomicLong(0);
+        // the MediaContext takes ownership of the preroll muxer and closes it, along with the target.
+        final Muxer.PrerollMuxer preroll = Muxer.createPreroll(2000);
+        try(final MediaContext c = Ffmpeg.createMediaContext();) {
+            c
+                .source(STREAM)
+                .chain("default")
+                .filterPackets((mediaType, stream_index, packetNumBytes, isKeyFrame, pts, dts, tbNum, tbDen) -> {
+                    // start recording part way in so there's pre-roll to flush
+                    if(packetCount.incrementAndGet() == 500)
+                        preroll.record(Muxer.create(destination.getAbsolutePath()));
+                    return true;
+                })
+                .remux(preroll)
+                .mediaContext()
+                .optionally(sync, s -> s.sync())
+                .play();
+        }
+
+        assertTrue(destination.exists());
+        assertTrue(destination.isFile());
+        assertTrue(destination.length() > 0);
+    }
+
+    @Test
+    public void testPrerollStopRecordingClosesTarget() throws Exception {
+        LOGGER.info("Running test: {}.testPrerollStopRecordingClosesTarget(sync={})", TestFfmpeg2.class.getSimpleName(), sync);
+        final File destination1 = tempDir.newFile("preroll1.flv");
+        final File destination2 = tempDir.newFile("preroll2.flv");
+        destination1.delete();
+        destination2.delete();
+        final AtomicLong packetCount = new AtomicLong(0);
+        final AtomicLong lengthAtStop = new AtomicLong(-1);
+        final Muxer.PrerollMuxer preroll = Muxer.createPreroll(2000);
+        try(final MediaContext c = Ffmpeg.createMediaContext();) {
+            c
+                .source(STREAM)
+                .chain("default")
+                .filterPackets((mediaType, stream_index, packetNumBytes, isKeyFrame, pts, dts, tbNum, tbDen) -> {
+                    final long count = packetCount.incrementAndGet();
+                    if(count == 500)
+                        preroll.record(Muxer.create(destination1.getAbsolutePath()));
+                    else if(count == 1000) {
+                        // the first target is finalized and closed by the time this returns.
+                        preroll.stopRecording();
+                        lengthAtStop.set(destination1.length());
+                        preroll.record(Muxer.create(destination2.getAbsolutePath()));
+                    }
+                    return true;
+                })
+                .remux(preroll)
+                .mediaContext()
+                .optionally(sync, s -> s.sync())
+                .play();
+        }
+
+        assertTrue(lengthAtStop.get() > 0);
+        assertEquals(lengthAtStop.get(), destination1.length());
+        assertTrue(frameCount(destination1.toURI()) > 0);
+        assertTrue(destination2.length() > 0);
+        assertTrue(frameCount(destination2.toURI()) > 0);
+    }
+
     @Ignore
     @Test
     public void testDumpTiming() throws Exception {
@@ -352,6 +621,60 @@ public class TestFfmpeg2 extends BaseTest {
         assertTrue(frameCount(destFile.toURI()) > 1000);
     }
 
+    @Test
+    public void testInMemorySegmentedRemux() throws Exception {
+        LOGGER.info("Running test: {}.testInMemorySegmentedRemux(sync={})", TestFfmpeg2.class.getSimpleName(), sync);
+        final File destination = tempDir.newFile("inmem.ts");
+        if(destination.exists())
+            destination.delete();
+
+        final List<SegmentBuffer> segments = new ArrayList<>();
+        try(final ByteBufferPool pool = new ByteBufferPool(64 * 1024, 1000);) {
+            try(final MediaContext c = Ffmpeg.createMediaContext();) {
+                c
+                    .source(STREAM)
+                    .addOption("flags", "+cgop")
+                    .chain("default")
+                    .remux(Muxer.createInMemory("mpegts", pool, new PacketFilter() {
+                        private long frameCount = 0;
+
+                        @Override
+                        public boolean test(final int mediaType, final int stream_index, final int packetNumBytes, final boolean isKeyFrame, final long pts,
+                            final long dts, final int tbNum, final int tbDen) {
+                            frameCount++;
+                            if(frameCount > (5 * 30)) {
+                                frameCount = 0;
+                                return true;
+                            }
+                            return false;
+                        }
+                    }, segments::add))
+                    .mediaContext()
+                    .optionally(sync, s -> s.sync())
+                    .play();
+            }
+
+            assertTrue(segments.size() > 1);
+            try(final var fos = new FileOutputStream(destination);
+                final FileChannel fc = fos.getChannel();) {
+                for(int i = 0; i < segments.size(); i++) {
+                    final SegmentBuffer seg = segments.get(i);
+                    assertEquals(i, seg.segmentNumber);
+                    assertEquals(1, seg.refCount());
+                    assertTrue(seg.size() > 0);
+                    assertEquals(seg.size(), seg.writeTo(fc));
+                }
+            }
+
+            final long allocated = pool.totalBuffers();
+            segments.forEach(s -> assertTrue(s.release()));
+            assertEquals(allocated, pool.numResident());
+        }
+
+        assertTrue(destination.length() > 0);
+        assertTrue(frameCount(destination.toURI()) > 1000);
+    }
+
     @Test
     public void testCustomRemux() throws Exception {
         LOGGER.info("Running test: {}.testCustomRemux(sync={})", TestFfmpeg2.class.getSimpleName(), sync);
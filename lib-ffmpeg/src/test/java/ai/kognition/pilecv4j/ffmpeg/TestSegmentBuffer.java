@@ -0,0 +1,129 @@
+package ai.kognition.pilecv4j.ffmpeg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestSegmentBuffer {
+
+    private static ByteBuffer filled(final int len, final byte value) {
+        final byte[] bytes = new byte[len];
+        Arrays.fill(bytes, value);
+        return ByteBuffer.allocateDirect(len).put(bytes).flip();
+    }
+
+    private static byte[] contents(final SegmentBuffer seg) {
+        final byte[] ret = new byte[(int)seg.size()];
+        int pos = 0;
+        for(final ByteBuffer bb: seg.buffers()) {
+            final int len = bb.remaining();
+            bb.get(ret, pos, len);
+            pos += len;
+        }
+        return ret;
+    }
+
+    @Test
+    public void testWriteAfterSeekPastEndIsZeroFilled() throws Exception {
+        try(final ByteBufferPool pool = new ByteBufferPool(16, 10);) {
+            // dirty the pooled chunks
+            final SegmentBuffer dirty = new SegmentBuffer(pool, 0);
+            dirty.write(filled(48, (byte)0x7f), 48);
+            assertTrue(dirty.release());
+            assertEquals(3, pool.numResident());
+
+            final SegmentBuffer seg = new SegmentBuffer(pool, 1);
+            seg.write(filled(4, (byte)1), 4);
+            assertEquals(40, seg.seek(40, Ffmpeg.SEEK_SET));
+            seg.write(filled(4, (byte)2), 4);
+            assertEquals(44, seg.size());
+
+            final byte[] expected = new byte[44];
+            Arrays.fill(expected, 0, 4, (byte)1);
+            Arrays.fill(expected, 40, 44, (byte)2);
+            assertEquals(Arrays.toString(expected), Arrays.toString(contents(seg)));
+
+            // seeking back inside the segment overwrites without touching the rest.
+            assertEquals(2, seg.seek(-42, Ffmpeg.SEEK_END));
+            seg.write(filled(4, (byte)3), 4);
+            Arrays.fill(expected, 2, 6, (byte)3);
+            assertEquals(Arrays.toString(expected), Arrays.toString(contents(seg)));
+
+            assertEquals(3, pool.totalBuffers());
+            assertTrue(seg.release());
+            assertEquals(3, pool.numResident());
+        }
+    }
+
+    @Test
+    public void testWriteToStopsWhenTheChannelIsFull() throws Exception {
+        try(final ByteBufferPool pool = new ByteBufferPool(16, 10);) {
+            final SegmentBuffer seg = new SegmentBuffer(pool, 0);
+            seg.write(filled(40, (byte)1), 40);
+
+            // a non-blocking channel that only has room for 20 bytes
+            final ByteArrayOutputStream received = new ByteArrayOutputStream();
+            final GatheringByteChannel channel = new GatheringByteChannel() {
+                @Override
+                public int write(final ByteBuffer src) {
+                    final int len = Math.min(src.remaining(), 20 - received.size());
+                    for(int i = 0; i < len; i++)
+                        received.write(src.get());
+                    return len;
+                }
+
+                @Override
+                public long write(final ByteBuffer[] srcs, final int offset, final int length) {
+                    long ret = 0;
+                    for(int i = offset; i < offset + length; i++)
+                        ret += write(srcs[i]);
+                    return ret;
+                }
+
+                @Override
+                public long write(final ByteBuffer[] srcs) {
+                    return write(srcs, 0, srcs.length);
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return true;
+                }
+
+                @Override
+                public void close() {}
+            };
+
+            assertEquals(20, seg.writeTo(channel));
+            assertEquals(20, received.size());
+            assertTrue(seg.release());
+        }
+    }
+
+    @Test
+    public void testTotalBuffers() throws Exception {
+        final ByteBufferPool pool = new ByteBufferPool(16, 1);
+        final ByteBuffer a = pool.get();
+        final ByteBuffer b = pool.get();
+        // unpooled
+        final ByteBuffer big = pool.get(17);
+        assertEquals(2, pool.totalBuffers());
+
+        pool.returnToPool(big);
+        pool.returnToPool(a);
+        // the pool only keeps 1
+        pool.returnToPool(b);
+        assertEquals(1, pool.totalBuffers());
+        assertEquals(1, pool.numResident());
+
+        pool.close();
+        assertEquals(0, pool.totalBuffers());
+        assertEquals(0, pool.numResident());
+    }
+}
@@ -0,0 +1,168 @@
+package ai.kognition.pilecv4j.image;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <p>
+ * {@link BlockKernels} written against the {@code jdk.incubator.vector} API for the loops the JIT won't vectorize on
+ * its own: the strided channel rearranging of {@link RasterKernels#swizzle(org.opencv.core.Mat, org.opencv.core.Mat, int...)}
+ * and the multi-channel sums. Whatever doesn't fill a whole vector is done by the {@link ScalarBlockKernels}.
+ * </p>
+ *
+ * <p>
+ * This is only compiled with the {@code vector-kernels} Maven profile and can only be loaded when the
+ * {@code jdk.incubator.vector} module is in the boot layer (the JVM is run with
+ * {@code --add-modules jdk.incubator.vector}). {@link RasterKernels} checks for that, and {@link #isSupported()},
+ * before using it.
+ * </p>
+ */
+class VectorBlockKernels implements BlockKernels {
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = BYTES.length();
+    // the number of IntVectors that a ByteVector widens into.
+    private static final int PARTS = LANES / INTS.length();
+
+    /**
+     * The kernels widen a byte vector into 4 int vectors of the same shape. That's true of every shape the Vector
+     * API currently has but if the platform's preferred shapes don't line up this returns false and the
+     * scalar loops should be used instead.
+     */
+    static boolean isSupported() {
+        return PARTS == 4 && INTS.vectorShape() == BYTES.vectorShape();
+    }
+
+    @Override
+    public void threshold(final byte[] in, final byte[] out, final int len, final int thresh, final byte max) {
+        if(thresh < 0 || thresh >= 255) {
+            // every value is above a negative threshold and none is above 255
+            Arrays.fill(out, 0, len, thresh < 0 ? max : 0);
+            return;
+        }
+
+        final ByteVector zero = ByteVector.zero(BYTES);
+        final int bound = BYTES.loopBound(len);
+        for(int i = 0; i < bound; i += LANES) {
+            final VectorMask<Byte> above = ByteVector.fromArray(BYTES, in, i).compare(VectorOperators.UNSIGNED_GT, (byte)thresh);
+            zero.blend(max, above).intoArray(out, i);
+        }
+        ScalarBlockKernels.threshold(in, out, bound, len, thresh, max);
+    }
+
+    @Override
+    public void swizzle(final byte[] in, final int srcNumChannels, final int[] srcChannels, final byte[] out, final int numPixels) {
+        final int dstNumChannels = srcChannels.length;
+        // the number of whole pixels that can be rearranged within one vector.
+        final int pixelsPerVector = LANES / Math.max(srcNumChannels, dstNumChannels);
+        if(pixelsPerVector == 0) {
+            ScalarBlockKernels.swizzle(in, srcNumChannels, srcChannels, out, 0, numPixels);
+            return;
+        }
+
+        final int[] lanes = new int[LANES];
+        for(int i = 0; i < pixelsPerVector * dstNumChannels; i++)
+            lanes[i] = ((i / dstNumChannels) * srcNumChannels) + srcChannels[i % dstNumChannels];
+        final VectorShuffle<Byte> shuffle = VectorShuffle.fromArray(BYTES, lanes, 0);
+
+        // Each step writes a whole vector but only the first pixelsPerVector pixels are valid. The rest is
+        // overwritten by the next step so the last step needs a whole vector's worth of room in both arrays.
+        int pixel = 0;
+        for(; (pixel * srcNumChannels) + LANES <= in.length && (pixel * dstNumChannels) + LANES <= out.length
+            && pixel + pixelsPerVector <= numPixels; pixel += pixelsPerVector) {
+            ByteVector.fromArray(BYTES, in, pixel * srcNumChannels).rearrange(shuffle).intoArray(out, pixel * dstNumChannels);
+        }
+        ScalarBlockKernels.swizzle(in, srcNumChannels, srcChannels, out, pixel, numPixels);
+    }
+
+    @Override
+    public void sum(final byte[] in, final byte[] mask, final int channels, final int numPixels, final long[] sums) {
+        if(mask != null) {
+            if(channels == 1) {
+                final int bound = BYTES.loopBound(numPixels);
+                for(int i = 0; i < bound; i += LANES) {
+                    final VectorMask<Byte> off = ByteVector.fromArray(BYTES, mask, i).compare(VectorOperators.EQ, (byte)0);
+                    ByteVector.fromArray(BYTES, in, i).blend((byte)0, off).intoArray(in, i);
+                }
+                for(int i = bound; i < numPixels; i++)
+                    in[i] &= (byte)(-(mask[i] & 0xff) >> 31);
+            } else {
+                // zero the pixels that are masked off so the unmasked sum can be used.
+                for(int p = 0; p < numPixels; p++) {
+                    if(mask[p] == 0)
+                        Arrays.fill(in, p * channels, (p + 1) * channels, (byte)0);
+                }
+            }
+        }
+
+        final int len = numPixels * channels;
+        // The channel of a lane depends on where the vector starts so the vectors are summed separately by
+        // which "phase" of the pixels they start on. Stepping by channels * LANES keeps the phase the same.
+        final int step = channels * LANES;
+        final int bound = (len / step) * step;
+        final int[] lanes = new int[INTS.length()];
+        for(int phase = 0; phase < channels; phase++) {
+            IntVector s0 = IntVector.zero(INTS);
+            IntVector s1 = s0;
+            IntVector s2 = s0;
+            IntVector s3 = s0;
+            for(int i = phase * LANES; i < bound; i += step) {
+                final ByteVector v = ByteVector.fromArray(BYTES, in, i);
+                s0 = s0.add(((IntVector)v.convertShape(VectorOperators.B2I, INTS, 0)).and(0xff));
+                s1 = s1.add(((IntVector)v.convertShape(VectorOperators.B2I, INTS, 1)).and(0xff));
+                s2 = s2.add(((IntVector)v.convertShape(VectorOperators.B2I, INTS, 2)).and(0xff));
+                s3 = s3.add(((IntVector)v.convertShape(VectorOperators.B2I, INTS, 3)).and(0xff));
+            }
+
+            final int first = phase * LANES;
+            addLanes(s0, lanes, first, channels, sums);
+            addLanes(s1, lanes, first + lanes.length, channels, sums);
+            addLanes(s2, lanes, first + (2 * lanes.length), channels, sums);
+            addLanes(s3, lanes, first + (3 * lanes.length), channels, sums);
+        }
+        ScalarBlockKernels.sum(in, channels, bound, len, sums);
+    }
+
+    @Override
+    public void histogram(final byte[] in, final byte[] mask, final int channels, final int numPixels, final int[][] hist) {
+        if(mask == null) {
+            ScalarBlockKernels.histogram(in, channels, 0, numPixels, hist);
+            return;
+        }
+
+        // Counting can't be vectorized but checking the mask a vector at a time lets whole runs of pixels
+        // that are all in or all out be handled without a per pixel check.
+        final int bound = BYTES.loopBound(numPixels);
+        for(int p = 0; p < bound; p += LANES) {
+            final VectorMask<Byte> on = ByteVector.fromArray(BYTES, mask, p).compare(VectorOperators.NE, (byte)0);
+            if(on.allTrue())
+                ScalarBlockKernels.histogram(in, channels, p, p + LANES, hist);
+            else if(on.anyTrue())
+                maskedHistogram(in, mask, channels, p, p + LANES, hist);
+        }
+        maskedHistogram(in, mask, channels, bound, numPixels, hist);
+    }
+
+    private static void maskedHistogram(final byte[] in, final byte[] mask, final int channels, final int fromPixel, final int toPixel,
+        final int[][] hist) {
+        for(int p = fromPixel; p < toPixel; p++) {
+            if(mask[p] != 0) {
+                for(int ch = 0, i = p * channels; ch < channels; ch++, i++)
+                    hist[ch][in[i] & 0xff]++;
+            }
+        }
+    }
+
+    // lane j of the vector is at position first + j in the block.
+    private static void addLanes(final IntVector v, final int[] lanes, final int first, final int channels, final long[] sums) {
+        v.intoArray(lanes, 0);
+        for(int j = 0; j < lanes.length; j++)
+            sums[(first + j) % channels] += lanes[j];
+    }
+}
@@ -0,0 +1,34 @@
+package ai.kognition.pilecv4j.image;
+
+/**
+ * The loops behind {@link RasterKernels}. Each one works on a single block of pixels that's been copied out of
+ * a Mat into an array. There's a plain Java implementation ({@link ScalarBlockKernels}) and one that uses the
+ * {@code jdk.incubator.vector} API ({@code VectorBlockKernels}) which is only built with the {@code vector-kernels}
+ * profile and is used when that module is available.
+ */
+interface BlockKernels {
+
+    /**
+     * Binary threshold the first {@code len} values of {@code in} into {@code out}.
+     */
+    public void threshold(byte[] in, byte[] out, int len, int thresh, byte max);
+
+    /**
+     * Rearrange the channels of {@code numPixels} pixels from {@code in} into {@code out}. See
+     * {@link RasterKernels#swizzle(org.opencv.core.Mat, org.opencv.core.Mat, int...)}. Anything in {@code out}
+     * past the {@code numPixels} pixels may be overwritten.
+     */
+    public void swizzle(byte[] in, int srcNumChannels, int[] srcChannels, byte[] out, int numPixels);
+
+    /**
+     * Add the values of each channel of {@code numPixels} pixels from {@code in} into {@code sums}. If {@code mask}
+     * isn't null, only the pixels where it's non-zero are included and the contents of {@code in} may be modified.
+     */
+    public void sum(byte[] in, byte[] mask, int channels, int numPixels, long[] sums);
+
+    /**
+     * Count the values of each channel of {@code numPixels} pixels from {@code in} into {@code hist}. If
+     * {@code mask} isn't null, only the pixels where it's non-zero are included.
+     */
+    public void histogram(byte[] in, byte[] mask, int channels, int numPixels, int[][] hist);
+}
@@ -27,6 +27,10 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -34,6 +38,7 @@ import com.sun.jna.Memory;
 import com.sun.jna.Pointer;
 
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
@@ -392,6 +397,407 @@ public class CvMat extends Mat implements QuietCloseable {
         return bulkAccessor.apply(_getData(mat));
     }
 
+    /**
+     * Apply the given {@link Consumer} to a {@link MatMemory} for this {@link CvMat}. Unlike {@link #bulkAccess(Consumer)}
+     * the Mat doesn't need to be continuous and data beyond 2GB can be addressed. The {@link MatMemory} is only
+     * valid for the duration of this call.
+     *
+     * @throws IllegalArgumentException if the underlying mat is invalid.
+     */
+    public void memoryAccess(final Consumer<MatMemory> memoryAccessor) {
+        memoryAccess(this, memoryAccessor);
+    }
+
+    /**
+     * Apply the given {@link Consumer} to a {@link MatMemory} for the given {@link Mat}. Unlike
+     * {@link #bulkAccess(Mat, Consumer)} the Mat doesn't need to be continuous and data beyond 2GB can be addressed.
+     * The {@link MatMemory} is only valid for the duration of this call.
+     *
+     * @throws IllegalArgumentException if the underlying mat is invalid.
+     */
+    public static void memoryAccess(final Mat mat, final Consumer<MatMemory> memoryAccessor) {
+        memoryAccessOp(mat, mm -> {
+            memoryAccessor.accept(mm);
+            return null;
+        });
+    }
+
+    /**
+     * Apply the given {@link Function} to a {@link MatMemory} for this {@link CvMat}. See {@link #memoryAccess(Consumer)}
+     *
+     * @return the return value of the provided {@code memoryAccessor}
+     */
+    public <T> T memoryAccessOp(final Function<MatMemory, T> memoryAccessor) {
+        return memoryAccessOp(this, memoryAccessor);
+    }
+
+    /**
+     * Apply the given {@link Function} to a {@link MatMemory} for the given {@link Mat}. See {@link #memoryAccess(Mat, Consumer)}
+     *
+     * @return the return value of the provided {@code memoryAccessor}
+     */
+    public static <T> T memoryAccessOp(final Mat mat, final Function<MatMemory, T> memoryAccessor) {
+        final MatMemory mm = new MatMemory(mat);
+        try {
+            return memoryAccessor.apply(mm);
+        } finally {
+            mm.invalidate();
+        }
+    }
+
+    // ==================================================================
+    // Typed channel access
+    // ==================================================================
+
+    /**
+     * Pass every channel value of every pixel of a 2 dimensional {@code CV_8U}, {@code CV_8S} (or, as raw bytes,
+     * {@code CV_16F}) Mat to the {@code consumer} in row major order. See {@link #forEachByte(Mat, ByteChannelConsumer)}.
+     */
+    public void forEachByte(final ByteChannelConsumer consumer) {
+        forEachByte(this, consumer);
+    }
+
+    /**
+     * <p>
+     * Pass every channel value of every pixel of a 2 dimensional {@code CV_8U}, {@code CV_8S} (or, as raw bytes,
+     * {@code CV_16F}) Mat to the {@code consumer} in row major order. Like {@link #memoryAccess(Mat, Consumer)}, the
+     * Mat doesn't need to be continuous. Nothing is allocated per value.
+     * </p>
+     *
+     * <p>
+     * Each value is passed through an interface call. Once this is used with more than a couple of different
+     * lambdas the call site inside the loop is megamorphic and the JIT won't inline the lambda into it, so for a
+     * hot loop it's faster to index the {@link ByteBuffer} from {@link #bulkAccess(Mat, Consumer)} directly.
+     * </p>
+     *
+     * @throws IllegalArgumentException if the Mat isn't 2 dimensional or its depth isn't one of the above.
+     */
+    public static void forEachByte(final Mat mat, final ByteChannelConsumer consumer) {
+        final int cols = mat.cols();
+        final int channels = mat.channels();
+        overRows(mat, "byte", (row, data) -> {
+            for(int col = 0, i = 0; col < cols; col++) {
+                for(int ch = 0; ch < channels; ch++, i++)
+                    consumer.accept(row, col, ch, data.get(i));
+            }
+        }, CvType.CV_8U, CvType.CV_8S, CvType.CV_16F);
+    }
+
+    /**
+     * Set every channel value of every pixel of a {@code CV_8U}, {@code CV_8S} (or, as raw bytes, {@code CV_16F})
+     * Mat to the value returned from the {@code setter}. See {@link #applyByte(Mat, ByteChannelSetter)}.
+     */
+    public void applyByte(final ByteChannelSetter setter) {
+        applyByte(this, setter);
+    }
+
+    /**
+     * Set every channel value of every pixel of a 2 dimensional {@code CV_8U}, {@code CV_8S} (or, as raw bytes,
+     * {@code CV_16F}) Mat, in row major order, to the value returned from the {@code setter}. The same caveat about
+     * the lambda call described on {@link #forEachByte(Mat, ByteChannelConsumer)} applies.
+     *
+     * @throws IllegalArgumentException if the Mat isn't 2 dimensional or its depth isn't one of the above.
+     */
+    public static void applyByte(final Mat mat, final ByteChannelSetter setter) {
+        final int cols = mat.cols();
+        final int channels = mat.channels();
+        overRows(mat, "byte", (row, data) -> {
+            for(int col = 0, i = 0; col < cols; col++) {
+                for(int ch = 0; ch < channels; ch++, i++)
+                    data.put(i, setter.value(row, col, ch));
+            }
+        }, CvType.CV_8U, CvType.CV_8S, CvType.CV_16F);
+    }
+
+    /**
+     * Pass every channel value of every pixel of a 2 dimensional {@code CV_16U} or {@code CV_16S} Mat to the {@code consumer} in row major
+     * order. See {@link #forEachShort(Mat, ShortChannelConsumer)}.
+     */
+    public void forEachShort(final ShortChannelConsumer consumer) {
+        forEachShort(this, consumer);
+    }
+
+    /**
+     * Pass every channel value of every pixel of a 2 dimensional {@code CV_16U} or {@code CV_16S} Mat to the {@code consumer} in row major
+     * order. The same caveat about the lambda call described on {@link #forEachByte(Mat, ByteChannelConsumer)} applies.
+     *
+     * @throws IllegalArgumentException if the Mat isn't 2 dimensional or its depth isn't one of the above.
+     */
+    public static void forEachShort(final Mat mat, final ShortChannelConsumer consumer) {
+        final int cols = mat.cols();
+        final int channels = mat.channels();
+        overRows(mat, "short", (row, data) -> {
+            final ShortBuffer values = data.asShortBuffer();
+            for(int col = 0, i = 0; col < cols; col++) {
+                for(int ch = 0; ch < channels; ch++, i++)
+                    consumer.accept(row, col, ch, values.get(i));
+            }
+        }, CvType.CV_16U, CvType.CV_16S);
+    }
+
+    /**
+     * Set every channel value of every pixel of a 2 dimensional {@code CV_16U} or {@code CV_16S} Mat to the value returned from the
+     * {@code setter}. See {@link #applyShort(Mat, ShortChannelSetter)}.
+     */
+    public void applyShort(final ShortChannelSetter setter) {
+        applyShort(this, setter);
+    }
+
+    /**
+     * Set every channel value of every pixel of a 2 dimensional {@code CV_16U} or {@code CV_16S} Mat, in row major order, to the value
+     * returned from the {@code setter}. The same caveat about the lambda call described on
+     * {@link #forEachByte(Mat, ByteChannelConsumer)} applies.
+     *
+     * @throws IllegalArgumentException if the Mat isn't 2 dimensional or its depth isn't one of the above.
+     */
+    public static void applyShort(final Mat mat, final ShortChannelSetter setter) {
+        final int cols = mat.cols();
+        final int channels = mat.channels();
+        overRows(mat, "short", (row, data) -> {
+            final ShortBuffer values = data.asShortBuffer();
+            for(int col = 0, i = 0; col < cols; col++) {
+                for(int ch = 0; ch < channels; ch++, i++)
+                    values.put(i, setter.value(row, col, ch));
+            }
+        }, CvType.CV_16U, CvType.CV_16S);
+    }
+
+    /**
+     * Pass every channel value of every pixel of a 2 dimensional {@code CV_32S} Mat to the {@code consumer} in row major
+     * order. See {@link #forEachInt(Mat, IntChannelConsumer)}.
+     */
+    public void forEachInt(final IntChannelConsumer consumer) {
+        forEachInt(this, consumer);
+    }
+
+    /**
+     * Pass every channel value of every pixel of a 2 dimensional {@code CV_32S} Mat to the {@code consumer} in row major
+     * order. The same caveat about the lambda call described on {@link #forEachByte(Mat, ByteChannelConsumer)} applies.
+     *
+     * @throws IllegalArgumentException if the Mat isn't 2 dimensional or its depth isn't one of the above.
+     */
+    public static void forEachInt(final Mat mat, final IntChannelConsumer consumer) {
+        final int cols = mat.cols();
+        final int channels = mat.channels();
+        overRows(mat, "int", (row, data) -> {
+            final IntBuffer values = data.asIntBuffer();
+            for(int col = 0, i = 0; col < cols; col++) {
+                for(int ch = 0; ch < channels; ch++, i++)
+                    consumer.accept(row, col, ch, values.get(i));
+            }
+        }, CvType.CV_32S);
+    }
+
+    /**
+     * Set every channel value of every pixel of a 2 dimensional {@code CV_32S} Mat to the value returned from the
+     * {@code setter}. See {@link #applyInt(Mat, IntChannelSetter)}.
+     */
+    public void applyInt(final IntChannelSetter setter) {
+        applyInt(this, setter);
+    }
+
+    /**
+     * Set every channel value of every pixel of a 2 dimensional {@code CV_32S} Mat, in row major order, to the value
+     * returned from the {@code setter}. The same caveat about the lambda call described on
+     * {@link #forEachByte(Mat, ByteChannelConsumer)} applies.
+     *
+     * @throws IllegalArgumentException if the Mat isn't 2 dimensional or its depth isn't one of the above.
+     */
+    public static void applyInt(final Mat mat, final IntChannelSetter setter) {
+        final int cols = mat.cols();
+        final int channels = mat.channels();
+        overRows(mat, "int", (row, data) -> {
+            final IntBuffer values = data.asIntBuffer();
+            for(int col = 0, i = 0; col < cols; col++) {
+                for(int ch = 0; ch < channels; ch++, i++)
+                    values.put(i, setter.value(row, col, ch));
+            }
+        }, CvType.CV_32S);
+    }
+
+    /**
+     * Pass every channel value of every pixel of a 2 dimensional {@code CV_32F} Mat to the {@code consumer} in row major
+     * order. See {@link #forEachFloat(Mat, FloatChannelConsumer)}.
+     */
+    public void forEachFloat(final FloatChannelConsumer consumer) {
+        forEachFloat(this, consumer);
+    }
+
+    /**
+     * Pass every channel value of every pixel of a 2 dimensional {@code CV_32F} Mat to the {@code consumer} in row major
+     * order. The same caveat about the lambda call described on {@link #forEachByte(Mat, ByteChannelConsumer)} applies.
+     *
+     * @throws IllegalArgumentException if the Mat isn't 2 dimensional or its depth isn't one of the above.
+     */
+    public static void forEachFloat(final Mat mat, final FloatChannelConsumer consumer) {
+        final int cols = mat.cols();
+        final int channels = mat.channels();
+        overRows(mat, "float", (row, data) -> {
+            final FloatBuffer values = data.asFloatBuffer();
+            for(int col = 0, i = 0; col < cols; col++) {
+                for(int ch = 0; ch < channels; ch++, i++)
+                    consumer.accept(row, col, ch, values.get(i));
+            }
+        }, CvType.CV_32F);
+    }
+
+    /**
+     * Set every channel value of every pixel of a 2 dimensional {@code CV_32F} Mat to the value returned from the
+     * {@code setter}. See {@link #applyFloat(Mat, FloatChannelSetter)}.
+     */
+    public void applyFloat(final FloatChannelSetter setter) {
+        applyFloat(this, setter);
+    }
+
+    /**
+     * Set every channel value of every pixel of a 2 dimensional {@code CV_32F} Mat, in row major order, to the value
+     * returned from the {@code setter}. The same caveat about the lambda call described on
+     * {@link #forEachByte(Mat, ByteChannelConsumer)} applies.
+     *
+     * @throws IllegalArgumentException if the Mat isn't 2 dimensional or its depth isn't one of the above.
+     */
+    public static void applyFloat(final Mat mat, final FloatChannelSetter setter) {
+        final int cols = mat.cols();
+        final int channels = mat.channels();
+        overRows(mat, "float", (row, data) -> {
+            final FloatBuffer values = data.asFloatBuffer();
+            for(int col = 0, i = 0; col < cols; col++) {
+                for(int ch = 0; ch < channels; ch++, i++)
+                    values.put(i, setter.value(row, col, ch));
+            }
+        }, CvType.CV_32F);
+    }
+
+    /**
+     * Pass every channel value of every pixel of a 2 dimensional {@code CV_64F} Mat to the {@code consumer} in row major
+     * order. See {@link #forEachDouble(Mat, DoubleChannelConsumer)}.
+     */
+    public void forEachDouble(final DoubleChannelConsumer consumer) {
+        forEachDouble(this, consumer);
+    }
+
+    /**
+     * Pass every channel value of every pixel of a 2 dimensional {@code CV_64F} Mat to the {@code consumer} in row major
+     * order. The same caveat about the lambda call described on {@link #forEachByte(Mat, ByteChannelConsumer)} applies.
+     *
+     * @throws IllegalArgumentException if the Mat isn't 2 dimensional or its depth isn't one of the above.
+     */
+    public static void forEachDouble(final Mat mat, final DoubleChannelConsumer consumer) {
+        final int cols = mat.cols();
+        final int channels = mat.channels();
+        overRows(mat, "double", (row, data) -> {
+            final DoubleBuffer values = data.asDoubleBuffer();
+            for(int col = 0, i = 0; col < cols; col++) {
+                for(int ch = 0; ch < channels; ch++, i++)
+                    consumer.accept(row, col, ch, values.get(i));
+            }
+        }, CvType.CV_64F);
+    }
+
+    /**
+     * Set every channel value of every pixel of a 2 dimensional {@code CV_64F} Mat to the value returned from the
+     * {@code setter}. See {@link #applyDouble(Mat, DoubleChannelSetter)}.
+     */
+    public void applyDouble(final DoubleChannelSetter setter) {
+        applyDouble(this, setter);
+    }
+
+    /**
+     * Set every channel value of every pixel of a 2 dimensional {@code CV_64F} Mat, in row major order, to the value
+     * returned from the {@code setter}. The same caveat about the lambda call described on
+     * {@link #forEachByte(Mat, ByteChannelConsumer)} applies.
+     *
+     * @throws IllegalArgumentException if the Mat isn't 2 dimensional or its depth isn't one of the above.
+     */
+    public static void applyDouble(final Mat mat, final DoubleChannelSetter setter) {
+        final int cols = mat.cols();
+        final int channels = mat.channels();
+        overRows(mat, "double", (row, data) -> {
+            final DoubleBuffer values = data.asDoubleBuffer();
+            for(int col = 0, i = 0; col < cols; col++) {
+                for(int ch = 0; ch < channels; ch++, i++)
+                    values.put(i, setter.value(row, col, ch));
+            }
+        }, CvType.CV_64F);
+    }
+
+    @FunctionalInterface
+    private static interface RowAccess {
+        public void row(int row, ByteBuffer data);
+    }
+
+    // Each row gets its own window so a non-continuous Mat (e.g. a submat) works in place.
+    private static void overRows(final Mat mat, final String typeName, final RowAccess access, final int... depths) {
+        if(mat.dims() != 2)
+            throw new IllegalArgumentException("Only a 2 dimensional Mat can be accessed by row and column. This one has " + mat.dims() + " dimensions.");
+        final int depth = mat.depth();
+        boolean supported = false;
+        for(final int d: depths)
+            supported |= (d == depth);
+        if(!supported)
+            throw new IllegalArgumentException("A Mat of type " + CvType.typeToString(mat.type()) + " can't be accessed as " + typeName + " values");
+
+        final int rows = mat.rows();
+        final int rowBytes = (int)(mat.cols() * mat.elemSize());
+        memoryAccess(mat, mm -> {
+            for(int row = 0; row < rows; row++)
+                access.row(row, mm.window(mm.offset(row, 0), rowBytes));
+        });
+    }
+
+    // ==================================================================
+    // Channel interfaces for the typed channel access
+    // ==================================================================
+    @FunctionalInterface
+    public static interface ByteChannelConsumer {
+        public void accept(int row, int col, int channel, byte value);
+    }
+
+    @FunctionalInterface
+    public static interface ByteChannelSetter {
+        public byte value(int row, int col, int channel);
+    }
+
+    @FunctionalInterface
+    public static interface ShortChannelConsumer {
+        public void accept(int row, int col, int channel, short value);
+    }
+
+    @FunctionalInterface
+    public static interface ShortChannelSetter {
+        public short value(int row, int col, int channel);
+    }
+
+    @FunctionalInterface
+    public static interface IntChannelConsumer {
+        public void accept(int row, int col, int channel, int value);
+    }
+
+    @FunctionalInterface
+    public static interface IntChannelSetter {
+        public int value(int row, int col, int channel);
+    }
+
+    @FunctionalInterface
+    public static interface FloatChannelConsumer {
+        public void accept(int row, int col, int channel, float value);
+    }
+
+    @FunctionalInterface
+    public static interface FloatChannelSetter {
+        public float value(int row, int col, int channel);
+    }
+
+    @FunctionalInterface
+    public static interface DoubleChannelConsumer {
+        public void accept(int row, int col, int channel, double value);
+    }
+
+    @FunctionalInterface
+    public static interface DoubleChannelSetter {
+        public double value(int row, int col, int channel);
+    }
+
     /**
      * Apply the given {@link Function} to a {@link CvRaster} containing the image data for this {@link CvMat}
      *
@@ -22,6 +22,9 @@ import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
 import java.util.function.Function;
 
 import com.sun.jna.Pointer;
@@ -72,6 +75,20 @@ public abstract class CvRaster implements AutoCloseable {
     public final Mat mat;
     protected final ByteBuffer currentBuffer;
 
+    /**
+     * The default minimum number of rows given to each task by the parallel operations.
+     */
+    public static final int DEFAULT_MIN_STRIPE_ROWS = 16;
+
+    // the number of stripes per thread in the pool. More than one evens out the load when some
+    // stripes take longer than others.
+    private static final int STRIPES_PER_THREAD = 4;
+
+    // The range of rows the iteration methods cover. The parallel operations give each stripe
+    // its own instance (and so its own buffer position) limited to the stripe's rows.
+    private int firstRow = 0;
+    private int endRow = -1;
+
     private CvRaster(final Mat m) {
         this.mat = m;
         this.currentBuffer = getData(m);
@@ -193,9 +210,9 @@ public abstract class CvRaster implements AutoCloseable {
      */
     public <U> U reduce(final U identity, final PixelAggregate<Object, U> seqOp) {
         U prev = identity;
-        final int rows = rows();
+        final int rows = endRow();
         final int cols = cols();
-        for(int r = 0; r < rows; r++) {
+        for(int r = firstRow; r < rows; r++) {
             for(int c = 0; c < cols; c++) {
                 prev = seqOp.apply(prev, get(r, c), r, c);
             }
@@ -203,6 +220,122 @@ public abstract class CvRaster implements AutoCloseable {
         return prev;
     }
 
+    /**
+     * Apply the given lambda to every pixel, splitting the raster into stripes of rows that are
+     * processed concurrently on the common {@link ForkJoinPool}. The lambda will be called from
+     * multiple threads at the same time so it needs to be thread safe. See
+     * {@link CvRaster#parallelForEach(ForkJoinPool, int, PixelConsumer)}.
+     */
+    public <T> void parallelForEach(final PixelConsumer<T> consumer) {
+        parallelForEach(ForkJoinPool.commonPool(), DEFAULT_MIN_STRIPE_ROWS, consumer);
+    }
+
+    /**
+     * Apply the given lambda to every pixel, splitting the raster into stripes of rows that are
+     * processed concurrently on the given {@link ForkJoinPool}. The pool's parallelism determines
+     * the number of threads used. Stripes will have at least {@code minStripeRows} rows (except
+     * possibly a smaller image) so small images aren't split into tasks too small to be worth it.
+     * The lambda will be called from multiple threads at the same time so it needs to be thread safe.
+     */
+    public <T> void parallelForEach(final ForkJoinPool pool, final int minStripeRows, final PixelConsumer<T> consumer) {
+        overStripes(pool, minStripeRows, stripe -> {
+            stripe.forEach(consumer);
+            return null;
+        }, (a, b) -> null);
+    }
+
+    /**
+     * Apply the given lambda to every pixel, splitting the raster into stripes of rows that are
+     * processed concurrently on the common {@link ForkJoinPool}. The lambda will be called from
+     * multiple threads at the same time so it needs to be thread safe. See
+     * {@link CvRaster#parallelApply(ForkJoinPool, int, PixelSetter)}.
+     */
+    public <T> void parallelApply(final PixelSetter<T> pixelSetter) {
+        parallelApply(ForkJoinPool.commonPool(), DEFAULT_MIN_STRIPE_ROWS, pixelSetter);
+    }
+
+    /**
+     * Apply the given lambda to every pixel, splitting the raster into stripes of rows that are
+     * processed concurrently on the given {@link ForkJoinPool}. See
+     * {@link CvRaster#parallelForEach(ForkJoinPool, int, PixelConsumer)} for details.
+     */
+    public <T> void parallelApply(final ForkJoinPool pool, final int minStripeRows, final PixelSetter<T> pixelSetter) {
+        overStripes(pool, minStripeRows, stripe -> {
+            stripe.apply(pixelSetter);
+            return null;
+        }, (a, b) -> null);
+    }
+
+    /**
+     * Reduce the raster to a single value on the common {@link ForkJoinPool}. See
+     * {@link CvRaster#parallelReduce(ForkJoinPool, int, Object, PixelAggregate, BinaryOperator)}.
+     */
+    public <U> U parallelReduce(final U identity, final PixelAggregate<Object, U> seqOp, final BinaryOperator<U> combiner) {
+        return parallelReduce(ForkJoinPool.commonPool(), DEFAULT_MIN_STRIPE_ROWS, identity, seqOp, combiner);
+    }
+
+    /**
+     * Reduce the raster to a single value of type {@code U}. The raster is split into stripes of rows
+     * that are each reduced, starting from {@code identity}, on the given {@link ForkJoinPool} and the
+     * results are combined using the {@code combiner}. As with {@link java.util.stream.Stream#reduce},
+     * {@code identity} must be an identity for the {@code combiner} and the {@code combiner} must be
+     * associative. Partial results are always combined in row order so the {@code combiner} doesn't
+     * need to be commutative.
+     */
+    public <U> U parallelReduce(final ForkJoinPool pool, final int minStripeRows, final U identity, final PixelAggregate<Object, U> seqOp,
+        final BinaryOperator<U> combiner) {
+        return overStripes(pool, minStripeRows, stripe -> stripe.reduce(identity, seqOp), combiner);
+    }
+
+    private int endRow() {
+        return endRow < 0 ? rows() : endRow;
+    }
+
+    private <R> R overStripes(final ForkJoinPool pool, final int minStripeRows, final Function<CvRaster, R> stripeWork, final BinaryOperator<R> combiner) {
+        final int rows = rows();
+        final int numStripes = pool.getParallelism() * STRIPES_PER_THREAD;
+        final int stripeRows = Math.max(Math.max(minStripeRows, 1), (rows + numStripes - 1) / numStripes);
+        return pool.invoke(new StripeTask<>(mat, 0, rows, stripeRows, stripeWork, combiner));
+    }
+
+    @SuppressWarnings("serial")
+    private static class StripeTask<R> extends RecursiveTask<R> {
+        private final Mat mat;
+        private final int firstRow;
+        private final int endRow;
+        private final int stripeRows;
+        private final Function<CvRaster, R> stripeWork;
+        private final BinaryOperator<R> combiner;
+
+        private StripeTask(final Mat mat, final int firstRow, final int endRow, final int stripeRows, final Function<CvRaster, R> stripeWork,
+            final BinaryOperator<R> combiner) {
+            this.mat = mat;
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+            this.stripeRows = stripeRows;
+            this.stripeWork = stripeWork;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected R compute() {
+            if(endRow - firstRow <= stripeRows) {
+                // each stripe gets its own raster since the buffer position isn't thread safe.
+                final CvRaster stripe = makeInstance(mat);
+                stripe.firstRow = firstRow;
+                stripe.endRow = endRow;
+                return stripeWork.apply(stripe);
+            }
+
+            final int mid = firstRow + (((endRow - firstRow) / stripeRows) >>> 1) * stripeRows;
+            final StripeTask<R> top = new StripeTask<>(mat, firstRow, Math.max(mid, firstRow + stripeRows), stripeRows, stripeWork, combiner);
+            final StripeTask<R> bottom = new StripeTask<>(mat, top.endRow, endRow, stripeRows, stripeWork, combiner);
+            top.fork();
+            final R bottomResult = bottom.compute();
+            return combiner.apply(top.join(), bottomResult);
+        }
+    }
+
     /**
      * The total number of bytes in the raster.
      */
@@ -950,11 +1083,11 @@ public abstract class CvRaster implements AutoCloseable {
     }
 
     protected void iterateOver(final PixelIterator piter) {
-        final int rows = rows();
+        final int rows = endRow();
         final int cols = cols();
         final int channels = channels();
         final int colsXchannels = cols * channels;
-        for(int row = 0; row < rows; row++) {
+        for(int row = firstRow; row < rows; row++) {
             final int rowOffset = row * colsXchannels;
             for(int col = 0; col < cols; col++) {
                 piter.accept(row, col, rowOffset);
@@ -967,13 +1100,13 @@ public abstract class CvRaster implements AutoCloseable {
     }
 
     protected void iterateOver(final FlatPixelIterator piter) {
-        final int rows = rows();
+        final int rows = endRow();
         final int cols = cols();
         final int channels = channels();
         final int numElements = (rows * cols * channels);
 
-        int pixPos = 0;
-        for(int bufPos = 0; bufPos < numElements; bufPos += channels) {
+        int pixPos = firstRow * cols;
+        for(int bufPos = pixPos * channels; bufPos < numElements; bufPos += channels) {
             piter.accept(bufPos, pixPos);
             pixPos++;
         }
@@ -127,6 +127,15 @@ public class ImageAPI {
         public boolean add(int orow, int ocol, int hsr, int hsc, int hscount);
     }
 
+    // =========================================================
+    // Operations functionality
+    // =========================================================
+    // The dx, dy, gradientDir and edge Mats are only reallocated if they aren't already the right size and type.
+    // Returns 0 on failure.
+    public static native int pilecv4j_image_Operations_gradientAndCanny(long grayImage, int kernelSize, double tlow, double thigh, long dx, long dy,
+        long gradientDir, long edge);
+    // =========================================================
+
     // =========================================================
     // Hough Transform functionality
     // =========================================================
@@ -136,6 +145,19 @@ public class ImageAPI {
         final double gradientDirSlopDeg, final double quantFactor, short[] ret, int hswidth, int hsheight,
         AddHoughSpaceEntryContributorFunc hsem, int houghThreshold, int rowstart, int rowend, int colstart, int colend,
         byte EDGE);
+
+    // Returns a reference to the back map which must be freed with pilecv4j_image_Transform_freeBackMap. On return
+    // sizes[0] is the number of hough space entries and sizes[1] is the total number of contributing pixels. 'ret' is
+    // the hswidth x hsheight part of the hough space starting at hsrowstart, hscolstart.
+    public static native long pilecv4j_image_Transform_houghTransformNativeBackMap(final long image, final int width, final int height,
+        final long gradientDirImage, final byte[] mask, final int maskw, final int maskh, final int maskcr, final int maskcc,
+        final byte[] gradientDirMask, final int gdmaskw, final int gdmaskh, final int gdmaskcr, final int gdmaskcc,
+        final double gradientDirSlopDeg, final double quantFactor, short[] ret, int hswidth, int hsheight, int hsrowstart, int hscolstart,
+        int houghThreshold, int rowstart, int rowend, int colstart, int colend, byte EDGE, int numThreads, int[] sizes);
+
+    public static native void pilecv4j_image_Transform_copyBackMap(long backMap, int[] hsIndexes, int[] offsets, int[] contributors);
+
+    public static native void pilecv4j_image_Transform_freeBackMap(long backMap);
     // =========================================================
 
     // =========================================================
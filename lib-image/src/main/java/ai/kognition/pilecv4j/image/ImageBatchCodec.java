@@ -0,0 +1,325 @@
+package ai.kognition.pilecv4j.image;
+
+import javax.imageio.ImageIO;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.dempsy.util.QuietCloseable;
+
+/**
+ * <p>
+ * Decodes or encodes batches of images concurrently. This is for jobs that need to get through a large
+ * number of images (e.g. preparing a dataset) where decoding them one at a time with {@link ImageFile}
+ * leaves most of the machine idle.
+ * </p>
+ *
+ * <p>
+ * When decoding files, reading a file's bytes and decoding them happen on separate pools so the I/O
+ * for upcoming files overlaps with decoding the current ones. The bytes are read with NIO directly into
+ * native memory which is handed to OpenCV's decoder without being copied through the java heap. The number
+ * of images in flight at any one time is bounded so a huge batch doesn't have to fit in memory.
+ * </p>
+ *
+ * <p>
+ * Results are handed to a {@link Consumer} on the calling thread either in the order of the inputs or in
+ * the order they complete. A failure on an individual image is reported in its {@link Result} and doesn't
+ * stop the rest of the batch.
+ * </p>
+ *
+ * <pre>
+ * <code>
+ * try(ImageBatchCodec codec = new ImageBatchCodec(8, 4, 64);) {
+ *     codec.decode(files, false, r -&gt; {
+ *         if(r.isSuccess()) {
+ *             try(CvMat mat = r.value;) {
+ *                 ...
+ *             }
+ *         } else
+ *             LOGGER.warn("Failed to decode {}", r.source, r.error);
+ *     });
+ * }
+ * </code>
+ * </pre>
+ */
+public class ImageBatchCodec implements QuietCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageBatchCodec.class);
+
+    private static final AtomicLong threadCount = new AtomicLong(0);
+    private static final String CODEC_THREAD_NAME = "img-codec-";
+    private static final String IO_THREAD_NAME = "img-io-";
+
+    private final ExecutorService codecPool;
+    private final ExecutorService ioPool;
+    private final int maxInFlight;
+
+    /**
+     * The outcome of decoding or encoding a single image of a batch.
+     *
+     * @param <S> the type of the source for the image.
+     * @param <T> the type of the result.
+     */
+    public static class Result<S, T> {
+        /**
+         * The index of the source in the batch.
+         */
+        public final int index;
+        public final S source;
+        /**
+         * The result. This will be null if there was an error.
+         */
+        public final T value;
+        /**
+         * The error if there was one. Otherwise null.
+         */
+        public final Throwable error;
+
+        private Result(final int index, final S source, final T value, final Throwable error) {
+            this.index = index;
+            this.source = source;
+            this.value = value;
+            this.error = error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * @param codecThreads is the number of threads decoding or encoding images.
+     * @param ioThreads is the number of threads reading files.
+     * @param maxInFlight is the maximum number of images from a batch that can be in progress, or complete
+     *     but not yet handed to the {@link Consumer}, at any one time.
+     */
+    public ImageBatchCodec(final int codecThreads, final int ioThreads, final int maxInFlight) {
+        if(codecThreads <= 0 || ioThreads <= 0 || maxInFlight <= 0)
+            throw new IllegalArgumentException(
+                "The number of threads and images in flight must all be at least 1. They were " + codecThreads + ", " + ioThreads + ", " + maxInFlight);
+        this.codecPool = Executors.newFixedThreadPool(codecThreads, r -> daemon(r, CODEC_THREAD_NAME));
+        this.ioPool = Executors.newFixedThreadPool(ioThreads, r -> daemon(r, IO_THREAD_NAME));
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * A codec with a decode thread per processor.
+     */
+    public ImageBatchCodec() {
+        this(Runtime.getRuntime().availableProcessors(), Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+            4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * <p>
+     * Decode the files. Each {@link Result} is handed to the {@code consumer} on the calling thread and this
+     * call returns once they all have been. If {@code ordered} is true the results are delivered in the same
+     * order as the files. Otherwise they're delivered as they complete.
+     * </p>
+     *
+     * <p>
+     * The {@code consumer} takes ownership of the decoded {@link CvMat} and is responsible for closing it. If
+     * the {@code consumer} throws an exception the remainder of the batch is abandoned and the exception is
+     * rethrown.
+     * </p>
+     */
+    public void decode(final List<Path> files, final boolean ordered, final Consumer<Result<Path, CvMat>> consumer) throws InterruptedException {
+        run(files, ordered, consumer, this::readAndDecode, CvMat::close);
+    }
+
+    /**
+     * Encode the Mats into the format given by {@code ext} (e.g. "jpg" or ".png"). Each {@link Result} is
+     * handed to the {@code consumer} on the calling thread and this call returns once they all have been. If
+     * {@code ordered} is true the results are delivered in the same order as the Mats. Otherwise they're
+     * delivered as they complete. The Mats must not be modified or closed until this call returns.
+     */
+    public <M extends Mat> void encode(final List<M> mats, final String ext, final boolean ordered, final Consumer<Result<M, byte[]>> consumer)
+        throws InterruptedException {
+        final String dotExt = ext.startsWith(".") ? ext : ("." + ext);
+        run(mats, ordered, consumer, mat -> CompletableFuture.supplyAsync(() -> encode(mat, dotExt), codecPool), null);
+    }
+
+    /**
+     * Any images in progress are abandoned.
+     */
+    @Override
+    public void close() {
+        codecPool.shutdownNow();
+        ioPool.shutdownNow();
+    }
+
+    private static class InFlight<S, T> {
+        final int index;
+        final S source;
+        final CompletableFuture<T> future;
+
+        private InFlight(final int index, final S source, final CompletableFuture<T> future) {
+            this.index = index;
+            this.source = source;
+            this.future = future;
+        }
+
+        private Result<S, T> result() throws InterruptedException {
+            try {
+                return new Result<>(index, source, future.get(), null);
+            } catch(final ExecutionException ee) {
+                final Throwable cause = ee.getCause() instanceof CompletionException && ee.getCause().getCause() != null
+                    ? ee.getCause().getCause()
+                    : ee.getCause();
+                return new Result<>(index, source, null, cause);
+            }
+        }
+    }
+
+    private <S, T> void run(final List<S> sources, final boolean ordered, final Consumer<Result<S, T>> consumer,
+        final Function<S, CompletableFuture<T>> work, final Consumer<T> discard) throws InterruptedException {
+
+        final Semaphore permits = new Semaphore(maxInFlight);
+        // everything submitted but not yet delivered, by index.
+        final Map<Integer, InFlight<S, T>> undelivered = new HashMap<>();
+        // in submission order. Only used when ordered.
+        final ArrayDeque<InFlight<S, T>> pending = new ArrayDeque<>();
+        // in completion order. Only used when not ordered.
+        final LinkedBlockingQueue<InFlight<S, T>> completed = new LinkedBlockingQueue<>();
+
+        int next = 0;
+        boolean success = false;
+        try {
+            for(int delivered = 0; delivered < sources.size(); delivered++) {
+                // submit as much as we're allowed to.
+                while(next < sources.size() && permits.tryAcquire()) {
+                    final S source = sources.get(next);
+                    final InFlight<S, T> inFlight = new InFlight<>(next, source, work.apply(source));
+                    undelivered.put(next, inFlight);
+                    if(ordered)
+                        pending.add(inFlight);
+                    else
+                        inFlight.future.whenComplete((v, e) -> completed.add(inFlight));
+                    next++;
+                }
+
+                final InFlight<S, T> done = ordered ? pending.poll() : completed.take();
+                final Result<S, T> result = done.result();
+                undelivered.remove(done.index);
+                permits.release();
+                consumer.accept(result);
+            }
+            success = true;
+        } finally {
+            if(!success) {
+                LOGGER.debug("Abandoning {} images of a batch of {}", undelivered.size() + sources.size() - next, sources.size());
+                undelivered.values().forEach(f -> abandon(f, discard));
+            }
+        }
+    }
+
+    private static <S, T> void abandon(final InFlight<S, T> inFlight, final Consumer<T> discard) {
+        if(discard != null)
+            // the result can't be dropped on the floor so clean it up whenever it completes.
+            inFlight.future.thenAccept(discard);
+        else
+            inFlight.future.cancel(true);
+    }
+
+    private CompletableFuture<CvMat> readAndDecode(final Path file) {
+        final CompletableFuture<CvMat> read = CompletableFuture.supplyAsync(() -> readFile(file), ioPool);
+        final AtomicBoolean decoding = new AtomicBoolean(false);
+        final CompletableFuture<CvMat> ret = read.thenApplyAsync(data -> {
+            decoding.set(true);
+            try(CvMat d = data;) {
+                return decode(d, file);
+            }
+        }, codecPool);
+        // if the decode never ran (e.g. the codecPool rejected it because the codec was closed) then
+        // nothing else will close what was read.
+        ret.whenComplete((v, e) -> {
+            if(e != null && !decoding.get())
+                read.thenAccept(CvMat::close);
+        });
+        return ret;
+    }
+
+    private static CvMat readFile(final Path file) {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);) {
+            final long size = channel.size();
+            if(size > Integer.MAX_VALUE)
+                throw new IOException("The file " + file + " is too large to decode (" + size + " bytes)");
+            if(size == 0)
+                throw new IOException("The file " + file + " is empty.");
+            try(CvMat data = new CvMat(1, (int)size, CvType.CV_8UC1);) {
+                // read straight into the Mat's native memory.
+                final ByteBuffer bb = data.bulkAccessOp(b -> b);
+                while(bb.hasRemaining()) {
+                    if(channel.read(bb) < 0)
+                        throw new EOFException("The file " + file + " was truncated while it was being read.");
+                }
+                return data.returnMe();
+            }
+        } catch(final IOException ioe) {
+            throw new CompletionException(ioe);
+        }
+    }
+
+    private static CvMat decode(final CvMat data, final Path file) {
+        try(CvMat mat = ImageFile.decodeImageData(data);) {
+            if(mat != null && mat.total() > 0)
+                return mat.returnMe();
+        }
+
+        // fall back to ImageIO for what OpenCV can't decode.
+        LOGGER.debug("OCV Failed to decode '{}'. Trying ImageIO.", file);
+        final byte[] bytes = new byte[(int)data.total()];
+        data.get(0, 0, bytes);
+        final BufferedImage bi;
+        try {
+            bi = ImageIO.read(new ByteArrayInputStream(bytes));
+        } catch(final IOException ioe) {
+            throw new CompletionException(ioe);
+        }
+        if(bi == null)
+            throw new CompletionException(new IOException("Failed to decode " + file + ". The format isn't supported."));
+        return Utils.img2CvMat(bi);
+    }
+
+    private static byte[] encode(final Mat mat, final String dotExt) {
+        try(Closer closer = new Closer();) {
+            final MatOfByte mobOut = closer.addMat(new MatOfByte());
+            if(!Imgcodecs.imencode(dotExt, mat, mobOut))
+                throw new CompletionException(new IOException("Failed to encode a " + mat + " as " + dotExt));
+            return mobOut.toArray();
+        }
+    }
+
+    private static Thread daemon(final Runnable r, final String prefix) {
+        final Thread ret = new Thread(r, prefix + threadCount.getAndIncrement());
+        ret.setDaemon(true);
+        return ret;
+    }
+}
@@ -27,25 +27,41 @@ import javax.imageio.ImageWriter;
 import javax.imageio.spi.IIORegistry;
 import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
 import javax.imageio.stream.ImageOutputStream;
 
 import java.awt.Graphics;
 import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.tuple.Pair;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfByte;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
 import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 import org.slf4j.Logger;
@@ -179,7 +195,16 @@ public class ImageFile {
      * </p>
      */
     public static BufferedImage readBufferedImageFromFile(final String filename, final int imageNumber) throws IOException, IndexOutOfBoundsException {
-        return doReadBufferedImageFromFile(filename, true, imageNumber);
+        return doReadBufferedImageFromFile(filename, true, imageNumber, false);
+    }
+
+    /**
+     * The same as {@link ImageFile#readBufferedImageFromFile(String, int)} except the file is memory mapped
+     * and the ImageIO codecs read it through an {@link ImageInputStream} over the mapping rather than through
+     * their own buffered reads. See {@link ImageFile#readMatFromMappedFile(String, int)}.
+     */
+    public static BufferedImage readBufferedImageFromMappedFile(final String filename, final int imageNumber) throws IOException, IndexOutOfBoundsException {
+        return doReadBufferedImageFromFile(filename, true, imageNumber, true);
     }
 
     /**
@@ -199,13 +224,186 @@ public class ImageFile {
      * <b>Note: The caller owns the CvMat returned</b>
      */
     public static CvMat readMatFromFile(final String filename, final int mode) throws IOException {
-        return doReadMatFromFile(filename, true, mode);
+        return doReadMatFromFile(filename, true, mode, false);
     }
 
     public static CvMat readMatFromFile(final String filename) throws IOException {
         return readMatFromFile(filename, IMREAD_UNCHANGED);
     }
 
+    /**
+     * <p>
+     * The same as {@link ImageFile#readMatFromFile(String, int)} except the file is memory mapped and the
+     * mapping is handed directly to OpenCV's decoder (or, on the fallback, to the ImageIO codecs through an
+     * {@link ImageInputStream} over the mapping). The decoder reads the encoded data straight out of the page
+     * cache rather than having it copied into buffers first. This is mostly a benefit on fast storage where the
+     * copies are a significant part of the time it takes to load an image.
+     * </p>
+     *
+     * <p>
+     * The mapping is unmapped as soon as the file is decoded rather than when the garbage collector gets to it so
+     * reading many files doesn't build up mappings (which count against the OS limit, {@code vm.max_map_count} on
+     * Linux) or leave the files locked (on Windows). That relies on {@code sun.misc.Unsafe} from the
+     * {@code jdk.unsupported} module. If it's not available, the file is read the same way
+     * {@link ImageFile#readMatFromFile(String, int)} reads it instead of being mapped. Files larger than 2GB can't be
+     * read this way.
+     * </p>
+     *
+     * @return a new {@link CvMat} constructed from the decoded file contents.
+     * <b>Note: The caller owns the CvMat returned</b>
+     */
+    public static CvMat readMatFromMappedFile(final String filename, final int mode) throws IOException {
+        return doReadMatFromFile(filename, true, mode, true);
+    }
+
+    public static CvMat readMatFromMappedFile(final String filename) throws IOException {
+        return readMatFromMappedFile(filename, IMREAD_UNCHANGED);
+    }
+
+    /**
+     * <p>
+     * Read a reduced resolution {@link CvMat} from a file. The image is decoded at the smallest of 1/2, 1/4 or
+     * 1/8 of its full size that's still at least {@code minWidth} x {@code minHeight}. If no reduction satisfies
+     * the minimum then it's decoded at full size. For JPEGs the reduction is done by the decoder itself (DCT
+     * scaling) so the full size image is never produced. This is considerably faster than decoding the full
+     * image and resizing it when generating thumbnails or preparing input for small models.
+     * </p>
+     *
+     * <p>
+     * A reduced image is always 8-bit and either 3 channel color or, if the {@code mode} is
+     * {@link Imgcodecs#IMREAD_GRAYSCALE}, gray. When no reduction is possible the {@code mode} is used as is.
+     * </p>
+     *
+     * <p>
+     * The EXIF orientation is always ignored (as it is with {@link Imgcodecs#IMREAD_UNCHANGED}) so the image has the
+     * same dimensions as {@link ImageFile#imageSize(String)} reports and the minimum size applies to them.
+     * </p>
+     *
+     * @return a new {@link CvMat} constructed from the decoded file contents.
+     * <b>Note: The caller owns the CvMat returned</b>
+     */
+    public static CvMat readMatFromFile(final String filename, final int mode, final int minWidth, final int minHeight) throws IOException {
+        final Size size = imageSize(filename);
+        final int reduction = size == null ? 1 : largestReduction((int)size.width, (int)size.height, minWidth, minHeight);
+        if(reduction == 1)
+            return readMatFromFile(filename, mode == IMREAD_UNCHANGED ? mode : (mode | Imgcodecs.IMREAD_IGNORE_ORIENTATION));
+
+        final boolean gray = mode == Imgcodecs.IMREAD_GRAYSCALE;
+        final int reducedMode;
+        switch(reduction) {
+            case 2:
+                reducedMode = gray ? Imgcodecs.IMREAD_REDUCED_GRAYSCALE_2 : Imgcodecs.IMREAD_REDUCED_COLOR_2;
+                break;
+            case 4:
+                reducedMode = gray ? Imgcodecs.IMREAD_REDUCED_GRAYSCALE_4 : Imgcodecs.IMREAD_REDUCED_COLOR_4;
+                break;
+            default:
+                reducedMode = gray ? Imgcodecs.IMREAD_REDUCED_GRAYSCALE_8 : Imgcodecs.IMREAD_REDUCED_COLOR_8;
+                break;
+        }
+
+        // imageSize doesn't account for the orientation so neither can the decoder.
+        try(CvMat mat = doReadMatFromFile(filename, true, reducedMode | Imgcodecs.IMREAD_IGNORE_ORIENTATION, false);) {
+            if(mat == null)
+                return null;
+            // if OpenCV couldn't read it then the ImageIO fallback will have read the full image.
+            final int reducedWidth = ((int)size.width + reduction - 1) / reduction;
+            final int reducedHeight = ((int)size.height + reduction - 1) / reduction;
+            if(mat.cols() > reducedWidth || mat.rows() > reducedHeight) {
+                LOGGER.debug("OCV failed to do a reduced read of '{}'. Resizing the full image.", filename);
+                try(CvMat resized = new CvMat();) {
+                    Imgproc.resize(mat, resized, new Size(reducedWidth, reducedHeight), 0, 0, Imgproc.INTER_AREA);
+                    return resized.returnMe();
+                }
+            }
+            return mat.returnMe();
+        }
+    }
+
+    /**
+     * <p>
+     * Read just the given region of an image file. Every {@code subsampling}th row and column of the region is
+     * kept so 1 means the full resolution. This is done with the ImageIO codecs which, for many formats, only
+     * decode as much of the image as they need to. If no ImageIO codec can read the file, the whole file is read
+     * and the region is cut out of it.
+     * </p>
+     *
+     * @return a new {@link CvMat} constructed from the decoded region.
+     * <b>Note: The caller owns the CvMat returned</b>
+     */
+    public static CvMat readMatFromFile(final String filename, final Rect region, final int subsampling) throws IOException {
+        if(subsampling < 1)
+            throw new IllegalArgumentException("The subsampling must be at least 1. It was " + subsampling);
+
+        BufferedImage bi = null;
+        try {
+            bi = doReadBufferedImageFromFile(filename, false, 0, false, param -> {
+                param.setSourceRegion(new Rectangle(region.x, region.y, region.width, region.height));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            });
+        } catch(final IllegalArgumentException iae) {
+            LOGGER.debug("IIO Failed to read a region of '{}'. Reading the full image with OpenCV.", filename, iae);
+        }
+        if(bi != null)
+            return Utils.img2CvMat(bi);
+
+        try(CvMat full = doReadMatFromFile(filename, false, IMREAD_UNCHANGED, false);) {
+            if(full == null)
+                throw new IllegalArgumentException("Can't read '" + filename + "' as an image. No codec worked in either ImageIO or OpenCv");
+            final int x = Math.max(region.x, 0);
+            final int y = Math.max(region.y, 0);
+            final Rect clipped = new Rect(x, y, Math.min(region.x + region.width, full.cols()) - x, Math.min(region.y + region.height, full.rows()) - y);
+            if(clipped.width <= 0 || clipped.height <= 0)
+                throw new IllegalArgumentException("The region " + region + " isn't in the image which is " + full.size());
+            try(CvMat roi = CvMat.move(full.submat(clipped));
+                CvMat ret = new CvMat();) {
+                if(subsampling == 1)
+                    roi.copyTo(ret);
+                else
+                    Imgproc.resize(roi, ret, new Size((clipped.width + subsampling - 1) / subsampling, (clipped.height + subsampling - 1) / subsampling),
+                        0, 0, Imgproc.INTER_NEAREST);
+                return ret.returnMe();
+            }
+        }
+    }
+
+    /**
+     * Read the size of an image from the header of its file without decoding it. This returns null if the
+     * size can't be determined this way.
+     */
+    public static Size imageSize(final String filename) throws IOException {
+        final File f = new File(filename);
+        if(!f.exists())
+            throw new FileNotFoundException(filename);
+        int cur = 0;
+        while(true) {
+            try(ReaderAndStream ras = getNextReaderAndStream(f, cur, false)) {
+                if(ras == null)
+                    return null;
+                try {
+                    return new Size(ras.reader.getWidth(0), ras.reader.getHeight(0));
+                } catch(final IOException | RuntimeException e) {
+                    LOGGER.trace("IIO reader {} couldn't read the size of {}", ras.reader, filename, e);
+                } finally {
+                    ras.reader.dispose();
+                }
+            }
+            cur++;
+        }
+    }
+
+    /**
+     * The largest of the supported decoder reductions (2, 4, or 8) that keeps an image of the given size at
+     * least {@code minWidth} x {@code minHeight}. Returns 1 if none do.
+     */
+    static int largestReduction(final int width, final int height, final int minWidth, final int minHeight) {
+        for(int reduction = 8; reduction > 1; reduction /= 2) {
+            if((width + reduction - 1) / reduction >= minWidth && (height + reduction - 1) / reduction >= minHeight)
+                return reduction;
+        }
+        return 1;
+    }
+
     public static void writeImageFile(final BufferedImage ri, final String filename) throws IOException {
         if(!doWrite(ri, filename)) {
             LOGGER.debug("Failed to write '" + filename + "' using ImageIO");
@@ -302,18 +500,19 @@ public class ImageFile {
         return bi;
     }
 
-    private synchronized static CvMat doReadMatFromFile(final String filename, final boolean tryOther, final int mode) throws IOException {
+    private synchronized static CvMat doReadMatFromFile(final String filename, final boolean tryOther, final int mode, final boolean mapped)
+        throws IOException {
         LOGGER.trace("OCV Reading CvMat from {}", filename);
         final File f = new File(filename);
         if(!f.exists())
             throw new FileNotFoundException(filename);
 
-        final Mat omat = Imgcodecs.imread(filename, mode);
+        final Mat omat = mapped ? decodeMapped(f, mode) : Imgcodecs.imread(filename, mode);
         try(final CvMat mat = omat == null || omat.dataAddr() == 0 ? null : CvMat.move(omat);) {
             if(tryOther && (mat == null || (mat.rows() == 0 && mat.cols() == 0))) {
                 LOGGER.warn("OCV Failed to read '" + filename + "' using OpenCV");
                 try {
-                    return Utils.img2CvMat(doReadBufferedImageFromFile(filename, false, 0));
+                    return Utils.img2CvMat(doReadBufferedImageFromFile(filename, false, 0, mapped));
                 } catch(final IllegalArgumentException iae) { //
                     return null;
                 }
@@ -348,8 +547,110 @@ public class ImageFile {
         }
     }
 
-    private static ReaderAndStream getNextReaderAndStream(final File f, final int index) throws IOException {
-        final ImageInputStream input = ImageIO.createImageInputStream(f);
+    private static Mat decodeMapped(final File f, final int mode) throws IOException {
+        if(INVOKE_CLEANER == null)
+            return Imgcodecs.imread(f.getPath(), mode);
+
+        final MappedByteBuffer mapped = map(f);
+        try {
+            if(mapped.capacity() == 0)
+                return null;
+            // a Mat header over the mapping. Nothing is copied.
+            try(CvMat encoded = new CvMat(1, mapped.capacity(), CvType.CV_8UC1, mapped);) {
+                return Imgcodecs.imdecode(encoded, mode);
+            }
+        } finally {
+            // the decoded Mat doesn't share any memory with the mapping.
+            unmap(mapped);
+        }
+    }
+
+    // Unmapping is otherwise left to the garbage collector. This is null if it's not possible.
+    private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+
+    private static MethodHandle invokeCleaner() {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return MethodHandles.lookup().findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                .bindTo(theUnsafe.get(null));
+        } catch(final ReflectiveOperationException | RuntimeException e) {
+            LOGGER.info("Memory mapped files can't be explicitly unmapped so they'll be read without being mapped.", e);
+            return null;
+        }
+    }
+
+    // The buffer (and anything sharing its memory) can't be touched once this is called.
+    private static void unmap(final MappedByteBuffer mapped) {
+        try {
+            INVOKE_CLEANER.invokeExact((ByteBuffer)mapped);
+        } catch(final Throwable th) {
+            LOGGER.warn("Failed to unmap a memory mapped file. It will be unmapped when it's garbage collected.", th);
+        }
+    }
+
+    private static MappedByteBuffer map(final File f) throws IOException {
+        try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);) {
+            final long size = channel.size();
+            if(size > Integer.MAX_VALUE)
+                throw new IOException("The file " + f + " is too large (" + size + " bytes) to be memory mapped.");
+            // the mapping remains valid after the channel is closed.
+            return channel.map(MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * An {@link ImageInputStream} reading from a memory mapped file. The file is unmapped when the stream is closed.
+     */
+    private static class MappedImageInputStream extends ImageInputStreamImpl {
+        private final MappedByteBuffer data;
+
+        private MappedImageInputStream(final MappedByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // reads check that it's not closed so nothing can touch the mapping after this.
+            checkClosed();
+            super.close();
+            unmap(data);
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if(streamPos >= data.limit())
+                return -1;
+            return data.get((int)streamPos++) & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            checkClosed();
+            Objects.checkFromIndexSize(off, len, b.length);
+            if(len == 0)
+                return 0;
+            bitOffset = 0;
+            final long remaining = data.limit() - streamPos;
+            if(remaining <= 0)
+                return -1;
+            final int toRead = (int)Math.min(len, remaining);
+            data.get((int)streamPos, b, off, toRead);
+            streamPos += toRead;
+            return toRead;
+        }
+
+        @Override
+        public long length() {
+            return data.limit();
+        }
+    }
+
+    private static ReaderAndStream getNextReaderAndStream(final File f, final int index, final boolean mapped) throws IOException {
+        final ImageInputStream input = (mapped && INVOKE_CLEANER != null) ? new MappedImageInputStream(map(f)) : ImageIO.createImageInputStream(f);
 
         final Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
         int cur = 0;
@@ -368,7 +669,13 @@ public class ImageFile {
         return reader == null ? null : new ReaderAndStream(reader, input);
     }
 
-    private static BufferedImage doReadBufferedImageFromFile(final String filename, final boolean tryOther, final int imageNumber) throws IOException {
+    private static BufferedImage doReadBufferedImageFromFile(final String filename, final boolean tryOther, final int imageNumber, final boolean mapped)
+        throws IOException {
+        return doReadBufferedImageFromFile(filename, tryOther, imageNumber, mapped, null);
+    }
+
+    private static BufferedImage doReadBufferedImageFromFile(final String filename, final boolean tryOther, final int imageNumber, final boolean mapped,
+        final Consumer<ImageReadParam> paramSetup) throws IOException {
         final File f = new File(filename);
         if(!f.exists())
             throw new FileNotFoundException(filename);
@@ -376,11 +683,13 @@ public class ImageFile {
         Exception lastException = null;
         int cur = 0;
         while(true) {
-            try(ReaderAndStream ras = getNextReaderAndStream(f, cur)) {
+            try(ReaderAndStream ras = getNextReaderAndStream(f, cur, mapped)) {
                 if(ras != null) {
                     final ImageReader reader = ras.reader;
                     final ImageReadParam param = reader.getDefaultReadParam();
                     try {
+                        if(paramSetup != null)
+                            paramSetup.accept(param);
                         LOGGER.trace("IIO attempt {}. Using reader {} to read {} ", cur, reader, filename);
                         final BufferedImage image = reader.read(imageNumber, param);
                         return image;
@@ -419,7 +728,7 @@ public class ImageFile {
             throw new IllegalArgumentException("Can't read '" + filename + "' as an image. No codec worked in ImageIO");
 
         BufferedImage ret = null;
-        try(final CvMat mat = doReadMatFromFile(filename, false, IMREAD_UNCHANGED);) {
+        try(final CvMat mat = doReadMatFromFile(filename, false, IMREAD_UNCHANGED, mapped);) {
             if(mat == null) {
                 if(lastException != null)
                     throw new IllegalArgumentException("Can't read '" + filename + "' as an image. No codec worked in either ImageIO or OpenCv", lastException);
@@ -0,0 +1,258 @@
+package ai.kognition.pilecv4j.image;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Scalar;
+
+import net.dempsy.util.QuietCloseable;
+
+/**
+ * <p>
+ * A slab of reusable native Mats for short lived intermediates. Mats are kept, once they've been used, in
+ * a free list keyed by their size and type and handed out again for the next request of the same shape. A
+ * pipeline that runs on a frame after frame of the same size will, after the first frame, stop allocating
+ * and freeing native memory for its temporaries altogether. This avoids both the cost of the allocations and
+ * the native heap fragmentation from constantly churning large, frame sized buffers.
+ * </p>
+ *
+ * <p>
+ * Mats are obtained through a {@link Scope} which is a {@link Closer}. Closing the scope gives all of the
+ * Mats obtained from it back to the arena.
+ * </p>
+ *
+ * <pre>
+ * <code>
+ * try(final MatArena.Scope scope = arena.scope();) {
+ *     final CvMat gray = scope.get(frame.rows(), frame.cols(), CvType.CV_8UC1);
+ *     Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+ *     final CvMat edges = scope.get();
+ *     Imgproc.Canny(gray, edges, 50, 150);
+ *     ...
+ * }
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * A Mat from a scope can also be closed directly, which gives it back early. To hand one out of a
+ * scope use {@link CvMat#returnMe()}. It will be given back to the arena when it's eventually closed.
+ * </p>
+ *
+ * <p>
+ * An arena is thread safe so it can be shared. A {@link Scope} isn't meant to be shared between threads.
+ * </p>
+ */
+public class MatArena implements QuietCloseable {
+    /**
+     * The default maximum number of idle Mats of any one shape that will be kept.
+     */
+    public static final int DEFAULT_MAX_RESIDENT_PER_SHAPE = 8;
+
+    private final int maxResidentPerShape;
+    private final Map<Shape, ConcurrentLinkedQueue<ArenaMat>> free = new ConcurrentHashMap<>();
+    private final AtomicLong numAllocated = new AtomicLong(0);
+    private final AtomicLong resident = new AtomicLong(0);
+    private volatile boolean closed = false;
+
+    public MatArena() {
+        this(DEFAULT_MAX_RESIDENT_PER_SHAPE);
+    }
+
+    /**
+     * @param maxResidentPerShape is the maximum number of idle Mats of any one shape that will be kept. Beyond
+     *     that, Mats given back to the arena are freed.
+     */
+    public MatArena(final int maxResidentPerShape) {
+        this.maxResidentPerShape = maxResidentPerShape;
+    }
+
+    /**
+     * Start a new scope for obtaining Mats from this arena.
+     */
+    public Scope scope() {
+        if(closed)
+            throw new IllegalStateException("The " + MatArena.class.getSimpleName() + " is closed.");
+        return new Scope();
+    }
+
+    /**
+     * Free all of the idle Mats. Any Mats still in use will be freed rather than kept once they're given back.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        free.values().forEach(q -> {
+            for(ArenaMat m = q.poll(); m != null; m = q.poll()) {
+                resident.decrementAndGet();
+                m.reallyClose();
+            }
+        });
+    }
+
+    /**
+     * The total number of native Mats this arena has allocated.
+     */
+    public long numAllocated() {
+        return numAllocated.get();
+    }
+
+    /**
+     * The number of idle Mats currently held by the arena.
+     */
+    public long numResident() {
+        return resident.get();
+    }
+
+    /**
+     * A {@link Closer} that hands out Mats from the arena and gives them all back when it's closed. Anything
+     * else can be added to it the same as any other {@link Closer}.
+     */
+    public class Scope extends Closer {
+        private Scope() {}
+
+        /**
+         * Get a Mat of the given size and type. The contents are whatever was left in it by its last use.
+         */
+        public CvMat get(final int rows, final int cols, final int type) {
+            return lease(MatArena.this.get(new Shape(rows, cols, type)));
+        }
+
+        /**
+         * Get a Mat of the given size and type filled with zeros.
+         */
+        public CvMat zeros(final int rows, final int cols, final int type) {
+            final CvMat ret = get(rows, cols, type);
+            ret.setTo(new Scalar(0));
+            return ret;
+        }
+
+        /**
+         * Get an empty Mat. This is for the output of an operation when its size isn't known ahead of time. Once
+         * it's given back it will be kept according to the size and type the operation gave it, and then reused
+         * from {@link Scope#get(int, int, int)} requests for that shape.
+         */
+        public CvMat get() {
+            if(closed)
+                throw new IllegalStateException("The " + MatArena.class.getSimpleName() + " is closed.");
+            numAllocated.incrementAndGet();
+            return lease(new ArenaMat(MatArena.this));
+        }
+
+        private CvMat lease(final ArenaMat mat) {
+            final long leaseId = mat.lease();
+            add((QuietCloseable)() -> mat.giveBack(leaseId));
+            return mat;
+        }
+    }
+
+    private ArenaMat get(final Shape shape) {
+        if(closed)
+            throw new IllegalStateException("The " + MatArena.class.getSimpleName() + " is closed.");
+        final ConcurrentLinkedQueue<ArenaMat> q = free.get(shape);
+        final ArenaMat ret = q == null ? null : q.poll();
+        if(ret != null) {
+            resident.decrementAndGet();
+            return ret;
+        }
+        numAllocated.incrementAndGet();
+        return new ArenaMat(MatArena.this, shape);
+    }
+
+    // called from ArenaMat when it's given back
+    private void returnToArena(final ArenaMat mat) {
+        final Shape shape = (mat.dims() == 2 && mat.total() > 0) ? new Shape(mat.rows(), mat.cols(), mat.type()) : null;
+        if(closed || shape == null) {
+            mat.reallyClose();
+            return;
+        }
+
+        final ConcurrentLinkedQueue<ArenaMat> q = free.computeIfAbsent(shape, s -> new ConcurrentLinkedQueue<>());
+        if(q.size() >= maxResidentPerShape) {
+            mat.reallyClose();
+            return;
+        }
+        q.add(mat);
+        resident.incrementAndGet();
+
+        // we may have raced with close.
+        if(closed && q.remove(mat)) {
+            resident.decrementAndGet();
+            mat.reallyClose();
+        }
+    }
+
+    private static record Shape(int rows, int cols, int type) {
+        @Override
+        public String toString() {
+            return rows + "x" + cols + " " + CvType.typeToString(type);
+        }
+    }
+
+    private static class ArenaMat extends CvMat {
+        private final MatArena arena;
+        private final AtomicInteger leaseCount = new AtomicInteger(0);
+        private boolean leased = false;
+        // the lease that returnMe took the Mat away from. -1 if none.
+        private long detachedLease = -1;
+
+        private ArenaMat(final MatArena arena, final Shape shape) {
+            super(shape.rows, shape.cols, shape.type);
+            this.arena = arena;
+        }
+
+        private ArenaMat(final MatArena arena) {
+            super();
+            this.arena = arena;
+        }
+
+        private synchronized long lease() {
+            leased = true;
+            return leaseCount.incrementAndGet();
+        }
+
+        // Only gives the Mat back if it's still on the given lease. This keeps a scope from giving back
+        // a Mat that was closed early and has since been handed out to someone else, or that was handed
+        // out of the scope with returnMe.
+        private synchronized void giveBack(final long leaseId) {
+            if(leaseId == detachedLease) {
+                detachedLease = -1;
+                // if the Mat wasn't closed on the way out of the scope then the scope closing stands in for it.
+                skipCloseOnceForReturn = false;
+                return;
+            }
+            if(!leased || leaseId != leaseCount.get())
+                return;
+            if(skipCloseOnceForReturn) {
+                skipCloseOnceForReturn = false;
+                return;
+            }
+            leased = false;
+            detachedLease = -1;
+            arena.returnToArena(this);
+        }
+
+        // The caller of returnMe owns the Mat from now on so it's moved onto a new lease that the scope it came
+        // from doesn't know about. It's given back to the arena when the new owner closes it.
+        @Override
+        public synchronized CvMat returnMe() {
+            if(leased) {
+                detachedLease = leaseCount.get();
+                leaseCount.incrementAndGet();
+            }
+            return super.returnMe();
+        }
+
+        @Override
+        public void close() {
+            giveBack(leaseCount.get());
+        }
+
+        private void reallyClose() {
+            super.close();
+        }
+    }
+}
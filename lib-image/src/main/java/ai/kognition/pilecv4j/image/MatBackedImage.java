@@ -0,0 +1,187 @@
+package ai.kognition.pilecv4j.image;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+
+import com.sun.jna.Pointer;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import net.dempsy.util.QuietCloseable;
+
+/**
+ * <p>
+ * A {@link BufferedImage} and a {@link CvMat} that share the same pixels. Unlike {@link Utils#mat2Img(Mat)}
+ * and {@link Utils#img2CvMat(BufferedImage)}, nothing is copied when going between the two. Drawing on the
+ * {@link BufferedImage} with a {@link java.awt.Graphics2D} changes the Mat and processing the Mat with OpenCV
+ * changes the image.
+ * </p>
+ *
+ * <p>
+ * Since the pixels of a {@link BufferedImage} normally live in a java array, which can be moved by
+ * the garbage collector, the sharing is done the other way around. The pixels stay in the Mat's native
+ * memory and the {@link BufferedImage} is built on a {@link DataBuffer} that reads and writes that memory.
+ * The layout of the image is the same as {@link BufferedImage#TYPE_BYTE_GRAY} for a {@code CV_8UC1} Mat and
+ * {@link BufferedImage#TYPE_3BYTE_BGR} for a {@code CV_8UC3} Mat, though {@link BufferedImage#getType()} will
+ * report {@link BufferedImage#TYPE_CUSTOM}. Java2D has to go through the {@link DataBuffer} a pixel at a time
+ * for a custom {@link DataBuffer} so this is best for moving whole frames between OpenCV and AWT/Swing code
+ * rather than for heavy drawing.
+ * </p>
+ *
+ * <p>
+ * The {@link BufferedImage} can only be used until this is closed. After that, accessing its pixels will throw
+ * an {@link IllegalStateException}. Passing it to {@link Utils#img2CvMat(BufferedImage)} gives a Mat that
+ * shares the pixels rather than a copy.
+ * </p>
+ */
+public class MatBackedImage implements QuietCloseable {
+    private final CvMat mat;
+    private final MatDataBuffer dataBuffer;
+    private final BufferedImage image;
+
+    private MatBackedImage(final CvMat mat) {
+        this.mat = mat;
+        final int channels = mat.channels();
+        final int width = mat.cols();
+        final int height = mat.rows();
+
+        final Pointer data = ImageAPI.pilecv4j_image_CvRaster_getData(mat.nativeObj);
+        if(Pointer.nativeValue(data) == 0)
+            throw new IllegalArgumentException("Cannot access raw data in Mat. It may be uninitialized.");
+        dataBuffer = new MatDataBuffer(data.getByteBuffer(0, mat.total() * channels), (int)(mat.total() * channels));
+
+        final ColorModel cm;
+        final int[] bandOffsets;
+        if(channels == 1) {
+            cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), new int[] {8}, false, true, Transparency.OPAQUE,
+                DataBuffer.TYPE_BYTE);
+            bandOffsets = new int[] {0};
+        } else {
+            cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), new int[] {8,8,8}, false, false, Transparency.OPAQUE,
+                DataBuffer.TYPE_BYTE);
+            // the Mat is BGR
+            bandOffsets = new int[] {2,1,0};
+        }
+        final PixelInterleavedSampleModel sm = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, width, height, channels, width * channels,
+            bandOffsets);
+        final WritableRaster raster = Raster.createWritableRaster(sm, dataBuffer, null);
+        image = new BufferedImage(cm, raster, false, null);
+    }
+
+    /**
+     * Create a {@link BufferedImage} that shares the pixels of the given Mat. The Mat must be continuous and
+     * either {@code CV_8UC1} (gray) or {@code CV_8UC3} (BGR). The Mat itself can be closed independently of
+     * the returned {@link MatBackedImage} which keeps its own reference to the data.
+     */
+    public static MatBackedImage wrap(final Mat mat) {
+        final int type = mat.type();
+        if(type != CvType.CV_8UC1 && type != CvType.CV_8UC3)
+            throw new IllegalArgumentException("Only CV_8UC1 and CV_8UC3 Mats can be shared with a BufferedImage. This one is " + CvType.typeToString(type));
+        if(!mat.isContinuous())
+            throw new IllegalArgumentException("Only a continuous Mat can be shared with a BufferedImage.");
+        try(final CvMat shared = CvMat.shallowCopy(mat);) {
+            if(shared == null)
+                throw new IllegalArgumentException("Failed to share the Mat.");
+            return new MatBackedImage(shared.returnMe());
+        }
+    }
+
+    /**
+     * Create a new image of the given size with its pixels in a Mat. The {@code bufferedImageType} can be either
+     * {@link BufferedImage#TYPE_BYTE_GRAY} or {@link BufferedImage#TYPE_3BYTE_BGR} and determines whether the
+     * Mat will be {@code CV_8UC1} or {@code CV_8UC3}.
+     */
+    public static MatBackedImage create(final int width, final int height, final int bufferedImageType) {
+        final int type;
+        if(bufferedImageType == BufferedImage.TYPE_BYTE_GRAY)
+            type = CvType.CV_8UC1;
+        else if(bufferedImageType == BufferedImage.TYPE_3BYTE_BGR)
+            type = CvType.CV_8UC3;
+        else
+            throw new IllegalArgumentException(
+                "Only BufferedImage.TYPE_BYTE_GRAY and BufferedImage.TYPE_3BYTE_BGR images can be backed by a Mat. Type " + bufferedImageType
+                    + " was requested.");
+        try(final CvMat mat = CvMat.zeros(height, width, type);) {
+            return new MatBackedImage(mat.returnMe());
+        }
+    }
+
+    /**
+     * The {@link BufferedImage}. It's only usable until this {@link MatBackedImage} is closed.
+     */
+    public BufferedImage image() {
+        return image;
+    }
+
+    /**
+     * The Mat holding the pixels. This is owned by the {@link MatBackedImage} and shouldn't be closed. To keep
+     * a reference to the pixels beyond the life of the {@link MatBackedImage} use {@link CvMat#shallowCopy(Mat)}.
+     * Anything that would reallocate the Mat (e.g. using it as the output of an operation that changes its size
+     * or type) will disconnect it from the image.
+     */
+    public CvMat mat() {
+        return mat;
+    }
+
+    @Override
+    public void close() {
+        dataBuffer.invalidate();
+        mat.close();
+    }
+
+    /**
+     * If the given {@link BufferedImage} came from a {@link MatBackedImage} that's still open, return a new Mat
+     * that shares its pixels. Otherwise return null.
+     */
+    static CvMat sharedMat(final BufferedImage image) {
+        final WritableRaster raster = image.getRaster();
+        // a sub-image is offset into its parent's pixels.
+        if(raster.getParent() != null || !(raster.getDataBuffer() instanceof MatDataBuffer))
+            return null;
+        final MatDataBuffer db = (MatDataBuffer)raster.getDataBuffer();
+        if(!db.valid)
+            return null;
+        return CvMat.shallowCopy(db.owner.mat);
+    }
+
+    private class MatDataBuffer extends DataBuffer {
+        private final ByteBuffer data;
+        private final MatBackedImage owner = MatBackedImage.this;
+        private volatile boolean valid = true;
+
+        private MatDataBuffer(final ByteBuffer data, final int size) {
+            super(DataBuffer.TYPE_BYTE, size);
+            this.data = data;
+        }
+
+        private void invalidate() {
+            valid = false;
+        }
+
+        @Override
+        public int getElem(final int bank, final int i) {
+            checkValid();
+            return data.get(i + offsets[bank]) & 0xff;
+        }
+
+        @Override
+        public void setElem(final int bank, final int i, final int val) {
+            checkValid();
+            data.put(i + offsets[bank], (byte)val);
+        }
+
+        private void checkValid() {
+            if(!valid)
+                throw new IllegalStateException("The image is being used after its " + MatBackedImage.class.getSimpleName() + " was closed.");
+        }
+    }
+}
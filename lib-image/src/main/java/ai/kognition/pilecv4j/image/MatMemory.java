@@ -0,0 +1,211 @@
+package ai.kognition.pilecv4j.image;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.sun.jna.Pointer;
+
+import org.opencv.core.Mat;
+
+/**
+ * <p>
+ * Access to a Mat's data by (long) byte offset. This is an alternative to the {@link ByteBuffer} from
+ * {@link CvMat#bulkAccess(Mat, java.util.function.Consumer)} for when that's not enough:
+ * </p>
+ *
+ * <ul>
+ * <li>A {@link ByteBuffer} can't address more than 2GB. Offsets here are longs so very large Mats
+ * (e.g. stitched panoramas or large tensors) can be accessed directly.</li>
+ * <li>The Mat doesn't need to be continuous. The offsets follow the Mat's layout ({@code Mat.step}) for
+ * any number of dimensions so a submat or an N dimensional Mat can be accessed in place.</li>
+ * </ul>
+ *
+ * <p>
+ * A {@link MatMemory} is obtained using {@link CvMat#memoryAccess(Mat, java.util.function.Consumer)} (or
+ * {@link CvMat#memoryAccessOp(Mat, java.util.function.Function)}) and is only valid for the duration of that call. Using it
+ * afterward will throw an {@link IllegalStateException} rather than touching memory the Mat may no longer own.
+ * Every access is bounds checked against the extent of the Mat's data.
+ * </p>
+ */
+public class MatMemory {
+    private final Pointer data;
+    private final int[] sizes;
+    private final long[] steps;
+    private final long elemSize;
+    private final long extent;
+    private boolean valid = true;
+
+    MatMemory(final Mat mat) {
+        final Pointer dataPtr = ImageAPI.pilecv4j_image_CvRaster_getData(mat.nativeObj);
+        if(Pointer.nativeValue(dataPtr) == 0)
+            throw new IllegalArgumentException("Cannot access raw data in Mat. It may be uninitialized.");
+        this.data = dataPtr;
+        final int dims = mat.dims();
+        this.sizes = new int[dims];
+        this.steps = new long[dims];
+        this.elemSize = mat.elemSize();
+        final long elemSize1 = mat.elemSize1();
+        long lastByte = 0;
+        for(int i = 0; i < dims; i++) {
+            sizes[i] = mat.size(i);
+            steps[i] = mat.step1(i) * elemSize1;
+            lastByte += (sizes[i] - 1) * steps[i];
+        }
+        this.extent = mat.total() == 0 ? 0 : lastByte + elemSize;
+    }
+
+    void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * The number of dimensions of the Mat.
+     */
+    public int dims() {
+        return sizes.length;
+    }
+
+    /**
+     * The size of the given dimension.
+     */
+    public int size(final int dim) {
+        return sizes[dim];
+    }
+
+    /**
+     * The number of bytes between successive elements of the given dimension. This is the Mat's {@code step[dim]}.
+     */
+    public long step(final int dim) {
+        return steps[dim];
+    }
+
+    /**
+     * The number of bytes in a single element (all of the channels of a pixel).
+     */
+    public long elemSize() {
+        return elemSize;
+    }
+
+    /**
+     * The number of bytes from the first to the last byte of the Mat's data (inclusive). For a continuous
+     * Mat this is the total size of the data.
+     */
+    public long extent() {
+        return extent;
+    }
+
+    /**
+     * The native address of the first byte of the Mat's data.
+     */
+    public long address() {
+        checkValid();
+        return Pointer.nativeValue(data);
+    }
+
+    /**
+     * The byte offset of the element at (row, col) of a 2 dimensional Mat.
+     */
+    public long offset(final int row, final int col) {
+        return (row * steps[0]) + (col * steps[1]);
+    }
+
+    /**
+     * The byte offset of the element at the given index. There must be an index for each dimension.
+     */
+    public long offset(final int... idx) {
+        if(idx.length != steps.length)
+            throw new IllegalArgumentException("There are " + steps.length + " dimensions but " + idx.length + " indices were supplied.");
+        long ret = 0;
+        for(int i = 0; i < idx.length; i++)
+            ret += idx[i] * steps[i];
+        return ret;
+    }
+
+    public byte getByte(final long offset) {
+        check(offset, Byte.BYTES);
+        return data.getByte(offset);
+    }
+
+    public void putByte(final long offset, final byte value) {
+        check(offset, Byte.BYTES);
+        data.setByte(offset, value);
+    }
+
+    public short getShort(final long offset) {
+        check(offset, Short.BYTES);
+        return data.getShort(offset);
+    }
+
+    public void putShort(final long offset, final short value) {
+        check(offset, Short.BYTES);
+        data.setShort(offset, value);
+    }
+
+    public int getInt(final long offset) {
+        check(offset, Integer.BYTES);
+        return data.getInt(offset);
+    }
+
+    public void putInt(final long offset, final int value) {
+        check(offset, Integer.BYTES);
+        data.setInt(offset, value);
+    }
+
+    public float getFloat(final long offset) {
+        check(offset, Float.BYTES);
+        return data.getFloat(offset);
+    }
+
+    public void putFloat(final long offset, final float value) {
+        check(offset, Float.BYTES);
+        data.setFloat(offset, value);
+    }
+
+    public double getDouble(final long offset) {
+        check(offset, Double.BYTES);
+        return data.getDouble(offset);
+    }
+
+    public void putDouble(final long offset, final double value) {
+        check(offset, Double.BYTES);
+        data.setDouble(offset, value);
+    }
+
+    /**
+     * Copy {@code length} bytes starting at {@code offset} into {@code dst}.
+     */
+    public void read(final long offset, final byte[] dst, final int dstIndex, final int length) {
+        check(offset, length);
+        data.read(offset, dst, dstIndex, length);
+    }
+
+    /**
+     * Copy {@code length} bytes from {@code src} into the Mat starting at {@code offset}.
+     */
+    public void write(final long offset, final byte[] src, final int srcIndex, final int length) {
+        check(offset, length);
+        data.write(offset, src, srcIndex, length);
+    }
+
+    /**
+     * A {@link ByteBuffer} window on {@code length} bytes of the Mat's data starting at {@code offset}. This
+     * lets existing {@link ByteBuffer} based code work on a part (e.g. a row) of a Mat too large to fit in a
+     * single {@link ByteBuffer}. Like the {@link MatMemory} itself, it's only valid for the duration of the call
+     * that provided it, but that can't be enforced on the {@link ByteBuffer}.
+     */
+    public ByteBuffer window(final long offset, final int length) {
+        check(offset, length);
+        return data.getByteBuffer(offset, length).order(ByteOrder.nativeOrder());
+    }
+
+    private void check(final long offset, final long length) {
+        checkValid();
+        if(offset < 0 || length < 0 || offset + length > extent)
+            throw new IndexOutOfBoundsException("Access to " + length + " bytes at " + offset + " is outside of the Mat's data which is " + extent + " bytes");
+    }
+
+    private void checkValid() {
+        if(!valid)
+            throw new IllegalStateException("The " + MatMemory.class.getSimpleName() + " is being used outside of the call that provided it.");
+    }
+}
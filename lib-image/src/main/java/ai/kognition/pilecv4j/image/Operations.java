@@ -69,6 +69,14 @@ public class Operations {
             this.dy = dy;
         }
 
+        /**
+         * Empty gradient images to be filled in, and refilled on each subsequent call, by
+         * {@link Operations#gradientAndCanny(CvMat, int, double, double, GradientImages, CvMat)}.
+         */
+        public GradientImages() {
+            this(new CvMat(), new CvMat(), new CvMat());
+        }
+
         @Override
         public void close() {
             gradientDir.close();
@@ -90,50 +98,101 @@ public class Operations {
     }
 
     public static GradientImages gradient(final CvMat grayImage, final int kernelSize) {
+        final GradientImages ret = new GradientImages();
+        try {
+            gradient(grayImage, kernelSize, ret);
+        } catch(final RuntimeException rte) {
+            ret.close();
+            throw rte;
+        }
+        return ret;
+    }
+
+    /**
+     * The same as {@link #gradient(CvMat, int)} but the results are written into {@code dst}. Its images are only
+     * reallocated if they aren't already the right size and type so, when processing a series of images of the
+     * same size, passing the same {@code dst} each time reuses their buffers.
+     *
+     * @param dst receives the gradient images. Use {@link GradientImages#GradientImages()} to create an empty one
+     *     the first time.
+     */
+    public static void gradient(final CvMat grayImage, final int kernelSize, final GradientImages dst) {
+        final CvMat dx = dst.dx;
+        final CvMat dy = dst.dy;
 
         // find gradient image
-        try(final CvMat dx = new CvMat();
-            final CvMat dy = new CvMat();) {
-            Imgproc.Sobel(grayImage, dx, CvType.CV_16S, 1, 0, kernelSize, 1.0, 0.0, Core.BORDER_REPLICATE);
-            Imgproc.Sobel(grayImage, dy, CvType.CV_16S, 0, 1, kernelSize, 1.0, 0.0, Core.BORDER_REPLICATE);
-            final int numPixelsInGradient = dx.rows() * dx.cols();
-            final byte[] dirsa = new byte[numPixelsInGradient];
-
-            dx.bulkAccess(dxr -> {
-                dx.elemSize();
-                final var dxsb = dxr.asShortBuffer();
-                dy.bulkAccess(dyr -> {
-                    final var dysb = dyr.asShortBuffer();
+        Imgproc.Sobel(grayImage, dx, CvType.CV_16S, 1, 0, kernelSize, 1.0, 0.0, Core.BORDER_REPLICATE);
+        Imgproc.Sobel(grayImage, dy, CvType.CV_16S, 0, 1, kernelSize, 1.0, 0.0, Core.BORDER_REPLICATE);
+        final int numPixelsInGradient = dx.rows() * dx.cols();
+
+        // a byte raster to hold the dirs. This is a noop if it's already the right size. The loop below
+        // needs it continuous so a reused one that isn't (e.g. a submat) is reallocated.
+        if(!dst.gradientDir.isContinuous())
+            dst.gradientDir.release();
+        dst.gradientDir.create(dx.rows(), dx.cols(), CvType.CV_8UC1);
+
+        dx.bulkAccess(dxr -> {
+            final var dxsb = dxr.asShortBuffer();
+            dy.bulkAccess(dyr -> {
+                final var dysb = dyr.asShortBuffer();
+                dst.gradientDir.bulkAccess(dirsa -> {
                     for(int pos = 0; pos < numPixelsInGradient; pos++) {
                         // calculate the angle
                         final double dxv = dxsb.get(pos);
                         final double dyv = 0.0 - dysb.get(pos); // flip y axis.
-                        dirsa[pos] = angle_byte(dxv, dyv);
+                        dirsa.put(pos, angle_byte(dxv, dyv));
                     }
                 });
             });
+        });
+    }
 
-            // a byte raster to hold the dirs
-            try(final CvMat gradientDirImage = new CvMat(dx.rows(), dx.cols(), CvType.CV_8UC1);) {
-                gradientDirImage.put(0, 0, dirsa);
-                final GradientImages ret = new GradientImages(gradientDirImage.returnMe(), dx.returnMe(), dy.returnMe());
-                return ret;
-            }
-        }
+    /**
+     * <p>
+     * This computes the same thing as {@link #gradient(CvMat, int)} followed by {@link #canny(GradientImages, double, double)}
+     * but does it natively, computing the gradient direction image while it's making the pass over the Sobel
+     * results rather than copying them onto the java heap. The results are written into the {@code dst} and
+     * {@code edgeImage} which are only reallocated if they aren't already the right size and type so, when processing
+     * a series of images of the same size, passing the same ones in each time reuses their buffers.
+     * </p>
+     *
+     * <p>
+     * The {@code grayImage} must be a single channel image.
+     * </p>
+     *
+     * @param dst receives the gradient images. Use {@link GradientImages#GradientImages()} to create an empty one
+     *     the first time.
+     * @param edgeImage receives the edge detection results.
+     */
+    public static void gradientAndCanny(final CvMat grayImage, final int kernelSize, final double tlow, final double thigh, final GradientImages dst,
+        final CvMat edgeImage) {
+        if(grayImage.channels() != 1)
+            throw new IllegalArgumentException("gradientAndCanny requires a single channel image but was given one with " + grayImage.channels());
+        if(ImageAPI.pilecv4j_image_Operations_gradientAndCanny(grayImage.nativeObj, kernelSize, tlow, thigh, dst.dx.nativeObj, dst.dy.nativeObj,
+            dst.gradientDir.nativeObj, edgeImage.nativeObj) == 0)
+            throw new IllegalStateException("Failed to compute the gradient and edge images. See the native log for details.");
     }
 
     public static CvMat convertToGray(final CvMat src) {
-        final CvMat workingImage = new CvMat();
+        try(final CvMat workingImage = new CvMat();) {
+            convertToGray(src, workingImage);
+            return workingImage.returnMe();
+        }
+    }
+
+    /**
+     * The same as {@link #convertToGray(CvMat)} but the result is written into {@code dst} which is only reallocated
+     * if it isn't already the right size and type. When {@code src} isn't 8-bit it's converted to 8-bit in {@code dst}
+     * first and then converted to gray in place which does allocate a new buffer for {@code dst}. Passing an
+     * 8-bit {@code src} avoids that.
+     */
+    public static void convertToGray(final CvMat src, final CvMat dst) {
         if(src.depth() != CvType.CV_8U) {
             LOGGER.debug("converting image to 8-bit grayscale ... ");
-            src.convertTo(workingImage, CvType.CV_8U, 255.0 / cvrtScaleDenom[src.depth()]);
-            Imgproc.cvtColor(workingImage, workingImage, Imgproc.COLOR_BGR2GRAY);
-            return workingImage;
-        } else {
-            src.copyTo(workingImage);
-            Imgproc.cvtColor(src, workingImage, Imgproc.COLOR_BGR2GRAY);
-            return workingImage;
-        }
+            src.convertTo(dst, CvType.CV_8U, 255.0 / cvrtScaleDenom[src.depth()]);
+            Imgproc.cvtColor(dst, dst, Imgproc.COLOR_BGR2GRAY);
+        } else
+            Imgproc.cvtColor(src, dst, Imgproc.COLOR_BGR2GRAY);
     }
 
     public static IndexColorModel getOverlayCM() {
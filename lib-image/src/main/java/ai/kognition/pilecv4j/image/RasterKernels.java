@@ -0,0 +1,234 @@
+package ai.kognition.pilecv4j.image;
+
+import java.nio.ByteBuffer;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Fast versions of some common per-pixel operations that are still done in Java rather than through
+ * OpenCV. These work directly on the Mat's data (see {@link CvMat#bulkAccess(Mat, java.util.function.Consumer)})
+ * rather than pixel by pixel through a {@link CvRaster}.
+ * </p>
+ *
+ * <p>
+ * The data is moved through a pair of small reusable arrays in large blocks and each kernel is a simple
+ * loop over those arrays with no per pixel allocation. The JIT will vectorize some of the single channel
+ * loops but not the strided multi-channel ones.
+ * </p>
+ *
+ * <p>
+ * Those can optionally be done with the incubating Vector API instead. That version is only built into the jar
+ * with the {@code vector-kernels} Maven profile and it's only used when the JVM is also run with
+ * {@code --add-modules jdk.incubator.vector} and the platform's preferred vector shape is supported. Otherwise,
+ * and by default, the scalar loops are used. Setting the system property {@code pilecv4j.VECTOR_KERNELS} to
+ * {@code false} turns the Vector API version off.
+ * </p>
+ *
+ * <p>
+ * All of these currently require continuous Mats with a depth of {@code CV_8U} unless noted otherwise.
+ * </p>
+ */
+public class RasterKernels {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RasterKernels.class);
+
+    // The number of bytes moved in and out of the Mats at a time.
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    static final BlockKernels KERNELS = kernels();
+
+    private RasterKernels() {}
+
+    /**
+     * The same as OpenCV's binary threshold ({@code Imgproc.THRESH_BINARY}). Each channel value in {@code dst}
+     * is set to {@code maxVal} if the corresponding value in {@code src} is greater than {@code thresh}, otherwise
+     * it's set to zero. {@code dst} will be (re)allocated to the size and type of {@code src} if necessary. It can
+     * be the same Mat as {@code src}.
+     */
+    public static void threshold(final Mat src, final Mat dst, final int thresh, final int maxVal) {
+        check8U(src, "src");
+        dst.create(src.rows(), src.cols(), src.type());
+
+        // saturate the same way OpenCV does
+        final byte max = (byte)Math.min(Math.max(maxVal, 0), 255);
+        CvMat.bulkAccess(src, sbb -> CvMat.bulkAccess(dst, dbb -> {
+            final int total = sbb.capacity();
+            final byte[] in = new byte[Math.min(BLOCK_SIZE, total)];
+            final byte[] out = new byte[in.length];
+            for(int offset = 0; offset < total; offset += in.length) {
+                final int len = Math.min(in.length, total - offset);
+                sbb.get(offset, in, 0, len);
+                KERNELS.threshold(in, out, len, thresh, max);
+                dbb.put(offset, out, 0, len);
+            }
+        }));
+    }
+
+    /**
+     * Rearrange the channels of {@code src} into {@code dst}. Channel {@code i} of each pixel in {@code dst} is
+     * taken from channel {@code srcChannels[i]} of the pixel in {@code src}. For example, to convert BGR to RGB
+     * use {@code (2, 1, 0)}, and to convert BGRA to ARGB use {@code (3, 2, 1, 0)}. Channels can be repeated or
+     * dropped. {@code dst} will be (re)allocated to the size of {@code src} with {@code srcChannels.length} channels
+     * if necessary. It can't be the same Mat as {@code src}.
+     */
+    public static void swizzle(final Mat src, final Mat dst, final int... srcChannels) {
+        check8U(src, "src");
+        checkSwizzle(src, srcChannels);
+        if(src.nativeObj == dst.nativeObj)
+            throw new IllegalArgumentException("Cannot swizzle a Mat in place.");
+        final int dstNumChannels = srcChannels.length;
+        dst.create(src.rows(), src.cols(), CvType.makeType(CvType.CV_8U, dstNumChannels));
+
+        CvMat.bulkAccess(src, sbb -> CvMat.bulkAccess(dst, dbb -> swizzle(sbb, src.channels(), srcChannels,
+            (out, offset, len) -> dbb.put(offset, out, 0, len))));
+    }
+
+    /**
+     * Rearrange the channels of {@code src} into the array {@code dst} in the same way as
+     * {@link RasterKernels#swizzle(Mat, Mat, int...)}. This is for writing directly into Java managed pixel
+     * data, for example the {@link java.awt.image.DataBufferByte} of a {@link java.awt.image.BufferedImage}.
+     * {@code src} can have a depth of {@code CV_8U} or {@code CV_8S} and {@code dst} needs to be large enough to
+     * hold {@code srcChannels.length} values for every pixel in {@code src}.
+     */
+    public static void swizzle(final Mat src, final byte[] dst, final int... srcChannels) {
+        final int depth = CvType.depth(src.type());
+        if(depth != CvType.CV_8U && depth != CvType.CV_8S)
+            throw new IllegalArgumentException("The src Mat needs to have a depth of CV_8U or CV_8S but it's " + CvType.typeToString(src.type()));
+        checkSwizzle(src, srcChannels);
+        final long required = src.total() * srcChannels.length;
+        if(dst.length < required)
+            throw new IllegalArgumentException("The destination array has " + dst.length + " elements but " + required + " are needed.");
+
+        CvMat.bulkAccess(src, sbb -> swizzle(sbb, src.channels(), srcChannels,
+            (out, offset, len) -> System.arraycopy(out, 0, dst, offset, len)));
+    }
+
+    @FunctionalInterface
+    private static interface BlockWriter {
+        public void write(byte[] block, int offset, int length);
+    }
+
+    private static void swizzle(final ByteBuffer sbb, final int srcNumChannels, final int[] srcChannels, final BlockWriter writer) {
+        final int dstNumChannels = srcChannels.length;
+        final int numPixels = sbb.capacity() / srcNumChannels;
+        final int pixelsPerBlock = Math.max(1, Math.min(numPixels, BLOCK_SIZE / Math.max(srcNumChannels, dstNumChannels)));
+        final byte[] in = new byte[pixelsPerBlock * srcNumChannels];
+        final byte[] out = new byte[pixelsPerBlock * dstNumChannels];
+        for(int pixel = 0; pixel < numPixels; pixel += pixelsPerBlock) {
+            final int count = Math.min(pixelsPerBlock, numPixels - pixel);
+            sbb.get(pixel * srcNumChannels, in, 0, count * srcNumChannels);
+            KERNELS.swizzle(in, srcNumChannels, srcChannels, out, count);
+            writer.write(out, pixel * dstNumChannels, count * dstNumChannels);
+        }
+    }
+
+    private static void checkSwizzle(final Mat src, final int[] srcChannels) {
+        final int srcNumChannels = src.channels();
+        final int dstNumChannels = srcChannels.length;
+        // 512 is OpenCV's CV_CN_MAX
+        if(dstNumChannels == 0 || dstNumChannels > 512)
+            throw new IllegalArgumentException("Invalid number of destination channels: " + dstNumChannels);
+        for(final int ch: srcChannels) {
+            if(ch < 0 || ch >= srcNumChannels)
+                throw new IllegalArgumentException("Channel " + ch + " doesn't exist in a source with " + srcNumChannels + " channels.");
+        }
+    }
+
+    /**
+     * Sum the values of each channel of {@code src} over the pixels where {@code mask} is non-zero. If
+     * {@code mask} is null, all of the pixels are included. The mask must be a single channel {@code CV_8U}
+     * Mat the same size as {@code src}.
+     *
+     * @return an array with the sum for each channel.
+     */
+    public static long[] maskedSum(final Mat src, final Mat mask) {
+        check8U(src, "src");
+        checkMask(src, mask);
+        final int channels = src.channels();
+        final long[] sums = new long[channels];
+
+        CvMat.bulkAccess(src, sbb -> {
+            if(mask == null)
+                forEachBlock(sbb, null, channels, (in, m, count) -> KERNELS.sum(in, null, channels, count, sums));
+            else
+                CvMat.bulkAccess(mask, mbb -> forEachBlock(sbb, mbb, channels, (in, m, count) -> KERNELS.sum(in, m, channels, count, sums)));
+        });
+        return sums;
+    }
+
+    /**
+     * Compute the 256 bin histogram of each channel of {@code src} over the pixels where {@code mask} is non-zero.
+     * If {@code mask} is null, all of the pixels are included. The mask must be a single channel {@code CV_8U}
+     * Mat the same size as {@code src}.
+     *
+     * @return an array indexed by channel, and then by value, of the counts.
+     */
+    public static int[][] histogram(final Mat src, final Mat mask) {
+        check8U(src, "src");
+        checkMask(src, mask);
+        final int channels = src.channels();
+        final int[][] hist = new int[channels][256];
+
+        CvMat.bulkAccess(src, sbb -> {
+            if(mask == null)
+                forEachBlock(sbb, null, channels, (in, m, count) -> KERNELS.histogram(in, null, channels, count, hist));
+            else
+                CvMat.bulkAccess(mask, mbb -> forEachBlock(sbb, mbb, channels, (in, m, count) -> KERNELS.histogram(in, m, channels, count, hist)));
+        });
+        return hist;
+    }
+
+    @FunctionalInterface
+    private static interface BlockConsumer {
+        public void accept(byte[] pixels, byte[] mask, int numPixels);
+    }
+
+    private static void forEachBlock(final ByteBuffer sbb, final ByteBuffer mbb, final int channels, final BlockConsumer consumer) {
+        final int numPixels = sbb.capacity() / channels;
+        final int pixelsPerBlock = Math.max(1, Math.min(numPixels, BLOCK_SIZE / channels));
+        final byte[] in = new byte[pixelsPerBlock * channels];
+        final byte[] m = mbb == null ? null : new byte[pixelsPerBlock];
+        for(int pixel = 0; pixel < numPixels; pixel += pixelsPerBlock) {
+            final int count = Math.min(pixelsPerBlock, numPixels - pixel);
+            sbb.get(pixel * channels, in, 0, count * channels);
+            if(m != null)
+                mbb.get(pixel, m, 0, count);
+            consumer.accept(in, m, count);
+        }
+    }
+
+    private static BlockKernels kernels() {
+        final String prop = System.getProperty("pilecv4j.VECTOR_KERNELS");
+        if((prop == null || Boolean.parseBoolean(prop)) && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            // loaded reflectively so nothing refers to the jdk.incubator.vector classes when the module isn't there.
+            try {
+                final Class<?> vectorKernels = Class.forName(RasterKernels.class.getPackageName() + ".VectorBlockKernels");
+                if((Boolean)vectorKernels.getDeclaredMethod("isSupported").invoke(null))
+                    return (BlockKernels)vectorKernels.getDeclaredConstructor().newInstance();
+                LOGGER.info("The Vector API doesn't support the vector shapes needed for the raster kernels on this platform. Using the scalar loops.");
+            } catch(final ClassNotFoundException e) {
+                LOGGER.debug("The Vector API raster kernels weren't built (see the vector-kernels profile). Using the scalar loops.");
+            } catch(final ReflectiveOperationException | LinkageError | RuntimeException e) {
+                LOGGER.info("Couldn't use the Vector API for the raster kernels. Falling back to the scalar loops.", e);
+            }
+        }
+        return new ScalarBlockKernels();
+    }
+
+    private static void check8U(final Mat mat, final String name) {
+        if(CvType.depth(mat.type()) != CvType.CV_8U)
+            throw new IllegalArgumentException("The " + name + " Mat needs to have a depth of CV_8U but it's " + CvType.typeToString(mat.type()));
+    }
+
+    private static void checkMask(final Mat src, final Mat mask) {
+        if(mask == null)
+            return;
+        if(mask.type() != CvType.CV_8UC1)
+            throw new IllegalArgumentException("The mask needs to be CV_8UC1 but it's " + CvType.typeToString(mask.type()));
+        if(mask.rows() != src.rows() || mask.cols() != src.cols())
+            throw new IllegalArgumentException("The mask (" + mask.size() + ") needs to be the same size as the source (" + src.size() + ")");
+    }
+}
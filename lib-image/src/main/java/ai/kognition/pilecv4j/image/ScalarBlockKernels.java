@@ -0,0 +1,86 @@
+package ai.kognition.pilecv4j.image;
+
+/**
+ * The plain Java {@link BlockKernels}. The single channel loops have no calls and (where it matters) no branches so
+ * the JIT can unroll and vectorize them. The strided multi-channel loops and the histogram generally won't be.
+ */
+class ScalarBlockKernels implements BlockKernels {
+
+    @Override
+    public void threshold(final byte[] in, final byte[] out, final int len, final int thresh, final byte max) {
+        threshold(in, out, 0, len, thresh, max);
+    }
+
+    @Override
+    public void swizzle(final byte[] in, final int srcNumChannels, final int[] srcChannels, final byte[] out, final int numPixels) {
+        swizzle(in, srcNumChannels, srcChannels, out, 0, numPixels);
+    }
+
+    @Override
+    public void sum(final byte[] in, final byte[] mask, final int channels, final int numPixels, final long[] sums) {
+        if(mask == null)
+            sum(in, channels, 0, numPixels * channels, sums);
+        else {
+            for(int ch = 0; ch < channels; ch++) {
+                long sum = 0;
+                for(int p = 0, i = ch; p < numPixels; p++, i += channels)
+                    // (-maskValue >> 31) is all ones when the mask is non-zero and zero otherwise.
+                    sum += (in[i] & 0xff) & (-(mask[p] & 0xff) >> 31);
+                sums[ch] += sum;
+            }
+        }
+    }
+
+    @Override
+    public void histogram(final byte[] in, final byte[] mask, final int channels, final int numPixels, final int[][] hist) {
+        if(mask == null)
+            histogram(in, channels, 0, numPixels, hist);
+        else {
+            for(int ch = 0; ch < channels; ch++) {
+                final int[] h = hist[ch];
+                for(int p = 0, i = ch; p < numPixels; p++, i += channels) {
+                    if(mask[p] != 0)
+                        h[in[i] & 0xff]++;
+                }
+            }
+        }
+    }
+
+    // The following work on part of a block so the VectorBlockKernels can use them for what's left over.
+
+    static void threshold(final byte[] in, final byte[] out, final int from, final int to, final int thresh, final byte max) {
+        for(int i = from; i < to; i++)
+            // (thresh - value) is negative, so the shift produces all ones, exactly when value > thresh.
+            out[i] = (byte)(max & ((thresh - (in[i] & 0xff)) >> 31));
+    }
+
+    static void swizzle(final byte[] in, final int srcNumChannels, final int[] srcChannels, final byte[] out, final int fromPixel,
+        final int toPixel) {
+        final int dstNumChannels = srcChannels.length;
+        for(int ch = 0; ch < dstNumChannels; ch++) {
+            final int srcCh = srcChannels[ch];
+            // strided copy of one channel at a time.
+            for(int p = fromPixel, si = (fromPixel * srcNumChannels) + srcCh, di = (fromPixel * dstNumChannels) + ch; p < toPixel; p++,
+                si += srcNumChannels, di += dstNumChannels)
+                out[di] = in[si];
+        }
+    }
+
+    // from must be the start of a pixel.
+    static void sum(final byte[] in, final int channels, final int from, final int to, final long[] sums) {
+        for(int ch = 0; ch < channels; ch++) {
+            long sum = 0;
+            for(int i = from + ch; i < to; i += channels)
+                sum += in[i] & 0xff;
+            sums[ch] += sum;
+        }
+    }
+
+    static void histogram(final byte[] in, final int channels, final int fromPixel, final int toPixel, final int[][] hist) {
+        for(int ch = 0; ch < channels; ch++) {
+            final int[] h = hist[ch];
+            for(int i = (fromPixel * channels) + ch; i < toPixel * channels; i += channels)
+                h[in[i] & 0xff]++;
+        }
+    }
+}
@@ -78,7 +78,6 @@ import org.opencv.imgproc.Imgproc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import net.dempsy.util.Functional;
 import net.dempsy.util.MutableDouble;
 import net.dempsy.util.QuietCloseable;
 
@@ -103,19 +102,10 @@ public class Utils {
 
     private final static Method OCV_UNDISTORT_METHOD;
     private final static Method OCV_UNDISTORT_POINTS_METHOD;
-    private final static CvMat bgra2abgr = Utils.toMat(new float[][] {
-        {0,1,0,0},
-        {0,0,1,0},
-        {0,0,0,1},
-        {1,0,0,0}
-    });
-
-    private final static CvMat abgr2bgra = Utils.toMat(new float[][] {
-        {0,0,0,1},
-        {1,0,0,0},
-        {0,1,0,0},
-        {0,0,1,0}
-    });
+    // the source channel for each channel of the destination when going between
+    // OpenCV's BGRA and java's ABGR (TYPE_4BYTE_ABGR)
+    private final static int[] bgra2abgr = {3,0,1,2};
+    private final static int[] abgr2bgra = {1,2,3,0};
 
     private static final int NUM_DEPTH_CONSTS = 8;
     private static final int[] BITS_PER_CHANNEL_LOOKUP = new int[NUM_DEPTH_CONSTS];
@@ -231,6 +221,26 @@ public class Utils {
      * "https://docs.opencv.org/4.0.1/d3/d63/classcv_1_1Mat.html">Mat</a>
      */
     public static BufferedImage mat2Img(final Mat in) {
+        return mat2Img(in, (BufferedImage)null);
+    }
+
+    /**
+     * The same as {@link Utils#mat2Img(Mat)} except the pixels will be written into {@code dst}
+     * if it's compatible. That is, if it's the same size and {@link BufferedImage} type the
+     * conversion would produce and isn't a sub-image of another {@link BufferedImage}. Otherwise
+     * a new {@link BufferedImage} is returned. This allows something rendering every frame to
+     * avoid allocating a new image each time:
+     *
+     * <pre>
+     * <code>
+     * image = Utils.mat2Img(frame, image);
+     * </code>
+     * </pre>
+     *
+     * @param dst is the {@link BufferedImage} to reuse if possible. It can be null.
+     * @return either {@code dst} or a new {@link BufferedImage} containing the pixels of the Mat.
+     */
+    public static BufferedImage mat2Img(final Mat in, final BufferedImage dst) {
         final int inChannels = in.channels();
         if(inChannels == 1) { // assume gray
             final BufferedImage out;
@@ -238,12 +248,12 @@ public class Utils {
             switch(CvType.depth(in.type())) {
                 case CV_8U:
                 case CV_8S:
-                    out = new BufferedImage(in.width(), in.height(), BufferedImage.TYPE_BYTE_GRAY);
+                    out = reuseOrCreate(dst, in.width(), in.height(), BufferedImage.TYPE_BYTE_GRAY);
                     in.get(0, 0, ((DataBufferByte)out.getRaster().getDataBuffer()).getData());
                     break;
                 case CV_16U:
                 case CV_16S:
-                    out = new BufferedImage(in.width(), in.height(), BufferedImage.TYPE_USHORT_GRAY);
+                    out = reuseOrCreate(dst, in.width(), in.height(), BufferedImage.TYPE_USHORT_GRAY);
                     in.get(0, 0, ((DataBufferUShort)out.getRaster().getDataBuffer()).getData());
                     break;
                 default:
@@ -257,28 +267,25 @@ public class Utils {
             if(cvDepth != CV_8U && cvDepth != CV_8S)
                 throw new IllegalArgumentException("Cannot convert BGR Mats with elements larger than a byte yet.");
 
-            final BufferedImage out = new BufferedImage(in.width(), in.height(), BufferedImage.TYPE_3BYTE_BGR);
+            final BufferedImage out = reuseOrCreate(dst, in.width(), in.height(), BufferedImage.TYPE_3BYTE_BGR);
             in.get(0, 0, ((DataBufferByte)out.getRaster().getDataBuffer()).getData());
             return out;
         } else if(inChannels == 4) { // assumption here is we have a BGRA
             final int cvDepth = CvType.depth(in.type());
             if(cvDepth != CV_8U && cvDepth != CV_8S)
                 throw new IllegalArgumentException("Cannot convert aBGR Mats with elements larger than a byte yet.");
-            final BufferedImage out = new BufferedImage(in.width(), in.height(), BufferedImage.TYPE_4BYTE_ABGR);
-            final int height = in.rows();
-            final int width = in.cols();
-
-            // flatten so every pixel is a separate row
-            try(final CvMat reshaped = CvMat.move(in.reshape(1, height * width));
-                // type to 32F
-                final CvMat typed = Functional.chain(new CvMat(), m -> reshaped.convertTo(m, CvType.CV_32F));
-                // color transform which just reorganizes the pixels.
-                final CvMat xformed = typed.mm(bgra2abgr);
-                final CvMat xformedAndShaped = CvMat.move(xformed.reshape(4, height));
-                final CvMat it = Functional.chain(new CvMat(), m -> xformedAndShaped.convertTo(m, cvDepth));) {
-                it.get(0, 0, ((DataBufferByte)out.getRaster().getDataBuffer()).getData());
-                return out;
+            final BufferedImage out = reuseOrCreate(dst, in.width(), in.height(), BufferedImage.TYPE_4BYTE_ABGR);
+            final byte[] pixels = ((DataBufferByte)out.getRaster().getDataBuffer()).getData();
+
+            // shuffle the channels straight into the image's pixels.
+            if(in.isContinuous())
+                RasterKernels.swizzle(in, pixels, bgra2abgr);
+            else {
+                try(final CvMat continuous = CvMat.move(in.clone());) {
+                    RasterKernels.swizzle(continuous, pixels, bgra2abgr);
+                }
             }
+            return out;
         } else
             throw new IllegalArgumentException("Can't handle an image with " + inChannels + " channels");
     }
@@ -312,6 +319,13 @@ public class Utils {
         return out;
     }
 
+    private static BufferedImage reuseOrCreate(final BufferedImage dst, final int width, final int height, final int type) {
+        // a sub-image shares (part of) its parent's DataBuffer so it can't be written to directly.
+        if(dst != null && dst.getType() == type && dst.getWidth() == width && dst.getHeight() == height && dst.getRaster().getParent() == null)
+            return dst;
+        return new BufferedImage(width, height, type);
+    }
+
     /**
      * This is a convenience method for {@link Utils#dump(Mat, PrintStream)} that
      * uses {@link System#out} as the {@link PrintStream}
@@ -1145,7 +1159,11 @@ public class Utils {
         final ColorModel colorModel = bufferedImage.getColorModel();
 
         try(Closer closer = new Closer()) {
-            if(colorModel instanceof DirectColorModel) {
+            // an image from a MatBackedImage already has its pixels in a Mat so there's nothing to copy.
+            final CvMat shared = closer.add(MatBackedImage.sharedMat(bufferedImage));
+            if(shared != null) {
+                return new CvMatWithColorInformation(shared, bufferedImage);
+            } else if(colorModel instanceof DirectColorModel) {
                 return new CvMatWithColorInformation(closer.add(handleDirectColorModel(bufferedImage, (DirectColorModel)colorModel)), bufferedImage);
             } else if(colorModel instanceof ComponentColorModel) {
                 return new CvMatWithColorInformation(closer.add(handleComponentColorModel(bufferedImage, (ComponentColorModel)colorModel)), bufferedImage);
@@ -1792,17 +1810,8 @@ public class Utils {
             if(!hasAlpha) { // indicates a pixel compatible format since the only option is TYPE_3BYTE_BGR
                 return retMat.returnMe();
             } else { // then it's ABGR -> BGRA
-                try(final CvMat reshaped = CvMat.move(retMat.reshape(1, h * w));
-                    // type to 32F so we can multiple it by the matrix. It would be nice of there
-                    // was an integer 'gemm'
-                    // call on Imgproc
-                    final CvMat typed = Functional.chain(new CvMat(), m -> reshaped.convertTo(m, CvType.CV_32F));
-                    // color transform which just reorganizes the pixels.
-                    final CvMat xformed = typed.mm(abgr2bgra);
-                    // reshape it back to a 4 channel image
-                    final CvMat xformedAndShaped = CvMat.move(xformed.reshape(4, h));
-                    // convert the type back to CV_8UC4
-                    final CvMat it = Functional.chain(new CvMat(), m -> xformedAndShaped.convertTo(m, CvType.depth(retMat.type())));) {
+                try(final CvMat it = new CvMat();) {
+                    RasterKernels.swizzle(retMat, it, abgr2bgra);
                     return it.returnMe();
                 }
             }
@@ -31,6 +31,12 @@ public class VideoFrame extends CvMat {
 
     public long decodeTimeMillis;
 
+    /**
+     * The presentation time of the frame, in milliseconds, if it came from a decoder that knows it. Otherwise -1.
+     * It's carried over to copies of the frame.
+     */
+    public long ptsMillis = -1;
+
     private final Pool pool;
     private boolean isInPool = false;
     private RuntimeException rtpStackTrace = null;
@@ -104,6 +110,7 @@ public class VideoFrame extends CvMat {
 
         try(final VideoFrame swapped = new VideoFrame(decodeTimeMillis, frameNumber, !isRgb)) {
             Imgproc.cvtColor(this, swapped, isRgb ? Imgproc.COLOR_RGB2BGR : Imgproc.COLOR_BGR2RGB);
+            swapped.ptsMillis = ptsMillis;
             return swapped.returnMe();
         }
     }
@@ -244,6 +251,7 @@ public class VideoFrame extends CvMat {
         final VideoFrame newMat = ppool.get(decodeTimeMillis, frameNumber);
         if(rows() != 0)
             copyTo(newMat);
+        newMat.ptsMillis = ptsMillis;
         return newMat;
     }
 
@@ -251,11 +259,14 @@ public class VideoFrame extends CvMat {
         final VideoFrame newMat = pool == null ? new VideoFrame(decodeTimeMillis, frameNumber, isRgb) : pool.get(decodeTimeMillis, frameNumber);
         if(rows() != 0)
             copyTo(newMat);
+        newMat.ptsMillis = ptsMillis;
         return newMat;
     }
 
     public VideoFrame shallowCopy() {
-        return new VideoFrame(ImageAPI.pilecv4j_image_CvRaster_copy(nativeObj), decodeTimeMillis, frameNumber, isRgb);
+        final VideoFrame ret = new VideoFrame(ImageAPI.pilecv4j_image_CvRaster_copy(nativeObj), decodeTimeMillis, frameNumber, isRgb);
+        ret.ptsMillis = ptsMillis;
+        return ret;
     }
 
     public static VideoFrame wrapNativeVideoFrame(final long nativeObj, final long decodeTimeMillis, final long frameNumber, final boolean isRgb) {
@@ -31,6 +31,10 @@ import ai.kognition.pilecv4j.nr.Minimizer;
  * A line defined in "perpendicular line coordinates" is expressed as a single point. This point
  * is a reference for the line that's perpendicular to the line drawn from the origin to that point.
  * </p>
+ *
+ * <p>
+ * {@link PerpendicularLineTlsFit} finds the same line in closed form without the {@link Minimizer}.
+ * </p>
  */
 public class PerpendicularLineCoordFit implements Minimizer.Func {
     private final List<AwtPoint> points;
@@ -0,0 +1,353 @@
+package ai.kognition.pilecv4j.image.geometry;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Finds the best line through a set of points in "perpendicular line coordinates" (see {@link PerpendicularLine})
+ * like {@link PerpendicularLineCoordFit} but in closed form rather than by minimizing with a
+ * {@link ai.kognition.pilecv4j.nr.Minimizer}. The line is the total least squares fit: the one that minimizes the sum of
+ * the squared perpendicular distances of the points from it. That's the same thing
+ * {@link PerpendicularLineCoordFit} minimizes so the result is the same line but it's computed in a single pass over the
+ * points.
+ * </p>
+ *
+ * <p>
+ * The points are kept packed in primitive arrays and can be added individually with {@link #add(double, double)} or
+ * in bulk from an array packed as x0, y0, x1, y1, ... where x is the column and y is the row. As with
+ * {@link PerpendicularLineCoordFit}, when the points are weighted each point's distance from the line is multiplied
+ * by its weight.
+ * </p>
+ *
+ * <p>
+ * {@link #robustFit(double, int)} refits with iteratively reweighted least squares to reduce the influence of
+ * outliers and {@link #prune(double, PerpendicularLine)} removes the points that are too far from a line so it can be
+ * refit without them.
+ * </p>
+ *
+ * <p>
+ * A line that passes through the origin can't be represented in perpendicular line coordinates since its
+ * perpendicular reference point is the origin itself, which doesn't give the line's direction. When the best line
+ * passes through (or, to within rounding, near) the origin the fits return null rather than a {@link PerpendicularLine}
+ * that would produce NaN distances. Translate the points away from the origin to fit such a line.
+ * </p>
+ */
+public class PerpendicularLineTlsFit {
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final double ROBUST_CONVERGENCE = 1.0E-9;
+    // relative to the size and position of the points, how close the line can get to the origin before it can't be
+    // represented.
+    private static final double ORIGIN_TOLERANCE = 1.0E-12;
+    // returned from the internal fit when the line passes through the origin to tell that apart from there being no line.
+    private static final PerpendicularLine THROUGH_ORIGIN = new PerpendicularLine(0.0, 0.0);
+
+    private double[] xs;
+    private double[] ys;
+    private double[] weights = null;
+    private int size = 0;
+
+    /**
+     * The index of the point furthest from the line passed to the last call to {@link #sumSqError(PerpendicularLine)}.
+     */
+    public int worst = -1;
+    /**
+     * The square of the (weighted) distance of the {@link #worst} point from the line passed to the last call to
+     * {@link #sumSqError(PerpendicularLine)}.
+     */
+    public double maxErrSq;
+
+    public PerpendicularLineTlsFit() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public PerpendicularLineTlsFit(final int initialCapacity) {
+        xs = new double[Math.max(1, initialCapacity)];
+        ys = new double[xs.length];
+    }
+
+    /**
+     * Create a fit over {@code numPoints} points packed into {@code xy} as x0, y0, x1, y1, ... starting at
+     * {@code offset}. The points are copied.
+     */
+    public PerpendicularLineTlsFit(final double[] xy, final int offset, final int numPoints) {
+        this(numPoints);
+        addAll(xy, offset, numPoints);
+    }
+
+    /**
+     * Create a weighted fit over {@code numPoints} points packed into {@code xy} as x0, y0, x1, y1, ... starting at
+     * {@code offset} with the corresponding weights in {@code weights} starting at {@code weightOffset}. The points
+     * are copied.
+     */
+    public PerpendicularLineTlsFit(final double[] xy, final int offset, final double[] weights, final int weightOffset, final int numPoints) {
+        this(numPoints);
+        for(int i = 0; i < numPoints; i++)
+            add(xy[offset + (2 * i)], xy[offset + (2 * i) + 1], weights[weightOffset + i]);
+    }
+
+    public void add(final double x, final double y) {
+        ensureCapacity(size + 1);
+        xs[size] = x;
+        ys[size] = y;
+        if(weights != null)
+            weights[size] = 1.0;
+        size++;
+    }
+
+    /**
+     * Add a weighted point. Once a weighted point is added the fit is weighted and any points added without a weight
+     * have a weight of 1.
+     */
+    public void add(final double x, final double y, final double weight) {
+        if(weights == null) {
+            weights = new double[xs.length];
+            Arrays.fill(weights, 0, size, 1.0);
+        }
+        ensureCapacity(size + 1);
+        xs[size] = x;
+        ys[size] = y;
+        weights[size] = weight;
+        size++;
+    }
+
+    /**
+     * Add {@code numPoints} points packed into {@code xy} as x0, y0, x1, y1, ... starting at {@code offset}.
+     */
+    public void addAll(final double[] xy, final int offset, final int numPoints) {
+        ensureCapacity(size + numPoints);
+        for(int i = 0; i < numPoints; i++) {
+            xs[size + i] = xy[offset + (2 * i)];
+            ys[size + i] = xy[offset + (2 * i) + 1];
+        }
+        if(weights != null)
+            Arrays.fill(weights, size, size + numPoints, 1.0);
+        size += numPoints;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double x(final int index) {
+        return xs[index];
+    }
+
+    public double y(final int index) {
+        return ys[index];
+    }
+
+    public boolean isWeighted() {
+        return weights != null;
+    }
+
+    /**
+     * The total least squares line through the points. If there are fewer than 2 points, all of the
+     * points have a weight of zero or the line passes through the origin, there's no line and this returns null.
+     */
+    public PerpendicularLine fit() {
+        final PerpendicularLine ret = fit(null);
+        return ret == THROUGH_ORIGIN ? null : ret;
+    }
+
+    /**
+     * <p>
+     * Fit the line, then iteratively refit it with each point's weight scaled by the Tukey biweight of its distance from
+     * the previous line. Points further than {@code cutoff} from the previous line don't contribute to the next one. This
+     * stops after {@code maxIterations} refits or once the line stops changing.
+     * </p>
+     *
+     * <p>
+     * The starting line is the total least squares fit of all of the points so when more than half of them are outliers
+     * this may not find the line through the rest.
+     * </p>
+     *
+     * @return the line or null if there isn't one, including when one of the refits passes through the origin. See
+     *     {@link #fit()}.
+     */
+    public PerpendicularLine robustFit(final double cutoff, final int maxIterations) {
+        if(cutoff <= 0.0)
+            throw new IllegalArgumentException("The robust fit requires a positive cutoff distance. " + cutoff + " was given.");
+
+        PerpendicularLine line = fit(null);
+        if(line == null || line == THROUGH_ORIGIN)
+            return null;
+
+        final double[] robustWeights = new double[size];
+        final double cutoffSq = cutoff * cutoff;
+        for(int iteration = 0; iteration < maxIterations; iteration++) {
+            final double px = line.x();
+            final double py = line.y();
+            final double pmag = magnitude(line);
+            for(int i = 0; i < size; i++) {
+                final double distSq = sq(distance(xs[i], ys[i], px, py, pmag));
+                robustWeights[i] = distSq >= cutoffSq ? 0.0 : sq(1.0 - (distSq / cutoffSq));
+            }
+
+            final PerpendicularLine next = fit(robustWeights);
+            // every point is beyond the cutoff so there's nothing to refit with.
+            if(next == null)
+                break;
+            if(next == THROUGH_ORIGIN)
+                return null;
+
+            final boolean converged = Math.abs(next.x() - px) + Math.abs(next.y() - py) <= ROBUST_CONVERGENCE * (1.0 + pmag);
+            line = next;
+            if(converged)
+                break;
+        }
+
+        return line;
+    }
+
+    /**
+     * The sum of the squares of the (weighted) distances of the points from the line. This also sets {@link #worst}
+     * and {@link #maxErrSq}. It's the same value {@link PerpendicularLineCoordFit#func(double[])} returns.
+     *
+     * @throws IllegalArgumentException if the line's perpendicular reference point is the origin.
+     */
+    public double sumSqError(final PerpendicularLine line) {
+        final double px = line.x();
+        final double py = line.y();
+        final double pmag = magnitude(line);
+
+        double ret = 0.0;
+        maxErrSq = -1.0;
+        worst = -1;
+        for(int i = 0; i < size; i++) {
+            double err = distance(xs[i], ys[i], px, py, pmag);
+            if(weights != null)
+                err *= weights[i];
+            final double errSq = err * err;
+            if(maxErrSq < errSq) {
+                worst = i;
+                maxErrSq = errSq;
+            }
+            ret += errSq;
+        }
+        return ret;
+    }
+
+    public double getFurthestDistance() {
+        return Math.sqrt(maxErrSq);
+    }
+
+    public double getStdDev(final double sumSqError) {
+        return Math.sqrt(sumSqError / size);
+    }
+
+    /**
+     * Remove the points whose (unweighted) distance from the line is more than {@code maxDist}. The remaining
+     * points keep their order.
+     *
+     * @return the points that were removed, in their original order, packed as x0, y0, x1, y1, ...
+     * @throws IllegalArgumentException if the line's perpendicular reference point is the origin.
+     */
+    public double[] prune(final double maxDist, final PerpendicularLine line) {
+        final double px = line.x();
+        final double py = line.y();
+        final double pmag = magnitude(line);
+
+        double[] pruned = new double[16];
+        int numPruned = 0;
+        int kept = 0;
+        for(int i = 0; i < size; i++) {
+            final double x = xs[i];
+            final double y = ys[i];
+            if(Math.abs(distance(x, y, px, py, pmag)) > maxDist) {
+                if(2 * numPruned + 2 > pruned.length)
+                    pruned = Arrays.copyOf(pruned, 2 * pruned.length);
+                pruned[2 * numPruned] = x;
+                pruned[2 * numPruned + 1] = y;
+                numPruned++;
+            } else {
+                xs[kept] = x;
+                ys[kept] = y;
+                if(weights != null)
+                    weights[kept] = weights[i];
+                kept++;
+            }
+        }
+        size = kept;
+        return Arrays.copyOf(pruned, 2 * numPruned);
+    }
+
+    private static double magnitude(final PerpendicularLine line) {
+        final double pmag = Math.sqrt((line.x() * line.x()) + (line.y() * line.y()));
+        if(pmag == 0.0)
+            throw new IllegalArgumentException("A line with a perpendicular reference point at the origin has no direction.");
+        return pmag;
+    }
+
+    // The signed distance of (x, y) from the line whose perpendicular reference point is (px, py) with the given magnitude.
+    // See PerpendicularLineCoordFit.perpendicularDistance.
+    private static double distance(final double x, final double y, final double px, final double py, final double pmag) {
+        return pmag - (((y * py) + (x * px)) / pmag);
+    }
+
+    private static double sq(final double v) {
+        return v * v;
+    }
+
+    // The distance is multiplied by the weight so the squared distance is multiplied by the square of the weight.
+    // This returns null if there's no line and THROUGH_ORIGIN if the line can't be represented.
+    private PerpendicularLine fit(final double[] extraWeights) {
+        if(size < 2)
+            return null;
+
+        // the moments are accumulated relative to the first point to keep the precision when the points are
+        // far from the origin.
+        final double ox = xs[0];
+        final double oy = ys[0];
+        double sw = 0.0, sx = 0.0, sy = 0.0, sxx = 0.0, syy = 0.0, sxy = 0.0;
+        for(int i = 0; i < size; i++) {
+            double w = weights == null ? 1.0 : sq(weights[i]);
+            if(extraWeights != null)
+                w *= extraWeights[i];
+            final double x = xs[i] - ox;
+            final double y = ys[i] - oy;
+            sw += w;
+            sx += w * x;
+            sy += w * y;
+            sxx += w * x * x;
+            syy += w * y * y;
+            sxy += w * x * y;
+        }
+
+        if(sw <= 0.0)
+            return null;
+
+        final double mx = sx / sw;
+        final double my = sy / sw;
+        final double cxx = (sxx / sw) - (mx * mx);
+        final double cyy = (syy / sw) - (my * my);
+        final double cxy = (sxy / sw) - (mx * my);
+
+        // the line runs along the principal axis of the points so its normal is perpendicular to that.
+        final double theta = 0.5 * Math.atan2(2.0 * cxy, cxx - cyy);
+        double nx = -Math.sin(theta);
+        double ny = Math.cos(theta);
+
+        // the line is n.X = d passing through the centroid. The perpendicular reference point is d * n with d positive.
+        double d = (nx * (mx + ox)) + (ny * (my + oy));
+        // the line passes through the origin so it can't be represented. The scale is the distance from the origin
+        // to the centroid plus the spread of the points, which bounds the rounding error in d.
+        if(Math.abs(d) <= ORIGIN_TOLERANCE * (Math.abs(mx + ox) + Math.abs(my + oy) + Math.sqrt(Math.max(0.0, cxx + cyy))))
+            return THROUGH_ORIGIN;
+        if(d < 0.0) {
+            d = -d;
+            nx = -nx;
+            ny = -ny;
+        }
+        return new PerpendicularLine(d * ny, d * nx);
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if(capacity > xs.length) {
+            final int newCapacity = Math.max(capacity, 2 * xs.length);
+            xs = Arrays.copyOf(xs, newCapacity);
+            ys = Arrays.copyOf(ys, newCapacity);
+            if(weights != null)
+                weights = Arrays.copyOf(weights, newCapacity);
+        }
+    }
+}
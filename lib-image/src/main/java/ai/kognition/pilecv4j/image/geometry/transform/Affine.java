@@ -0,0 +1,44 @@
+package ai.kognition.pilecv4j.image.geometry.transform;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.MatOfPoint2f;
+
+import ai.kognition.pilecv4j.image.CvMat;
+
+/**
+ * The coefficients of a 2D affine transform with the batch transformations shared by the {@link Transform2D}s
+ * that are affine. A point is transformed to {@code (x * sa + y * sb + tx, x * sc + y * sd + ty)}.
+ */
+record Affine(double sa, double sb, double sc, double sd, double tx, double ty) {
+
+    void transform(final double[] xy, final int offset, final int numPoints) {
+        final int end = offset + (2 * numPoints);
+        for(int i = offset; i < end; i += 2) {
+            final double x = xy[i];
+            final double y = xy[i + 1];
+            xy[i] = x * sa + y * sb + tx;
+            xy[i + 1] = x * sc + y * sd + ty;
+        }
+    }
+
+    void transform(final float[] xy, final int offset, final int numPoints) {
+        final int end = offset + (2 * numPoints);
+        for(int i = offset; i < end; i += 2) {
+            final double x = xy[i];
+            final double y = xy[i + 1];
+            xy[i] = (float)(x * sa + y * sb + tx);
+            xy[i + 1] = (float)(x * sc + y * sd + ty);
+        }
+    }
+
+    void transform(final MatOfPoint2f points) {
+        if(points.empty())
+            return;
+        // Core.transform works in place when the src and dst are the same.
+        try(final CvMat m = new CvMat(2, 3, CvType.CV_64FC1);) {
+            m.put(0, 0, sa, sb, tx, sc, sd, ty);
+            Core.transform(points, points, m);
+        }
+    }
+}
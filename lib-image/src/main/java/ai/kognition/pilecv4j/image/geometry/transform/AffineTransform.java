@@ -31,6 +31,7 @@ public class AffineTransform implements Transform2D {
     private final double sb;
     private final double sc;
     private final double sd;
+    private final Affine affine;
 
     public AffineTransform(final ControlPoints cps) {
         final Point[] src = new Point[cps.controlPoints.length];
@@ -53,6 +54,7 @@ public class AffineTransform implements Transform2D {
         sd = transform[1][1];
         tx = transform[0][2];
         ty = transform[1][2];
+        affine = new Affine(sa, sb, sc, sd, tx, ty);
     }
 
     @Override
@@ -61,4 +63,19 @@ public class AffineTransform implements Transform2D {
         final double y = point.y;
         return new Point(x * sa + y * sb + tx, x * sc + y * sd + ty);
     }
+
+    @Override
+    public void transform(final double[] xy, final int offset, final int numPoints) {
+        affine.transform(xy, offset, numPoints);
+    }
+
+    @Override
+    public void transform(final float[] xy, final int offset, final int numPoints) {
+        affine.transform(xy, offset, numPoints);
+    }
+
+    @Override
+    public void transform(final MatOfPoint2f points) {
+        affine.transform(points);
+    }
 }
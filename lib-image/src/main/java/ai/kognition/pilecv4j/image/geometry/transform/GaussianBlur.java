@@ -81,4 +81,16 @@ public class GaussianBlur {
         Imgproc.GaussianBlur(mat, mat, kernelSize, sigmaX, sigmaY, borderType);
         return mat.returnMe();
     }
+
+    /**
+     * Uses the {@link Imgproc} GaussianBlur method to smooth {@code src} into {@code dst} using the specifications given in the constructor, leaving
+     * {@code src} unchanged. {@code dst} is only reallocated if it isn't already the same size and type as {@code src} so passing the same one for each
+     * frame of a stream reuses its buffer.
+     *
+     * @param src CvMat of image to be blurred
+     * @param dst CvMat that receives the blurred image
+     */
+    public void gaussianBlur(final CvMat src, final CvMat dst) {
+        Imgproc.GaussianBlur(src, dst, kernelSize, sigmaX, sigmaY, borderType);
+    }
 }
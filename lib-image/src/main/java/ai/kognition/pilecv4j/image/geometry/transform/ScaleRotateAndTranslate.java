@@ -18,6 +18,7 @@ package ai.kognition.pilecv4j.image.geometry.transform;
 
 import java.util.Arrays;
 
+import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
 
 import ai.kognition.pilecv4j.image.geometry.SimplePoint;
@@ -30,6 +31,7 @@ public class ScaleRotateAndTranslate implements Transform2D {
     private final double sb;
     private final double sc;
     private final double sd;
+    private final Affine affine;
 
     private static ai.kognition.pilecv4j.image.geometry.Point ocv(final Point p) {
         return ai.kognition.pilecv4j.image.geometry.Point.ocv(p);
@@ -69,6 +71,7 @@ public class ScaleRotateAndTranslate implements Transform2D {
 
         tx = p1Transformed.x() - scaledAndRotOriginal.x();
         ty = p1Transformed.y() - scaledAndRotOriginal.y();
+        affine = new Affine(sa, sb, sc, sd, tx, ty);
     }
 
     public ScaleRotateAndTranslate(final ControlPoints points) {
@@ -83,6 +86,21 @@ public class ScaleRotateAndTranslate implements Transform2D {
         return new Point(x * sa + y * sb + tx, x * sc + y * sd + ty);
     }
 
+    @Override
+    public void transform(final double[] xy, final int offset, final int numPoints) {
+        affine.transform(xy, offset, numPoints);
+    }
+
+    @Override
+    public void transform(final float[] xy, final int offset, final int numPoints) {
+        affine.transform(xy, offset, numPoints);
+    }
+
+    @Override
+    public void transform(final MatOfPoint2f points) {
+        affine.transform(points);
+    }
+
     private static ControlPoint sanitize(final ControlPoints points) {
         if(points == null)
             throw new NullPointerException("Cannot pass null controlPoints to a " + ScaleRotateAndTranslate.class.getSimpleName());
@@ -16,6 +16,7 @@
 
 package ai.kognition.pilecv4j.image.geometry.transform;
 
+import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
 
 import net.dempsy.util.QuietCloseable;
@@ -25,6 +26,64 @@ public interface Transform2D extends QuietCloseable {
 
     public Point transform(final Point point);
 
+    /**
+     * Transform {@code numPoints} points in place. The points are packed into {@code xy} as x0, y0, x1, y1, ...
+     * starting at {@code offset}. The default implementation transforms each point using {@link #transform(Point)}
+     * but implementations can do it without creating a {@link Point} for each.
+     */
+    default public void transform(final double[] xy, final int offset, final int numPoints) {
+        final int end = offset + (2 * numPoints);
+        for(int i = offset; i < end; i += 2) {
+            final Point p = transform(new Point(xy[i], xy[i + 1]));
+            xy[i] = p.x;
+            xy[i + 1] = p.y;
+        }
+    }
+
+    /**
+     * Transform all of the points packed into {@code xy} as x0, y0, x1, y1, ... in place.
+     */
+    default public void transform(final double[] xy) {
+        transform(xy, 0, xy.length / 2);
+    }
+
+    /**
+     * Transform {@code numPoints} points in place. The points are packed into {@code xy} as x0, y0, x1, y1, ...
+     * starting at {@code offset}. The computation is done in double precision. The default implementation transforms
+     * each point using {@link #transform(Point)} but implementations can do it without creating a {@link Point} for each.
+     */
+    default public void transform(final float[] xy, final int offset, final int numPoints) {
+        final int end = offset + (2 * numPoints);
+        for(int i = offset; i < end; i += 2) {
+            final Point p = transform(new Point(xy[i], xy[i + 1]));
+            xy[i] = (float)p.x;
+            xy[i + 1] = (float)p.y;
+        }
+    }
+
+    /**
+     * Transform all of the points packed into {@code xy} as x0, y0, x1, y1, ... in place.
+     */
+    default public void transform(final float[] xy) {
+        transform(xy, 0, xy.length / 2);
+    }
+
+    /**
+     * Transform all of the points in the {@link MatOfPoint2f} (which includes a
+     * {@link ai.kognition.pilecv4j.image.CvMatOfPoint2f}) in place. The default implementation copies the points
+     * out of the Mat, transforms them using {@link #transform(float[], int, int)} and copies them back. Implementations
+     * can do it natively without the copies.
+     */
+    default public void transform(final MatOfPoint2f points) {
+        final int numPoints = (int)points.total();
+        if(numPoints == 0)
+            return;
+        final float[] xy = new float[2 * numPoints];
+        points.get(0, 0, xy);
+        transform(xy, 0, numPoints);
+        points.put(0, 0, xy);
+    }
+
     @Override
     default public void close() {}
 
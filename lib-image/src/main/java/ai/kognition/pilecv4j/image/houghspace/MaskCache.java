@@ -0,0 +1,255 @@
+package ai.kognition.pilecv4j.image.houghspace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ai.kognition.pilecv4j.image.houghspace.internal.GradientDirectionMask;
+import ai.kognition.pilecv4j.image.houghspace.internal.Mask;
+
+/**
+ * <p>
+ * A bounded cache of the {@link Mask}s and {@link GradientDirectionMask}s generated for a {@link Model}. Generating
+ * them means evaluating the {@link Model} at every pixel of the mask so this avoids regenerating them every time a
+ * {@link Transform} is created for the same {@link Model}, for example when searching over a range of scales
+ * repeatedly. {@link Transform}s use the {@link MaskCache#global()} cache unless they're given another.
+ * </p>
+ *
+ * <p>
+ * Masks are cached by the {@link Model}'s {@link Model#cacheKey()} when it has one so different instances
+ * of an equivalent {@link Model} share them. Otherwise they're cached by the {@link Model} instance. When the
+ * cache has a directory, the masks for {@link Model}s with a {@link Model#cacheKey()} are also written there and
+ * read back rather than generated by any later cache using that directory, including in later runs.
+ * </p>
+ *
+ * <p>
+ * The masks returned are shared and must not be modified.
+ * </p>
+ */
+public class MaskCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MaskCache.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private static final MaskCache GLOBAL = new MaskCache(DEFAULT_MAX_ENTRIES);
+
+    private static final int FILE_MAGIC = 0x4d41534b; // "MASK"
+    private static final String FILE_EXT = ".mask";
+    private static final int MAX_KEY_BYTES = 64 * 1024 * 1024;
+
+    private static enum Kind {
+        MASK, GRADIENT_DIRECTION_MASK
+    }
+
+    private static record Key(Object model, Kind kind, double quantFactor, double scale, byte edge, byte noedge) {
+        // describes the key for storing on disk. Only valid when the model is a Model#cacheKey()
+        private String description() {
+            return model + "|" + kind + "|" + quantFactor + "|" + scale + "|" + edge + "|" + noedge;
+        }
+    }
+
+    @FunctionalInterface
+    private static interface Reader<T> {
+        T read(DataInput in) throws IOException;
+    }
+
+    @FunctionalInterface
+    private static interface Writer<T> {
+        void write(T value, DataOutput out) throws IOException;
+    }
+
+    private final int maxEntries;
+    private final Path directory;
+    private final Map<Key, Object> cache;
+
+    /**
+     * An in memory cache holding the masks for up to {@code maxEntries} combinations of {@link Model}, quantization
+     * and scale.
+     */
+    public MaskCache(final int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    /**
+     * A cache holding the masks for up to {@code maxEntries} combinations of {@link Model}, quantization and scale
+     * in memory and persisting them in the given {@code directory}. The directory will be created if it doesn't
+     * exist.
+     */
+    public MaskCache(final int maxEntries, final Path directory) {
+        if(maxEntries < 1)
+            throw new IllegalArgumentException("The mask cache must be able to hold at least 1 entry. " + maxEntries + " was requested.");
+        this.maxEntries = maxEntries;
+        this.directory = directory;
+        this.cache = new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, Object> eldest) {
+                return size() > MaskCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * The process wide in memory cache.
+     */
+    public static MaskCache global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Get the mask for the given {@link Model}, quantization and scale, generating it if it isn't cached. It's
+     * the same as {@link Mask#generateMask(Model, double, double)}.
+     */
+    public Mask mask(final Model model, final double quantFactor, final double scale) {
+        final Key key = new Key(modelKey(model), Kind.MASK, quantFactor, scale, Mask.EDGE, Mask.NOEDGE);
+        return get(key, Mask.class, () -> Mask.generateMask(model, quantFactor, scale), Mask::read, Mask::write);
+    }
+
+    /**
+     * Get the gradient direction mask for the given {@link Model} and quantization, generating it if it isn't
+     * cached. It's the same as
+     * {@link GradientDirectionMask#generateGradientMask(Model, double, double, double)} using the
+     * {@link Model}'s feature width and height.
+     */
+    public GradientDirectionMask gradientDirectionMask(final Model model, final double quantFactor) {
+        final Key key = new Key(modelKey(model), Kind.GRADIENT_DIRECTION_MASK, quantFactor, 1.0, (byte)0, (byte)0);
+        return get(key, GradientDirectionMask.class,
+            () -> GradientDirectionMask.generateGradientMask(model, model.featureWidth(), model.featureHeight(), quantFactor),
+            GradientDirectionMask::read, GradientDirectionMask::write);
+    }
+
+    /**
+     * The number of masks currently held in memory.
+     */
+    public int size() {
+        synchronized(cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Remove all of the masks held in memory. Anything persisted to the directory is left alone.
+     */
+    public void clear() {
+        synchronized(cache) {
+            cache.clear();
+        }
+    }
+
+    private static Object modelKey(final Model model) {
+        final String key = model.cacheKey();
+        return key == null ? model : key;
+    }
+
+    private <T> T get(final Key key, final Class<T> clazz, final Supplier<T> generator, final Reader<T> reader, final Writer<T> writer) {
+        synchronized(cache) {
+            final Object ret = cache.get(key);
+            if(ret != null)
+                return clazz.cast(ret);
+        }
+
+        // generating can take a while so it's done outside of the lock. If another thread beats us
+        // to it then we use theirs so the mask is shared.
+        final boolean persistent = directory != null && key.model() instanceof String;
+        T mask = persistent ? load(key, reader) : null;
+        if(mask == null) {
+            mask = generator.get();
+            if(persistent)
+                store(key, mask, writer);
+        }
+
+        synchronized(cache) {
+            final Object existing = cache.putIfAbsent(key, mask);
+            return existing == null ? mask : clazz.cast(existing);
+        }
+    }
+
+    private <T> T load(final Key key, final Reader<T> reader) {
+        final Path file = file(key);
+        if(!Files.exists(file))
+            return null;
+        try(InputStream is = new BufferedInputStream(Files.newInputStream(file));) {
+            final DataInputStream in = new DataInputStream(is);
+            if(in.readInt() != FILE_MAGIC || !key.description().equals(readString(in))) {
+                LOGGER.warn("The mask file {} doesn't contain the expected mask. It will be regenerated.", file);
+                return null;
+            }
+            return reader.read(in);
+        } catch(final IOException ioe) {
+            LOGGER.warn("Failed to read the mask file {}. It will be regenerated.", file, ioe);
+            return null;
+        }
+    }
+
+    private <T> void store(final Key key, final T mask, final Writer<T> writer) {
+        final Path file = file(key);
+        try {
+            Files.createDirectories(directory);
+            // write to a temp file and move it into place so a reader never sees a partial file.
+            final Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try {
+                try(OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp));) {
+                    final DataOutputStream out = new DataOutputStream(os);
+                    out.writeInt(FILE_MAGIC);
+                    writeString(key.description(), out);
+                    writer.write(mask, out);
+                    out.flush();
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch(final IOException ioe) {
+            LOGGER.warn("Failed to write the mask file {}", file, ioe);
+        }
+    }
+
+    // DataOutput.writeUTF is limited to 64K which a model's key could exceed.
+    private static void writeString(final String str, final DataOutput out) throws IOException {
+        final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInput in) throws IOException {
+        final int len = in.readInt();
+        if(len < 0 || len > MAX_KEY_BYTES)
+            throw new IOException("Invalid key length " + len);
+        final byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Path file(final Key key) {
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch(final NoSuchAlgorithmException e) {
+            // every java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        final StringBuilder sb = new StringBuilder();
+        for(final byte b: md.digest(key.description().getBytes(StandardCharsets.UTF_8)))
+            sb.append(String.format("%02x", b & 0xff));
+        return directory.resolve(sb.append(FILE_EXT).toString());
+    }
+}
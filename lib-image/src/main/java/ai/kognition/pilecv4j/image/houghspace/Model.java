@@ -97,4 +97,14 @@ public interface Model {
      * coordinates then it should return 'true' for the following method.
      */
     public boolean flipYAxis();
+
+    /**
+     * If two instances of a model would always generate the same masks then they can share them
+     * through a {@link MaskCache}. In that case this should return a string that identifies the
+     * geometry of the model, which can also be used to persist the masks between runs. The
+     * default is null which means masks are only shared by the same instance of the model.
+     */
+    default public String cacheKey() {
+        return null;
+    }
 }
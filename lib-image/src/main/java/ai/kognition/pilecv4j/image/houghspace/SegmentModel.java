@@ -117,6 +117,14 @@ public class SegmentModel implements Model {
         return false;
     }
 
+    @Override
+    public String cacheKey() {
+        // the masks are entirely determined by the segments.
+        return Arrays.stream(segments)
+            .map(s -> "(" + s.p1.x() + "," + s.p1.y() + ")->(" + s.p2.x() + "," + s.p2.y() + ")" + s.direction)
+            .collect(Collectors.joining(",", SegmentModel.class.getSimpleName() + "[", "]"));
+    }
+
     private LineSegment closest(final double ox, final double oy, final double scale) {
         double minDist = Double.POSITIVE_INFINITY;
         LineSegment nearest = null;
@@ -17,13 +17,19 @@
 package ai.kognition.pilecv4j.image.houghspace;
 
 import java.awt.Color;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 import org.opencv.core.CvType;
@@ -50,13 +56,26 @@ public class Transform {
     public final GradientDirectionMask gradDirMask;
     public final double gradientDirSlopDeg;
     public final Model model;
+    public final double scale;
+
+    private final MaskCache maskCache;
 
     public Transform(final Model model, final double quantFactor, final double scale, final double gradientDirSlopDeg) {
+        this(model, quantFactor, scale, gradientDirSlopDeg, MaskCache.global());
+    }
+
+    /**
+     * Create a transform getting the masks from the given {@link MaskCache} rather than the
+     * {@link MaskCache#global()} one.
+     */
+    public Transform(final Model model, final double quantFactor, final double scale, final double gradientDirSlopDeg, final MaskCache maskCache) {
         this.quantFactor = quantFactor;
-        this.mask = Mask.generateMask(model, quantFactor, scale);
-        this.gradDirMask = GradientDirectionMask.generateGradientMask(model, model.featureWidth(), model.featureHeight(), quantFactor);
+        this.mask = maskCache.mask(model, quantFactor, scale);
+        this.gradDirMask = maskCache.gradientDirectionMask(model, quantFactor);
         this.gradientDirSlopDeg = gradientDirSlopDeg;
         this.model = model;
+        this.scale = scale;
+        this.maskCache = maskCache;
     }
 
     /**
@@ -64,80 +83,438 @@ public class Transform {
      * greatly improve the results.
      */
     public HoughSpace transform(final CvMat raster, final CvMat gradientRaster, final int houghThreshold) {
+        return transform(raster, gradientRaster, houghThreshold, 1);
+    }
+
+    /**
+     * The same as {@link Transform#transform(CvMat, CvMat, int)} but the work is split across {@code numThreads}
+     * threads. The results are identical.
+     */
+    public HoughSpace transform(final CvMat raster, final CvMat gradientRaster, final int houghThreshold, final int numThreads) {
         final int height = raster.rows();
         final int width = raster.cols();
-        return transform(raster, gradientRaster, houghThreshold, 0, height - 1, 0, width - 1);
+        return transform(raster, gradientRaster, houghThreshold, 0, height - 1, 0, width - 1, numThreads);
     }
 
     public HoughSpace transform(final CvMat mat, final CvMat gradient, final int houghThreshold,
         final int rowstartp, final int rowendp, final int colstartp, final int colendp) {
+        return transform(mat, gradient, houghThreshold, rowstartp, rowendp, colstartp, colendp, 1);
+    }
+
+    /**
+     * <p>
+     * Transform the given region of the image. The rows of the region are split into a stripe per thread and
+     * each thread accumulates into its own hough space which are merged once they're all done. This happens
+     * for both the initial voting and the back mapping passes so the results are identical to the single
+     * threaded transform. The contributors to the {@link HoughSpaceEntry}s are collected natively into a
+     * {@link BackMap} which is copied back in bulk once the threads are done.
+     * </p>
+     *
+     * <p>
+     * Each additional thread requires memory for two more hough spaces.
+     * </p>
+     */
+    public HoughSpace transform(final CvMat mat, final CvMat gradient, final int houghThreshold,
+        final int rowstartp, final int rowendp, final int colstartp, final int colendp, final int numThreads) {
+        if(numThreads < 1)
+            throw new IllegalArgumentException("The number of threads must be at least 1. It was " + numThreads);
         final int height = mat.rows();
         final int width = mat.cols();
 
-        {
-            final long gradientDirImage = gradient.getNativeAddressOfData();
+        // the size of the hough space should be quantFactor smaller
+        final int htheight = (int)((height) / quantFactor) + 1;
+        final int htwidth = (int)((width) / quantFactor) + 1;
 
-            // the size of the hough space should be quantFactor smaller
-            final int htheight = (int)((height) / quantFactor) + 1;
-            final int htwidth = (int)((width) / quantFactor) + 1;
+        return transform(mat, gradient, houghThreshold, rowstartp, rowendp, colstartp, colendp, 0, htheight - 1, 0, htwidth - 1, numThreads);
+    }
 
-            final short[] ret = new short[htheight * htwidth];
+    /**
+     * Transform the given region of the image accumulating into only the given region of the hough space. Votes
+     * outside of that region are dropped. The returned {@link HoughSpace} is the size of the hough space region
+     * but its {@link HoughSpaceEntry}s (and its {@link BackMap}) have the positions in the full hough space.
+     */
+    private HoughSpace transform(final CvMat mat, final CvMat gradient, final int houghThreshold,
+        final int rowstartp, final int rowendp, final int colstartp, final int colendp,
+        final int hsrowstart, final int hsrowend, final int hscolstart, final int hscolend, final int numThreads) {
+        final int height = mat.rows();
+        final int width = mat.cols();
 
-            final HoughSpaceEntryManager hsem = new HoughSpaceEntryManager(quantFactor);
+        final long gradientDirImage = gradient.getNativeAddressOfData();
 
-            final ImageAPI.AddHoughSpaceEntryContributorFunc cb = (final int orow, final int ocol, final int hsr, final int hsc,
-                final int hscount) -> {
-                try {
-                    hsem.addHoughSpaceEntryContributor(orow, ocol, hsr, hsc, hscount);
-                } catch(final RuntimeException rte) {
-                    rte.printStackTrace(System.err);
-                    return false;
-                }
-                return true;
-            };
+        final int htheight = hsrowend - hsrowstart + 1;
+        final int htwidth = hscolend - hscolstart + 1;
 
-            final int rowstart = (rowstartp < 0) ? 0 : rowstartp;
-            final int rowend = (rowendp >= height) ? height - 1 : rowendp;
-            final int colstart = (colstartp < 0) ? 0 : colstartp;
-            final int colend = (colendp >= width) ? width - 1 : colendp;
+        final short[] ret = new short[htheight * htwidth];
 
-            ImageAPI.pilecv4j_image_Transform_houghTransformNative(mat.getNativeAddressOfData(), width, height, gradientDirImage,
-                mask.mask, mask.mwidth, mask.mheight, mask.maskcr, mask.maskcc,
-                gradDirMask.mask, gradDirMask.mwidth, gradDirMask.mheight, gradDirMask.maskcr, gradDirMask.maskcc,
-                gradientDirSlopDeg, quantFactor, ret, htwidth, htheight, cb, houghThreshold,
-                rowstart, rowend, colstart, colend, Mask.EDGE);
+        final int rowstart = (rowstartp < 0) ? 0 : rowstartp;
+        final int rowend = (rowendp >= height) ? height - 1 : rowendp;
+        final int colstart = (colstartp < 0) ? 0 : colstartp;
+        final int colend = (colendp >= width) ? width - 1 : colendp;
 
-            hsem.entryMap.clear(); // help the gc
+        final int[] sizes = new int[2];
+        final long nativeBackMap = ImageAPI.pilecv4j_image_Transform_houghTransformNativeBackMap(mat.getNativeAddressOfData(), width, height,
+            gradientDirImage, mask.mask, mask.mwidth, mask.mheight, mask.maskcr, mask.maskcc,
+            gradDirMask.mask, gradDirMask.mwidth, gradDirMask.mheight, gradDirMask.maskcr, gradDirMask.maskcc,
+            gradientDirSlopDeg, quantFactor, ret, htwidth, htheight, hsrowstart, hscolstart, houghThreshold,
+            rowstart, rowend, colstart, colend, Mask.EDGE, numThreads, sizes);
 
-            return new HoughSpace(ret, htwidth, htheight, quantFactor, hsem.entries);
+        final BackMap backMap;
+        try {
+            backMap = new BackMap(htwidth, hsrowstart, hscolstart, sizes[0], sizes[1]);
+            ImageAPI.pilecv4j_image_Transform_copyBackMap(nativeBackMap, backMap.hsIndexes, backMap.offsets, backMap.contributors);
+        } finally {
+            ImageAPI.pilecv4j_image_Transform_freeBackMap(nativeBackMap);
         }
+
+        return new HoughSpace(ret, htwidth, htheight, quantFactor, backMap);
     }
 
+    /**
+     * <p>
+     * A coarse to fine version of the transform. The image is first transformed with a quantization
+     * {@code pyramidFactor} times coarser using {@code coarseHoughThreshold}. The coarse masks are generated from the
+     * same model at the same scale so a coarse peak is where an instance of the model is, to within a coarse
+     * position. The coarse hough space and masks are {@code pyramidFactor}<sup>2</sup> times smaller so this pass is
+     * much cheaper. Then the full resolution transform is only run on windows around the top {@code maxCoarsePeaks}
+     * coarse peaks. Each window only accumulates into the part of the hough space its pixels can vote for so the
+     * cost of a window doesn't depend on the size of the image.
+     * </p>
+     *
+     * <p>
+     * The windows are expanded enough that the {@link HoughSpaceEntry}s returned for the area of the full image
+     * covered by each coarse peak (and the coarse positions on either side of it) are exactly the same as those from
+     * transforming the full image. So as long as {@code coarseHoughThreshold} and {@code maxCoarsePeaks} let through
+     * the coarse positions that the features fall in, clustering and fitting the entries gives the same results as
+     * the full transform. Since an instance's center can fall anywhere within a coarse position some of its edge
+     * pixels will be further than the coarse mask allows from the model centered on that position so a good starting
+     * point for {@code coarseHoughThreshold} is {@code houghThreshold / 2}.
+     * </p>
+     *
+     * @return the {@link HoughSpaceEntry}s found, in the same order as {@link HoughSpace#getSortedEntries()}
+     */
+    public List<HoughSpaceEntry> pyramidTransform(final CvMat raster, final CvMat gradientRaster, final int houghThreshold,
+        final int pyramidFactor, final int coarseHoughThreshold, final int maxCoarsePeaks, final int numThreads) {
+        if(pyramidFactor < 2 || pyramidFactor > 16)
+            throw new IllegalArgumentException("The pyramid factor must be between 2 and 16. It was " + pyramidFactor);
+
+        final int height = raster.rows();
+        final int width = raster.cols();
+
+        // ===========================================================
+        // The coarse transform. This is done on the full image rather than a reduced one since the masks can't
+        // be scaled down to match a reduced image for every model.
+        final Transform coarse = new Transform(model, quantFactor * pyramidFactor, scale, gradientDirSlopDeg, maskCache);
+        final List<HoughSpaceEntry> sorted = coarse.transform(raster, gradientRaster, coarseHoughThreshold, numThreads).getSortedEntries();
+        final List<HoughSpaceEntry> coarsePeaks = sorted.subList(0, Math.min(maxCoarsePeaks, sorted.size()));
+
+        // ===========================================================
+        // The full resolution transform around each coarse peak.
+        //
+        // An entry is only affected by the edge pixels within the mask's extent of it but those pixels vote for the
+        // position with the most votes in the interim hough space within the mask's extent of them and those
+        // positions are affected by the pixels within the mask's extent of them. So the window needs to extend 1.5
+        // times the mask beyond the area around the peak (plus a little for the quantization) for the entries in that
+        // area to be exact.
+        final int rowMargin = (int)Math.ceil(((1.5 * mask.mheight) + 2.0) * quantFactor);
+        final int colMargin = (int)Math.ceil(((1.5 * mask.mwidth) + 2.0) * quantFactor);
+        // a coarse position covers this many pixels of the full image.
+        final double coarseBin = quantFactor * pyramidFactor;
+
+        final int htwidth = (int)((width) / quantFactor) + 1;
+        final int htheight = (int)((height) / quantFactor) + 1;
+        // the hough space positions a pixel can vote for are within the mask's extent of the pixel's position
+        final int hsRowsBefore = mask.maskcr;
+        final int hsRowsAfter = mask.mheight - 1 - mask.maskcr;
+        final int hsColsBefore = mask.maskcc;
+        final int hsColsAfter = mask.mwidth - 1 - mask.maskcc;
+        final boolean[] found = new boolean[htwidth * htheight];
+        final List<HoughSpaceEntry> ret = new ArrayList<>();
+        for(final HoughSpaceEntry peak: coarsePeaks) {
+            // the area the peak could be in, allowing a coarse position on either side
+            final int coreRowStart = (int)Math.floor((peak.r - 1) * coarseBin);
+            final int coreRowEnd = (int)Math.ceil((peak.r + 2) * coarseBin);
+            final int coreColStart = (int)Math.floor((peak.c - 1) * coarseBin);
+            final int coreColEnd = (int)Math.ceil((peak.c + 2) * coarseBin);
+
+            final int rowStart = Math.max(coreRowStart - rowMargin, 0);
+            final int rowEnd = Math.min(coreRowEnd + rowMargin, height - 1);
+            final int colStart = Math.max(coreColStart - colMargin, 0);
+            final int colEnd = Math.min(coreColEnd + colMargin, width - 1);
+
+            final HoughSpace hs = transform(raster, gradientRaster, houghThreshold, rowStart, rowEnd, colStart, colEnd,
+                Math.max((int)(rowStart / quantFactor) - hsRowsBefore, 0), Math.min((int)(rowEnd / quantFactor) + hsRowsAfter, htheight - 1),
+                Math.max((int)(colStart / quantFactor) - hsColsBefore, 0), Math.min((int)(colEnd / quantFactor) + hsColsAfter, htwidth - 1),
+                numThreads);
+
+            for(final HoughSpaceEntry e: hs.backMapEntries) {
+                final double ir = e.r * quantFactor;
+                final double ic = e.c * quantFactor;
+                final int hsIndex = (e.r * htwidth) + e.c;
+                // overlapping windows find the same entries.
+                if(ir >= coreRowStart && ir < coreRowEnd && ic >= coreColStart && ic < coreColEnd && !found[hsIndex]) {
+                    found[hsIndex] = true;
+                    ret.add(e);
+                }
+            }
+        }
+
+        // the same order as HoughSpace.getSortedEntries which is a stable sort of the entries in hough space order
+        ret.sort(new HoughSpaceEntry.HSEComparator().thenComparingInt(e -> e.r).thenComparingInt(e -> e.c));
+        return ret;
+    }
+
+    /**
+     * <p>
+     * Group the entries into {@link Cluster}s. The entries are taken in order and each one is added to the first
+     * {@link Cluster} (in the order they were created) whose centroid is within the cluster distance of it.
+     * If there isn't one a new {@link Cluster} is started. The cluster distance is the smaller dimension of the
+     * model's mask multiplied by {@code percentModelCoverage}.
+     * </p>
+     *
+     * <p>
+     * The {@link Cluster}s are kept in a grid by their centroids so each entry is only compared to the ones
+     * nearby rather than every {@link Cluster} so far.
+     * </p>
+     */
     public List<Cluster> cluster(final List<HoughSpaceEntry> houghEntries, final double percentModelCoverage) {
-        final List<Cluster> ret = new ArrayList<Cluster>();
+        final double minDist = clusterDistance(percentModelCoverage);
+        final int[] all = new int[houghEntries.size()];
+        for(int i = 0; i < all.length; i++)
+            all[i] = i;
+        return ClusterGrid.cluster(houghEntries, all, minDist).stream()
+            .map(gc -> gc.cluster)
+            .collect(Collectors.toList());
+    }
 
-        final double minDist = ((mask.mwidth > mask.mheight ? mask.mheight : mask.mwidth) + 1) * percentModelCoverage;
+    /**
+     * Cluster the entries concurrently on the common {@link ForkJoinPool}. See
+     * {@link Transform#parallelCluster(ForkJoinPool, List, double)}.
+     */
+    public List<Cluster> parallelCluster(final List<HoughSpaceEntry> houghEntries, final double percentModelCoverage) {
+        return parallelCluster(ForkJoinPool.commonPool(), houghEntries, percentModelCoverage);
+    }
 
-        // this is going to do rather simplistic clustering.
-        for(final HoughSpaceEntry cur: houghEntries) {
-            if(ret.size() == 0)
-                ret.add(new Cluster(cur));
-            else // see if the cur belongs within a current cluster
-            {
-                boolean done = false;
-                for(int i = 0; i < ret.size() && !done; i++) {
-                    final Cluster c = ret.get(i);
-                    if(c.distance(cur) <= minDist) {
-                        c.add(cur);
-                        done = true;
+    /**
+     * <p>
+     * Cluster the entries concurrently on the given {@link ForkJoinPool}. The entries are split into groups
+     * that can't share a {@link Cluster} and the groups are clustered independently using the same rules as
+     * {@link Transform#cluster(List, double)}. The {@link Cluster}s are returned in the same order as
+     * {@link Transform#cluster(List, double)} would return them.
+     * </p>
+     *
+     * <p>
+     * The result is the same as {@link Transform#cluster(List, double)}. A {@link Cluster}'s centroid is the
+     * average of its entries so it's always inside the bounding box of the group they came from. The groups are
+     * merged until no entry is within the cluster distance of another group's bounding box so no entry can ever
+     * be within the cluster distance of a {@link Cluster} from a different group.
+     * </p>
+     */
+    public List<Cluster> parallelCluster(final ForkJoinPool pool, final List<HoughSpaceEntry> houghEntries, final double percentModelCoverage) {
+        final double minDist = clusterDistance(percentModelCoverage);
+        final List<int[]> groups = ClusterGrid.connectedGroups(houghEntries, minDist);
+
+        final List<ClusterGrid.GridCluster> clustered = pool.submit(() -> groups.parallelStream()
+            .map(g -> ClusterGrid.cluster(houghEntries, g, minDist))
+            .flatMap(List::stream)
+            .collect(Collectors.toList())).join();
+
+        // a sequential clustering would have created them in the order of the first entry of each.
+        return clustered.stream()
+            .sorted(Comparator.comparingInt(gc -> gc.firstEntry))
+            .map(gc -> gc.cluster)
+            .collect(Collectors.toList());
+    }
+
+    private double clusterDistance(final double percentModelCoverage) {
+        return ((mask.mwidth > mask.mheight ? mask.mheight : mask.mwidth) + 1) * percentModelCoverage;
+    }
+
+    /**
+     * Spatial index of the {@link Cluster}s by the position of their centroids in the hough space. The
+     * cells are at least the cluster distance on a side so anything within the cluster distance of a point
+     * is in the point's cell or one of the 8 around it.
+     */
+    private static class ClusterGrid {
+        // allows for the rounding in the incremental average of a Cluster's centroid.
+        private static final double CENTROID_SLOP = 1.0E-6;
+
+        private final double cellSize;
+        private final Map<Long, List<GridCluster>> cells = new HashMap<>();
+
+        private static class GridCluster {
+            final Cluster cluster;
+            // the index into the entries that started the cluster.
+            final int firstEntry;
+            long cell;
+
+            private GridCluster(final Cluster cluster, final int firstEntry, final long cell) {
+                this.cluster = cluster;
+                this.firstEntry = firstEntry;
+                this.cell = cell;
+            }
+        }
+
+        private ClusterGrid(final double minDist) {
+            cellSize = minDist > 0.0 ? minDist : 1.0;
+        }
+
+        /**
+         * Cluster the entries at the given indexes (which must be increasing) returning the {@link GridCluster}s in
+         * the order they were created.
+         */
+        static List<GridCluster> cluster(final List<HoughSpaceEntry> entries, final int[] indexes, final double minDist) {
+            final ClusterGrid grid = new ClusterGrid(minDist);
+            final List<GridCluster> ret = new ArrayList<>();
+
+            for(final int index: indexes) {
+                final HoughSpaceEntry cur = entries.get(index);
+                final long cr = grid.cellOf(cur.r);
+                final long cc = grid.cellOf(cur.c);
+
+                // find the earliest cluster that's close enough. Since the firstEntry's are increasing
+                // that's the one with the lowest firstEntry.
+                GridCluster found = null;
+                for(long r = cr - 1; r <= cr + 1; r++) {
+                    for(long c = cc - 1; c <= cc + 1; c++) {
+                        final List<GridCluster> cell = grid.cells.get(key(r, c));
+                        if(cell != null) {
+                            for(final GridCluster gc: cell) {
+                                if((found == null || gc.firstEntry < found.firstEntry) && gc.cluster.distance(cur) <= minDist)
+                                    found = gc;
+                            }
+                        }
+                    }
+                }
+
+                if(found == null) {
+                    final GridCluster gc = new GridCluster(new Cluster(cur), index, key(cr, cc));
+                    grid.cells.computeIfAbsent(gc.cell, k -> new ArrayList<>()).add(gc);
+                    ret.add(gc);
+                } else {
+                    found.cluster.add(cur);
+                    // the centroid moved so it may be in a different cell.
+                    final long newCell = key(grid.cellOf(found.cluster.row()), grid.cellOf(found.cluster.col()));
+                    if(newCell != found.cell) {
+                        final List<GridCluster> oldList = grid.cells.get(found.cell);
+                        oldList.remove(found);
+                        if(oldList.isEmpty())
+                            grid.cells.remove(found.cell);
+                        found.cell = newCell;
+                        grid.cells.computeIfAbsent(newCell, k -> new ArrayList<>()).add(found);
                     }
                 }
-                if(!done)
-                    ret.add(new Cluster(cur));
             }
+            return ret;
         }
 
-        return ret;
+        /**
+         * Split the entries into groups where the entries in one group are all more than {@code minDist} from the
+         * bounding box of every other group. Each group is the (increasing) indexes of its entries and the groups
+         * are in the order of their first entry.
+         */
+        static List<int[]> connectedGroups(final List<HoughSpaceEntry> entries, final double minDist) {
+            final int num = entries.size();
+            final ClusterGrid grid = new ClusterGrid(minDist);
+            final Map<Long, List<Integer>> entryCells = new HashMap<>();
+            for(int i = 0; i < num; i++) {
+                final HoughSpaceEntry e = entries.get(i);
+                entryCells.computeIfAbsent(key(grid.cellOf(e.r), grid.cellOf(e.c)), k -> new ArrayList<>()).add(i);
+            }
+
+            // union-find
+            final int[] parent = new int[num];
+            for(int i = 0; i < num; i++)
+                parent[i] = i;
+
+            for(int i = 0; i < num; i++) {
+                final HoughSpaceEntry e = entries.get(i);
+                final long cr = grid.cellOf(e.r);
+                final long cc = grid.cellOf(e.c);
+                for(long r = cr - 1; r <= cr + 1; r++) {
+                    for(long c = cc - 1; c <= cc + 1; c++) {
+                        final List<Integer> cell = entryCells.get(key(r, c));
+                        if(cell != null) {
+                            for(final int j: cell) {
+                                if(j > i) {
+                                    final HoughSpaceEntry o = entries.get(j);
+                                    final double dr = e.r - o.r;
+                                    final double dc = e.c - o.c;
+                                    if(Math.sqrt((dr * dr) + (dc * dc)) <= minDist)
+                                        union(parent, i, j);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+
+            // Entries that are more than minDist apart can still end up in the same cluster if a centroid drifts.
+            // The centroid stays inside the bounding box of its group so merge groups until none is within
+            // minDist of another's bounding box.
+            final double reach = minDist + CENTROID_SLOP;
+            boolean merged = true;
+            while(merged) {
+                merged = false;
+                final Map<Integer, double[]> boxes = new HashMap<>();
+                for(int i = 0; i < num; i++) {
+                    final HoughSpaceEntry e = entries.get(i);
+                    final double[] box = boxes.computeIfAbsent(find(parent, i), k -> new double[] {e.r,e.c,e.r,e.c,k});
+                    box[0] = Math.min(box[0], e.r);
+                    box[1] = Math.min(box[1], e.c);
+                    box[2] = Math.max(box[2], e.r);
+                    box[3] = Math.max(box[3], e.c);
+                }
+
+                // sweep down the rows keeping the boxes that could still overlap the next one.
+                final List<double[]> sorted = new ArrayList<>(boxes.values());
+                sorted.sort(Comparator.comparingDouble(b -> b[0]));
+                final List<double[]> active = new ArrayList<>();
+                for(final double[] box: sorted) {
+                    active.removeIf(a -> a[2] + reach < box[0]);
+                    for(final double[] a: active) {
+                        if(box[1] <= a[3] + reach && a[1] <= box[3] + reach && find(parent, (int)a[4]) != find(parent, (int)box[4])) {
+                            union(parent, (int)a[4], (int)box[4]);
+                            merged = true;
+                        }
+                    }
+                    active.add(box);
+                }
+            }
+
+            final Map<Integer, List<Integer>> byRoot = new LinkedHashMap<>();
+            for(int i = 0; i < num; i++)
+                byRoot.computeIfAbsent(find(parent, i), k -> new ArrayList<>()).add(i);
+
+            return byRoot.values().stream()
+                .map(l -> l.stream().mapToInt(Integer::intValue).toArray())
+                .collect(Collectors.toList());
+        }
+
+        private long cellOf(final double v) {
+            return (long)Math.floor(v / cellSize);
+        }
+
+        private static long key(final long r, final long c) {
+            return (r << 32) ^ (c & 0xffffffffL);
+        }
+
+        private static int find(final int[] parent, int i) {
+            while(parent[i] != i) {
+                parent[i] = parent[parent[i]];
+                i = parent[i];
+            }
+            return i;
+        }
+
+        private static void union(final int[] parent, final int i, final int j) {
+            final int ri = find(parent, i);
+            final int rj = find(parent, j);
+            // keep the lower index as the root.
+            if(ri < rj)
+                parent[rj] = ri;
+            else if(rj < ri)
+                parent[ri] = rj;
+        }
     }
 
     public List<Fit> bestFit(final List<Cluster> clusters, final CvMat ti, final byte overlayPixelValueRemovedEdge,
@@ -147,8 +524,40 @@ public class Transform {
 
     public List<Fit> bestFit(final List<Cluster> clusters, final CvMat ti, final byte overlayPixelValueRemovedEdge,
         final byte overlayPixelValueEdge, final List<java.awt.Point> savedPruned) {
+        final FitWorkspace workspace = new FitWorkspace(model);
+        final boolean keepPruned = ti != null || savedPruned != null;
         return clusters.stream()
-            .map(c -> bestFit(c, ti, overlayPixelValueRemovedEdge, overlayPixelValueEdge, savedPruned))
+            .map(c -> record(fit(c, workspace, keepPruned), ti, overlayPixelValueRemovedEdge, overlayPixelValueEdge, savedPruned))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Fit the clusters concurrently on the common {@link ForkJoinPool}. See
+     * {@link Transform#parallelBestFit(ForkJoinPool, List, CvMat, byte, byte, List)}.
+     */
+    public List<Fit> parallelBestFit(final List<Cluster> clusters, final CvMat ti, final byte overlayPixelValueRemovedEdge,
+        final byte overlayPixelValueEdge, final List<java.awt.Point> savedPruned) {
+        return parallelBestFit(ForkJoinPool.commonPool(), clusters, ti, overlayPixelValueRemovedEdge, overlayPixelValueEdge, savedPruned);
+    }
+
+    /**
+     * The same as {@link Transform#bestFit(List, CvMat, byte, byte, List)} but the clusters are fit concurrently
+     * on the given {@link ForkJoinPool}. The {@link Fit}s are identical and in the same order. The bookkeeping
+     * into {@code ti} and {@code savedPruned} is done on the calling thread once all of the fits are done so
+     * neither needs to be thread safe and they end up the same as they would from
+     * {@link Transform#bestFit(List, CvMat, byte, byte, List)}.
+     */
+    public List<Fit> parallelBestFit(final ForkJoinPool pool, final List<Cluster> clusters, final CvMat ti,
+        final byte overlayPixelValueRemovedEdge, final byte overlayPixelValueEdge, final List<java.awt.Point> savedPruned) {
+        final ThreadLocal<FitWorkspace> workspaces = ThreadLocal.withInitial(() -> new FitWorkspace(model));
+        final boolean keepPruned = ti != null || savedPruned != null;
+
+        final List<FitResult> results = pool.submit(() -> clusters.parallelStream()
+            .map(c -> fit(c, workspaces.get(), keepPruned))
+            .collect(Collectors.toList())).join();
+
+        return results.stream()
+            .map(r -> record(r, ti, overlayPixelValueRemovedEdge, overlayPixelValueEdge, savedPruned))
             .collect(Collectors.toList());
     }
 
@@ -172,6 +581,22 @@ public class Transform {
     public Fit bestFit(final Cluster cluster, final CvMat ti, final byte overlayPixelValueRemovedEdge, final byte overlayPixelValueEdge,
         final List<java.awt.Point> savedPruned)
         throws MinimizerException {
+        return record(fit(cluster, new FitWorkspace(model), ti != null || savedPruned != null), ti, overlayPixelValueRemovedEdge,
+            overlayPixelValueEdge, savedPruned);
+    }
+
+    private static class FitResult {
+        final Fit fit;
+        // the pixels pruned from the fit in the order they were pruned. null if they weren't kept.
+        final List<java.awt.Point> pruned;
+
+        private FitResult(final Fit fit, final List<java.awt.Point> pruned) {
+            this.fit = fit;
+            this.pruned = pruned;
+        }
+    }
+
+    private FitResult fit(final Cluster cluster, final FitWorkspace ws, final boolean keepPruned) throws MinimizerException {
         // need to go through the raster around the cluster using the highest
         // count cluster value
 
@@ -179,65 +604,142 @@ public class Transform {
         // value.
         // there is a sprocket centered at e.r, e.c so we
         // need to see which pixels contribute to it
-        final List<java.awt.Point> edgeVals = new ArrayList<java.awt.Point>();
-        edgeVals.addAll(cluster.getContributingEdges());
+        ws.load(cluster.getContributingEdges());
 
-        // now edgevals contains the list of all of the edge values that contributed to
+        // now the workspace contains all of the edge values that contributed to
         // this cluster.
 
         double[] result = null;
 
         boolean pruning = true;
-        final List<java.awt.Point> pruned = new ArrayList<java.awt.Point>();
+        final List<java.awt.Point> pruned = keepPruned ? new ArrayList<java.awt.Point>() : null;
         double stdDev = -1.0;
         for(boolean done = false; !done;) {
-            pruned.clear();
-            final FitSumSquaresDist func = new FitSumSquaresDist(edgeVals, model);
-            final Minimizer m = new Minimizer(func);
             final double[] params = new double[4];
             params[0] = cluster.imageCol();
             params[1] = cluster.imageRow();
             params[2] = 0.0;
             params[3] = 1.0;
-            /* double sumSqErr = */ m.minimize(params);
-            result = m.getFinalPostion();
-            stdDev = func.stdDev;
-
-            if(pruning) {
-                pruning = func.prune(func.stdDev * 3.0, result, pruned);
-
-                // This will remove one pixel at a time until the std dev
-                // is below some value. It's too slow.
-                // if (!pruning && func.stdDev > 1.0)
-                // {
-                // pruning = true;
-                // func.pruneFurthest(pruned);
-                // }
-            }
-
-            // if we want to write a debug image, then do it.
-            final byte[] overlayRemovedEdgePixel = new byte[] {overlayPixelValueRemovedEdge};
-            if(ti != null) {
-                if(pruned.size() > 0) {
-                    for(final java.awt.Point p: pruned)
-                        ti.put(p.y, p.x, overlayPixelValueRemovedEdge);
-                }
-            }
+            /* double sumSqErr = */ ws.minimizer.minimize(params);
+            result = ws.minimizer.getFinalPostion();
+            stdDev = ws.stdDev;
 
-            if(savedPruned != null)
-                savedPruned.addAll(pruned);
+            if(pruning)
+                pruning = ws.prune(ws.stdDev * 3.0, result, pruned);
 
             if(!pruning) // if we are not pruning the exit
                 done = true;
         }
 
+        return new FitResult(new Fit(result[1], result[0], result[3], result[2], cluster, stdDev, ws.edgeVals()), pruned);
+    }
+
+    // if we want to write a debug image, then do it.
+    private static Fit record(final FitResult result, final CvMat ti, final byte overlayPixelValueRemovedEdge, final byte overlayPixelValueEdge,
+        final List<java.awt.Point> savedPruned) {
         if(ti != null) {
+            for(final java.awt.Point p: result.pruned)
+                ti.put(p.y, p.x, overlayPixelValueRemovedEdge);
+
             final byte[] overlayPixelEdge = new byte[] {overlayPixelValueEdge};
-            for(final java.awt.Point p: edgeVals)
+            for(final java.awt.Point p: result.fit.edgeVals)
                 ti.put(p.y, p.x, overlayPixelEdge);
         }
 
-        return new Fit(result[1], result[0], result[3], result[2], cluster, stdDev, edgeVals);
+        if(savedPruned != null)
+            savedPruned.addAll(result.pruned);
+
+        return result.fit;
+    }
+
+    /**
+     * The edge pixels being fit held in primitive arrays along with the {@link Minimizer} so they can be
+     * reused from one fit to the next. This computes exactly the same thing as {@link FitSumSquaresDist}.
+     */
+    private static class FitWorkspace implements Minimizer.Func {
+        private final Model sm;
+        private final boolean flipYAxis;
+        private final Minimizer minimizer = new Minimizer(this);
+        private int[] xs = new int[0];
+        private int[] ys = new int[0];
+        private int size = 0;
+        private double stdDev;
+
+        private FitWorkspace(final Model sm) {
+            this.sm = sm;
+            this.flipYAxis = sm.flipYAxis();
+        }
+
+        private void load(final List<java.awt.Point> edgeVals) {
+            size = edgeVals.size();
+            if(xs.length < size) {
+                xs = new int[size];
+                ys = new int[size];
+            }
+            for(int i = 0; i < size; i++) {
+                final java.awt.Point p = edgeVals.get(i);
+                xs[i] = p.x;
+                ys[i] = p.y;
+            }
+        }
+
+        private List<java.awt.Point> edgeVals() {
+            final List<java.awt.Point> ret = new ArrayList<>(size);
+            for(int i = 0; i < size; i++)
+                ret.add(new java.awt.Point(xs[i], ys[i]));
+            return ret;
+        }
+
+        // Same as FitSumSquaresDist.prune including adding the pruned points last to first.
+        private boolean prune(final double maxDist, final double[] x, final List<java.awt.Point> pruned) {
+            final double cx = x[0];
+            final double cy = x[1];
+
+            final int prevSize = pruned == null ? 0 : pruned.size();
+            int kept = 0;
+            for(int i = 0; i < size; i++) {
+                final double vx = xs[i] - cx;
+                final double vy = ys[i] - cy;
+                final double dist = sm.distance(vx, vy, x[2], x[3]);
+
+                if(dist >= maxDist) {
+                    if(pruned != null)
+                        pruned.add(new java.awt.Point(xs[i], ys[i]));
+                } else {
+                    xs[kept] = xs[i];
+                    ys[kept] = ys[i];
+                    kept++;
+                }
+            }
+
+            final boolean ret = kept != size;
+            size = kept;
+            if(pruned != null)
+                Collections.reverse(pruned.subList(prevSize, pruned.size()));
+            return ret;
+        }
+
+        @Override
+        public double func(final double[] x) {
+            final double cx = x[0];
+            final double cy = x[1];
+
+            double ret = 0.0;
+            for(int i = 0; i < size; i++) {
+                final double vx = xs[i] - cx;
+                double vy = ys[i] - cy;
+
+                if(flipYAxis)
+                    vy = -vy;
+
+                final double dist = sm.distance(vx, vy, x[2], x[3]);
+                ret += (dist * dist);
+            }
+
+            stdDev = Math.sqrt(ret / size);
+
+            return ret;
+        }
     }
 
     public static void drawClusters(final List<Cluster> clusters, final Mat ti, final byte color) {
@@ -252,6 +754,79 @@ public class Transform {
             Utils.drawCircle((int)Math.round(c.cr), (int)Math.round(c.cc), ti, colorC);
     }
 
+    /**
+     * <p>
+     * The edge pixels that contributed to each of the {@link HoughSpaceEntry}s of a {@link HoughSpace} packed
+     * into primitive arrays. Entry {@code e} is at the hough space index {@code hsIndexes[e]} and its
+     * contributors are the row/column pairs in {@code contributors} starting at pair {@code offsets[e]} up to
+     * (but not including) pair {@code offsets[e + 1]}. The contributors for an entry are in image (raster)
+     * order.
+     * </p>
+     *
+     * <p>
+     * The arrays are exposed for efficient access and shouldn't be modified.
+     * </p>
+     */
+    public static class BackMap {
+        public final int hswidth;
+        /**
+         * Where the hough space the {@link BackMap#hsIndexes} index into starts in the full hough space. These
+         * are only non-zero for the windows of a {@link Transform#pyramidTransform}.
+         */
+        public final int hsRowOffset;
+        public final int hsColOffset;
+        public final int[] hsIndexes;
+        public final int[] offsets;
+        public final int[] contributors;
+
+        private BackMap(final int hswidth, final int hsRowOffset, final int hsColOffset, final int numEntries, final int numContributors) {
+            this.hswidth = hswidth;
+            this.hsRowOffset = hsRowOffset;
+            this.hsColOffset = hsColOffset;
+            this.hsIndexes = new int[numEntries];
+            this.offsets = new int[numEntries + 1];
+            this.contributors = new int[2 * numContributors];
+        }
+
+        public int numEntries() {
+            return hsIndexes.length;
+        }
+
+        public int hsRow(final int entry) {
+            return hsRowOffset + (hsIndexes[entry] / hswidth);
+        }
+
+        public int hsCol(final int entry) {
+            return hsColOffset + (hsIndexes[entry] % hswidth);
+        }
+
+        public int numContributors(final int entry) {
+            return offsets[entry + 1] - offsets[entry];
+        }
+
+        public int contributorRow(final int entry, final int index) {
+            return contributors[2 * (offsets[entry] + index)];
+        }
+
+        public int contributorCol(final int entry, final int index) {
+            return contributors[2 * (offsets[entry] + index) + 1];
+        }
+
+        /**
+         * A read only view of the row/column pairs of the contributors to the given entry.
+         */
+        public IntBuffer contributors(final int entry) {
+            return IntBuffer.wrap(contributors, 2 * offsets[entry], 2 * numContributors(entry)).slice().asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * This was used to collect the contributors to the {@link HoughSpaceEntry}s through a callback from the native
+     * transform. The transform now builds a {@link BackMap} natively instead.
+     *
+     * @deprecated the {@link HoughSpaceEntry}s of a {@link HoughSpace} are now backed by its {@link BackMap}.
+     */
+    @Deprecated
     public static class HoughSpaceEntryManager {
         private final double quantFactor;
         public Map<java.awt.Point, HoughSpaceEntry> entryMap = new HashMap<java.awt.Point, HoughSpaceEntry>();
@@ -282,21 +857,102 @@ public class Transform {
         public int ir;
         public int ic;
         public double quantFactor;
-        public List<java.awt.Point> contributingImagePoints = new ArrayList<java.awt.Point>();
+        /**
+         * For an entry from a {@link HoughSpace} this starts out as a view onto its {@link BackMap} and the
+         * {@link java.awt.Point}s are created as they're accessed. Use {@link #numContributors()},
+         * {@link #contributorRow(int)} and {@link #contributorCol(int)} to avoid that. If the list is modified,
+         * either directly or through {@link #addContribution(int, int)}, the contributors are first copied out
+         * of the {@link BackMap} (which is left unchanged) and the entry works from the copy from then on.
+         */
+        public List<java.awt.Point> contributingImagePoints;
+
+        private BackMap backMap;
+        private final int entry;
+        private final List<java.awt.Point> view;
 
         public HoughSpaceEntry(final int r, final int c, final int count, final double quantFactor) {
+            this(r, c, count, quantFactor, null, -1);
+            contributingImagePoints = new ArrayList<java.awt.Point>();
+        }
+
+        private HoughSpaceEntry(final int r, final int c, final int count, final double quantFactor, final BackMap backMap, final int entry) {
             this.r = r;
             this.c = c;
             this.quantFactor = quantFactor;
             this.count = count;
             this.ir = (int)((this.r + 1) * this.quantFactor);
             this.ic = (int)((this.c + 1) * this.quantFactor);
+            this.backMap = backMap;
+            this.entry = entry;
+            this.view = backMap == null ? null : new ContributorList();
+            contributingImagePoints = view;
+        }
+
+        // A view of the contributors in the BackMap that copies them out the first time it's modified.
+        private class ContributorList extends AbstractList<java.awt.Point> {
+            private ArrayList<java.awt.Point> copy = null;
+
+            @Override
+            public java.awt.Point get(final int index) {
+                if(copy != null)
+                    return copy.get(index);
+                if(index < 0 || index >= size())
+                    throw new IndexOutOfBoundsException(index);
+                return new java.awt.Point(backMap.contributorCol(entry, index), backMap.contributorRow(entry, index));
+            }
+
+            @Override
+            public int size() {
+                return copy != null ? copy.size() : backMap.numContributors(entry);
+            }
+
+            @Override
+            public java.awt.Point set(final int index, final java.awt.Point element) {
+                return copy().set(index, element);
+            }
+
+            @Override
+            public void add(final int index, final java.awt.Point element) {
+                copy().add(index, element);
+            }
+
+            @Override
+            public java.awt.Point remove(final int index) {
+                return copy().remove(index);
+            }
+
+            private ArrayList<java.awt.Point> copy() {
+                if(copy == null) {
+                    final ArrayList<java.awt.Point> points = new ArrayList<>(this);
+                    copy = points;
+                    backMap = null;
+                }
+                modCount++;
+                return copy;
+            }
         }
 
         public void addContribution(final int imr, final int imc) {
             contributingImagePoints.add(new java.awt.Point(imc, imr));
         }
 
+        public int numContributors() {
+            return backed() ? backMap.numContributors(entry) : contributingImagePoints.size();
+        }
+
+        public int contributorRow(final int index) {
+            return backed() ? backMap.contributorRow(entry, index) : contributingImagePoints.get(index).y;
+        }
+
+        public int contributorCol(final int index) {
+            return backed() ? backMap.contributorCol(entry, index) : contributingImagePoints.get(index).x;
+        }
+
+        // whether the contributors are still those in the BackMap
+        private boolean backed() {
+            return backMap != null && contributingImagePoints == view;
+        }
+
         @Override
         public boolean equals(final Object o) {
             final HoughSpaceEntry e = (HoughSpaceEntry)o;
@@ -325,6 +981,12 @@ public class Transform {
     }
 
     public static class HoughSpace {
+        /**
+         * @deprecated a {@link HoughSpace} from a {@link Transform} is backed by a {@link BackMap}. Use
+         *     {@link HoughSpace#HoughSpace(short[], int, int, double, BackMap)}. A {@link HoughSpace} created
+         *     with this constructor doesn't have a {@link HoughSpace#backMap}.
+         */
+        @Deprecated
         public HoughSpace(final short[] houghSpace, final int width, final int height,
             final double quantFactor, final List<HoughSpaceEntry> backMapEntries) {
             this.houghSpace = houghSpace;
@@ -332,6 +994,22 @@ public class Transform {
             this.hsheight = height;
             this.quantFactor = quantFactor;
             this.backMapEntries = backMapEntries;
+            this.backMap = null;
+        }
+
+        public HoughSpace(final short[] houghSpace, final int width, final int height,
+            final double quantFactor, final BackMap backMap) {
+            this.houghSpace = houghSpace;
+            this.hswidth = width;
+            this.hsheight = height;
+            this.quantFactor = quantFactor;
+            this.backMap = backMap;
+
+            final int numEntries = backMap.numEntries();
+            final List<HoughSpaceEntry> entries = new ArrayList<>(numEntries);
+            for(int e = 0; e < numEntries; e++)
+                entries.add(new HoughSpaceEntry(backMap.hsRow(e), backMap.hsCol(e), houghSpace[backMap.hsIndexes[e]], quantFactor, backMap, e));
+            this.backMapEntries = entries;
         }
 
         public short[] houghSpace;
@@ -339,6 +1017,11 @@ public class Transform {
         public int hsheight;
         public double quantFactor;
         public List<HoughSpaceEntry> backMapEntries;
+        /**
+         * The contributors to the {@link HoughSpace#backMapEntries} packed into primitive arrays. This is null if
+         * the {@link HoughSpace} was created from a list of {@link HoughSpaceEntry}s.
+         */
+        public final BackMap backMap;
 
         /**
          * @return A CvMat of the Hough space for the model. The caller owns the CvMat
@@ -399,8 +1082,8 @@ public class Transform {
                     Utils.drawCircle(eir, eic, ti, peakCircleColor);
 
                     ti.rasterAp(raster -> {
-                        for(final java.awt.Point p: e.contributingImagePoints)
-                            raster.set(p.y, p.x, overlayPixel);
+                        for(int i = 0; i < e.numContributors(); i++)
+                            raster.set(e.contributorRow(i), e.contributorCol(i), overlayPixel);
                     });
                 }
             }
@@ -493,6 +1176,7 @@ public class Transform {
         public synchronized List<java.awt.Point> getContributingEdges() {
             if(edgeVals == null) {
                 edgeVals = new ArrayList<java.awt.Point>();
+                final Set<java.awt.Point> seen = new HashSet<>();
                 final List<HoughSpaceEntry> houghEntries = getHoughEntries();
 
                 // we want to accumulate all of the edge vals that went
@@ -500,9 +1184,10 @@ public class Transform {
                 for(int hei = 0; hei < houghEntries.size(); hei++) {
                     final HoughSpaceEntry e = houghEntries.get(hei);
 
-                    for(final java.awt.Point p: e.contributingImagePoints) {
-                        if(!edgeVals.contains(p))
-                            edgeVals.add(new java.awt.Point(p.x, p.y));
+                    for(int i = 0; i < e.numContributors(); i++) {
+                        final java.awt.Point p = new java.awt.Point(e.contributorCol(i), e.contributorRow(i));
+                        if(seen.add(p))
+                            edgeVals.add(p);
                     }
                 }
             }
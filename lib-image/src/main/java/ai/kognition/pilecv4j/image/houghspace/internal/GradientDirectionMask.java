@@ -16,6 +16,10 @@
 
 package ai.kognition.pilecv4j.image.houghspace.internal;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import org.opencv.core.CvType;
 
 import ai.kognition.pilecv4j.image.CvMat;
@@ -109,6 +113,28 @@ public class GradientDirectionMask {
         return gradDirMask;
     }
 
+    /**
+     * Write the mask so it can be read back with {@link GradientDirectionMask#read(DataInput)}.
+     */
+    public void write(final DataOutput out) throws IOException {
+        out.writeInt(mwidth);
+        out.writeInt(mheight);
+        out.write(mask);
+    }
+
+    /**
+     * Read a mask written with {@link GradientDirectionMask#write(DataOutput)}.
+     */
+    public static GradientDirectionMask read(final DataInput in) throws IOException {
+        final int mwidth = in.readInt();
+        final int mheight = in.readInt();
+        if(mwidth <= 0 || mheight <= 0 || (mwidth & 0x01) == 0 || (mheight & 0x01) == 0)
+            throw new IOException("Invalid gradient direction mask dimensions " + mwidth + " x " + mheight);
+        final GradientDirectionMask ret = new GradientDirectionMask(mwidth, mheight);
+        in.readFully(ret.mask);
+        return ret;
+    }
+
     /**
      * Set the value of the mask at a location to the given value. The value should be either EDGE or NOEDGE. Entries in
      * the mask are accessed by row and column (not x,y).
@@ -16,6 +16,10 @@
 
 package ai.kognition.pilecv4j.image.houghspace.internal;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import org.opencv.core.CvType;
 
 import ai.kognition.pilecv4j.image.CvMat;
@@ -145,6 +149,28 @@ public class Mask {
         return mask;
     }
 
+    /**
+     * Write the mask so it can be read back with {@link Mask#read(DataInput)}.
+     */
+    public void write(final DataOutput out) throws IOException {
+        out.writeInt(mwidth);
+        out.writeInt(mheight);
+        out.write(mask);
+    }
+
+    /**
+     * Read a mask written with {@link Mask#write(DataOutput)}.
+     */
+    public static Mask read(final DataInput in) throws IOException {
+        final int mwidth = in.readInt();
+        final int mheight = in.readInt();
+        if(mwidth <= 0 || mheight <= 0 || (mwidth & 0x01) == 0 || (mheight & 0x01) == 0)
+            throw new IOException("Invalid mask dimensions " + mwidth + " x " + mheight);
+        final Mask ret = new Mask(mwidth, mheight);
+        in.readFully(ret.mask);
+        return ret;
+    }
+
     public static void setEdgePixVals(final byte edgePixVal, final byte noedgePixVal) {
         EDGE = edgePixVal;
         NOEDGE = noedgePixVal;
@@ -0,0 +1,71 @@
+package ai.kognition.pilecv4j.image;
+
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Compares the throughput of the {@link VectorBlockKernels} and the {@link ScalarBlockKernels} on the size of block
+ * that {@link RasterKernels} uses. This isn't run as part of the tests and is only built with the {@code vector-kernels}
+ * profile. Run it with:
+ * </p>
+ *
+ * <pre>
+ * java --add-modules jdk.incubator.vector -cp ... ai.kognition.pilecv4j.image.BlockKernelsBenchmark
+ * </pre>
+ */
+public class BlockKernelsBenchmark {
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 20000;
+
+    public static void main(final String[] args) {
+        final BlockKernels scalar = new ScalarBlockKernels();
+        final BlockKernels vector = new VectorBlockKernels();
+
+        final Random rand = new Random(5150);
+        final byte[] src = new byte[BLOCK_SIZE];
+        rand.nextBytes(src);
+        final byte[] in = new byte[BLOCK_SIZE];
+        final byte[] out = new byte[BLOCK_SIZE];
+        final byte[] mask = new byte[BLOCK_SIZE];
+        for(int p = 0; p < mask.length; p++)
+            mask[p] = (byte)(((p / 1000) & 1) == 0 ? 255 : 0);
+
+        System.out.printf("%-28s %12s %12s %8s%n", "kernel", "scalar MB/s", "vector MB/s", "speedup");
+        for(final int channels: new int[] {1,3,4}) {
+            final int numPixels = BLOCK_SIZE / channels;
+            final int[] swizzle = channels == 1 ? new int[] {0} : (channels == 3 ? new int[] {2,1,0} : new int[] {3,2,1,0});
+            final long[] sums = new long[channels];
+            final int[][] hist = new int[channels][256];
+
+            if(channels == 1)
+                compare("threshold", scalar, vector, k -> k.threshold(src, out, BLOCK_SIZE, 100, (byte)255));
+            compare("swizzle " + channels + "ch", scalar, vector, k -> k.swizzle(src, channels, swizzle, out, numPixels));
+            compare("sum " + channels + "ch", scalar, vector, k -> k.sum(src, null, channels, numPixels, sums));
+            compare("masked sum " + channels + "ch", scalar, vector, k -> {
+                System.arraycopy(src, 0, in, 0, BLOCK_SIZE);
+                k.sum(in, mask, channels, numPixels, sums);
+            });
+            compare("histogram " + channels + "ch", scalar, vector, k -> k.histogram(src, null, channels, numPixels, hist));
+            compare("masked histogram " + channels + "ch", scalar, vector, k -> k.histogram(src, mask, channels, numPixels, hist));
+        }
+    }
+
+    private static void compare(final String name, final BlockKernels scalar, final BlockKernels vector, final Consumer<BlockKernels> kernel) {
+        final double s = throughput(scalar, kernel);
+        final double v = throughput(vector, kernel);
+        System.out.printf("%-28s %12.0f %12.0f %7.2fx%n", name, s, v, v / s);
+    }
+
+    // MB of the block processed per second.
+    private static double throughput(final BlockKernels kernels, final Consumer<BlockKernels> kernel) {
+        for(int i = 0; i < WARMUP_ITERATIONS; i++)
+            kernel.accept(kernels);
+        final long start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS; i++)
+            kernel.accept(kernels);
+        final long elapsed = System.nanoTime() - start;
+        return ((double)BLOCK_SIZE * ITERATIONS / (1024.0 * 1024.0)) / (elapsed / 1.0E9);
+    }
+}
@@ -0,0 +1,106 @@
+package ai.kognition.pilecv4j.image;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the {@link VectorBlockKernels} against the {@link ScalarBlockKernels}. This is only built with the
+ * {@code vector-kernels} profile. The tests are skipped if they aren't run with {@code --add-modules jdk.incubator.vector}
+ * or the platform's vector shapes aren't supported.
+ */
+public class BlockKernelsTest {
+    // odd sizes so there's always something left over for the scalar loops.
+    private static final int[] NUM_PIXELS = {1,7,100,1001,16411};
+    private static final int[][] SWIZZLES = {{0},{1,0},{2,1,0},{0,0,0},{3,2,1,0},{1,2,3},{2,1,0,3},{4,0,2}};
+
+    private final Random rand = new Random(5150);
+    private final ScalarBlockKernels scalar = new ScalarBlockKernels();
+    private BlockKernels vector;
+
+    @Before
+    public void setup() {
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent());
+        assumeTrue(VectorBlockKernels.isSupported());
+        vector = new VectorBlockKernels();
+    }
+
+    @Test
+    public void testThreshold() throws Exception {
+        for(final int numPixels: NUM_PIXELS) {
+            final byte[] in = randomBytes(numPixels);
+            for(final int thresh: new int[] {-1,0,1,100,127,128,200,254,255,300}) {
+                final byte[] expected = new byte[numPixels];
+                final byte[] actual = new byte[numPixels];
+                scalar.threshold(in, expected, numPixels, thresh, (byte)200);
+                vector.threshold(in, actual, numPixels, thresh, (byte)200);
+                assertArrayEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testSwizzle() throws Exception {
+        for(final int numPixels: NUM_PIXELS) {
+            for(final int[] srcChannels: SWIZZLES) {
+                for(int srcNumChannels = Arrays.stream(srcChannels).max().getAsInt() + 1; srcNumChannels <= 5; srcNumChannels++) {
+                    final byte[] in = randomBytes(numPixels * srcNumChannels);
+                    final byte[] expected = new byte[numPixels * srcChannels.length];
+                    final byte[] actual = new byte[expected.length];
+                    scalar.swizzle(in, srcNumChannels, srcChannels, expected, numPixels);
+                    vector.swizzle(in, srcNumChannels, srcChannels, actual, numPixels);
+                    assertArrayEquals(expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSumAndHistogram() throws Exception {
+        for(final int numPixels: NUM_PIXELS) {
+            for(int channels = 1; channels <= 5; channels++) {
+                final byte[] in = randomBytes(numPixels * channels);
+                for(final byte[] mask: new byte[][] {null,mask(numPixels, 0),mask(numPixels, 1),mask(numPixels, 2)}) {
+                    final long[] expectedSums = new long[channels];
+                    final long[] actualSums = new long[channels];
+                    // the sums are allowed to modify the input
+                    scalar.sum(in.clone(), mask, channels, numPixels, expectedSums);
+                    vector.sum(in.clone(), mask, channels, numPixels, actualSums);
+                    assertArrayEquals(expectedSums, actualSums);
+
+                    final int[][] expectedHist = new int[channels][256];
+                    final int[][] actualHist = new int[channels][256];
+                    scalar.histogram(in, mask, channels, numPixels, expectedHist);
+                    vector.histogram(in, mask, channels, numPixels, actualHist);
+                    for(int ch = 0; ch < channels; ch++)
+                        assertArrayEquals(expectedHist[ch], actualHist[ch]);
+                }
+            }
+        }
+    }
+
+    private byte[] randomBytes(final int len) {
+        final byte[] ret = new byte[len];
+        rand.nextBytes(ret);
+        return ret;
+    }
+
+    // 0 is all on, 1 is random pixels, 2 is long runs of on and off
+    private byte[] mask(final int numPixels, final int kind) {
+        final byte[] ret = new byte[numPixels];
+        for(int p = 0; p < numPixels; p++) {
+            if(kind == 0)
+                ret[p] = (byte)255;
+            else if(kind == 1)
+                ret[p] = (byte)(rand.nextBoolean() ? rand.nextInt(256) : 0);
+            else
+                ret[p] = (byte)(((p / 300) & 1) == 0 ? 1 : 0);
+        }
+        return ret;
+    }
+}
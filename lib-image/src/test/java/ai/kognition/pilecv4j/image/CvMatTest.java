@@ -18,12 +18,15 @@ package ai.kognition.pilecv4j.image;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.opencv.core.CvType.CV_32FC1;
 import static org.opencv.core.CvType.CV_8UC1;
 
 import java.util.stream.IntStream;
 
 import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 
 import ai.kognition.pilecv4j.image.CvRaster.FloatPixelConsumer;
@@ -65,4 +68,120 @@ public class CvMatTest {
             });
         }
     }
+
+    @Test
+    public void memoryAccessSubmatTest() {
+        try(final CvMat mat = new CvMat(20, 30, CvType.CV_32FC3);) {
+            for(int r = 0; r < 20; r++)
+                for(int c = 0; c < 30; c++)
+                    mat.put(r, c, r, c, r * c);
+
+            // a submat isn't continuous so it can't be accessed with bulkAccess
+            try(final CvMat sub = CvMat.move(mat.submat(new Rect(5, 3, 10, 12)));) {
+                assertFalse(sub.isContinuous());
+                sub.memoryAccess(mm -> {
+                    assertEquals(2, mm.dims());
+                    assertEquals(mat.step1(0) * 4, mm.step(0));
+                    for(int r = 0; r < 12; r++) {
+                        for(int c = 0; c < 10; c++) {
+                            final long off = mm.offset(r, c);
+                            assertEquals(r + 3, mm.getFloat(off), EPSILON);
+                            assertEquals(c + 5, mm.getFloat(off + 4), EPSILON);
+                        }
+                    }
+                    mm.putFloat(mm.offset(0, 0) + 8, -1.0f);
+                });
+                assertEquals(-1.0, mat.get(3, 5)[2], EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void memoryAccessNdTest() {
+        try(final CvMat mat = new CvMat(new int[] {3, 4, 5}, CvType.CV_16SC1);) {
+            mat.memoryAccess(mm -> {
+                assertEquals(3, mm.dims());
+                assertEquals(3 * 4 * 5 * 2, mm.extent());
+                for(int i = 0; i < 3; i++)
+                    for(int j = 0; j < 4; j++)
+                        for(int k = 0; k < 5; k++)
+                            mm.putShort(mm.offset(i, j, k), (short)((i * 100) + (j * 10) + k));
+            });
+            assertEquals(234, (int)mat.get(new int[] {2, 3, 4})[0]);
+            assertEquals(102, (int)mat.get(new int[] {1, 0, 2})[0]);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void memoryAccessScopeTest() {
+        try(final CvMat mat = new CvMat(2, 2, CV_8UC1);) {
+            final MatMemory escaped = mat.memoryAccessOp(mm -> mm);
+            escaped.getByte(0);
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void memoryAccessBoundsTest() {
+        try(final CvMat mat = new CvMat(2, 2, CV_8UC1);) {
+            mat.memoryAccess(mm -> mm.getByte(4));
+        }
+    }
+
+    @Test
+    public void typedChannelAccessTest() {
+        try(final CvMat mat = new CvMat(100, 120, CvType.CV_8UC3);) {
+            mat.applyByte((r, c, ch) -> (byte)(r + c + ch));
+            assertEquals((20 + 30 + 2) & 0xff, (int)mat.get(20, 30)[2]);
+
+            final long[] sum = {0};
+            mat.forEachByte((r, c, ch, v) -> sum[0] += (v & 0xff));
+            long expected = 0;
+            for(int r = 0; r < 100; r++)
+                for(int c = 0; c < 120; c++)
+                    for(int ch = 0; ch < 3; ch++)
+                        expected += (r + c + ch) & 0xff;
+            assertEquals(expected, sum[0]);
+        }
+
+        try(final CvMat mat = new CvMat(10, 12, CvType.CV_32FC2);) {
+            mat.applyFloat((r, c, ch) -> (r * 0.5f) + c + (ch * 100));
+            assertEquals((3 * 0.5f) + 4 + 100, (float)mat.get(3, 4)[1], 0.0f);
+            final int[] count = {0};
+            mat.forEachFloat((r, c, ch, v) -> {
+                assertEquals((r * 0.5f) + c + (ch * 100), v, 0.0f);
+                count[0]++;
+            });
+            assertEquals(10 * 12 * 2, count[0]);
+        }
+
+        try(final CvMat mat = new CvMat(10, 12, CvType.CV_16SC1);) {
+            mat.applyShort((r, c, ch) -> (short)(-(r * 1000) - c));
+            assertEquals(-9011, (int)mat.get(9, 11)[0]);
+        }
+    }
+
+    @Test
+    public void typedChannelAccessSubmatTest() {
+        try(final CvMat mat = CvMat.zeros(20, 30, CvType.CV_64FC1);
+            final CvMat sub = CvMat.move(mat.submat(new Rect(5, 10, 4, 3)));) {
+            // the submat isn't continuous so each row has to be accessed separately
+            assertFalse(sub.isContinuous());
+            sub.applyDouble((r, c, ch) -> (r * 10) + c + 1);
+            assertEquals(1.0, mat.get(10, 5)[0], 0.0);
+            assertEquals(24.0, mat.get(12, 8)[0], 0.0);
+            assertEquals(0.0, mat.get(13, 5)[0], 0.0);
+            assertEquals(0.0, mat.get(10, 9)[0], 0.0);
+
+            final double[] sum = {0};
+            sub.forEachDouble((r, c, ch, v) -> sum[0] += v);
+            assertEquals(IntStream.range(0, 3).mapToDouble(r -> IntStream.range(0, 4).mapToDouble(c -> (r * 10) + c + 1).sum()).sum(), sum[0], 0.0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void typedChannelAccessWrongDepthTest() {
+        try(final CvMat mat = new CvMat(10, 12, CvType.CV_32FC1);) {
+            mat.forEachInt((r, c, ch, v) -> {});
+        }
+    }
 }
@@ -22,6 +22,8 @@ import static org.opencv.imgcodecs.Imgcodecs.IMREAD_UNCHANGED;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -32,6 +34,7 @@ import org.opencv.imgcodecs.Imgcodecs;
 import net.dempsy.util.Functional;
 import net.dempsy.util.QuietCloseable;
 
+import ai.kognition.pilecv4j.image.CvRaster.BytePixelConsumer;
 import ai.kognition.pilecv4j.image.CvRaster.BytePixelSetter;
 import ai.kognition.pilecv4j.image.CvRaster.GetChannelValueAsInt;
 import ai.kognition.pilecv4j.image.display.ImageDisplay;
@@ -280,4 +283,39 @@ public class CvRasterTest extends DetermineShowFlag {
             assertEquals(expected, sum);
         }
     }
+
+    @Test
+    public void testParallelOps() throws Exception {
+        final ForkJoinPool pool = new ForkJoinPool(3);
+        try(final CvMat mat = new CvMat(1001, 255, CvType.CV_8UC1);) {
+            mat.rasterAp(raster -> {
+                raster.parallelApply(pool, 7, (BytePixelSetter)(r, c) -> new byte[] {(byte)c});
+
+                final GetChannelValueAsInt valueFetcher = CvRaster.channelValueFetcher(mat.type());
+                final long sum = raster.parallelReduce(pool, 7, Long.valueOf(0),
+                    (prev, pixel, row, col) -> Long.valueOf(prev.longValue() + valueFetcher.get(pixel, 0)), (a, b) -> a + b);
+
+                long expected = 0;
+                for(int i = 0; i < 255; i++)
+                    expected = expected + i;
+                expected *= 1001;
+
+                assertEquals(expected, sum);
+                assertEquals(expected, raster.reduce(Long.valueOf(0), (prev, pixel, row, col) -> Long.valueOf(prev.longValue() + valueFetcher.get(pixel, 0)))
+                    .longValue());
+
+                // every row must be visited exactly once.
+                final AtomicIntegerArray rowCounts = new AtomicIntegerArray(1001);
+                raster.parallelForEach(pool, 7, (BytePixelConsumer)(r, c, pixel) -> rowCounts.incrementAndGet(r));
+                for(int r = 0; r < 1001; r++)
+                    assertEquals(255, rowCounts.get(r));
+
+                raster.parallelApply((BytePixelSetter)(r, c) -> new byte[] {(byte)r});
+                assertEquals((byte)1000, ((byte[])raster.get(1000, 3))[0]);
+                assertEquals((byte)500, ((byte[])raster.get(500, 254))[0]);
+            });
+        } finally {
+            pool.shutdown();
+        }
+    }
 }
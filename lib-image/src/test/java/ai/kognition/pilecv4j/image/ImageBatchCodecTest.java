@@ -0,0 +1,97 @@
+package ai.kognition.pilecv4j.image;
+
+import static ai.kognition.pilecv4j.image.UtilsForTesting.translateClasspath;
+import static net.dempsy.util.Functional.uncheck;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class ImageBatchCodecTest {
+    static {
+        CvMat.initOpenCv();
+    }
+
+    private static final List<Path> files = Arrays.asList(
+        "test-images/180x240_people.jpg",
+        "test-images/flower.jpg",
+        "test-images/fruit.jpg",
+        "test-images/people.jpeg").stream()
+        .map(f -> new File(translateClasspath(f)).toPath())
+        .collect(Collectors.toList());
+
+    @Test
+    public void testOrderedDecode() throws Exception {
+        final List<Integer> order = new ArrayList<>();
+        try(final ImageBatchCodec codec = new ImageBatchCodec(2, 1, 2);) {
+            codec.decode(files, true, r -> {
+                order.add(r.index);
+                assertTrue(r.isSuccess());
+                assertEquals(files.get(r.index), r.source);
+                try(final CvMat mat = r.value;
+                    final CvMat expected = uncheck(() -> ImageFile.readMatFromFile(r.source.toString()));) {
+                    assertEquals(expected.rows(), mat.rows());
+                    assertEquals(expected.cols(), mat.cols());
+                    assertEquals(expected.type(), mat.type());
+                }
+            });
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3), order);
+    }
+
+    @Test
+    public void testUnorderedDecodeWithError() throws Exception {
+        final List<Path> withMissing = new ArrayList<>(files);
+        withMissing.add(1, new File("/this/file/does/not/exist.jpg").toPath());
+
+        final Set<Integer> seen = new HashSet<>();
+        try(final ImageBatchCodec codec = new ImageBatchCodec(3, 2, 3);) {
+            codec.decode(withMissing, false, r -> {
+                seen.add(r.index);
+                if(r.index == 1) {
+                    assertFalse(r.isSuccess());
+                    assertNull(r.value);
+                    assertNotNull(r.error);
+                } else {
+                    assertTrue(r.isSuccess());
+                    r.value.close();
+                }
+            });
+        }
+        assertEquals(withMissing.size(), seen.size());
+    }
+
+    @Test
+    public void testEncode() throws Exception {
+        final List<CvMat> mats = new ArrayList<>();
+        try(final ImageBatchCodec codec = new ImageBatchCodec();) {
+            for(final Path p: files)
+                mats.add(ImageFile.readMatFromFile(p.toString()));
+
+            final List<Integer> order = new ArrayList<>();
+            codec.encode(mats, "png", true, r -> {
+                order.add(r.index);
+                assertTrue(r.isSuccess());
+                try(CvMat decoded = ImageFile.decodeImageData(r.value);) {
+                    assertEquals(r.source.rows(), decoded.rows());
+                    assertEquals(r.source.cols(), decoded.cols());
+                }
+            });
+            assertEquals(Arrays.asList(0, 1, 2, 3), order);
+        } finally {
+            mats.forEach(m -> m.close());
+        }
+    }
+}
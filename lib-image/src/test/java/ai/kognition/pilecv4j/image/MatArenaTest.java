@@ -0,0 +1,142 @@
+package ai.kognition.pilecv4j.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Scalar;
+
+public class MatArenaTest {
+    static {
+        CvMat.initOpenCv();
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        try(final MatArena arena = new MatArena();) {
+            long first1;
+            long first2;
+            try(final MatArena.Scope scope = arena.scope();) {
+                final CvMat m1 = scope.get(100, 200, CvType.CV_8UC3);
+                final CvMat m2 = scope.get(100, 200, CvType.CV_8UC3);
+                assertNotEquals(m1.nativeObj, m2.nativeObj);
+                first1 = m1.nativeObj;
+                first2 = m2.nativeObj;
+            }
+            assertEquals(2, arena.numAllocated());
+            assertEquals(2, arena.numResident());
+
+            // the same shape comes from the arena. A different one doesn't.
+            try(final MatArena.Scope scope = arena.scope();) {
+                final CvMat m1 = scope.get(100, 200, CvType.CV_8UC3);
+                final CvMat m2 = scope.get(100, 200, CvType.CV_8UC1);
+                assertTrue(m1.nativeObj == first1 || m1.nativeObj == first2);
+                assertEquals(100, m2.rows());
+                assertEquals(200, m2.cols());
+                assertEquals(CvType.CV_8UC1, m2.type());
+            }
+            assertEquals(3, arena.numAllocated());
+            assertEquals(3, arena.numResident());
+        }
+    }
+
+    @Test
+    public void testEmptyMatKeyedOnReturn() throws Exception {
+        try(final MatArena arena = new MatArena();) {
+            long nativeObj;
+            try(final MatArena.Scope scope = arena.scope();) {
+                final CvMat m = scope.get();
+                m.create(10, 20, CvType.CV_32FC1);
+                nativeObj = m.nativeObj;
+            }
+            assertEquals(1, arena.numResident());
+
+            try(final MatArena.Scope scope = arena.scope();) {
+                assertEquals(nativeObj, scope.get(10, 20, CvType.CV_32FC1).nativeObj);
+                // an empty Mat that's never allocated isn't kept.
+                scope.get();
+            }
+            assertEquals(2, arena.numAllocated());
+            assertEquals(1, arena.numResident());
+        }
+    }
+
+    @Test
+    public void testEarlyCloseAndReturnMe() throws Exception {
+        try(final MatArena arena = new MatArena();) {
+            try(final MatArena.Scope outer = arena.scope();) {
+                final CvMat early = outer.get(10, 10, CvType.CV_8UC1);
+                early.close();
+                assertEquals(1, arena.numResident());
+
+                // the same Mat is handed out again to the inner scope and closing the outer scope must not
+                // take it back from the inner one.
+                final CvMat escaped;
+                try(final MatArena.Scope inner = arena.scope();) {
+                    final CvMat m = inner.zeros(10, 10, CvType.CV_8UC1);
+                    assertEquals(early.nativeObj, m.nativeObj);
+                    m.setTo(new Scalar(7));
+                    escaped = m.returnMe();
+                }
+                assertEquals(0, arena.numResident());
+                outer.close();
+                assertEquals(0, arena.numResident());
+                try(final CvMat m = escaped;) {
+                    assertEquals(7, (int)m.get(5, 5)[0]);
+                }
+                assertEquals(1, arena.numResident());
+            }
+        }
+    }
+
+    @Test
+    public void testReturnMeFromTryWithResources() throws Exception {
+        try(final MatArena arena = new MatArena();) {
+            final CvMat escaped;
+            try(final MatArena.Scope scope = arena.scope();) {
+                escaped = make(scope);
+            }
+            // the scope closing must not take back the Mat that was handed out of it.
+            assertEquals(0, arena.numResident());
+
+            try(final MatArena.Scope scope = arena.scope();) {
+                final CvMat other = scope.zeros(10, 10, CvType.CV_8UC1);
+                assertNotEquals(escaped.nativeObj, other.nativeObj);
+            }
+            assertEquals(1, arena.numResident());
+
+            try(final CvMat m = escaped;) {
+                assertEquals(7, (int)m.get(5, 5)[0]);
+            }
+            // and it's given back once its new owner closes it.
+            assertEquals(2, arena.numResident());
+        }
+    }
+
+    private static CvMat make(final MatArena.Scope scope) {
+        try(final CvMat m = scope.get(10, 10, CvType.CV_8UC1);) {
+            m.setTo(new Scalar(7));
+            return m.returnMe();
+        }
+    }
+
+    @Test
+    public void testMaxResident() throws Exception {
+        try(final MatArena arena = new MatArena(1);) {
+            try(final MatArena.Scope scope = arena.scope();) {
+                scope.get(10, 10, CvType.CV_8UC1);
+                scope.get(10, 10, CvType.CV_8UC1);
+            }
+            assertEquals(1, arena.numResident());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() throws Exception {
+        final MatArena arena = new MatArena();
+        arena.close();
+        arena.scope();
+    }
+}
@@ -0,0 +1,72 @@
+package ai.kognition.pilecv4j.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Scalar;
+
+public class MatBackedImageTest {
+    static {
+        CvMat.initOpenCv();
+    }
+
+    @Test
+    public void testMatChangesShowInImage() throws Exception {
+        try(final CvMat mat = CvMat.zeros(20, 30, CvType.CV_8UC3);
+            final MatBackedImage mbi = MatBackedImage.wrap(mat);) {
+            final BufferedImage im = mbi.image();
+            assertEquals(30, im.getWidth());
+            assertEquals(20, im.getHeight());
+            // BGR
+            mat.setTo(new Scalar(10, 20, 30));
+            assertEquals(new Color(30, 20, 10).getRGB(), im.getRGB(5, 7));
+        }
+    }
+
+    @Test
+    public void testDrawingShowsInMat() throws Exception {
+        try(final MatBackedImage mbi = MatBackedImage.create(30, 20, BufferedImage.TYPE_BYTE_GRAY);) {
+            final Graphics2D g = mbi.image().createGraphics();
+            try {
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, 10, 20);
+            } finally {
+                g.dispose();
+            }
+            assertEquals(CvType.CV_8UC1, mbi.mat().type());
+            assertEquals(255, (int)mbi.mat().get(10, 5)[0]);
+            assertEquals(0, (int)mbi.mat().get(10, 15)[0]);
+        }
+    }
+
+    @Test
+    public void testImg2CvMatShares() throws Exception {
+        try(final MatBackedImage mbi = MatBackedImage.create(30, 20, BufferedImage.TYPE_3BYTE_BGR);) {
+            try(final CvMat mat = Utils.img2CvMat(mbi.image());) {
+                assertEquals(CvType.CV_8UC3, mat.type());
+                mat.setTo(new Scalar(255, 0, 0));
+            }
+            assertEquals(Color.BLUE.getRGB(), mbi.image().getRGB(0, 0));
+        }
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        final MatBackedImage mbi = MatBackedImage.create(30, 20, BufferedImage.TYPE_3BYTE_BGR);
+        final BufferedImage im = mbi.image();
+        mbi.close();
+        assertNull(MatBackedImage.sharedMat(im));
+        try {
+            im.getRGB(0, 0);
+            throw new AssertionError("Expected an IllegalStateException");
+        } catch(final IllegalStateException ise) {
+            // expected
+        }
+    }
+}
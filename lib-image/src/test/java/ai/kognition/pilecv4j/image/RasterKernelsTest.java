@@ -0,0 +1,98 @@
+package ai.kognition.pilecv4j.image;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+public class RasterKernelsTest {
+    static {
+        CvMat.initOpenCv();
+    }
+
+    private static String testImagePath = new File(
+        RasterKernelsTest.class.getClassLoader().getResource("test-images/180x240_people.jpg").getFile()).getAbsolutePath();
+
+    @Test
+    public void testThreshold() throws Exception {
+        try(final CvMat src = ImageFile.readMatFromFile(testImagePath);
+            final CvMat dst = new CvMat();
+            final CvMat expected = new CvMat();) {
+            RasterKernels.threshold(src, dst, 100, 200);
+            Imgproc.threshold(src, expected, 100, 200, Imgproc.THRESH_BINARY);
+            assertEquals(expected.type(), dst.type());
+            assertEquals(0, countDifferences(expected, dst));
+        }
+    }
+
+    @Test
+    public void testSwizzle() throws Exception {
+        try(final CvMat src = ImageFile.readMatFromFile(testImagePath);
+            final CvMat dst = new CvMat();
+            final CvMat expected = new CvMat();) {
+            RasterKernels.swizzle(src, dst, 2, 1, 0);
+            Imgproc.cvtColor(src, expected, Imgproc.COLOR_BGR2RGB);
+            assertEquals(expected.type(), dst.type());
+            assertEquals(0, countDifferences(expected, dst));
+
+            // extract a single channel
+            try(final CvMat green = new CvMat();
+                final CvMat expectedGreen = new CvMat();) {
+                RasterKernels.swizzle(src, green, 1);
+                Core.extractChannel(src, expectedGreen, 1);
+                assertEquals(CvType.CV_8UC1, green.type());
+                assertEquals(0, countDifferences(expectedGreen, green));
+            }
+        }
+    }
+
+    @Test
+    public void testMaskedSumAndHistogram() throws Exception {
+        try(final CvMat src = ImageFile.readMatFromFile(testImagePath);
+            final CvMat mask = CvMat.zeros(src.rows(), src.cols(), CvType.CV_8UC1);) {
+            // mask the left half
+            try(CvMat left = CvMat.move(mask.colRange(0, src.cols() / 2));) {
+                left.setTo(new Scalar(255));
+            }
+
+            final long[] all = RasterKernels.maskedSum(src, null);
+            final long[] masked = RasterKernels.maskedSum(src, mask);
+            final Scalar expectedAll = Core.sumElems(src);
+            final Scalar expectedMasked = Core.mean(src, mask);
+            final int numMasked = Core.countNonZero(mask);
+            for(int ch = 0; ch < 3; ch++) {
+                assertEquals((long)expectedAll.val[ch], all[ch]);
+                assertEquals(expectedMasked.val[ch] * numMasked, masked[ch], 0.5);
+            }
+
+            final int[][] hist = RasterKernels.histogram(src, mask);
+            assertEquals(3, hist.length);
+            for(int ch = 0; ch < 3; ch++) {
+                try(final CvMat expected = new CvMat();) {
+                    Imgproc.calcHist(Arrays.asList(src), new MatOfInt(ch), mask, expected, new MatOfInt(256), new MatOfFloat(0, 256));
+                    for(int v = 0; v < 256; v++)
+                        assertEquals((int)expected.get(v, 0)[0], hist[ch][v]);
+                }
+                assertEquals(numMasked, Arrays.stream(hist[ch]).sum());
+            }
+        }
+    }
+
+    private static int countDifferences(final Mat m1, final Mat m2) {
+        try(final CvMat diff = new CvMat();) {
+            Core.absdiff(m1, m2, diff);
+            try(final CvMat flat = CvMat.move(diff.reshape(1));) {
+                return Core.countNonZero(flat);
+            }
+        }
+    }
+}
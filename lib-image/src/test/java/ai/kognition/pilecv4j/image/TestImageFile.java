@@ -6,10 +6,14 @@ import static net.dempsy.util.Functional.uncheck;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -18,7 +22,14 @@ import java.util.stream.Collectors;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
 import org.opencv.imgcodecs.Imgcodecs;
 
 import net.dempsy.util.Functional;
@@ -28,6 +39,8 @@ import ai.kognition.pilecv4j.image.display.ImageDisplay;
 public class TestImageFile {
     public final static boolean SHOW = CvRasterTest.SHOW;
 
+    @Rule public TemporaryFolder tempFolder = new TemporaryFolder();
+
     static {
         CvMat.initOpenCv();
     }
@@ -107,4 +120,140 @@ public class TestImageFile {
                 .count());
         }
     }
+
+    @Test
+    public void testReadMappedFile() throws Exception {
+        final String testImg = translateClasspath("test-images/types");
+        final List<File> allFiles = Functional.chain(new ArrayList<File>(), fs -> findAll(new File(testImg), fs));
+
+        assertTrue(10 < allFiles.stream()
+            .map(fn -> fn.getAbsolutePath())
+            // make sure imread can read the file already.
+            .filter(fn -> {
+                try(CvMat m = CvMat.move(Imgcodecs.imread(fn));) {
+                    return m != null && m.rows() > 0;
+                }
+            })
+            .peek(fn -> {
+                try(CvMat expected = uncheck(() -> ImageFile.readMatFromFile(fn));
+                    CvMat mapped = uncheck(() -> ImageFile.readMatFromMappedFile(fn));
+                    CvMat diff = new CvMat();) {
+                    assertNotNull(mapped);
+                    assertEquals(expected.rows(), mapped.rows());
+                    assertEquals(expected.cols(), mapped.cols());
+                    assertEquals(expected.type(), mapped.type());
+                    Core.absdiff(expected, mapped, diff);
+                    assertEquals(0.0, Core.norm(diff, Core.NORM_INF), 0.0);
+                }
+            })
+            .count());
+
+        final String jpeg = translateClasspath("test-images/people.jpeg");
+        final BufferedImage expected = ImageFile.readBufferedImageFromFile(jpeg);
+        final BufferedImage mapped = ImageFile.readBufferedImageFromMappedFile(jpeg, 0);
+        assertEquals(expected.getWidth(), mapped.getWidth());
+        assertEquals(expected.getHeight(), mapped.getHeight());
+        assertEquals(expected.getRGB(10, 10), mapped.getRGB(10, 10));
+    }
+
+    @Test
+    public void testMappedFileIsUnmapped() throws Exception {
+        // the mappings of the process are only visible this way on Linux.
+        final File maps = new File("/proc/self/maps");
+        assumeTrue(maps.exists());
+
+        final File file = tempFolder.newFile("mapped.jpeg");
+        Files.copy(new File(translateClasspath("test-images/people.jpeg")).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        final String fn = file.getAbsolutePath();
+
+        try(CvMat mat = ImageFile.readMatFromMappedFile(fn);) {
+            assertNotNull(mat);
+            assertTrue(!Files.readString(maps.toPath()).contains(fn));
+        }
+        assertNotNull(ImageFile.readBufferedImageFromMappedFile(fn, 0));
+        assertTrue(!Files.readString(maps.toPath()).contains(fn));
+    }
+
+    @Test
+    public void testLargestReduction() {
+        assertEquals(8, ImageFile.largestReduction(1600, 1200, 200, 150));
+        assertEquals(4, ImageFile.largestReduction(1600, 1200, 201, 150));
+        assertEquals(2, ImageFile.largestReduction(1600, 1200, 800, 10));
+        assertEquals(1, ImageFile.largestReduction(1600, 1200, 801, 10));
+        // rounds up the same way the decoder does.
+        assertEquals(8, ImageFile.largestReduction(1601, 1200, 201, 150));
+    }
+
+    @Test
+    public void testReducedRead() throws Exception {
+        final String jpeg = translateClasspath("test-images/people.jpeg");
+        try(CvMat full = ImageFile.readMatFromFile(jpeg);
+            CvMat reduced = ImageFile.readMatFromFile(jpeg, Imgcodecs.IMREAD_COLOR, full.cols() / 4, full.rows() / 4);) {
+            assertEquals((full.cols() + 3) / 4, reduced.cols());
+            assertEquals((full.rows() + 3) / 4, reduced.rows());
+            assertEquals(full.type(), reduced.type());
+        }
+    }
+
+    @Test
+    public void testReducedReadIgnoresOrientation() throws Exception {
+        // 400 wide by 200 high with the left half white and the right half black
+        final File file = tempFolder.newFile("rotated.jpg");
+        try(CvMat image = CvMat.zeros(200, 400, CvType.CV_8UC3);
+            CvMat left = CvMat.move(image.submat(new Rect(0, 0, 200, 200)));) {
+            left.setTo(new Scalar(255, 255, 255));
+            final MatOfByte encoded = new MatOfByte();
+            assertTrue(Imgcodecs.imencode(".jpg", image, encoded));
+            Files.write(file.toPath(), withExifOrientation(encoded.toArray(), 6));
+            encoded.release();
+        }
+
+        try(CvMat reduced = ImageFile.readMatFromFile(file.getAbsolutePath(), Imgcodecs.IMREAD_COLOR, 150, 75);) {
+            assertEquals(200, reduced.cols());
+            assertEquals(100, reduced.rows());
+            // the image wasn't rotated (or stretched back to the expected size)
+            final byte[] pixel = new byte[3];
+            reduced.get(50, 20, pixel);
+            assertTrue(Byte.toUnsignedInt(pixel[0]) > 200);
+            reduced.get(50, 180, pixel);
+            assertTrue(Byte.toUnsignedInt(pixel[0]) < 50);
+        }
+    }
+
+    // inserts an EXIF APP1 segment with just the orientation tag after the JPEG's SOI marker.
+    private static byte[] withExifOrientation(final byte[] jpeg, final int orientation) {
+        final byte[] exif = {
+            (byte)0xff,(byte)0xe1,0,34, // APP1 and its length (including the length)
+            'E','x','i','f',0,0,
+            'I','I',42,0,8,0,0,0, // little endian TIFF header with the IFD at offset 8
+            1,0, // 1 entry
+            0x12,0x01,3,0,1,0,0,0,(byte)orientation,0,0,0, // orientation, SHORT, count 1, value
+            0,0,0,0 // no next IFD
+        };
+        final byte[] ret = new byte[jpeg.length + exif.length];
+        System.arraycopy(jpeg, 0, ret, 0, 2);
+        System.arraycopy(exif, 0, ret, 2, exif.length);
+        System.arraycopy(jpeg, 2, ret, 2 + exif.length, jpeg.length - 2);
+        return ret;
+    }
+
+    @Test
+    public void testRegionRead() throws Exception {
+        final String jpeg = translateClasspath("test-images/180x240_people.jpg");
+        final Rect region = new Rect(20, 30, 100, 50);
+        try(CvMat full = ImageFile.readMatFromFile(jpeg);
+            CvMat roi = ImageFile.readMatFromFile(jpeg, region, 1);
+            CvMat subsampled = ImageFile.readMatFromFile(jpeg, region, 2);
+            CvMat expected = CvMat.move(full.submat(region));) {
+            assertEquals(region.width, roi.cols());
+            assertEquals(region.height, roi.rows());
+            assertEquals(full.type(), roi.type());
+            // different decoders can differ slightly.
+            final double meanDiff = Core.norm(expected, roi, Core.NORM_L1) / (roi.total() * roi.channels());
+            assertTrue(meanDiff < 5.0);
+
+            assertEquals(region.width / 2, subsampled.cols());
+            assertEquals(region.height / 2, subsampled.rows());
+        }
+    }
 }
@@ -21,6 +21,7 @@ import static ai.kognition.pilecv4j.image.UtilsForTesting.findAll;
 import static ai.kognition.pilecv4j.image.UtilsForTesting.translateClasspath;
 import static net.dempsy.util.Functional.uncheck;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
@@ -34,6 +35,7 @@ import java.util.stream.Collectors;
 
 import org.junit.Ignore;
 import org.junit.Test;
+import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
@@ -102,6 +104,44 @@ public class TestUtils {
         }
     }
 
+    @Test
+    public void testBgraMatToImg() throws Exception {
+        try(CvMat bgr = ImageFile.readMatFromFile(testImageFilename);
+            CvMat mat = new CvMat();) {
+            Imgproc.cvtColor(bgr, mat, Imgproc.COLOR_BGR2BGRA);
+            // make the alpha channel vary so it's checked too
+            mat.rasterAp(raster -> raster.apply((BytePixelSetter)(r, c) -> {
+                final byte[] p = (byte[])raster.get(r, c);
+                p[3] = (byte)(r + c);
+                return p;
+            }));
+
+            final BufferedImage im = Utils.mat2Img(mat);
+            assertEquals(BufferedImage.TYPE_4BYTE_ABGR, im.getType());
+            final byte[] abgr = ((DataBufferByte)im.getRaster().getDataBuffer()).getData();
+            final byte[] bgra = new byte[abgr.length];
+            mat.get(0, 0, bgra);
+            for(int i = 0; i < bgra.length; i += 4) {
+                assertEquals(bgra[i + 3], abgr[i]);
+                assertEquals(bgra[i], abgr[i + 1]);
+                assertEquals(bgra[i + 1], abgr[i + 2]);
+                assertEquals(bgra[i + 2], abgr[i + 3]);
+            }
+
+            // a compatible image is reused, an incompatible one isn't.
+            assertTrue(im == Utils.mat2Img(mat, im));
+            assertTrue(im != Utils.mat2Img(bgr, im));
+
+            // and back again
+            try(CvMat roundTrip = Utils.img2CvMat(im);
+                CvMat diff = new CvMat();) {
+                assertEquals(mat.type(), roundTrip.type());
+                Core.absdiff(mat, roundTrip, diff);
+                assertEquals(0, Core.norm(diff, Core.NORM_INF), 0.0);
+            }
+        }
+    }
+
     @Test
     public void testImgToMat() throws Exception {
         final BufferedImage im = ImageFile.readBufferedImageFromFile(testImageFilename);
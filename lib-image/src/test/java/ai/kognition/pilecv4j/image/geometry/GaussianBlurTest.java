@@ -18,6 +18,7 @@ package ai.kognition.pilecv4j.image.geometry;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.opencv.core.Core.BORDER_DEFAULT;
 import static org.opencv.core.Core.BORDER_REPLICATE;
 
@@ -32,6 +33,7 @@ import java.util.stream.IntStream;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
+import org.opencv.core.Core;
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
 
@@ -125,5 +127,29 @@ public class GaussianBlurTest {
                 });
         }
     }
+
+    @Test
+    public void canBlurIntoDestination() throws IOException {
+        try(final CvMat matToTransform = ImageFile.readMatFromFile(imageToTransform.getAbsolutePath());
+            final CvMat matExpectedResult = ImageFile.readMatFromFile(expectedImageResult.getAbsolutePath());
+            final CvMat original = CvMat.deepCopy(matToTransform);
+            final CvMat dst = new CvMat();) {
+
+            final GaussianBlur transform = new GaussianBlur(size, sigmaX, sigmaY, borderType);
+            transform.gaussianBlur(matToTransform, dst);
+            final long dataAddr = dst.dataAddr();
+            // a second time into the same destination reuses its buffer.
+            transform.gaussianBlur(matToTransform, dst);
+            assertEquals(dataAddr, dst.dataAddr());
+
+            // the source is left unchanged.
+            assertEquals(0.0, Core.norm(original, matToTransform, Core.NORM_INF), 0.0);
+
+            assertEquals(matExpectedResult.rows(), dst.rows());
+            assertEquals(matExpectedResult.cols(), dst.cols());
+            assertEquals(matExpectedResult.channels(), dst.channels());
+            assertTrue(Core.norm(matExpectedResult, dst, Core.NORM_INF) <= 2.0);
+        }
+    }
 }
 //
@@ -0,0 +1,193 @@
+package ai.kognition.pilecv4j.image.geometry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import ai.kognition.pilecv4j.image.geometry.PerpendicularLineCoordFit.AwtPoint;
+import ai.kognition.pilecv4j.nr.Minimizer;
+
+public class PerpendicularLineTlsFitTest {
+
+    // the line with the perpendicular reference point (x=30, y=40) is 0.6x + 0.8y = 50
+    private static final double PX = 30.0;
+    private static final double PY = 40.0;
+
+    private static double[] pointsOnLine(final Random rand, final int numPoints, final double noise) {
+        final double[] xy = new double[2 * numPoints];
+        for(int i = 0; i < numPoints; i++) {
+            final double t = (rand.nextDouble() * 200.0) - 100.0;
+            final double n = (rand.nextDouble() - 0.5) * 2.0 * noise;
+            // along the line is (-0.8, 0.6) and the normal is (0.6, 0.8)
+            xy[2 * i] = PX - (0.8 * t) + (0.6 * n);
+            xy[2 * i + 1] = PY + (0.6 * t) + (0.8 * n);
+        }
+        return xy;
+    }
+
+    @Test
+    public void testExactLine() {
+        final PerpendicularLineTlsFit fit = new PerpendicularLineTlsFit(pointsOnLine(new Random(1), 50, 0.0), 0, 50);
+        final PerpendicularLine line = fit.fit();
+        assertEquals(PX, line.x(), 1.0E-9);
+        assertEquals(PY, line.y(), 1.0E-9);
+        assertEquals(0.0, fit.sumSqError(line), 1.0E-12);
+    }
+
+    @Test
+    public void testFitIsTheMinimum() {
+        final PerpendicularLineTlsFit fit = new PerpendicularLineTlsFit(pointsOnLine(new Random(2), 200, 3.0), 0, 200);
+        final PerpendicularLine line = fit.fit();
+        assertEquals(PX, line.x(), 1.0);
+        assertEquals(PY, line.y(), 1.0);
+
+        // any perturbation of the line has a larger error.
+        final double best = fit.sumSqError(line);
+        for(final double[] d: new double[][] {{0.01,0},{-0.01,0},{0,0.01},{0,-0.01},{0.01,0.01},{-0.01,0.01}}) {
+            final double err = fit.sumSqError(new PerpendicularLine(line.y() + d[1], line.x() + d[0]));
+            assertTrue(err > best);
+        }
+    }
+
+    @Test
+    public void testWeighted() {
+        final double[] xy = pointsOnLine(new Random(3), 20, 0.0);
+        final double[] weights = new double[20];
+        Arrays.fill(weights, 1.0);
+        // an outlier with no weight is ignored
+        final double[] withOutlier = Arrays.copyOf(xy, 42);
+        withOutlier[40] = 500.0;
+        withOutlier[41] = -300.0;
+        final double[] weightsWithOutlier = Arrays.copyOf(weights, 21);
+
+        final PerpendicularLineTlsFit fit = new PerpendicularLineTlsFit(withOutlier, 0, weightsWithOutlier, 0, 21);
+        assertTrue(fit.isWeighted());
+        final PerpendicularLine line = fit.fit();
+        assertEquals(PX, line.x(), 1.0E-9);
+        assertEquals(PY, line.y(), 1.0E-9);
+    }
+
+    @Test
+    public void testRobustFitAndPrune() {
+        final Random rand = new Random(4);
+        final PerpendicularLineTlsFit fit = new PerpendicularLineTlsFit();
+        final double[] xy = pointsOnLine(rand, 100, 0.5);
+        fit.addAll(xy, 0, 100);
+        // 10% outliers
+        final double[] outliers = new double[20];
+        for(int i = 0; i < 10; i++) {
+            outliers[2 * i] = (rand.nextDouble() * 200.0) - 100.0;
+            outliers[2 * i + 1] = 150.0 + (rand.nextDouble() * 100.0);
+            fit.add(outliers[2 * i], outliers[2 * i + 1]);
+        }
+        assertEquals(110, fit.size());
+
+        final PerpendicularLine plain = fit.fit();
+        final PerpendicularLine robust = fit.robustFit(10.0, 20);
+        assertTrue(Math.hypot(plain.x() - PX, plain.y() - PY) > Math.hypot(robust.x() - PX, robust.y() - PY));
+        assertEquals(PX, robust.x(), 0.5);
+        assertEquals(PY, robust.y(), 0.5);
+
+        fit.sumSqError(robust);
+        assertTrue(fit.worst >= 100);
+
+        final double[] pruned = fit.prune(5.0, robust);
+        assertArrayEquals(outliers, pruned, 0.0);
+        assertEquals(100, fit.size());
+        for(int i = 0; i < 100; i++) {
+            assertEquals(xy[2 * i], fit.x(i), 0.0);
+            assertEquals(xy[2 * i + 1], fit.y(i), 0.0);
+        }
+    }
+
+    @Test
+    public void testTooFewPoints() {
+        final PerpendicularLineTlsFit fit = new PerpendicularLineTlsFit();
+        assertNull(fit.fit());
+        fit.add(1.0, 2.0);
+        assertNull(fit.fit());
+    }
+
+    @Test
+    public void testSameAsMinimizer() {
+        compareWithMinimizer(false);
+    }
+
+    @Test
+    public void testSameAsMinimizerWeighted() {
+        compareWithMinimizer(true);
+    }
+
+    private static void compareWithMinimizer(final boolean weighted) {
+        final Random rand = new Random(weighted ? 6 : 5);
+        final double[] xy = pointsOnLine(rand, 100, 3.0);
+        // the PerpendicularLineCoordFit takes java.awt.Points so the points need to be on the integer grid
+        final List<AwtPoint> points = new ArrayList<>();
+        final PerpendicularLineTlsFit fit = new PerpendicularLineTlsFit();
+        for(int i = 0; i < 100; i++) {
+            final java.awt.Point p = new java.awt.Point((int)Math.round(xy[2 * i]), (int)Math.round(xy[2 * i + 1]));
+            final double weight = weighted ? 0.5 + (rand.nextDouble() * 1.5) : 1.0;
+            points.add(new WeightedAwtPoint(p, weight));
+            if(weighted)
+                fit.add(p.x, p.y, weight);
+            else
+                fit.add(p.x, p.y);
+        }
+
+        final PerpendicularLineCoordFit coordFit = new PerpendicularLineCoordFit(points, weighted);
+        final Minimizer.FinalPosition minimized = Minimizer.minimize(coordFit, new double[] {PX + 10.0, PY - 10.0});
+        final PerpendicularLine expected = PerpendicularLineCoordFit.interpretFinalPosition(minimized.position);
+
+        // the Minimizer evaluates the function in single precision so it only gets close to the minimum.
+        final PerpendicularLine line = fit.fit();
+        assertEquals(expected.x(), line.x(), 5.0E-2);
+        assertEquals(expected.y(), line.y(), 5.0E-2);
+
+        // the closed form is the exact minimum so it can't be any worse than what the Minimizer found.
+        final double err = fit.sumSqError(line);
+        assertEquals(coordFit.func(new double[] {line.x(), line.y()}), err, 1.0E-9 * err);
+        assertTrue(err <= coordFit.func(minimized.position) * (1.0 + 1.0E-9));
+    }
+
+    @Test
+    public void testLineThroughOrigin() {
+        final PerpendicularLineTlsFit fit = new PerpendicularLineTlsFit();
+        for(int i = -10; i <= 10; i++)
+            fit.add(3.0 * i, -2.0 * i);
+        assertNull(fit.fit());
+        assertNull(fit.robustFit(5.0, 10));
+
+        // a line that's only near the origin is fine.
+        final PerpendicularLineTlsFit near = new PerpendicularLineTlsFit();
+        for(int i = -10; i <= 10; i++)
+            near.add((3.0 * i) + 0.2, (-2.0 * i) + 0.3);
+        final PerpendicularLine line = near.robustFit(5.0, 10);
+        assertEquals(0.0, near.sumSqError(line), 1.0E-12);
+
+        assertThrows(IllegalArgumentException.class, () -> fit.sumSqError(new PerpendicularLine(0.0, 0.0)));
+        assertThrows(IllegalArgumentException.class, () -> fit.prune(1.0, new PerpendicularLine(0.0, 0.0)));
+    }
+
+    private static class WeightedAwtPoint extends AwtPoint implements WeightedPoint {
+        private final double weight;
+
+        WeightedAwtPoint(final java.awt.Point p, final double weight) {
+            super(p);
+            this.weight = weight;
+        }
+
+        @Override
+        public double getWeight() {
+            return weight;
+        }
+    }
+}
@@ -18,14 +18,23 @@ package ai.kognition.pilecv4j.image.geometry;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Random;
+
 import org.junit.Test;
 import org.opencv.core.Point;
 
+import ai.kognition.pilecv4j.image.CvMat;
+import ai.kognition.pilecv4j.image.CvMatOfPoint2f;
+import ai.kognition.pilecv4j.image.geometry.transform.AffineTransform;
 import ai.kognition.pilecv4j.image.geometry.transform.ControlPoint;
 import ai.kognition.pilecv4j.image.geometry.transform.ControlPoints;
 import ai.kognition.pilecv4j.image.geometry.transform.ScaleRotateAndTranslate;
+import ai.kognition.pilecv4j.image.geometry.transform.Transform2D;
 
 public class ScaleAndTranslateTest {
+    static {
+        CvMat.initOpenCv();
+    }
 
     @Test
     public void testSimple1DXTransform() {
@@ -104,4 +113,54 @@ public class ScaleAndTranslateTest {
             assertEquals((10.5 + 0.5) / 2.0, transform.transform(new Point(1.5, 1.5)).y, 0.00000000001);
         }
     }
+
+    @Test
+    public void testBatchTransform() {
+        final ControlPoint[] cps = {new ControlPoint(new Point(1, 1), new Point(0, 0.5)),new ControlPoint(new Point(2, 2), new Point(0, 10.5)),
+            new ControlPoint(new Point(3, 1), new Point(4, 2))};
+
+        try(final ScaleRotateAndTranslate srt = new ScaleRotateAndTranslate(cps[0], cps[1]);
+            final AffineTransform affine = new AffineTransform(new ControlPoints(cps));) {
+            checkBatchTransform(srt);
+            checkBatchTransform(affine);
+        }
+    }
+
+    private static void checkBatchTransform(final Transform2D transform) {
+        final Random rand = new Random(1234);
+        final int numPoints = 100;
+        final Point[] points = new Point[numPoints];
+        final double[] dxy = new double[2 * numPoints + 2];
+        final float[] fxy = new float[2 * numPoints];
+        for(int i = 0; i < numPoints; i++) {
+            points[i] = new Point((float)(rand.nextDouble() * 1000.0 - 500.0), (float)(rand.nextDouble() * 1000.0 - 500.0));
+            dxy[2 * i + 2] = points[i].x;
+            dxy[2 * i + 3] = points[i].y;
+            fxy[2 * i] = (float)points[i].x;
+            fxy[2 * i + 1] = (float)points[i].y;
+        }
+        dxy[0] = -1.0;
+        dxy[1] = -2.0;
+
+        try(final CvMatOfPoint2f mat = new CvMatOfPoint2f(points);) {
+            transform.transform(dxy, 2, numPoints);
+            transform.transform(fxy);
+            transform.transform(mat);
+
+            // the values before the offset are untouched.
+            assertEquals(-1.0, dxy[0], 0.0);
+            assertEquals(-2.0, dxy[1], 0.0);
+
+            final Point[] matPoints = mat.toArray();
+            for(int i = 0; i < numPoints; i++) {
+                final Point expected = transform.transform(points[i]);
+                assertEquals(expected.x, dxy[2 * i + 2], 0.0);
+                assertEquals(expected.y, dxy[2 * i + 3], 0.0);
+                assertEquals((float)expected.x, fxy[2 * i], 0.0f);
+                assertEquals((float)expected.y, fxy[2 * i + 1], 0.0f);
+                assertEquals(expected.x, matPoints[i].x, 0.001);
+                assertEquals(expected.y, matPoints[i].y, 0.001);
+            }
+        }
+    }
 }
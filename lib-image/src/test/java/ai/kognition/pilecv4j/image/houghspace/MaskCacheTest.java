@@ -0,0 +1,112 @@
+package ai.kognition.pilecv4j.image.houghspace;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ai.kognition.pilecv4j.image.CvMat;
+import ai.kognition.pilecv4j.image.geometry.LineSegment;
+import ai.kognition.pilecv4j.image.geometry.LineSegment.Direction;
+import ai.kognition.pilecv4j.image.geometry.SimplePoint;
+import ai.kognition.pilecv4j.image.houghspace.internal.GradientDirectionMask;
+import ai.kognition.pilecv4j.image.houghspace.internal.Mask;
+
+public class MaskCacheTest {
+    static {
+        CvMat.initOpenCv();
+    }
+
+    private static final double WIDTH = 146.0;
+    private static final double HEIGHT = 118.0;
+    private static final double quantFactor = 7.0;
+
+    @Rule public TemporaryFolder tempDir = new TemporaryFolder();
+
+    private static Model sprocketModel() {
+        return new SegmentModel(Arrays.asList(
+            new LineSegment(new SimplePoint(0, 0), new SimplePoint(0, WIDTH), Direction.LEFT),
+            new LineSegment(new SimplePoint(0.0, WIDTH), new SimplePoint(HEIGHT, WIDTH), Direction.LEFT),
+            new LineSegment(new SimplePoint(HEIGHT, WIDTH), new SimplePoint(HEIGHT, 0), Direction.LEFT),
+            new LineSegment(new SimplePoint(HEIGHT, 0), new SimplePoint(0, 0), Direction.LEFT)));
+    }
+
+    private static void assertSameMask(final Mask expected, final Mask actual) {
+        assertEquals(expected.mwidth, actual.mwidth);
+        assertEquals(expected.mheight, actual.mheight);
+        assertEquals(expected.maskcr, actual.maskcr);
+        assertEquals(expected.maskcc, actual.maskcc);
+        assertArrayEquals(expected.mask, actual.mask);
+    }
+
+    private static void assertSameMask(final GradientDirectionMask expected, final GradientDirectionMask actual) {
+        assertEquals(expected.mwidth, actual.mwidth);
+        assertEquals(expected.mheight, actual.mheight);
+        assertEquals(expected.maskcr, actual.maskcr);
+        assertEquals(expected.maskcc, actual.maskcc);
+        assertArrayEquals(expected.mask, actual.mask);
+    }
+
+    @Test
+    public void testSharedAcrossEquivalentModels() throws Exception {
+        final MaskCache cache = new MaskCache(10);
+        final Model m1 = sprocketModel();
+        final Model m2 = sprocketModel();
+
+        final Mask mask = cache.mask(m1, quantFactor, 1.0);
+        assertSameMask(Mask.generateMask(m1, quantFactor, 1.0), mask);
+        assertSame(mask, cache.mask(m2, quantFactor, 1.0));
+        assertNotSame(mask, cache.mask(m1, quantFactor, 1.1));
+
+        final GradientDirectionMask gdm = cache.gradientDirectionMask(m1, quantFactor);
+        assertSameMask(GradientDirectionMask.generateGradientMask(m1, m1.featureWidth(), m1.featureHeight(), quantFactor), gdm);
+        assertSame(gdm, cache.gradientDirectionMask(m2, quantFactor));
+
+        assertEquals(3, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        final MaskCache cache = new MaskCache(3);
+        final Model model = sprocketModel();
+        final Mask first = cache.mask(model, quantFactor, 1.0);
+        for(int i = 1; i < 5; i++)
+            cache.mask(model, quantFactor, 1.0 + (i / 10.0));
+        assertEquals(3, cache.size());
+        // the first was evicted
+        assertNotSame(first, cache.mask(model, quantFactor, 1.0));
+    }
+
+    @Test
+    public void testPersisted() throws Exception {
+        final Path dir = new File(tempDir.getRoot(), "masks").toPath();
+        final Model model = sprocketModel();
+
+        final MaskCache cache1 = new MaskCache(10, dir);
+        final Mask mask = cache1.mask(model, quantFactor, 1.2);
+        final GradientDirectionMask gdm = cache1.gradientDirectionMask(model, quantFactor);
+        try(var files = Files.list(dir);) {
+            assertEquals(2, files.count());
+        }
+
+        // a new cache reads them back.
+        final MaskCache cache2 = new MaskCache(10, dir);
+        assertSameMask(mask, cache2.mask(sprocketModel(), quantFactor, 1.2));
+        assertSameMask(gdm, cache2.gradientDirectionMask(sprocketModel(), quantFactor));
+
+        // and uses a transform
+        final Transform transform = new Transform(model, quantFactor, 1.2, 10.0, cache2);
+        assertSame(cache2.mask(model, quantFactor, 1.2), transform.mask);
+    }
+}
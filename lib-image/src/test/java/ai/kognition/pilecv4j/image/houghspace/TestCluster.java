@@ -0,0 +1,140 @@
+package ai.kognition.pilecv4j.image.houghspace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import ai.kognition.pilecv4j.image.CvMat;
+import ai.kognition.pilecv4j.image.geometry.LineSegment;
+import ai.kognition.pilecv4j.image.geometry.LineSegment.Direction;
+import ai.kognition.pilecv4j.image.geometry.SimplePoint;
+import ai.kognition.pilecv4j.image.houghspace.Transform.Cluster;
+import ai.kognition.pilecv4j.image.houghspace.Transform.HoughSpaceEntry;
+
+public class TestCluster {
+    static {
+        CvMat.initOpenCv();
+    }
+
+    private static final double WIDTH = 146.0;
+    private static final double HEIGHT = 118.0;
+    private static final double quantFactor = 7.0;
+    private static final double clusterFactor = 0.2;
+
+    private static Transform transform() {
+        final Model sm = new SegmentModel(Arrays.asList(
+            new LineSegment(new SimplePoint(0, 0), new SimplePoint(0, WIDTH), Direction.LEFT),
+            new LineSegment(new SimplePoint(0.0, WIDTH), new SimplePoint(HEIGHT, WIDTH), Direction.LEFT),
+            new LineSegment(new SimplePoint(HEIGHT, WIDTH), new SimplePoint(HEIGHT, 0), Direction.LEFT),
+            new LineSegment(new SimplePoint(HEIGHT, 0), new SimplePoint(0, 0), Direction.LEFT)));
+        return new Transform(sm, quantFactor, 1.0, 10.0);
+    }
+
+    // the original linear clustering
+    private static List<Cluster> linearCluster(final Transform transform, final List<HoughSpaceEntry> houghEntries,
+        final double percentModelCoverage) {
+        final List<Cluster> ret = new ArrayList<Cluster>();
+        final double minDist = ((transform.mask.mwidth > transform.mask.mheight ? transform.mask.mheight : transform.mask.mwidth) + 1)
+            * percentModelCoverage;
+        for(final HoughSpaceEntry cur: houghEntries) {
+            boolean done = false;
+            for(int i = 0; i < ret.size() && !done; i++) {
+                final Cluster c = ret.get(i);
+                if(c.distance(cur) <= minDist) {
+                    c.add(cur);
+                    done = true;
+                }
+            }
+            if(!done)
+                ret.add(new Cluster(cur));
+        }
+        return ret;
+    }
+
+    private static List<HoughSpaceEntry> randomEntries(final Random rand, final int num, final int hsheight, final int hswidth) {
+        final List<HoughSpaceEntry> ret = new ArrayList<>();
+        for(int i = 0; i < num; i++)
+            ret.add(new HoughSpaceEntry(rand.nextInt(hsheight), rand.nextInt(hswidth), 150 + rand.nextInt(100), quantFactor));
+        return ret;
+    }
+
+    private static void assertSameClusters(final List<Cluster> expected, final List<Cluster> actual) {
+        assertEquals(expected.size(), actual.size());
+        for(int i = 0; i < expected.size(); i++) {
+            final Cluster e = expected.get(i);
+            final Cluster a = actual.get(i);
+            assertEquals(e.row(), a.row(), 0.0);
+            assertEquals(e.col(), a.col(), 0.0);
+            final List<HoughSpaceEntry> ee = e.getHoughEntries();
+            final List<HoughSpaceEntry> ae = a.getHoughEntries();
+            assertEquals(ee.size(), ae.size());
+            for(int j = 0; j < ee.size(); j++)
+                assertSame(ee.get(j), ae.get(j));
+        }
+    }
+
+    @Test
+    public void testSameAsLinear() throws Exception {
+        final Transform transform = transform();
+        final Random rand = new Random(1234);
+        final ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for(int trial = 0; trial < 20; trial++) {
+                final List<HoughSpaceEntry> entries = randomEntries(rand, 50 + rand.nextInt(2000), 200, 300);
+                for(final double factor: new double[] {0.0,0.05,clusterFactor,1.0}) {
+                    final List<Cluster> expected = linearCluster(transform, entries, factor);
+                    assertSameClusters(expected, transform.cluster(entries, factor));
+                    assertSameClusters(expected, transform.parallelCluster(entries, factor));
+                    assertSameClusters(expected, transform.parallelCluster(pool, entries, factor));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelSparseEntries() throws Exception {
+        final Transform transform = transform();
+        final Random rand = new Random(5678);
+        // sparse enough that the entries split into many groups that are near one another.
+        for(int trial = 0; trial < 20; trial++) {
+            final List<HoughSpaceEntry> entries = randomEntries(rand, 50 + rand.nextInt(500), 1000, 1500);
+            for(final double factor: new double[] {0.05,clusterFactor,0.5}) {
+                assertSameClusters(linearCluster(transform, entries, factor), transform.parallelCluster(entries, factor));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelSeparatedGroups() throws Exception {
+        final Transform transform = transform();
+        final Random rand = new Random(4321);
+
+        // tight blobs far apart from one another
+        final List<HoughSpaceEntry> entries = new ArrayList<>();
+        for(int i = 0; i < 2000; i++) {
+            final int blob = rand.nextInt(25);
+            final int r = (blob / 5) * 200 + rand.nextInt(5);
+            final int c = (blob % 5) * 200 + rand.nextInt(5);
+            entries.add(new HoughSpaceEntry(r, c, 150 + rand.nextInt(100), quantFactor));
+        }
+
+        final List<Cluster> expected = linearCluster(transform, entries, clusterFactor);
+        assertSameClusters(expected, transform.cluster(entries, clusterFactor));
+        assertSameClusters(expected, transform.parallelCluster(entries, clusterFactor));
+        final ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            assertSameClusters(expected, transform.parallelCluster(pool, entries, clusterFactor));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -21,7 +21,10 @@ import static ai.kognition.pilecv4j.image.Operations.COVERLAY;
 import static ai.kognition.pilecv4j.image.Operations.GOVERLAY;
 import static ai.kognition.pilecv4j.image.Operations.ROVERLAY;
 import static ai.kognition.pilecv4j.image.Operations.YOVERLAY;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -29,13 +32,16 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
@@ -49,6 +55,7 @@ import ai.kognition.pilecv4j.image.geometry.LineSegment;
 import ai.kognition.pilecv4j.image.geometry.LineSegment.Direction;
 import ai.kognition.pilecv4j.image.geometry.SimplePoint;
 import ai.kognition.pilecv4j.image.houghspace.Transform.HoughSpaceEntry;
+import ai.kognition.pilecv4j.image.houghspace.internal.Mask;
 
 public class TestHoughTransform {
 
@@ -137,4 +144,289 @@ public class TestHoughTransform {
             assertEquals(16, fits.size());
         }
     }
+
+    @Test
+    public void testMultiThreadedMatchesSingleThreaded() throws Exception {
+        try(final Closer c = new Closer();) {
+            final CvMat[] images = edgeAndGradientImages(c);
+            final CvMat edgeRaster = images[0];
+            final CvMat gradientDir = images[1];
+
+            final Transform transform = new Transform(sprocketModel(), quantFactor, 1.0, 10.0);
+
+            final Transform.HoughSpace single = transform.transform(edgeRaster, gradientDir, houghThreshold, 1);
+            final Transform.HoughSpace multi = transform.transform(edgeRaster, gradientDir, houghThreshold, 4);
+
+            assertArrayEquals(single.houghSpace, multi.houghSpace);
+            assertEquals(single.backMapEntries.size(), multi.backMapEntries.size());
+            for(int i = 0; i < single.backMapEntries.size(); i++) {
+                final HoughSpaceEntry se = single.backMapEntries.get(i);
+                final HoughSpaceEntry me = multi.backMapEntries.get(i);
+                assertEquals(se, me);
+                assertEquals(se.count, me.count);
+                assertEquals(se.contributingImagePoints, me.contributingImagePoints);
+            }
+        }
+    }
+
+    @Test
+    public void testBackMap() throws Exception {
+        try(final Closer c = new Closer();) {
+            final CvMat[] images = edgeAndGradientImages(c);
+            final CvMat edgeRaster = images[0];
+            final CvMat gradientDir = images[1];
+
+            final Transform transform = new Transform(sprocketModel(), quantFactor, 1.0, 10.0);
+            final Transform.HoughSpace houghSpace = transform.transform(edgeRaster, gradientDir, houghThreshold);
+            final Transform.BackMap backMap = houghSpace.backMap;
+
+            assertEquals(backMap.numEntries(), houghSpace.backMapEntries.size());
+            assertEquals(0, backMap.offsets[0]);
+            assertEquals(backMap.contributors.length, 2 * backMap.offsets[backMap.numEntries()]);
+
+            final byte[] pixel = new byte[1];
+            for(int e = 0; e < backMap.numEntries(); e++) {
+                final HoughSpaceEntry hse = houghSpace.backMapEntries.get(e);
+                assertEquals(backMap.hsRow(e), hse.r);
+                assertEquals(backMap.hsCol(e), hse.c);
+                assertTrue(hse.numContributors() >= houghThreshold);
+                assertEquals(hse.count, hse.numContributors());
+                assertEquals(hse.numContributors(), hse.contributingImagePoints.size());
+                assertEquals(2 * hse.numContributors(), backMap.contributors(e).remaining());
+
+                // every contributor is an edge pixel
+                for(int i = 0; i < hse.numContributors(); i++) {
+                    edgeRaster.get(hse.contributorRow(i), hse.contributorCol(i), pixel);
+                    assertEquals(Mask.EDGE, pixel[0]);
+                    assertEquals(hse.contributorRow(i), hse.contributingImagePoints.get(i).y);
+                    assertEquals(hse.contributorCol(i), hse.contributingImagePoints.get(i).x);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAddContributionToBackMapEntry() throws Exception {
+        try(final Closer c = new Closer();) {
+            final CvMat[] images = edgeAndGradientImages(c);
+
+            final Transform transform = new Transform(sprocketModel(), quantFactor, 1.0, 10.0);
+            final Transform.HoughSpace houghSpace = transform.transform(images[0], images[1], houghThreshold);
+            final Transform.BackMap backMap = houghSpace.backMap;
+            assertTrue(backMap.numEntries() > 1);
+
+            final HoughSpaceEntry hse = houghSpace.backMapEntries.get(0);
+            final int numContributors = hse.numContributors();
+            final int firstRow = hse.contributorRow(0);
+            final int firstCol = hse.contributorCol(0);
+            final int numInBackMap = backMap.contributors.length;
+
+            // the contributors are copied out of the BackMap rather than failing.
+            hse.addContribution(-1, -2);
+            assertEquals(numContributors + 1, hse.numContributors());
+            assertEquals(numContributors + 1, hse.contributingImagePoints.size());
+            assertEquals(firstRow, hse.contributorRow(0));
+            assertEquals(firstCol, hse.contributorCol(0));
+            assertEquals(-1, hse.contributorRow(numContributors));
+            assertEquals(-2, hse.contributorCol(numContributors));
+
+            // the BackMap and the other entries are unchanged
+            assertEquals(numInBackMap, backMap.contributors.length);
+            assertEquals(numContributors, backMap.numContributors(0));
+            final HoughSpaceEntry other = houghSpace.backMapEntries.get(1);
+            assertEquals(backMap.numContributors(1), other.numContributors());
+            assertEquals(backMap.numContributors(1), other.contributingImagePoints.size());
+        }
+    }
+
+    @Test
+    public void testParallelBestFit() throws Exception {
+        try(final Closer c = new Closer();) {
+            final CvMat[] images = edgeAndGradientImages(c);
+            final CvMat edgeRaster = images[0];
+            final CvMat gradientDir = images[1];
+
+            final Transform transform = new Transform(sprocketModel(), quantFactor, 1.0, 10.0);
+            final Transform.HoughSpace houghSpace = transform.transform(edgeRaster, gradientDir, houghThreshold);
+            final List<Transform.Cluster> clusters = transform.cluster(houghSpace.getSortedEntries(), clusterFactor);
+
+            final CvMat serialOverlay = c.add(CvMat.zeros(edgeRaster.rows(), edgeRaster.cols(), CvType.CV_8UC1));
+            final List<java.awt.Point> serialPruned = new ArrayList<>();
+            final List<Transform.Fit> serial = transform.bestFit(clusters, serialOverlay, ROVERLAY, GOVERLAY, serialPruned);
+
+            final CvMat parallelOverlay = c.add(CvMat.zeros(edgeRaster.rows(), edgeRaster.cols(), CvType.CV_8UC1));
+            final List<java.awt.Point> parallelPruned = new ArrayList<>();
+            final ForkJoinPool pool = new ForkJoinPool(4);
+            final List<Transform.Fit> parallel;
+            try {
+                parallel = transform.parallelBestFit(pool, clusters, parallelOverlay, ROVERLAY, GOVERLAY, parallelPruned);
+            } finally {
+                pool.shutdown();
+            }
+
+            assertEquals(serial.size(), parallel.size());
+            for(int i = 0; i < serial.size(); i++) {
+                final Transform.Fit sf = serial.get(i);
+                final Transform.Fit pf = parallel.get(i);
+                assertSame(sf.sourceCluster, pf.sourceCluster);
+                assertEquals(sf.cr, pf.cr, 0.0);
+                assertEquals(sf.cc, pf.cc, 0.0);
+                assertEquals(sf.rotation, pf.rotation, 0.0);
+                assertEquals(sf.scale, pf.scale, 0.0);
+                assertEquals(sf.stdDev, pf.stdDev, 0.0);
+                assertEquals(sf.edgeVals, pf.edgeVals);
+            }
+            assertEquals(serialPruned, parallelPruned);
+
+            final byte[] serialPixels = new byte[(int)serialOverlay.total()];
+            final byte[] parallelPixels = new byte[(int)parallelOverlay.total()];
+            serialOverlay.get(0, 0, serialPixels);
+            parallelOverlay.get(0, 0, parallelPixels);
+            assertArrayEquals(serialPixels, parallelPixels);
+        }
+    }
+
+    @Test
+    public void testPyramidTransform() throws Exception {
+        try(final Closer c = new Closer();) {
+            final CvMat[] images = edgeAndGradientImages(c);
+            final CvMat edgeRaster = images[0];
+            final CvMat gradientDir = images[1];
+
+            final Transform transform = new Transform(sprocketModel(), quantFactor, 1.0, 10.0);
+            final Transform.HoughSpace full = transform.transform(edgeRaster, gradientDir, houghThreshold);
+            final List<HoughSpaceEntry> pyramid = transform.pyramidTransform(edgeRaster, gradientDir, houghThreshold, 2, houghThreshold / 2, 1000, 2);
+
+            assertTrue(pyramid.size() > 0);
+
+            // every entry the pyramid found is exactly the same as the one from the full transform
+            final java.util.Map<java.awt.Point, HoughSpaceEntry> fullEntries = new java.util.HashMap<>();
+            full.backMapEntries.forEach(e -> fullEntries.put(new java.awt.Point(e.c, e.r), e));
+            for(final HoughSpaceEntry e: pyramid) {
+                final HoughSpaceEntry fe = fullEntries.get(new java.awt.Point(e.c, e.r));
+                assertEquals(fe, e);
+                assertEquals(fe.contributingImagePoints, e.contributingImagePoints);
+            }
+
+            // and they're sorted the same way
+            for(int i = 1; i < pyramid.size(); i++)
+                assertTrue(pyramid.get(i - 1).count >= pyramid.get(i).count);
+
+            // the coarse pass found all of the features so the pyramid found every entry the full transform did
+            assertEquals(full.backMapEntries.size(), pyramid.size());
+
+            // so clustering and fitting them finds the same instances of the model.
+            final List<Transform.Fit> fullFits = transform.bestFit(transform.cluster(full.getSortedEntries(), clusterFactor), null, ROVERLAY, GOVERLAY);
+            final List<Transform.Fit> pyramidFits = transform.bestFit(transform.cluster(pyramid, clusterFactor), null, ROVERLAY, GOVERLAY);
+            assertEquals(16, fullFits.size());
+            assertEquals(fullFits.size(), pyramidFits.size());
+            for(int i = 0; i < fullFits.size(); i++) {
+                final Transform.Fit ff = fullFits.get(i);
+                final Transform.Fit pf = pyramidFits.get(i);
+                assertEquals(ff.cr, pf.cr, 0.0);
+                assertEquals(ff.cc, pf.cc, 0.0);
+                assertEquals(ff.rotation, pf.rotation, 0.0);
+                assertEquals(ff.scale, pf.scale, 0.0);
+                assertEquals(ff.stdDev, pf.stdDev, 0.0);
+                assertEquals(ff.edgeVals, pf.edgeVals);
+            }
+        }
+    }
+
+    private static Model sprocketModel() {
+        return new SegmentModel(Arrays.asList(
+            new LineSegment(new SimplePoint(0, 0), new SimplePoint(0, WIDTH), Direction.LEFT),
+            new LineSegment(new SimplePoint(0.0, WIDTH), new SimplePoint(HEIGHT, WIDTH), Direction.LEFT),
+            new LineSegment(new SimplePoint(HEIGHT, WIDTH), new SimplePoint(HEIGHT, 0), Direction.LEFT),
+            new LineSegment(new SimplePoint(HEIGHT, 0), new SimplePoint(0, 0), Direction.LEFT)));
+    }
+
+    @Test
+    public void testGradientAndCanny() throws Exception {
+        try(final Closer c = new Closer();) {
+            final CvMat grayImage = blurredGrayImage(c);
+            final GradientImages expected = c.add(Operations.gradient(grayImage, kernelSize));
+            final CvMat expectedEdge = c.add(Operations.canny(expected, (tlowpct / 100.0) * thigh, thigh));
+
+            final GradientImages gis = c.add(new GradientImages());
+            final CvMat edge = c.add(new CvMat());
+            Operations.gradientAndCanny(grayImage, kernelSize, (tlowpct / 100.0) * thigh, thigh, gis, edge);
+            assertSameImage(expected.dx, gis.dx);
+            assertSameImage(expected.dy, gis.dy);
+            assertSameImage(expected.gradientDir, gis.gradientDir);
+            assertSameImage(expectedEdge, edge);
+
+            // a second call into the same destinations reuses their buffers.
+            final long dirAddr = gis.gradientDir.dataAddr();
+            final long edgeAddr = edge.dataAddr();
+            Operations.gradientAndCanny(grayImage, kernelSize, (tlowpct / 100.0) * thigh, thigh, gis, edge);
+            assertEquals(dirAddr, gis.gradientDir.dataAddr());
+            assertEquals(edgeAddr, edge.dataAddr());
+            assertSameImage(expected.gradientDir, gis.gradientDir);
+            assertSameImage(expectedEdge, edge);
+        }
+    }
+
+    @Test
+    public void testGradientIntoDestination() throws Exception {
+        try(final Closer c = new Closer();) {
+            final CvMat grayImage = blurredGrayImage(c);
+            final GradientImages expected = c.add(Operations.gradient(grayImage, kernelSize));
+
+            final GradientImages gis = c.add(new GradientImages());
+            Operations.gradient(grayImage, kernelSize, gis);
+            final long dxAddr = gis.dx.dataAddr();
+            final long dirAddr = gis.gradientDir.dataAddr();
+            Operations.gradient(grayImage, kernelSize, gis);
+            assertEquals(dxAddr, gis.dx.dataAddr());
+            assertEquals(dirAddr, gis.gradientDir.dataAddr());
+            assertSameImage(expected.dx, gis.dx);
+            assertSameImage(expected.dy, gis.dy);
+            assertSameImage(expected.gradientDir, gis.gradientDir);
+
+            final CvMat color = c.add(ImageFile.readMatFromFile(testFile()));
+            final CvMat expectedGray = c.add(Operations.convertToGray(color));
+            final CvMat gray = c.add(new CvMat());
+            Operations.convertToGray(color, gray);
+            final long grayAddr = gray.dataAddr();
+            Operations.convertToGray(color, gray);
+            assertEquals(grayAddr, gray.dataAddr());
+            assertSameImage(expectedGray, gray);
+        }
+    }
+
+    private static void assertSameImage(final CvMat expected, final CvMat actual) {
+        assertEquals(expected.type(), actual.type());
+        assertEquals(expected.size(), actual.size());
+        try(final CvMat diff = new CvMat();) {
+            Core.compare(expected, actual, diff, Core.CMP_NE);
+            assertEquals(0, Core.countNonZero(diff));
+        }
+    }
+
+    // copies the test image out of the classpath and returns its path.
+    private String testFile() throws Exception {
+        final File rootDir = outputDir.newFolder();
+        final String testFile = new File(rootDir, testFileName).getAbsolutePath();
+        try(final InputStream is = new BufferedInputStream(getClass().getClassLoader().getResourceAsStream(testFileName));
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(testFile))) {
+            IOUtils.copyLarge(is, os);
+        }
+        return testFile;
+    }
+
+    // returns the blurred grayscale test image. It's added to the closer.
+    private CvMat blurredGrayImage(final Closer c) throws Exception {
+        final CvMat grayImage = c.add(Operations.convertToGray(c.add(ImageFile.readMatFromFile(testFile()))));
+        Imgproc.GaussianBlur(grayImage, grayImage, new Size(kernelSize + 2, kernelSize + 2), 0.0);
+        return grayImage;
+    }
+
+    // returns the edge image and the gradient direction image for the test file. They're added to the closer.
+    private CvMat[] edgeAndGradientImages(final Closer c) throws Exception {
+        final CvMat grayImage = blurredGrayImage(c);
+        final GradientImages gis = c.add(Operations.gradient(grayImage, kernelSize));
+        final CvMat edgeRaster = c.add(Operations.canny(gis, (tlowpct / 100.0) * thigh, thigh));
+        return new CvMat[] {edgeRaster,gis.gradientDir};
+    }
 }
@@ -355,13 +355,44 @@ uint64_t MediaContext::stop() {
   return 0;
 }
 
+uint64_t MediaContext::applySeek(int64_t millis) {
+  PILECV4J_TRACE;
+
+  int64_t ts = av_rescale_q(millis, millisecondTimeBase, av_get_time_base_q());
+  if (formatCtx->start_time != AV_NOPTS_VALUE)
+    ts += formatCtx->start_time;
+
+  if (isEnabled(DEBUG))
+    llog(DEBUG, "Seeking to %" PRId64 " milliseconds", millis);
+
+  // with a stream index of -1 the timestamp is in AV_TIME_BASE units. AVSEEK_FLAG_BACKWARD lands on
+  // the key frame at or before the requested time so there's nothing to decode from before it.
+  int av_rc = av_seek_frame(formatCtx, -1, ts, AVSEEK_FLAG_BACKWARD);
+  if (av_rc < 0) {
+    llog(ERROR, "Failed to seek to %" PRId64 " milliseconds: %s", millis, av_err2str(av_rc));
+    return MAKE_AV_STAT(av_rc);
+  }
+
+  // anything buffered in the processors is from the old position.
+  for (auto o : mediaProcessors) {
+    uint64_t rc = o->flush();
+    if (isError(rc))
+      return rc;
+  }
+
+  seeksApplied++;
+  return 0;
+}
+
 extern void displayDecodeTiming();
+extern void displayAudioDecodeTiming();
 #ifdef TIMING
 static void displayDecoderTimings() {
   TIME_DISPLAY("Overall reading and processing frame packets", read_and_process_frame);
   TIME_DISPLAY("reading frame/packet", read_frame);
   TIME_DISPLAY("handling/decoding/remuxing", hande_packet);
   displayDecodeTiming();
+  displayAudioDecodeTiming();
   TIME_DISPLAY("waiting due to synchronization", throttle);
 }
 #endif
@@ -439,6 +470,17 @@ KAI_EXPORT void pcv4j_ffmpeg2_mediaContext_sync(uint64_t ctx){
   c->sync();
 }
 
+KAI_EXPORT uint64_t pcv4j_ffmpeg2_mediaContext_seek(uint64_t ctx, int64_t millis) {
+  PILECV4J_TRACE;
+  MediaContext* c = (MediaContext*)ctx;
+  return c->seek(millis);
+}
+
+KAI_EXPORT int64_t pcv4j_ffmpeg2_mediaContext_seeksApplied(uint64_t ctx) {
+  MediaContext* c = (MediaContext*)ctx;
+  return c->numSeeksApplied();
+}
+
 KAI_EXPORT uint32_t pcv4j_ffmpeg2_mediaContext_state(uint64_t ctx) {
   PILECV4J_TRACE;
   MediaContext* c = (MediaContext*)ctx;
@@ -532,6 +574,13 @@ static uint64_t process_packets(MediaContext* c) {
     {
       TIME_GUARD(read_and_process_frame);
 
+      const int64_t seekTo = c->pendingSeekMillis.exchange(NO_PENDING_SEEK);
+      if (seekTo != NO_PENDING_SEEK) {
+        rc = c->applySeek(seekTo);
+        if (isError(rc))
+          break;
+      }
+
       if ((av_rc = read_frame(pFormatContext, pPacket)) < 0)
         break;
 
@@ -563,6 +612,18 @@ static uint64_t process_packets(MediaContext* c) {
   if (av_rc < 0)
     llog(INFO, "Last result of read was: %s", av_err2str(av_rc));
 
+  // the source has run out so give the processors a chance to hand on anything they're still holding.
+  if (av_rc == AVERROR_EOF) {
+    for (auto o : c->mediaProcessors) {
+      uint64_t erc = o->endOfStream();
+      if (isError(erc)) {
+        llog(ERROR, "Failed to process the end of the stream: %" PRId64 ", %s", erc, errMessage(erc));
+        av_packet_free(&pPacket);
+        return erc;
+      }
+    }
+  }
+
   end:
   if (pPacket)
     av_packet_free(&pPacket);
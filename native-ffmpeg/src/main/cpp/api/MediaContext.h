@@ -57,6 +57,8 @@ class MediaContext;
 static uint64_t process_packets(MediaContext* ctx);
 #endif
 
+#define NO_PENDING_SEEK INT64_MIN
+
 class MediaContext : public PacketSourceInfo {
   /**
    * Current state.
@@ -88,6 +90,17 @@ class MediaContext : public PacketSourceInfo {
    */
   std::atomic<bool> stopMe;
 
+  /**
+   * A seek requested by another thread, in milliseconds from the start of the media. It's
+   * applied by the playing loop before the next packet is read.
+   */
+  std::atomic<int64_t> pendingSeekMillis;
+
+  /**
+   * The number of seeks that have actually been applied by the playing loop.
+   */
+  std::atomic<int64_t> seeksApplied;
+
   Synchronizer* throttle = nullptr;
 
   AVMediaType* streamTypes = nullptr;
@@ -102,7 +115,7 @@ class MediaContext : public PacketSourceInfo {
   int numStreamDetails = -1;
 
 public:
-  inline MediaContext() : state(FRESH), stopMe(false) {
+  inline MediaContext() : state(FRESH), stopMe(false), pendingSeekMillis(NO_PENDING_SEEK), seeksApplied(0) {
     if (isEnabled(TRACE))
       log(TRACE, "STRC", "In StreamContext() for %" PRId64, (uint64_t)this);
   }
@@ -201,12 +214,36 @@ public:
    */
   uint64_t stop();
 
+  /**
+   * Request that the source be repositioned to the key frame at or before the given number of
+   * milliseconds from the start of the media. This can be called from any thread (including
+   * from within a processor's callback) and the seek is applied before the next packet is read.
+   * When it's applied all of the processors are flushed. If several seeks are requested before
+   * the playing loop gets to them, only the last one is applied.
+   */
+  inline uint64_t seek(int64_t millis) {
+    if (millis < 0)
+      millis = 0;
+    pendingSeekMillis = millis;
+    return 0;
+  }
+
+  /**
+   * The number of requested seeks that have been applied. Any packets or frames received after this
+   * changes are from the new position.
+   */
+  inline int64_t numSeeksApplied() {
+    return seeksApplied;
+  }
+
 
   uint64_t getStreamDetails(StreamDetails** ppdetails, int* nb);
 private:
 
   uint64_t advanceStateTo(MediaContextState toAdvanceTo);
 
+  uint64_t applySeek(int64_t millis);
+
 };
 
 }
@@ -52,6 +52,24 @@ public:
    */
   virtual uint64_t handlePacket(AVPacket* pPacket, AVMediaType packetMediaType) = 0;
 
+  /**
+   * This is called when the source has been repositioned (seeked) so that any processor
+   * holding state from the prior position (e.g. frames buffered in a decoder) can discard it.
+   * A processor that has already produced output it hasn't handed on yet (e.g. samples held in a
+   * resampler) should hand it on rather than drop it.
+   */
+  virtual inline uint64_t flush() {
+    return 0;
+  }
+
+  /**
+   * This is called once when the source has run out of packets (but not when it's stopped) so
+   * that any processor still holding data (e.g. frames buffered in a decoder) can hand it on.
+   */
+  virtual inline uint64_t endOfStream() {
+    return 0;
+  }
+
   /**
    * Free resources prior to delete.
    */
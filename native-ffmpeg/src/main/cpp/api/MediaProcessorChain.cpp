@@ -69,6 +69,24 @@ uint64_t MediaProcessorChain::handlePacket(AVPacket* pPacket, AVMediaType stream
   return 0;
 }
 
+uint64_t MediaProcessorChain::flush() {
+  for (auto o : mediaProcessors) {
+    uint64_t rc = o->flush();
+    if (isError(rc))
+      return rc;
+  }
+  return 0;
+}
+
+uint64_t MediaProcessorChain::endOfStream() {
+  for (auto o : mediaProcessors) {
+    uint64_t rc = o->endOfStream();
+    if (isError(rc))
+      return rc;
+  }
+  return 0;
+}
+
 //========================================================================
 // Everything here in this extern "C" section is callable from Java
 //========================================================================
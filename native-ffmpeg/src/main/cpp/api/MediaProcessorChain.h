@@ -33,6 +33,8 @@ public:
   virtual uint64_t setup(PacketSourceInfo* avformatCtx, std::vector<std::tuple<std::string,std::string> >& options) override;
   virtual uint64_t preFirstFrame() override;
   virtual uint64_t handlePacket(AVPacket* pPacket, AVMediaType streamMediaType) override;
+  virtual uint64_t flush() override;
+  virtual uint64_t endOfStream() override;
 
   virtual inline uint64_t close() override {
     return 0;
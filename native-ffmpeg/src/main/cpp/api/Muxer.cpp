@@ -60,6 +60,10 @@ uint64_t Muxer::createStreamFromCodec(AVFormatContext* output_format_context, co
 
 uint64_t Muxer::writePacket(const AVPacket* inPacket, const AVRational& time_base, int output_stream_index) {
   AVFormatContext* output_format_context = getFormatContext();
+  if (!output_format_context) {
+    log(ERROR, COMPONENT, "Can't write a packet without an output AVFormatContext");
+    return MAKE_P_STAT(NO_OUTPUT);
+  }
   AVStream* out_stream = output_format_context->streams[output_stream_index];
 
   if (isEnabled(DEBUG))
@@ -0,0 +1,351 @@
+/*
+ * PrerollMuxer.cpp
+ *
+ *  Created on: Oct 19, 2026
+ */
+
+#include <muxers/PrerollMuxer.h>
+
+#include "utils/pilecv4j_ffmpeg_utils.h"
+#include "utils/log.h"
+
+#include "common/kog_exports.h"
+
+namespace pilecv4j
+{
+namespace ffmpeg
+{
+
+#define COMPONENT "PMUX"
+#define PILECV4J_TRACE RAW_PILECV4J_TRACE(COMPONENT)
+
+inline static void llog(LogLevel llevel, const char *fmt, ...) {
+  va_list args;
+  va_start( args, fmt );
+  log( llevel, COMPONENT, fmt, args );
+  va_end( args );
+}
+
+static inline bool isKeyFrame(const AVPacket* packet) {
+  return (packet->flags & AV_PKT_FLAG_KEY)? true : false;
+}
+
+int64_t PrerollMuxer::packetTimeMillis(const AVPacket* packet, const AVRational& time_base) {
+  const int64_t ts = packet->pts != AV_NOPTS_VALUE ? packet->pts : packet->dts;
+  if (ts != AV_NOPTS_VALUE) {
+    const int64_t ret = av_rescale_q(ts, time_base, millisecondTimeBase);
+    if (!streamTimestamps) {
+      // anything buffered so far was timed with the wall clock. Move it onto the stream's clock.
+      const int64_t offset = ret - now();
+      for (auto& p : buffer)
+        p.timeMillis += offset;
+      if (lastReferenceMillis != AV_NOPTS_VALUE)
+        lastReferenceMillis += offset;
+      streamTimestamps = true;
+    }
+    lastTimestampMillis = ret;
+    return ret;
+  }
+
+  // mixing the wall clock with the stream's timestamps would break the trimming so a packet
+  // without one, in a stream that has them, gets the time of the one before it.
+  return streamTimestamps ? lastTimestampMillis : now();
+}
+
+PrerollMuxer::~PrerollMuxer() {
+  PILECV4J_TRACE;
+  if (!closed)
+    close();
+}
+
+void PrerollMuxer::fail() {
+  PILECV4J_TRACE;
+  std::lock_guard<std::mutex> lck(targetLock);
+  if (target)
+    target->fail();
+  target = nullptr;
+  clearBuffer();
+}
+
+uint64_t PrerollMuxer::close() {
+  PILECV4J_TRACE;
+  std::lock_guard<std::mutex> lck(targetLock);
+  if (!closed) {
+    stopTarget();
+    clearBuffer();
+    for (auto params : streamParams) {
+      if (params)
+        avcodec_parameters_free(&params);
+    }
+    streamParams.clear();
+    closed = true;
+  }
+  return 0;
+}
+
+uint64_t PrerollMuxer::open() {
+  PILECV4J_TRACE;
+  return 0;
+}
+
+uint64_t PrerollMuxer::ready() {
+  PILECV4J_TRACE;
+  return 0;
+}
+
+AVFormatContext* PrerollMuxer::getFormatContext() {
+  std::lock_guard<std::mutex> lck(targetLock);
+  return target ? target->getFormatContext() : nullptr;
+}
+
+const AVOutputFormat* PrerollMuxer::guessOutputFormat() {
+  return nullptr;
+}
+
+uint64_t PrerollMuxer::createNextStream(AVCodecParameters* codecPars, int* stream_index_out) {
+  PILECV4J_TRACE;
+
+  AVCodecParameters* params = avcodec_parameters_alloc();
+  if (!params) {
+    llog(ERROR,"Failed to allocate AVCodecParameters");
+    return MAKE_AV_STAT(AVERROR(ENOMEM));
+  }
+
+  int rc = avcodec_parameters_copy(params, codecPars);
+  if (rc < 0) {
+    llog(ERROR, "Couldn't copy codec parameters: %s", av_err2str(rc));
+    avcodec_parameters_free(&params);
+    return MAKE_AV_STAT(rc);
+  }
+
+  const int sindex = (int)streamParams.size();
+  streamParams.push_back(params);
+
+  // the first video stream is the reference stream. If there's no video at all
+  // then the first stream is.
+  if (reference_stream < 0 ||
+      (params->codec_type == AVMEDIA_TYPE_VIDEO && streamParams[reference_stream]->codec_type != AVMEDIA_TYPE_VIDEO))
+    reference_stream = sindex;
+
+  if (stream_index_out)
+    *stream_index_out = sindex;
+
+  return 0;
+}
+
+uint64_t PrerollMuxer::createNextStream(const AVCodecContext* codecc, int* stream_index_out) {
+  PILECV4J_TRACE;
+  llog(ERROR, "A PrerollMuxer can only be used for remuxing. It doesn't support creating streams from an AVCodecContext.");
+  return MAKE_P_STAT(NO_SUPPORTED_CODEC);
+}
+
+void PrerollMuxer::clearBuffer() {
+  for (auto& p : buffer)
+    av_packet_free(&(p.packet));
+  buffer.clear();
+}
+
+void PrerollMuxer::trim() {
+  // the buffer needs to start on a reference key frame or it can't be muxed on its own.
+  while (!buffer.empty() && !buffer.front().isReferenceKeyFrame) {
+    av_packet_free(&(buffer.front().packet));
+    buffer.pop_front();
+  }
+
+  // drop a full GOP from the front as long as what's left still covers the pre-roll.
+  while (true) {
+    const size_t size = buffer.size();
+    size_t nextGop = 1;
+    while (nextGop < size && !buffer[nextGop].isReferenceKeyFrame)
+      nextGop++;
+
+    if (nextGop >= size || (lastReferenceMillis - buffer[nextGop].timeMillis) < prerollMillis)
+      break;
+
+    for (size_t i = 0; i < nextGop; i++) {
+      av_packet_free(&(buffer.front().packet));
+      buffer.pop_front();
+    }
+  }
+}
+
+uint64_t PrerollMuxer::bufferPacket(const AVPacket* inputPacket, const AVRational& time_base, int output_stream_index) {
+  const bool isReference = output_stream_index == reference_stream;
+  const bool isReferenceKeyFrame = isReference && isKeyFrame(inputPacket);
+
+  // nothing is kept until there's a key frame to start from.
+  if (buffer.empty() && !isReferenceKeyFrame)
+    return 0;
+
+  AVPacket* packet = av_packet_clone(inputPacket);
+  if (!packet) {
+    llog(ERROR, "Failed to clone a packet");
+    return MAKE_AV_STAT(AVERROR(ENOMEM));
+  }
+
+  const int64_t timeMillis = packetTimeMillis(inputPacket, time_base);
+  buffer.push_back(PrerollPacket{ packet, time_base, output_stream_index, timeMillis, isReferenceKeyFrame });
+
+  if (isReference) {
+    lastReferenceMillis = timeMillis;
+    trim();
+  }
+
+  return 0;
+}
+
+uint64_t PrerollMuxer::startTarget(Muxer* newTarget) {
+  PILECV4J_TRACE;
+  uint64_t iret = 0;
+
+  if (isError(iret = newTarget->open())) {
+    llog(ERROR, "Failed to open the recording target: %" PRId64 ", %s", iret, errMessage(iret));
+    goto fail;
+  }
+
+  for (auto params : streamParams) {
+    if (isError(iret = newTarget->createNextStream(params, nullptr))) {
+      llog(ERROR, "Failed to create a stream in the recording target: %" PRId64 ", %s", iret, errMessage(iret));
+      goto fail;
+    }
+  }
+
+  if (isError(iret = newTarget->ready())) {
+    llog(ERROR, "Failed to ready the recording target: %" PRId64 ", %s", iret, errMessage(iret));
+    goto fail;
+  }
+
+  if (isEnabled(DEBUG))
+    llog(DEBUG, "Flushing %d pre-roll packets to the recording target", (int)buffer.size());
+
+  targetNeedsKeyFrame = buffer.empty();
+  while (!buffer.empty()) {
+    PrerollPacket& p = buffer.front();
+    iret = newTarget->writePacket(p.packet, p.time_base, p.output_stream_index);
+    av_packet_free(&(p.packet));
+    buffer.pop_front();
+    if (isError(iret)) {
+      llog(ERROR, "Failed to write a pre-roll packet to the recording target: %" PRId64 ", %s", iret, errMessage(iret));
+      // what's left doesn't start on a key frame anymore.
+      clearBuffer();
+      goto fail;
+    }
+  }
+
+  target = newTarget;
+  return 0;
+
+  fail:
+  newTarget->fail();
+  {
+    std::lock_guard<std::mutex> lck(pendingLock);
+    recording = false;
+  }
+  return iret;
+}
+
+void PrerollMuxer::stopTarget() {
+  PILECV4J_TRACE;
+  if (target) {
+    uint64_t iret;
+    if (isError(iret = target->close()))
+      llog(ERROR, "Failed to close the recording target: %" PRId64 ", %s", iret, errMessage(iret));
+    target = nullptr;
+  }
+}
+
+uint64_t PrerollMuxer::writePacket(const AVPacket* inputPacket, const AVRational& inputPacketTimeBase, int output_stream_index) {
+  if (output_stream_index < 0 || output_stream_index >= streamParams.size()) {
+    llog(ERROR, "Received a packet for a stream at %d that doesn't exist.", (int)output_stream_index);
+    return MAKE_P_STAT(NO_STREAM);
+  }
+
+  std::lock_guard<std::mutex> tlck(targetLock);
+  Muxer* toStart;
+  {
+    std::lock_guard<std::mutex> lck(pendingLock);
+    toStart = pendingTarget;
+    pendingTarget = nullptr;
+  }
+
+  // a target that can't be started shouldn't stop the remux. The recording is
+  // abandoned and buffering continues.
+  if (toStart && isError(startTarget(toStart)))
+    llog(WARN, "The recording couldn't be started. Continuing to buffer.");
+
+  if (target) {
+    if (targetNeedsKeyFrame) {
+      if (output_stream_index != reference_stream || !isKeyFrame(inputPacket))
+        return 0;
+      targetNeedsKeyFrame = false;
+    }
+    return target->writePacket(inputPacket, inputPacketTimeBase, output_stream_index);
+  }
+
+  return bufferPacket(inputPacket, inputPacketTimeBase, output_stream_index);
+}
+
+uint64_t PrerollMuxer::record(Muxer* newTarget) {
+  PILECV4J_TRACE;
+  if (!newTarget)
+    return MAKE_P_STAT(NO_OUTPUT);
+
+  std::lock_guard<std::mutex> lck(pendingLock);
+  if (recording) {
+    llog(ERROR, "The PrerollMuxer is already recording.");
+    return MAKE_P_STAT(ALREADY_SET);
+  }
+  pendingTarget = newTarget;
+  recording = true;
+  return 0;
+}
+
+uint64_t PrerollMuxer::stopRecording() {
+  PILECV4J_TRACE;
+  // this waits for any packet being written to the target to finish.
+  std::lock_guard<std::mutex> tlck(targetLock);
+  {
+    std::lock_guard<std::mutex> lck(pendingLock);
+    pendingTarget = nullptr;
+    recording = false;
+  }
+  stopTarget();
+  return 0;
+}
+
+bool PrerollMuxer::isRecording() {
+  std::lock_guard<std::mutex> lck(pendingLock);
+  return recording;
+}
+
+//========================================================================
+// Everything here in this extern "C" section is callable from Java
+//========================================================================
+extern "C" {
+  KAI_EXPORT uint64_t pcv4j_ffmpeg2_prerollMuxer_create(int64_t prerollMillis) {
+    PILECV4J_TRACE;
+    Muxer* ret = new PrerollMuxer(prerollMillis);
+    return (uint64_t)ret;
+  }
+
+  KAI_EXPORT uint64_t pcv4j_ffmpeg2_prerollMuxer_record(uint64_t ctx, uint64_t targetRef) {
+    PILECV4J_TRACE;
+    PrerollMuxer* c = (PrerollMuxer*)((Muxer*)ctx);
+    return c->record((Muxer*)targetRef);
+  }
+
+  KAI_EXPORT uint64_t pcv4j_ffmpeg2_prerollMuxer_stopRecording(uint64_t ctx) {
+    PILECV4J_TRACE;
+    PrerollMuxer* c = (PrerollMuxer*)((Muxer*)ctx);
+    return c->stopRecording();
+  }
+
+  KAI_EXPORT int32_t pcv4j_ffmpeg2_prerollMuxer_isRecording(uint64_t ctx) {
+    PILECV4J_TRACE;
+    PrerollMuxer* c = (PrerollMuxer*)((Muxer*)ctx);
+    return c->isRecording() ? 1 : 0;
+  }
+}
+
+}
+} /* namespace pilecv4j */
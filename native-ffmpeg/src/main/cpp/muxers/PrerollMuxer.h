@@ -0,0 +1,153 @@
+/*
+ * PrerollMuxer.h
+ *
+ *  Created on: Oct 19, 2026
+ */
+
+#ifndef _pilecv4j_ffmpeg_PREROLLMUXER_H_
+#define _pilecv4j_ffmpeg_PREROLLMUXER_H_
+
+#include "../api/Muxer.h"
+
+#include <deque>
+#include <mutex>
+#include <vector>
+
+namespace pilecv4j
+{
+namespace ffmpeg
+{
+
+/**
+ * A single packet held in the pre-roll buffer. The packet is a new reference
+ * (av_packet_clone) to the demuxed packet's data so buffering doesn't copy the
+ * compressed payload.
+ */
+struct PrerollPacket {
+  AVPacket* packet;
+  AVRational time_base;
+  int output_stream_index;
+  int64_t timeMillis;
+  bool isReferenceKeyFrame;
+};
+
+/**
+ * This is a muxer that keeps the last prerollMillis worth of (still encoded) packets in memory
+ * rather than writing them anywhere. The buffer always starts on a key frame of the reference
+ * stream (the first video stream, if there is one) so that whatever is in it can be muxed
+ * independently. It's trimmed a GOP at a time so it will hold at least prerollMillis
+ * of media once that much has been seen.
+ *
+ * When record() is called with a target Muxer, the next packet written will cause the target to be
+ * opened, the streams to be created in it, the buffered packets to be flushed to it, and all
+ * subsequent packets to be passed directly to it until stopRecording() is called. At that point the
+ * target is closed (but not deleted, that's left to the owner) and buffering resumes.
+ *
+ * record() and stopRecording() can be called from any thread. Starting a recording happens on
+ * the thread writing packets. Stopping one happens before stopRecording() returns (waiting for a
+ * packet that's being written to finish) so the target can be deleted once it has.
+ *
+ * This is meant to be used as the output of a Remuxer. It only supports streams created
+ * from AVCodecParameters.
+ */
+class PrerollMuxer: public Muxer
+{
+  int64_t prerollMillis;
+
+  bool closed = false;
+  std::vector<AVCodecParameters*> streamParams;
+  int reference_stream = -1;
+
+  std::deque<PrerollPacket> buffer;
+
+  // guards the target, which is set by the writing thread but can be closed from stopRecording.
+  // This is always taken before the pendingLock.
+  std::mutex targetLock;
+
+  // the muxer currently being written to.
+  Muxer* target = nullptr;
+  bool targetNeedsKeyFrame = false;
+  int64_t lastReferenceMillis = AV_NOPTS_VALUE;
+
+  // whether the packets have had timestamps and the time of the last one that did. Until
+  // there's a timestamp the wall clock is used.
+  bool streamTimestamps = false;
+  int64_t lastTimestampMillis = AV_NOPTS_VALUE;
+
+  // guards the pending* fields which are set from the calling threads and
+  // picked up by the writing thread.
+  std::mutex pendingLock;
+  Muxer* pendingTarget = nullptr;
+  bool recording = false;
+
+  uint64_t startTarget(Muxer* newTarget);
+  void stopTarget();
+  void trim();
+  void clearBuffer();
+  int64_t packetTimeMillis(const AVPacket* packet, const AVRational& time_base);
+  uint64_t bufferPacket(const AVPacket* inputPacket, const AVRational& inputPacketTimeBase, int output_stream_index);
+
+public:
+  inline PrerollMuxer(int64_t pprerollMillis) : prerollMillis(pprerollMillis) {}
+
+  virtual ~PrerollMuxer();
+
+  /**
+   * There's nothing to open until a target is set.
+   */
+  virtual uint64_t open() override;
+
+  /**
+   * This will return the format context of the current target if there is one. Otherwise
+   * it returns nullptr.
+   */
+  virtual AVFormatContext* getFormatContext() override;
+
+  virtual uint64_t createNextStream(AVCodecParameters* codecPars, int* stream_index_out) override;
+
+  /**
+   * Creating a stream from an AVCodecContext (that is, encoding into a PrerollMuxer) isn't
+   * supported and will return an error.
+   */
+  virtual uint64_t createNextStream(const AVCodecContext* codec, int* stream_index_out) override;
+
+  /**
+   * There's no header to write until a target is set.
+   */
+  virtual uint64_t ready() override;
+
+  virtual uint64_t writePacket(const AVPacket* inputPacket, const AVRational& inputPacketTimeBase, int output_stream_index) override;
+
+  /**
+   * This will close the current target, if there is one, and free all buffered packets.
+   */
+  virtual uint64_t close() override;
+
+  virtual void fail() override;
+
+  /**
+   * There's no way to know the output format before a target is set so this returns nullptr.
+   */
+  virtual const AVOutputFormat* guessOutputFormat() override;
+
+  /**
+   * Flush the pre-roll to the given target and continue writing to it until stopRecording
+   * is called. This will fail with ALREADY_SET if there's already a recording pending or
+   * in progress. If the target can't be started it's logged, the recording is abandoned,
+   * and buffering continues.
+   */
+  uint64_t record(Muxer* target);
+
+  /**
+   * Close the current target and resume buffering. Once this returns the target (or
+   * a pending one that was never started) isn't referenced by the PrerollMuxer anymore.
+   */
+  uint64_t stopRecording();
+
+  bool isRecording();
+};
+
+}
+} /* namespace pilecv4j */
+
+#endif /* _pilecv4j_ffmpeg_PREROLLMUXER_H_ */
@@ -0,0 +1,414 @@
+/*
+ * DecodedAudioProcessor.cpp
+ *
+ *  Created on: Oct 19, 2026
+ */
+
+#include "api/PacketSourceInfo.h"
+#include "processors/DecodedAudioProcessor.h"
+
+#include "utils/log.h"
+
+#include "common/kog_exports.h"
+#include "utils/timing.h"
+
+extern "C" {
+#include <libavutil/opt.h>
+#include <libavutil/channel_layout.h>
+#include <libswresample/swresample.h>
+}
+
+namespace pilecv4j
+{
+namespace ffmpeg
+{
+
+TIME_DECL(audio_decode);
+TIME_DECL(audio_resample);
+TIME_DECL(audio_handle);
+
+#define COMPONENT "DEAP"
+#define PILECV4J_TRACE RAW_PILECV4J_TRACE(COMPONENT)
+
+inline static void llog(LogLevel llevel, const char *fmt, ...) {
+  va_list args;
+  va_start( args, fmt );
+  log( llevel, COMPONENT, fmt, args );
+  va_end( args );
+}
+
+struct AudioCodecDetails {
+  /**
+   * Codec context.
+   */
+  AVCodecContext* codecCtx = nullptr;
+
+  AVRational time_base;
+
+  /**
+   * Resampler. Available only after the first frame is decoded.
+   */
+  SwrContext* swr = nullptr;
+
+  // what the resampler was set up for. If the decoded frames change, it's rebuilt.
+  AVSampleFormat lastInFormat = AV_SAMPLE_FMT_NONE;
+  int lastInRate = -1;
+  AVChannelLayout lastInLayout = {};
+
+  AVSampleFormat outFormat = AV_SAMPLE_FMT_NONE;
+  int outRate = -1;
+  AVChannelLayout outLayout = {};
+
+  // where the samples after the last ones passed to the callback start. -1 if that's unknown.
+  int64_t nextPtsMillis = -1;
+
+  inline ~AudioCodecDetails() {
+    if (swr != nullptr)
+      swr_free(&swr);
+    if (codecCtx != nullptr)
+      avcodec_free_context(&codecCtx);
+    av_channel_layout_uninit(&lastInLayout);
+    av_channel_layout_uninit(&outLayout);
+  }
+};
+
+uint64_t DecodedAudioProcessor::close() {
+  PILECV4J_TRACE;
+  if (codecs) {
+    for (int i = 0; i < numStreams; i++) {
+      AudioCodecDetails* cd = codecs[i];
+      if (cd) {
+        delete cd;
+        codecs[i] = nullptr;
+      }
+    }
+
+    delete [] codecs;
+    codecs = nullptr;
+  }
+  return 0;
+}
+
+uint64_t DecodedAudioProcessor::setup(PacketSourceInfo* psi, std::vector<std::tuple<std::string,std::string> >& options) {
+  PILECV4J_TRACE;
+  if (!psi)
+    return MAKE_P_STAT(NO_PACKET_SOURCE_INFO);
+
+  uint64_t ret = 0;
+  if (isError(ret = psi->numStreams(&numStreams)))
+    return ret;
+
+  if (numStreams <= 0)
+    return MAKE_P_STAT(NO_STREAM);
+
+  codecs = new AudioCodecDetails*[numStreams];
+  int numAudioStreams = 0;
+  for (int i = 0; i < numStreams; i++) {
+    codecs[i] = nullptr;
+
+    AVStream* lStream;
+    if (isError(ret = psi->getStream(i, &lStream)))
+      return ret;
+
+    if (!lStream) {
+      llog(WARN, "The %d stream in the context is selected but doesn't appear to exist. It will be skipped.", i);
+      continue;
+    }
+
+    AVCodecParameters *pLocalCodecParameters = lStream->codecpar;
+    if (pLocalCodecParameters->codec_type != AVMEDIA_TYPE_AUDIO)
+      continue;
+
+    // check if the decoder exists
+    if (!avcodec_find_decoder(pLocalCodecParameters->codec_id)) {
+      llog(WARN, "ERROR unsupported codec at %d!", i);
+      continue;
+    }
+
+    codecs[i] = new AudioCodecDetails();
+    codecs[i]->time_base = lStream->time_base;
+
+    AVDictionary* opts = nullptr;
+    buildOptions(options, &opts);
+    uint64_t rc = MediaProcessor::open_codec(lStream,&opts,&(codecs[i]->codecCtx), decoderNameSet ? decoderName.c_str() : nullptr);
+    if (isEnabled(INFO) && options.size() > 0 && !isError(rc)) {
+      rebuildOptions(opts, options);
+      std::string header = "after opening the audio decoder for stream ";
+      header += std::to_string(i);
+      logRemainingOptions(INFO, COMPONENT, header.c_str(), options);
+    }
+    if (opts != nullptr)
+      av_dict_free(&opts);
+    if (isError(rc))
+      return rc;
+    numAudioStreams++;
+  }
+
+  if (numAudioStreams == 0)
+    llog(WARN, "There are no decodable audio streams selected.");
+
+  return 0;
+}
+
+uint64_t DecodedAudioProcessor::handlePacket(AVPacket* pPacket, AVMediaType mediaType) {
+  PILECV4J_TRACE;
+  if (codecs == nullptr) {
+    llog(ERROR, "handle packet called on uninitialized DecodedAudioProcessor");
+    return MAKE_P_STAT(NO_SUPPORTED_CODEC);
+  }
+  const int stream_index = pPacket->stream_index;
+  if (stream_index >= 0 && stream_index < numStreams && codecs[stream_index])
+    return decode_packet(codecs[stream_index], pPacket, stream_index);
+  else {
+    if (isEnabled(TRACE))
+      llog(TRACE, "packet passed with no corresponding audio codec.");
+    return 0;
+  }
+}
+
+uint64_t DecodedAudioProcessor::flush() {
+  PILECV4J_TRACE;
+  uint64_t ret = 0;
+  if (codecs) {
+    for (int i = 0; i < numStreams; i++) {
+      AudioCodecDetails* cd = codecs[i];
+      if (!cd)
+        continue;
+      // the samples the resampler is holding on to were decoded before the seek so they're passed on.
+      if (cd->swr) {
+        uint64_t rc = drainResampler(cd, i);
+        if (isError(rc) && !isError(ret))
+          ret = rc;
+        swr_free(&(cd->swr));
+      }
+      if (cd->codecCtx)
+        avcodec_flush_buffers(cd->codecCtx);
+      cd->nextPtsMillis = -1;
+    }
+  }
+  return ret;
+}
+
+uint64_t DecodedAudioProcessor::endOfStream() {
+  PILECV4J_TRACE;
+  if (!codecs)
+    return 0;
+  for (int i = 0; i < numStreams; i++) {
+    AudioCodecDetails* cd = codecs[i];
+    if (!cd || !cd->codecCtx)
+      continue;
+    // a null packet puts the decoder into draining mode.
+    uint64_t rc = decode_packet(cd, nullptr, i);
+    if (isError(rc))
+      return rc;
+    if (isError(rc = drainResampler(cd, i)))
+      return rc;
+    avcodec_flush_buffers(cd->codecCtx);
+  }
+  return 0;
+}
+
+uint64_t DecodedAudioProcessor::drainResampler(AudioCodecDetails* cd, int streamIndex) {
+  if (!cd->swr)
+    return 0;
+  // with no input, swr_convert returns what the resampler has buffered until there's nothing left.
+  while (true) {
+    int numSamples = 0;
+    uint64_t rc = resample(cd, nullptr, 0, cd->nextPtsMillis, streamIndex, &numSamples);
+    if (isError(rc))
+      return rc;
+    if (numSamples == 0)
+      return 0;
+  }
+}
+
+uint64_t DecodedAudioProcessor::configureResampler(AudioCodecDetails* cd, AVFrame* pFrame) {
+  const AVSampleFormat inFormat = (AVSampleFormat)pFrame->format;
+
+  if (cd->swr && inFormat == cd->lastInFormat && pFrame->sample_rate == cd->lastInRate &&
+      av_channel_layout_compare(&(pFrame->ch_layout), &(cd->lastInLayout)) == 0)
+    return 0;
+
+  if (cd->swr) {
+    llog(INFO, "The decoded audio format has changed. Rebuilding the resampler.");
+    swr_free(&(cd->swr));
+  }
+
+  int rc;
+  av_channel_layout_uninit(&(cd->lastInLayout));
+  if (pFrame->ch_layout.order == AV_CHANNEL_ORDER_UNSPEC)
+    av_channel_layout_default(&(cd->lastInLayout), pFrame->ch_layout.nb_channels);
+  else if ((rc = av_channel_layout_copy(&(cd->lastInLayout), &(pFrame->ch_layout))) < 0) {
+    llog(ERROR, "Failed to copy the channel layout: %s", av_err2str(rc));
+    return MAKE_AV_STAT(rc);
+  }
+  cd->lastInFormat = inFormat;
+  cd->lastInRate = pFrame->sample_rate;
+
+  // the output is always interleaved.
+  cd->outFormat = av_get_packed_sample_fmt(requestedSampleFormat < 0 ? inFormat : (AVSampleFormat)requestedSampleFormat);
+  cd->outRate = requestedSampleRate <= 0 ? pFrame->sample_rate : requestedSampleRate;
+  av_channel_layout_uninit(&(cd->outLayout));
+  if (requestedChannels <= 0) {
+    if ((rc = av_channel_layout_copy(&(cd->outLayout), &(cd->lastInLayout))) < 0) {
+      llog(ERROR, "Failed to copy the channel layout: %s", av_err2str(rc));
+      return MAKE_AV_STAT(rc);
+    }
+  } else
+    av_channel_layout_default(&(cd->outLayout), requestedChannels);
+
+  rc = swr_alloc_set_opts2(&(cd->swr), &(cd->outLayout), cd->outFormat, cd->outRate,
+      &(cd->lastInLayout), inFormat, pFrame->sample_rate, 0, nullptr);
+  if (rc < 0) {
+    llog(ERROR, "Failed to allocate the resampler: %s", av_err2str(rc));
+    return MAKE_AV_STAT(rc);
+  }
+
+  if ((rc = swr_init(cd->swr)) < 0) {
+    llog(ERROR, "Failed to initialize the resampler: %s", av_err2str(rc));
+    swr_free(&(cd->swr));
+    return MAKE_AV_STAT(rc);
+  }
+
+  llog(INFO, "Resampling audio from (fmt: %s, rate: %d, channels: %d) to (fmt: %s, rate: %d, channels: %d)",
+      av_get_sample_fmt_name(inFormat), (int)pFrame->sample_rate, (int)cd->lastInLayout.nb_channels,
+      av_get_sample_fmt_name(cd->outFormat), (int)cd->outRate, (int)cd->outLayout.nb_channels);
+
+  return 0;
+}
+
+uint64_t DecodedAudioProcessor::pushFrame(AudioCodecDetails* cd, AVFrame* pFrame, int streamIndex) {
+  uint64_t iret;
+  if (isError(iret = configureResampler(cd, pFrame)))
+    return iret;
+
+  const int64_t ts = pFrame->best_effort_timestamp;
+  const int64_t ptsMillis = ts == AV_NOPTS_VALUE ? (int64_t)-1 : av_rescale_q(ts, cd->time_base, millisecondTimeBase);
+  int numSamples = 0;
+  return resample(cd, (const uint8_t**)pFrame->extended_data, pFrame->nb_samples, ptsMillis, streamIndex, &numSamples);
+}
+
+uint64_t DecodedAudioProcessor::resample(AudioCodecDetails* cd, const uint8_t** in, int inSamples, int64_t ptsMillis, int streamIndex,
+    int* numSamplesOut) {
+  uint64_t iret;
+  *numSamplesOut = 0;
+
+  TIME_OPEN(audio_resample);
+  const int maxOutSamples = swr_get_out_samples(cd->swr, inSamples);
+  if (maxOutSamples < 0) {
+    TIME_CAP(audio_resample);
+    llog(ERROR, "Failed to determine the number of resampled audio samples: %s", av_err2str(maxOutSamples));
+    return MAKE_AV_STAT(maxOutSamples);
+  }
+  if (maxOutSamples == 0) {
+    TIME_CAP(audio_resample);
+    return 0;
+  }
+
+  const int channels = cd->outLayout.nb_channels;
+  const int maxBytes = av_samples_get_buffer_size(nullptr, channels, maxOutSamples, cd->outFormat, 1);
+  if (maxBytes < 0) {
+    TIME_CAP(audio_resample);
+    llog(ERROR, "Failed to determine the size of the resampled audio: %s", av_err2str(maxBytes));
+    return MAKE_AV_STAT(maxBytes);
+  }
+
+  uint8_t* out = (uint8_t*)(*bufferCallback)(maxBytes);
+  if (!out) {
+    TIME_CAP(audio_resample);
+    llog(ERROR, "Failed to get a buffer of %d bytes for the resampled audio", maxBytes);
+    return MAKE_P_STAT(NULL_PARAMETER);
+  }
+
+  const int numSamples = swr_convert(cd->swr, &out, maxOutSamples, in, inSamples);
+  TIME_CAP(audio_resample);
+  if (numSamples < 0) {
+    llog(ERROR, "Failed to resample the audio: %s", av_err2str(numSamples));
+    return MAKE_AV_STAT(numSamples);
+  }
+  if (numSamples == 0)
+    return 0;
+
+  const int numBytes = numSamples * channels * av_get_bytes_per_sample(cd->outFormat);
+  *numSamplesOut = numSamples;
+  cd->nextPtsMillis = ptsMillis < 0 ? (int64_t)-1 : ptsMillis + (((int64_t)numSamples * 1000) / cd->outRate);
+
+  TIME_OPEN(audio_handle);
+  iret = (*callback)(numBytes, numSamples, channels, cd->outRate, (int32_t)cd->outFormat, ptsMillis, streamIndex);
+  TIME_CAP(audio_handle);
+  return iret;
+}
+
+// a null packet drains the decoder.
+uint64_t DecodedAudioProcessor::decode_packet(AudioCodecDetails* codecDetails, AVPacket *pPacket, int streamIndex) {
+  PILECV4J_TRACE;
+
+  TIME_OPEN(audio_decode);
+  int response = avcodec_send_packet(codecDetails->codecCtx, pPacket);
+
+  // AVERROR_EOF just means the decoder has already been drained.
+  if (response == AVERROR_EOF) {
+    TIME_CAP(audio_decode);
+    return 0;
+  }
+  if (response < 0 && response != AVERROR_INVALIDDATA) {
+    TIME_CAP(audio_decode);
+    llog(ERROR, "Error while sending a packet to the audio decoder: %s", av_err2str(response));
+    return MAKE_AV_STAT(response);
+  }
+
+  AVFrame *pFrame = av_frame_alloc();
+  if (!pFrame)
+  {
+    TIME_CAP(audio_decode);
+    llog(ERROR, "failed to allocated memory for AVFrame");
+    return MAKE_P_STAT(FAILED_CREATE_FRAME);
+  }
+
+  uint64_t returnCode = 0;
+  while (response >= 0 && returnCode == 0)
+  {
+    response = avcodec_receive_frame(codecDetails->codecCtx, pFrame);
+    TIME_CAP(audio_decode);
+    if (response == AVERROR(EAGAIN) || response == AVERROR_EOF) {
+      break;
+    } else if (response < 0) {
+      llog(ERROR, "Error while receiving a frame from the audio decoder: %s", av_err2str(response));
+      returnCode = MAKE_AV_STAT(response);
+      break;
+    }
+
+    if (isEnabled(TRACE))
+      llog(TRACE, "Audio frame (samples=%d, format=%d, rate=%d) pts %" PRId64,
+          (int)pFrame->nb_samples, (int)pFrame->format, (int)pFrame->sample_rate, (int64_t)pFrame->best_effort_timestamp);
+
+    returnCode = pushFrame(codecDetails, pFrame, streamIndex);
+    av_frame_unref(pFrame);
+  }
+
+  av_frame_free(&pFrame);
+  return returnCode;
+}
+
+void displayAudioDecodeTiming() {
+  TIME_DISPLAY("decoding audio", audio_decode);
+  TIME_DISPLAY("resampling audio", audio_resample);
+  TIME_DISPLAY("handling audio in java", audio_handle);
+}
+
+extern "C" {
+
+KAI_EXPORT uint64_t pcv4j_ffmpeg2_decodedAudioProcessor_create(get_audio_buffer gab, push_audio pa, int32_t sampleFormat, int32_t sampleRate,
+    int32_t channels, const char* decoderName) {
+  DecodedAudioProcessor* ret = new DecodedAudioProcessor(gab, pa, sampleFormat, sampleRate, channels, decoderName);
+
+  llog(INFO, "Creating DecodedAudioProcessor with sample format %d, sample rate %d, and %d channels",
+      (int)sampleFormat, (int)sampleRate, (int)channels);
+
+  return (uint64_t)((MediaProcessor*)ret);
+}
+
+}
+
+}
+} /* namespace pilecv4j */
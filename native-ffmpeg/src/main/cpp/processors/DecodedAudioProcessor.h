@@ -0,0 +1,91 @@
+/*
+ * DecodedAudioProcessor.h
+ *
+ *  Created on: Oct 19, 2026
+ */
+
+#ifndef _DECODEDAUDIOPROCESSOR_H_
+#define _DECODEDAUDIOPROCESSOR_H_
+
+#include "api/MediaProcessor.h"
+
+namespace pilecv4j
+{
+namespace ffmpeg
+{
+
+/**
+ * This is called to get a buffer of at least numBytes to write the converted samples into.
+ * It should return the address of the buffer or 0 if one couldn't be provided. The buffer
+ * must stay valid until the following call to push_audio.
+ */
+typedef uint64_t (*get_audio_buffer)(int32_t numBytes);
+
+/**
+ * This is called once the samples have been written into the most recently requested buffer.
+ */
+typedef uint64_t (*push_audio)(int32_t numBytes, int32_t numSamples, int32_t numChannels, int32_t sampleRate,
+    int32_t sampleFormat, int64_t ptsMillis, int32_t streamIndex);
+
+struct AudioCodecDetails;
+
+/**
+ * This is a media processor that decodes audio frames, converts them to the requested (interleaved)
+ * sample format, sample rate and number of channels using libswresample, and passes them to the callback
+ * that's been provided to the constructor. The samples are written directly into a buffer supplied by
+ * the get_audio_buffer callback.
+ *
+ * A requested sample format, rate, or number of channels less than zero means to keep whatever the
+ * decoder produces. Planar sample formats are always converted to their packed equivalent.
+ */
+class DecodedAudioProcessor: public MediaProcessor
+{
+  AudioCodecDetails** codecs = nullptr;
+  int32_t numStreams = -1;
+
+  get_audio_buffer bufferCallback;
+  push_audio callback;
+
+  int32_t requestedSampleFormat;
+  int32_t requestedSampleRate;
+  int32_t requestedChannels;
+
+  std::string decoderName;
+  bool decoderNameSet;
+
+  uint64_t decode_packet(AudioCodecDetails* codecDetails, AVPacket *pPacket, int streamIndex);
+  uint64_t configureResampler(AudioCodecDetails* codecDetails, AVFrame* pFrame);
+  uint64_t pushFrame(AudioCodecDetails* codecDetails, AVFrame* pFrame, int streamIndex);
+  uint64_t resample(AudioCodecDetails* codecDetails, const uint8_t** in, int inSamples, int64_t ptsMillis, int streamIndex, int* numSamplesOut);
+  uint64_t drainResampler(AudioCodecDetails* codecDetails, int streamIndex);
+
+public:
+  inline DecodedAudioProcessor(get_audio_buffer pbufferCallback, push_audio pcallback, int32_t psampleFormat, int32_t psampleRate,
+      int32_t pchannels, const char* pdecoderName) : bufferCallback(pbufferCallback), callback(pcallback),
+          requestedSampleFormat(psampleFormat), requestedSampleRate(psampleRate), requestedChannels(pchannels),
+          decoderNameSet(pdecoderName ? true : false) {
+    if (pdecoderName)
+      decoderName = pdecoderName;
+  }
+  virtual ~DecodedAudioProcessor() = default;
+
+  virtual uint64_t setup(PacketSourceInfo* psi, std::vector<std::tuple<std::string,std::string> >& options) override;
+  virtual uint64_t handlePacket(AVPacket* pPacket, AVMediaType packetMediaType) override;
+  /**
+   * The samples still held in the resamplers are passed to the callback before the decoders are reset.
+   */
+  virtual uint64_t flush() override;
+
+  /**
+   * The frames still buffered in the decoders, and then the samples still held in the resamplers, are
+   * passed to the callback.
+   */
+  virtual uint64_t endOfStream() override;
+
+  virtual uint64_t close() override;
+};
+
+}
+} /* namespace pilecv4j */
+
+#endif /* _DECODEDAUDIOPROCESSOR_H_ */
@@ -58,6 +58,8 @@ struct CodecDetails {
 
   AVMediaType mediaType;
 
+  AVRational time_base;
+
   int dstW = -1;
   int dstH = -1;
 
@@ -94,7 +96,6 @@ uint64_t DecodedFrameProcessor::setup(PacketSourceInfo* psi, std::vector<std::tu
     return MAKE_P_STAT(NO_PACKET_SOURCE_INFO);
 
   uint64_t ret = 0;
-  int numStreams;
   if (isError(ret = psi->numStreams(&numStreams)))
     return ret;
 
@@ -139,6 +140,7 @@ uint64_t DecodedFrameProcessor::setup(PacketSourceInfo* psi, std::vector<std::tu
 
     codecs[i] = new CodecDetails();
     codecs[i]->mediaType = pLocalCodecParameters->codec_type;
+    codecs[i]->time_base = lStream->time_base;
 
     AVDictionary* opts = nullptr;
     buildOptions(options, &opts);
@@ -174,6 +176,17 @@ uint64_t DecodedFrameProcessor::handlePacket(AVPacket* pPacket, AVMediaType medi
   }
 }
 
+uint64_t DecodedFrameProcessor::flush() {
+  PILECV4J_TRACE;
+  if (codecs) {
+    for (int i = 0; i < numStreams; i++) {
+      if (codecs[i] && codecs[i]->codecCtx)
+        avcodec_flush_buffers(codecs[i]->codecCtx);
+    }
+  }
+  return 0;
+}
+
 uint64_t DecodedFrameProcessor::decode_packet(CodecDetails* codecDetails, AVPacket *pPacket) {
   PILECV4J_TRACE;
   TIME_GUARD(decode_and_handle);
@@ -241,9 +254,12 @@ uint64_t DecodedFrameProcessor::decode_packet(CodecDetails* codecDetails, AVPack
           codecDetails->lastFormatUsed, codecDetails->dstW, codecDetails->dstH, requestedPixFormat);
       TIME_CAP(create_mat);
 
+      const int64_t ts = pFrame->best_effort_timestamp;
+      const int64_t ptsMillis = ts == AV_NOPTS_VALUE ? (int64_t)-1 : av_rescale_q(ts, codecDetails->time_base, millisecondTimeBase);
+
       TIME_OPEN(handle);
       // management of the mat is passed to the
-      returnCode = (*callback)(mat, isRgb, pPacket->stream_index);
+      returnCode = (*callback)(mat, isRgb, ptsMillis, pPacket->stream_index);
       TIME_CAP(handle);
 
       IMakerManager::freeImage(mat);
@@ -22,9 +22,10 @@ namespace ffmpeg
 {
 
 /**
- * This one is what we push decoded frames to.
+ * This one is what we push decoded frames to. ptsMillis is the presentation time of the
+ * frame in milliseconds or -1 if it's not known.
  */
-typedef uint64_t (*push_frame)(uint64_t frame, int32_t isRgb, int32_t streamIndex);
+typedef uint64_t (*push_frame)(uint64_t frame, int32_t isRgb, int64_t ptsMillis, int32_t streamIndex);
 
 struct CodecDetails;
 
@@ -59,6 +60,7 @@ public:
 
   virtual uint64_t setup(PacketSourceInfo* psi, std::vector<std::tuple<std::string,std::string> >& options) override;
   virtual uint64_t handlePacket(AVPacket* pPacket, AVMediaType packetMediaType) override;
+  virtual uint64_t flush() override;
 
   virtual uint64_t close() override;
 
@@ -199,12 +199,6 @@ uint64_t Remuxer::remuxPacket(const AVPacket * inPacket) {
     return MAKE_P_STAT(NO_OUTPUT);
   }
 
-  AVFormatContext* output_format_context = output->getFormatContext();
-  if (!output_format_context) {
-    llog(ERROR, "Can't remux packet without an output AVFormatContext");
-    return MAKE_P_STAT(NO_OUTPUT);
-  }
-
   int input_stream_index = inPacket->stream_index;
   int output_stream_index = streams_list[input_stream_index];
   if (output_stream_index < 0)
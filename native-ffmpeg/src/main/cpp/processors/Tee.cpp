@@ -0,0 +1,356 @@
+/*
+ * Tee.cpp
+ *
+ *  Created on: Oct 19, 2026
+ */
+
+#include "processors/Tee.h"
+
+#include "utils/log.h"
+
+#include "common/kog_exports.h"
+
+#include <atomic>
+
+namespace pilecv4j
+{
+namespace ffmpeg
+{
+
+#define COMPONENT "TEE "
+#define PILECV4J_TRACE RAW_PILECV4J_TRACE(COMPONENT)
+
+inline static void llog(LogLevel llevel, const char *fmt, ...) {
+  va_list args;
+  va_start( args, fmt );
+  log( llevel, COMPONENT, fmt, args );
+  va_end( args );
+}
+
+// a QueuedPacket with a null packet is a request to flush the branch or, if endOfStream is set, the end of the stream.
+struct QueuedPacket {
+  AVPacket* packet;
+  AVMediaType mediaType;
+  bool endOfStream;
+};
+
+struct TeeBranch {
+  MediaProcessor* processor;
+  int32_t maxQueuedPackets;
+  int32_t index;
+
+  std::atomic<bool> failed{false};
+  std::atomic<uint64_t> lastError{0};
+  std::atomic<int64_t> dropped{0};
+
+  // only touched by the thread reading the source
+  bool waitForKeyFrame = false;
+  bool sawVideo = false;
+
+  // the queue and worker thread for asynchronous branches
+  std::mutex lock;
+  std::condition_variable cond;
+  std::deque<QueuedPacket> queue;
+  bool stop = false;
+  std::thread worker;
+
+  inline TeeBranch(MediaProcessor* pprocessor, int32_t pmaxQueuedPackets, int32_t pindex) :
+    processor(pprocessor), maxQueuedPackets(pmaxQueuedPackets), index(pindex) {}
+
+  inline bool isQueued() {
+    return maxQueuedPackets > 0;
+  }
+
+  inline void fail(uint64_t rc) {
+    llog(ERROR, "Branch %d of the tee failed and is being removed: %" PRId64 ", %s", (int)index, rc, errMessage(rc));
+    lastError = rc;
+    failed = true;
+  }
+
+  inline void clearQueue() {
+    for (auto& qp : queue) {
+      if (qp.packet)
+        av_packet_free(&(qp.packet));
+    }
+    queue.clear();
+  }
+};
+
+static void runBranch(TeeBranch* b) {
+  PILECV4J_TRACE;
+  while (true) {
+    QueuedPacket qp;
+    {
+      std::unique_lock<std::mutex> lck(b->lock);
+      b->cond.wait(lck, [b]{ return b->stop || !b->queue.empty(); });
+      // drain what's been queued before exiting so the end of the stream makes it to the output.
+      if (b->queue.empty())
+        break;
+      qp = b->queue.front();
+      b->queue.pop_front();
+    }
+
+    uint64_t rc;
+    if (qp.packet) {
+      rc = b->processor->handlePacket(qp.packet, qp.mediaType);
+      av_packet_free(&(qp.packet));
+    } else if (qp.endOfStream)
+      rc = b->processor->endOfStream();
+    else
+      rc = b->processor->flush();
+
+    if (isError(rc)) {
+      b->fail(rc);
+      std::lock_guard<std::mutex> lck(b->lock);
+      b->clearQueue();
+      break;
+    }
+  }
+}
+
+Tee::~Tee() {
+  PILECV4J_TRACE;
+  if (!closed)
+    close();
+  for (auto b : branches)
+    delete b;
+  branches.clear();
+}
+
+uint64_t Tee::addBranch(MediaProcessor* branch, int32_t maxQueuedPackets) {
+  PILECV4J_TRACE;
+  if (!branch)
+    return MAKE_P_STAT(NO_PROCESSOR_SET);
+  if (started) {
+    llog(ERROR, "Can't add a branch to a tee that's already started.");
+    return MAKE_P_STAT(BAD_STATE);
+  }
+  branches.push_back(new TeeBranch(branch, maxQueuedPackets < 0 ? 0 : maxQueuedPackets, (int32_t)branches.size()));
+  return 0;
+}
+
+int64_t Tee::droppedPackets(int32_t branchIndex) {
+  if (branchIndex < 0 || branchIndex >= (int32_t)branches.size())
+    return -1;
+  return branches[branchIndex]->dropped;
+}
+
+bool Tee::failed(int32_t branchIndex) {
+  if (branchIndex < 0 || branchIndex >= (int32_t)branches.size())
+    return false;
+  return branches[branchIndex]->failed;
+}
+
+uint64_t Tee::allFailed() {
+  for (auto b : branches) {
+    if (!b->failed)
+      return 0;
+  }
+  if (branches.size() == 0)
+    return 0;
+  llog(ERROR, "All of the branches of the tee have failed.");
+  return lastError ? lastError : MAKE_P_STAT(NO_PROCESSOR_SET);
+}
+
+uint64_t Tee::setup(PacketSourceInfo* psi, std::vector<std::tuple<std::string,std::string> >& options) {
+  PILECV4J_TRACE;
+  // a branch that can't be set up (e.g. a remuxer that can't open its output) is dropped
+  // rather than taking down the others.
+  for (auto b : branches) {
+    uint64_t rc = b->processor->setup(psi, options);
+    if (isError(rc)) {
+      b->fail(rc);
+      lastError = rc;
+    }
+  }
+  return allFailed();
+}
+
+uint64_t Tee::preFirstFrame() {
+  PILECV4J_TRACE;
+  for (auto b : branches) {
+    if (b->failed)
+      continue;
+    uint64_t rc = b->processor->preFirstFrame();
+    if (isError(rc)) {
+      b->fail(rc);
+      lastError = rc;
+    }
+  }
+
+  for (auto b : branches) {
+    if (b->isQueued() && !b->failed)
+      b->worker = std::thread(runBranch, b);
+  }
+  started = true;
+  return allFailed();
+}
+
+uint64_t Tee::handlePacket(AVPacket* pPacket, AVMediaType streamMediaType) {
+  int numLive = 0;
+  for (auto b : branches) {
+    if (b->failed) {
+      lastError = b->lastError;
+      continue;
+    }
+
+    if (!b->isQueued()) {
+      uint64_t rc = b->processor->handlePacket(pPacket, streamMediaType);
+      if (isError(rc)) {
+        b->fail(rc);
+        lastError = rc;
+        continue;
+      }
+      numLive++;
+      continue;
+    }
+
+    numLive++;
+
+    const bool isVideo = streamMediaType == AVMEDIA_TYPE_VIDEO;
+    if (isVideo)
+      b->sawVideo = true;
+    // once packets have been dropped we can only resume on a key frame. If there's video
+    // it needs to be a video key frame.
+    const bool canResume = (pPacket->flags & AV_PKT_FLAG_KEY) && (isVideo || !b->sawVideo);
+
+    std::lock_guard<std::mutex> lck(b->lock);
+    if ((int32_t)b->queue.size() >= b->maxQueuedPackets) {
+      if (!b->waitForKeyFrame)
+        llog(WARN, "Branch %d of the tee can't keep up. Dropping packets.", (int)b->index);
+      b->waitForKeyFrame = true;
+      b->dropped++;
+      continue;
+    }
+
+    if (b->waitForKeyFrame && !canResume) {
+      b->dropped++;
+      continue;
+    }
+
+    // this is a new reference to the packet's data, not a copy.
+    AVPacket* packet = av_packet_clone(pPacket);
+    if (!packet) {
+      llog(ERROR, "Failed to clone a packet for branch %d of the tee", (int)b->index);
+      b->dropped++;
+      b->waitForKeyFrame = true;
+      continue;
+    }
+
+    b->waitForKeyFrame = false;
+    b->queue.push_back(QueuedPacket{ packet, streamMediaType, false });
+    b->cond.notify_one();
+  }
+
+  if (numLive == 0)
+    return allFailed();
+
+  return 0;
+}
+
+uint64_t Tee::flush() {
+  PILECV4J_TRACE;
+  for (auto b : branches) {
+    if (b->failed)
+      continue;
+
+    if (!b->isQueued()) {
+      uint64_t rc = b->processor->flush();
+      if (isError(rc)) {
+        b->fail(rc);
+        lastError = rc;
+      }
+      continue;
+    }
+
+    std::lock_guard<std::mutex> lck(b->lock);
+    // anything still queued is from before the source was repositioned.
+    b->clearQueue();
+    b->queue.push_back(QueuedPacket{ nullptr, AVMEDIA_TYPE_UNKNOWN, false });
+    b->waitForKeyFrame = false;
+    b->cond.notify_one();
+  }
+  return 0;
+}
+
+uint64_t Tee::endOfStream() {
+  PILECV4J_TRACE;
+  for (auto b : branches) {
+    if (b->failed)
+      continue;
+
+    if (!b->isQueued()) {
+      uint64_t rc = b->processor->endOfStream();
+      if (isError(rc)) {
+        b->fail(rc);
+        lastError = rc;
+      }
+      continue;
+    }
+
+    // unlike a flush, what's queued is still handled first.
+    std::lock_guard<std::mutex> lck(b->lock);
+    b->queue.push_back(QueuedPacket{ nullptr, AVMEDIA_TYPE_UNKNOWN, true });
+    b->cond.notify_one();
+  }
+  return 0;
+}
+
+uint64_t Tee::stopBranches() {
+  PILECV4J_TRACE;
+  for (auto b : branches) {
+    if (b->worker.joinable()) {
+      {
+        std::lock_guard<std::mutex> lck(b->lock);
+        b->stop = true;
+        b->cond.notify_one();
+      }
+      b->worker.join();
+    }
+    std::lock_guard<std::mutex> lck(b->lock);
+    b->clearQueue();
+  }
+  return 0;
+}
+
+uint64_t Tee::close() {
+  PILECV4J_TRACE;
+  if (!closed) {
+    stopBranches();
+    closed = true;
+  }
+  return 0;
+}
+
+//========================================================================
+// Everything here in this extern "C" section is callable from Java
+//========================================================================
+extern "C" {
+
+  KAI_EXPORT uint64_t pcv4j_ffmpeg2_tee_create() {
+    PILECV4J_TRACE;
+    MediaProcessor* ret = new Tee();
+    return (uint64_t)ret;
+  }
+
+  KAI_EXPORT uint64_t pcv4j_ffmpeg2_tee_addBranch(uint64_t teeRef, uint64_t mediaProcessor, int32_t maxQueuedPackets) {
+    PILECV4J_TRACE;
+    Tee* c = (Tee*)((MediaProcessor*)teeRef);
+    if (isEnabled(DEBUG))
+      llog(DEBUG, "Adding branch at %" PRId64 " to tee at %" PRId64 " with a queue size of %d", mediaProcessor, teeRef, (int)maxQueuedPackets);
+    return c->addBranch((MediaProcessor*)mediaProcessor, maxQueuedPackets);
+  }
+
+  KAI_EXPORT int64_t pcv4j_ffmpeg2_tee_droppedPackets(uint64_t teeRef, int32_t branchIndex) {
+    Tee* c = (Tee*)((MediaProcessor*)teeRef);
+    return c->droppedPackets(branchIndex);
+  }
+
+  KAI_EXPORT int32_t pcv4j_ffmpeg2_tee_failed(uint64_t teeRef, int32_t branchIndex) {
+    Tee* c = (Tee*)((MediaProcessor*)teeRef);
+    return c->failed(branchIndex) ? 1 : 0;
+  }
+}
+
+}
+} /* namespace pilecv4j */
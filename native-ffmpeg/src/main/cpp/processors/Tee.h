@@ -0,0 +1,101 @@
+/*
+ * Tee.h
+ *
+ *  Created on: Oct 19, 2026
+ */
+
+#ifndef _pilecv4j_ffmpeg_TEE_H_
+#define _pilecv4j_ffmpeg_TEE_H_
+
+#include "api/MediaProcessor.h"
+
+#include <condition_variable>
+#include <deque>
+#include <mutex>
+#include <thread>
+#include <vector>
+
+namespace pilecv4j
+{
+namespace ffmpeg
+{
+
+struct TeeBranch;
+
+/**
+ * This is a media processor that hands every packet it receives to each of a number of
+ * branches (usually MediaProcessorChains). It lets one demuxed source feed several outputs
+ * (e.g. an archive file, a live stream and a preview) without reading the source more than once.
+ *
+ * Branches are isolated from one another. If a branch returns an error it's logged and the branch
+ * is dropped from the tee while the others continue. The tee itself only returns an error once all
+ * of its branches have failed.
+ *
+ * A branch can be synchronous, in which case it's called on the thread reading the source, or it
+ * can be given a bounded queue (maxQueuedPackets > 0) in which case it runs on its own thread. When
+ * a queued branch can't keep up, packets for it are dropped (rather than stalling the source and the
+ * other branches) until the queue has room and a key frame arrives.
+ *
+ * The Tee doesn't own its branches. They need to outlive it.
+ */
+class Tee: public MediaProcessor
+{
+  std::vector<TeeBranch*> branches;
+  bool started = false;
+  bool closed = false;
+
+  uint64_t lastError = 0;
+
+  uint64_t stopBranches();
+
+  // returns the error to report if every branch has failed. Otherwise 0.
+  uint64_t allFailed();
+
+public:
+  Tee() = default;
+
+  virtual ~Tee();
+
+  /**
+   * Add a branch. If maxQueuedPackets is zero the branch is called synchronously.
+   */
+  uint64_t addBranch(MediaProcessor* branch, int32_t maxQueuedPackets);
+
+  /**
+   * The total number of packets that were dropped for the branch at the given index
+   * because its queue was full.
+   */
+  int64_t droppedPackets(int32_t branchIndex);
+
+  /**
+   * Returns true if the branch at the given index failed (including failing to be set up) and
+   * was removed from the tee.
+   */
+  bool failed(int32_t branchIndex);
+
+  virtual uint64_t setup(PacketSourceInfo* psi, std::vector<std::tuple<std::string,std::string> >& options) override;
+
+  virtual uint64_t preFirstFrame() override;
+
+  virtual uint64_t handlePacket(AVPacket* pPacket, AVMediaType streamMediaType) override;
+
+  /**
+   * Queued branches drop whatever hasn't been processed yet and are flushed on their own thread.
+   */
+  virtual uint64_t flush() override;
+
+  /**
+   * Queued branches get the end of the stream after everything already queued.
+   */
+  virtual uint64_t endOfStream() override;
+
+  /**
+   * This will stop the threads for any queued branches. It doesn't close the branches themselves.
+   */
+  virtual uint64_t close() override;
+};
+
+}
+} /* namespace pilecv4j */
+
+#endif /* _pilecv4j_ffmpeg_TEE_H_ */
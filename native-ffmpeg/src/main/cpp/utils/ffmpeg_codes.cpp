@@ -72,5 +72,25 @@ KAI_EXPORT int32_t  pcv4j_ffmpeg2_mediaType_ATTACHMENT() {
 KAI_EXPORT int32_t  pcv4j_ffmpeg2_mediaType_NB() {
   return AVMEDIA_TYPE_NB;
 }
+
+KAI_EXPORT int32_t pcv4j_ffmpeg2_sampleFormat_U8() {
+  return AV_SAMPLE_FMT_U8;
+}
+
+KAI_EXPORT int32_t pcv4j_ffmpeg2_sampleFormat_S16() {
+  return AV_SAMPLE_FMT_S16;
+}
+
+KAI_EXPORT int32_t pcv4j_ffmpeg2_sampleFormat_S32() {
+  return AV_SAMPLE_FMT_S32;
+}
+
+KAI_EXPORT int32_t pcv4j_ffmpeg2_sampleFormat_FLT() {
+  return AV_SAMPLE_FMT_FLT;
+}
+
+KAI_EXPORT int32_t pcv4j_ffmpeg2_sampleFormat_DBL() {
+  return AV_SAMPLE_FMT_DBL;
+}
 }
 
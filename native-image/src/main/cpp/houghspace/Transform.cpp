@@ -19,7 +19,9 @@
 
 #include <cstdint>
 #include <stdio.h>
-#include <list>
+#include <algorithm>
+#include <thread>
+#include <vector>
 #include "common/jfloats.h"
 #include "common/kog_exports.h"
 
@@ -27,21 +29,14 @@ using namespace std;
 
 typedef int32_t (*AddHoughSpaceEntryContributorFunc)(int32_t orow, int32_t ocol,int32_t hsr, int32_t hsc, int32_t hscount);
 
+// A single vote from an edge pixel at orow,ocol into the hough space at hsindex.
 struct BackMap
 {
-  BackMap(int orow, int ocol)
-  {
-    this->orow = orow;
-    this->ocol = ocol;
-  }
-
-  int orow;
-  int ocol;
+  int32_t hsindex;
+  int32_t orow;
+  int32_t ocol;
 };
 
-typedef BackMap* BackMapPtr;
-
-
 static inline int smaskcheck(unsigned char * mask, int32_t maskw, int32_t maskh, int r, int c, unsigned char EDGE)
 {
   return (r >= 0 && r < maskh && c >= 0 && c < maskw) ? (mask[(r * maskw) + c] == EDGE) : 0;
@@ -59,8 +54,8 @@ static void sweep(int32_t orow, int32_t ocol, int32_t row, int32_t col, int16_t*
            unsigned char* mask, int32_t maskw, int32_t maskh, int32_t maskcr, int32_t maskcc,
            unsigned char* gradDirMask, int32_t /*gdmaskw*/, int32_t /*gdmaskh*/, int32_t /*gdmaskcr*/, int32_t /*gdmaskcc*/,
            short gradientDirByte, short gradientDirSlopBytePM,
-           double /*quantFactor*/, unsigned char EDGE, int houghThreshold = -1,short* interimHoughSpace = NULL,
-           list<BackMapPtr>** backMapListSpace = NULL)
+           double /*quantFactor*/, unsigned char EDGE, int houghThreshold = -1, const short* interimHoughSpace = NULL,
+           vector<BackMap>* backMap = NULL)
 {
   int maxbincount = -1;
   int maxbinpos = -1;
@@ -114,151 +109,331 @@ static void sweep(int32_t orow, int32_t ocol, int32_t row, int32_t col, int16_t*
       if (houghSpace)
         houghSpace[maxbinpos]++;
 
-      if (backMapListSpace)
-      {
-        list<BackMapPtr>* bmlist = backMapListSpace[maxbinpos];
-
-        if (bmlist == NULL)
-        {
-          bmlist = new list<BackMapPtr>;
-          backMapListSpace[maxbinpos] = bmlist;
-        }
-
-        bmlist->push_back(new BackMap(orow,ocol));
-      }
+      if (backMap)
+        backMap->push_back(BackMap{ maxbinpos, orow, ocol });
     }
   }
 }
 
-extern "C" {
-KAI_EXPORT void pilecv4j_image_Transform_houghTransformNative(uint64_t imageA, int32_t width, int32_t /*height*/, uint64_t gradientDirImageA,
- void* mask, int32_t maskw, int32_t maskh, int32_t maskcr, int32_t maskcc,
- void* gradientDirMask, int32_t gdmaskw, int32_t gdmaskh, int32_t gdmaskcr, int32_t gdmaskcc,
- float64_t gradientDirSlopDeg, float64_t quantFactor, int16_t* ret, int32_t hswidth, int32_t hsheight,
- AddHoughSpaceEntryContributorFunc hsem, int32_t houghThreshold, int32_t rowstart, int32_t rowend, int32_t colstart, int32_t colend,
- unsigned char EDGE)
+struct HoughParams
 {
-  short gradientDirSlopBytePM = (short)((1.0 + gradientDirSlopDeg * (256.0/360.0))/2.0);
-
-  int32_t hssize = hswidth * hsheight;
-  short * interimht = new short[ hssize ];
-  list<BackMapPtr>** backMapListSpace = new list<BackMapPtr>*[ hssize ];
-
-  void* image = (void*) imageA;
-  void* gradientDirImage = (void*) gradientDirImageA;
-
-  for ( int i = 0; i < hssize; i++)
-  {
-    interimht[i] = ret[i] = 0;
-    backMapListSpace[i] = NULL;
-  }
-
-  int pos;
+  unsigned char* image;
+  int32_t width;
+  unsigned char* gradientDirImage;
+  unsigned char* mask;
+  int32_t maskw, maskh, maskcr, maskcc;
+  unsigned char* gradientDirMask;
+  int32_t gdmaskw, gdmaskh, gdmaskcr, gdmaskcc;
+  short gradientDirSlopBytePM;
+  float64_t quantFactor;
+  int32_t hswidth, hsheight;
+  // where hswidth x hsheight hough space starts in the full hough space
+  int32_t hsrowstart, hscolstart;
+  int32_t colstart, colend;
+  unsigned char EDGE;
+};
 
-  // This loop will fill in the interimht array with the houghspace calculation
-  // results by sweeping the mask through every position over the original edge
-  // image. Each position in interimht will then contain a count of how many edge
-  // locations in the original edge image indicate a possible center at that
-  // (interimht) position.
+// This will fill in the interimht array with the houghspace calculation
+// results by sweeping the mask through every position over the original edge
+// image. Each position in interimht will then contain a count of how many edge
+// locations in the original edge image indicate a possible center at that
+// (interimht) position.
+static void votePass(const HoughParams& p, int32_t rowstart, int32_t rowend, int16_t* interimht)
+{
   for (int r = rowstart; r <= rowend; r++)
   {
-    pos = (r * width) + colstart;
-    for (int c = colstart; c <= colend; c++, pos++)
+    int pos = (r * p.width) + p.colstart;
+    for (int c = p.colstart; c <= p.colend; c++, pos++)
     {
-      unsigned char v = ((unsigned char*)image)[pos];
-      if (v == EDGE)
+      unsigned char v = p.image[pos];
+      if (v == p.EDGE)
       {
-        int hsrow = (int)(((double)r)/quantFactor);
-        int hscol = (int)(((double)c)/quantFactor);
+        int hsrow = (int)(((double)r)/p.quantFactor) - p.hsrowstart;
+        int hscol = (int)(((double)c)/p.quantFactor) - p.hscolstart;
 
         // Calling sweep to accumulate "votes" into interim ht with the mask centered at
         // r,c. Remember, the mask contains NON-ZERO whereever the center of the model
         // can be if the center of the mask in placed over an edge in the original image.
-        sweep(r,c,hsrow,hscol,interimht,hswidth,hsheight,
-              (unsigned char*)mask,maskw,maskh,maskcr,maskcc,
-              (unsigned char*)gradientDirMask,gdmaskw,gdmaskh,gdmaskcr,gdmaskcc,
-              (short)(((unsigned char*)gradientDirImage)[pos]),
-              gradientDirSlopBytePM, quantFactor, EDGE);
+        sweep(r,c,hsrow,hscol,interimht,p.hswidth,p.hsheight,
+              p.mask,p.maskw,p.maskh,p.maskcr,p.maskcc,
+              p.gradientDirMask,p.gdmaskw,p.gdmaskh,p.gdmaskcr,p.gdmaskcc,
+              (short)(p.gradientDirImage[pos]),
+              p.gradientDirSlopBytePM, p.quantFactor, p.EDGE);
       }
     }
   }
+}
 
-  // now 'back map' the current ht
+// now 'back map' the current ht. Each edge pixel votes only for the position in
+// the interim ht with the most votes that it could have contributed to.
+static void backMapPass(const HoughParams& p, int32_t rowstart, int32_t rowend, const int16_t* interimht, int16_t* ret,
+                        vector<BackMap>* backMap)
+{
   for (int r = rowstart; r <= rowend; r++)
   {
-    pos = (r * width) + colstart;
-    for (int c = colstart; c <= colend; c++, pos++)
+    int pos = (r * p.width) + p.colstart;
+    for (int c = p.colstart; c <= p.colend; c++, pos++)
     {
-      unsigned char v = ((unsigned char*)image)[pos];
-      if (v == EDGE)
+      unsigned char v = p.image[pos];
+      if (v == p.EDGE)
       {
-        int hsrow = (int)(((double)r)/quantFactor);
-        int hscol = (int)(((double)c)/quantFactor);
-
-        sweep(r,c,hsrow,hscol,ret,hswidth,hsheight,
-              (unsigned char*)mask,maskw, maskh, maskcr, maskcc,
-              (unsigned char*)gradientDirMask,gdmaskw,gdmaskh,gdmaskcr,gdmaskcc,
-              (short)(((unsigned char*)gradientDirImage)[pos]),
-              gradientDirSlopBytePM,quantFactor, EDGE,-1,interimht,backMapListSpace);
+        int hsrow = (int)(((double)r)/p.quantFactor) - p.hsrowstart;
+        int hscol = (int)(((double)c)/p.quantFactor) - p.hscolstart;
+
+        sweep(r,c,hsrow,hscol,ret,p.hswidth,p.hsheight,
+              p.mask,p.maskw, p.maskh, p.maskcr, p.maskcc,
+              p.gradientDirMask,p.gdmaskw,p.gdmaskh,p.gdmaskcr,p.gdmaskcc,
+              (short)(p.gradientDirImage[pos]),
+              p.gradientDirSlopBytePM,p.quantFactor, p.EDGE,-1,interimht,backMap);
       }
     }
   }
+}
 
-  bool exceptionHappens = false;
-  int bmlistcount = 0;
-  for (int hsr = 0; hsr < hsheight && !exceptionHappens; hsr++)
-  {
-    for (int hsc = 0; hsc < hswidth && !exceptionHappens; hsc++)
-    {
-      int hsindex = (hsr * hswidth) + hsc;
-      list<BackMapPtr>* bmlist = backMapListSpace[hsindex];
+// sum the per thread accumulators into the first one. This is also split up
+// across the threads by range of the hough space.
+static void mergeAccumulators(vector<int16_t*>& accumulators, int32_t hssize)
+{
+  const int numThreads = (int)accumulators.size();
+  if (numThreads == 1)
+    return;
 
-      if (bmlist)
+  vector<thread> threads;
+  for (int t = 0; t < numThreads; t++)
+  {
+    int32_t start = (int32_t)(((int64_t)hssize * t) / numThreads);
+    int32_t end = (int32_t)(((int64_t)hssize * (t + 1)) / numThreads);
+    threads.push_back(thread([&accumulators, numThreads, start, end]() {
+      int16_t* dst = accumulators[0];
+      for (int a = 1; a < numThreads; a++)
       {
-        // do a consistency check
-        int listcount = static_cast<int>(bmlist->size());
-        int hscount = (int)ret[hsindex];
-
-        if (hscount != listcount) {
-          fprintf(stderr, " Problem: hough space entry %d,%d has %d backmapped entries yet %d entrie\n",
-                 hsr,hsc,listcount,hscount);
-          fflush(stderr);
-        }
-
-        if (listcount >= houghThreshold)
-        {
-          list<BackMapPtr>::const_iterator iter;
-          for (iter = bmlist->begin(); iter != bmlist->end() && !exceptionHappens; iter++)
-          {
-            BackMap* bm = (*iter);
-            exceptionHappens = !((*hsem)((int32_t)bm->orow,(int32_t)bm->ocol,(int32_t)hsr,(int32_t)hsc,(int32_t)hscount));
-          }
-        }
+        const int16_t* src = accumulators[a];
+        for (int32_t i = start; i < end; i++)
+          dst[i] += src[i];
       }
-    }
+    }));
   }
+  for (auto& th : threads)
+    th.join();
+}
 
-  // clean up the space
-  for ( int i = 0; i < hssize; i++)
+// Run both passes of the transform over the rows split into one stripe per thread.
+// Each thread accumulates into its own private hough space and back map which are merged once
+// all of the threads are finished with the pass. On return 'ret' contains the transform and
+// 'contributors' contains the row,col pairs of all of the edge pixels that voted, grouped by
+// hough space position, with the pixels for each position in image order. 'offsets' has
+// hssize + 1 entries where the pixels that voted for hough space position i are the pairs
+// offsets[i] through offsets[i + 1] - 1.
+static void houghTransform(const HoughParams& p, int32_t rowstart, int32_t rowend, int32_t numThreads,
+                           int16_t* ret, vector<int32_t>& offsets, vector<int32_t>& contributors)
+{
+  const int32_t hssize = p.hswidth * p.hsheight;
+  const int32_t numRows = rowend - rowstart + 1;
+  if (numThreads > numRows)
+    numThreads = numRows;
+  if (numThreads < 1)
+    numThreads = 1;
+
+  vector<int32_t> stripeStart;
+  for (int t = 0; t <= numThreads; t++)
+    stripeStart.push_back(rowstart + (int32_t)(((int64_t)numRows * t) / numThreads));
+
+  for (int i = 0; i < hssize; i++)
+    ret[i] = 0;
+
+  // ===========================================================
+  // first pass into the interim hough space
+  vector<int16_t*> interims;
+  for (int t = 0; t < numThreads; t++)
+    interims.push_back(new int16_t[hssize]());
+
+  if (numThreads == 1)
+    votePass(p, rowstart, rowend, interims[0]);
+  else
   {
-    list<BackMapPtr>* bmlist = backMapListSpace[i];
-    if (bmlist)
+    vector<thread> threads;
+    for (int t = 0; t < numThreads; t++)
+      threads.push_back(thread(votePass, std::cref(p), stripeStart[t], stripeStart[t + 1] - 1, interims[t]));
+    for (auto& th : threads)
+      th.join();
+    mergeAccumulators(interims, hssize);
+  }
+
+  const int16_t* interimht = interims[0];
+  // the interim accumulators other than the merged one aren't needed anymore
+  for (int t = 1; t < numThreads; t++)
+    delete [] interims[t];
+
+  // ===========================================================
+  // second pass, the back mapping
+  vector<vector<BackMap> > backMaps(numThreads);
+  if (numThreads == 1)
+    backMapPass(p, rowstart, rowend, interimht, ret, &backMaps[0]);
+  else
+  {
+    vector<int16_t*> rets;
+    rets.push_back(ret);
+    for (int t = 1; t < numThreads; t++)
+      rets.push_back(new int16_t[hssize]());
+
+    vector<thread> threads;
+    for (int t = 0; t < numThreads; t++)
+      threads.push_back(thread(backMapPass, std::cref(p), stripeStart[t], stripeStart[t + 1] - 1, interimht, rets[t], &backMaps[t]));
+    for (auto& th : threads)
+      th.join();
+    mergeAccumulators(rets, hssize);
+
+    for (int t = 1; t < numThreads; t++)
+      delete [] rets[t];
+  }
+  delete [] interims[0];
+
+  // ===========================================================
+  // Group the votes by hough space position. This is a counting sort so the
+  // votes for each position stay in image order since the stripes are in order.
+  // The count for each position is the number of votes it got (kept as an int
+  // so it doesn't overflow the way the short hough space can).
+  offsets.assign(hssize + 1, 0);
+  for (auto& bm : backMaps)
+    for (auto& v : bm)
+      offsets[v.hsindex + 1]++;
+  for (int32_t i = 0; i < hssize; i++)
+    offsets[i + 1] += offsets[i];
+
+  contributors.resize(2 * (size_t)offsets[hssize]);
+  vector<int32_t> next(offsets.begin(), offsets.end() - 1);
+  for (auto& bm : backMaps)
+  {
+    for (auto& v : bm)
     {
-      //free all of the entries
-      list<BackMapPtr>::const_iterator iter;
-      for (iter = bmlist->begin(); iter != bmlist->end(); iter++)
-      {
-        BackMap* bm = (*iter);
-        delete bm;
-      }
+      const size_t pos = 2 * (size_t)(next[v.hsindex]++);
+      contributors[pos] = v.orow;
+      contributors[pos + 1] = v.ocol;
+    }
+    vector<BackMap>().swap(bm); // free as we go
+  }
+}
+
+// The results of the transform that are handed back to the java side. Only the
+// hough space positions with at least houghThreshold contributors are kept.
+struct HoughBackMap
+{
+  vector<int32_t> offsets;
+  vector<int32_t> contributors;
+  vector<int32_t> hsIndexes;
+  int32_t numContributors;
+};
 
-      delete bmlist;
+static void initParams(HoughParams& p, uint64_t imageA, int32_t width, uint64_t gradientDirImageA,
+    void* mask, int32_t maskw, int32_t maskh, int32_t maskcr, int32_t maskcc,
+    void* gradientDirMask, int32_t gdmaskw, int32_t gdmaskh, int32_t gdmaskcr, int32_t gdmaskcc,
+    float64_t gradientDirSlopDeg, float64_t quantFactor, int32_t hswidth, int32_t hsheight,
+    int32_t hsrowstart, int32_t hscolstart, int32_t colstart, int32_t colend, unsigned char EDGE)
+{
+  p.image = (unsigned char*)imageA;
+  p.width = width;
+  p.gradientDirImage = (unsigned char*)gradientDirImageA;
+  p.mask = (unsigned char*)mask;
+  p.maskw = maskw; p.maskh = maskh; p.maskcr = maskcr; p.maskcc = maskcc;
+  p.gradientDirMask = (unsigned char*)gradientDirMask;
+  p.gdmaskw = gdmaskw; p.gdmaskh = gdmaskh; p.gdmaskcr = gdmaskcr; p.gdmaskcc = gdmaskcc;
+  p.gradientDirSlopBytePM = (short)((1.0 + gradientDirSlopDeg * (256.0/360.0))/2.0);
+  p.quantFactor = quantFactor;
+  p.hswidth = hswidth; p.hsheight = hsheight;
+  p.hsrowstart = hsrowstart; p.hscolstart = hscolstart;
+  p.colstart = colstart; p.colend = colend;
+  p.EDGE = EDGE;
+}
+
+extern "C" {
+// 'ret' is the hswidth x hsheight part of the hough space starting at hsrowstart,hscolstart. Votes
+// outside of it are dropped and the hough space indexes in the back map are into 'ret'.
+KAI_EXPORT uint64_t pilecv4j_image_Transform_houghTransformNativeBackMap(uint64_t imageA, int32_t width, int32_t /*height*/, uint64_t gradientDirImageA,
+ void* mask, int32_t maskw, int32_t maskh, int32_t maskcr, int32_t maskcc,
+ void* gradientDirMask, int32_t gdmaskw, int32_t gdmaskh, int32_t gdmaskcr, int32_t gdmaskcc,
+ float64_t gradientDirSlopDeg, float64_t quantFactor, int16_t* ret, int32_t hswidth, int32_t hsheight,
+ int32_t hsrowstart, int32_t hscolstart, int32_t houghThreshold, int32_t rowstart, int32_t rowend, int32_t colstart, int32_t colend,
+ unsigned char EDGE, int32_t numThreads, int32_t* sizes)
+{
+  HoughParams p;
+  initParams(p, imageA, width, gradientDirImageA, mask, maskw, maskh, maskcr, maskcc,
+             gradientDirMask, gdmaskw, gdmaskh, gdmaskcr, gdmaskcc, gradientDirSlopDeg, quantFactor,
+             hswidth, hsheight, hsrowstart, hscolstart, colstart, colend, EDGE);
+
+  HoughBackMap* backMap = new HoughBackMap;
+  houghTransform(p, rowstart, rowend, numThreads, ret, backMap->offsets, backMap->contributors);
+
+  const int32_t hssize = hswidth * hsheight;
+  backMap->numContributors = 0;
+  for (int32_t hsindex = 0; hsindex < hssize; hsindex++)
+  {
+    const int32_t listcount = backMap->offsets[hsindex + 1] - backMap->offsets[hsindex];
+    if (listcount > 0 && listcount >= houghThreshold)
+    {
+      backMap->hsIndexes.push_back(hsindex);
+      backMap->numContributors += listcount;
     }
   }
 
-  delete [] backMapListSpace;
-  delete [] interimht;
+  sizes[0] = (int32_t)backMap->hsIndexes.size();
+  sizes[1] = backMap->numContributors;
+  return (uint64_t)backMap;
 }
 
+// Copy the back map into the (java) arrays which must be sized from the 'sizes' returned
+// from the transform. 'hsIndexes' gets the hough space index of each entry, 'offsets' (one
+// longer than 'hsIndexes') the index of the first contributor of each entry, and
+// 'contributors' the row,col pairs of the contributors.
+KAI_EXPORT void pilecv4j_image_Transform_copyBackMap(uint64_t backMapRef, int32_t* hsIndexes, int32_t* offsets, int32_t* contributors)
+{
+  const HoughBackMap* backMap = (const HoughBackMap*)backMapRef;
+  const size_t numEntries = backMap->hsIndexes.size();
+  int32_t next = 0;
+  for (size_t e = 0; e < numEntries; e++)
+  {
+    const int32_t hsindex = backMap->hsIndexes[e];
+    const int32_t first = backMap->offsets[hsindex];
+    const int32_t count = backMap->offsets[hsindex + 1] - first;
+    hsIndexes[e] = hsindex;
+    offsets[e] = next;
+    std::copy(backMap->contributors.begin() + 2 * (size_t)first,
+              backMap->contributors.begin() + 2 * (size_t)(first + count),
+              contributors + 2 * (size_t)next);
+    next += count;
+  }
+  offsets[numEntries] = next;
 }
 
+KAI_EXPORT void pilecv4j_image_Transform_freeBackMap(uint64_t backMapRef)
+{
+  delete (HoughBackMap*)backMapRef;
+}
+
+KAI_EXPORT void pilecv4j_image_Transform_houghTransformNative(uint64_t imageA, int32_t width, int32_t height, uint64_t gradientDirImageA,
+ void* mask, int32_t maskw, int32_t maskh, int32_t maskcr, int32_t maskcc,
+ void* gradientDirMask, int32_t gdmaskw, int32_t gdmaskh, int32_t gdmaskcr, int32_t gdmaskcc,
+ float64_t gradientDirSlopDeg, float64_t quantFactor, int16_t* ret, int32_t hswidth, int32_t hsheight,
+ AddHoughSpaceEntryContributorFunc hsem, int32_t houghThreshold, int32_t rowstart, int32_t rowend, int32_t colstart, int32_t colend,
+ unsigned char EDGE)
+{
+  int32_t sizes[2];
+  const HoughBackMap* backMap = (const HoughBackMap*)pilecv4j_image_Transform_houghTransformNativeBackMap(imageA, width, height,
+    gradientDirImageA, mask, maskw, maskh, maskcr, maskcc, gradientDirMask, gdmaskw, gdmaskh, gdmaskcr, gdmaskcc,
+    gradientDirSlopDeg, quantFactor, ret, hswidth, hsheight, 0, 0, houghThreshold, rowstart, rowend,
+    colstart, colend, EDGE, 1, sizes);
+
+  bool exceptionHappens = false;
+  for (size_t e = 0; e < backMap->hsIndexes.size() && !exceptionHappens; e++)
+  {
+    const int32_t hsindex = backMap->hsIndexes[e];
+    const int32_t hsr = hsindex / hswidth;
+    const int32_t hsc = hsindex % hswidth;
+    const int32_t hscount = (int32_t)ret[hsindex];
+    for (int32_t i = backMap->offsets[hsindex]; i < backMap->offsets[hsindex + 1] && !exceptionHappens; i++)
+      exceptionHappens = !((*hsem)(backMap->contributors[2 * (size_t)i],backMap->contributors[2 * (size_t)i + 1],hsr,hsc,hscount));
+  }
+
+  pilecv4j_image_Transform_freeBackMap((uint64_t)backMap);
+}
+
+}
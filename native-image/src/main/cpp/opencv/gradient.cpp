@@ -0,0 +1,97 @@
+#include <cmath>
+#include <cstdint>
+#include <opencv2/core.hpp>
+#include <opencv2/imgproc.hpp>
+
+#include "common/kog_exports.h"
+#include "utils/log.h"
+
+#define COMPONENT "GRAD"
+
+using namespace pilecv4j::image;
+
+namespace pilecv4j {
+namespace image {
+
+static const double _256Ov2Pi = (256.0 / (2.0 * CV_PI));
+
+// This needs to produce exactly what Operations.angle_byte in the java code does.
+static inline uint8_t angle_byte(double x, double y) {
+  double xu = std::abs(x);
+  double yu = std::abs(y);
+
+  if (xu == 0 && yu == 0)
+    return 0;
+
+  double ang = std::atan(yu / xu);
+  double ret;
+
+  if (x >= 0) {
+    if (y >= 0)
+      ret = ang;
+    else
+      ret = (2.0 * CV_PI - ang);
+  } else {
+    if (y >= 0)
+      ret = (CV_PI - ang);
+    else
+      ret = (CV_PI + ang);
+  }
+
+  int rret = (int)(0.5 + (ret * _256Ov2Pi));
+  if (rret >= 256)
+    rret = 0;
+
+  return (uint8_t)rret;
+}
+
+extern "C" {
+  // All of the destination Mats are (re)allocated only if they're not already the right size and type so
+  // passing the same ones on each call reuses their buffers. Returns 0 on failure.
+  KAI_EXPORT int32_t pilecv4j_image_Operations_gradientAndCanny(uint64_t grayImage, int32_t kernelSize, double tlow, double thigh,
+                                                                uint64_t dxRef, uint64_t dyRef, uint64_t gradientDirRef, uint64_t edgeRef) {
+    if (!grayImage || !dxRef || !dyRef || !gradientDirRef || !edgeRef) {
+      log(ERROR, COMPONENT, "NULL mat passed to gradientAndCanny.");
+      return 0;
+    }
+
+    cv::Mat& gray = *((cv::Mat*)grayImage);
+    cv::Mat& dx = *((cv::Mat*)dxRef);
+    cv::Mat& dy = *((cv::Mat*)dyRef);
+    cv::Mat& gradientDir = *((cv::Mat*)gradientDirRef);
+    cv::Mat& edge = *((cv::Mat*)edgeRef);
+
+    if (gray.empty() || gray.dims != 2 || gray.channels() != 1) {
+      log(ERROR, COMPONENT, "gradientAndCanny requires a non-empty single channel 2 dimensional image.");
+      return 0;
+    }
+
+    try {
+      cv::Sobel(gray, dx, CV_16S, 1, 0, kernelSize, 1.0, 0.0, cv::BORDER_REPLICATE);
+      cv::Sobel(gray, dy, CV_16S, 0, 1, kernelSize, 1.0, 0.0, cv::BORDER_REPLICATE);
+
+      // the gradient direction is computed in the same pass over dx/dy rather than having the
+      // java side copy them out and build the direction image on the heap.
+      const int rows = dx.rows;
+      const int cols = dx.cols;
+      gradientDir.create(rows, cols, CV_8UC1);
+      cv::parallel_for_(cv::Range(0, rows), [&](const cv::Range& range) {
+        for (int r = range.start; r < range.end; r++) {
+          const int16_t* dxrow = dx.ptr<int16_t>(r);
+          const int16_t* dyrow = dy.ptr<int16_t>(r);
+          uint8_t* dirrow = gradientDir.ptr<uint8_t>(r);
+          for (int c = 0; c < cols; c++)
+            dirrow[c] = angle_byte((double)dxrow[c], 0.0 - (double)dyrow[c]); // flip y axis.
+        }
+      });
+
+      cv::Canny(dx, dy, edge, tlow, thigh, true);
+    } catch (const cv::Exception& e) {
+      log(ERROR, COMPONENT, "gradientAndCanny failed: %s", e.what());
+      return 0;
+    }
+    return 1;
+  }
+}
+}
+}
@@ -13,8 +13,9 @@
 namespace pilecv4j {
 namespace nr {
 
-static char* errorText = NULL;
-static int errorHappens = 0;
+// These are per thread so concurrent minimizations don't see each other's errors.
+static thread_local char* errorText = NULL;
+static thread_local int errorHappens = 0;
   
 KAI_EXPORT void nrerror2(const char error_text[])
    /* Numerical Recipes standard error handler */